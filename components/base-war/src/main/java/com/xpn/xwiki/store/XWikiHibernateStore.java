@@ -22,6 +22,7 @@
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
@@ -48,6 +49,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -73,6 +75,7 @@
 import org.hibernate.cfg.Settings;
 import org.hibernate.connection.ConnectionProvider;
 import org.hibernate.impl.SessionFactoryImpl;
+import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.mapping.PersistentClass;
 import org.hibernate.mapping.Property;
 import org.slf4j.Logger;
@@ -116,9 +119,26 @@
 @Singleton
 public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWikiStoreInterface
 {
+    /**
+     * The xwiki.cfg parameter enabling the bulk loading of object properties: when enabled, all the properties of a
+     * document's objects are loaded with one query per property type, instead of one query per object and one per
+     * property. Disabled by default; set to {@code 1} to enable it.
+     */
+    private static final String BULK_OBJECT_LOADING_PARAMETER = "xwiki.store.hibernate.bulkObjectLoading";
+
+    /** Groups objects are loaded separately, with a dedicated query, so their properties are not preloaded. */
+    private static final String BULK_OBJECTS_FILTER = " and bobject.className <> 'XWiki.XWikiGroups'";
+
+    /** The name of the collection property holding the values of database list properties. */
+    private static final String LIST_PROPERTY = "list";
+
     @Inject
     private Logger logger;
 
+    @Inject
+    @Named("xwikicfg")
+    private Provider<ConfigurationSource> xwikicfgProvider;
+
     /**
      * QueryManager for this store.
      */
@@ -942,6 +962,11 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext inputxcontext)
                     DocumentReference groupsDocumentReference = new DocumentReference(context.getWikiId(),
                         localGroupEntityReference.getParent().getName(), localGroupEntityReference.getName());
 
+                    Map<Long, PreloadedProperties> preloadedProperties = null;
+                    if (isBulkObjectLoadingEnabled()) {
+                        preloadedProperties = preloadXWikiProperties(doc, session);
+                    }
+
                     boolean hasGroups = false;
                     while (it.hasNext()) {
                         BaseObject object = it.next();
@@ -975,6 +1000,9 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext inputxcontext)
                         if (classReference.equals(groupsDocumentReference)) {
                             // Groups objects are handled differently.
                             hasGroups = true;
+                        } else if (preloadedProperties != null) {
+                            loadXWikiCollectionInternal(object, doc, context, false, true,
+                                preloadedProperties.getOrDefault(object.getId(), new PreloadedProperties()));
                         } else {
                             loadXWikiCollectionInternal(object, doc, context, false, true);
                         }
@@ -1339,6 +1367,18 @@ private void loadXWikiCollectionInternal(BaseCollection object, XWikiContext con
 
     private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument doc, XWikiContext inputxcontext,
         boolean bTransaction, boolean alreadyLoaded) throws XWikiException
+    {
+        loadXWikiCollectionInternal(object1, doc, inputxcontext, bTransaction, alreadyLoaded, null);
+    }
+
+    /**
+     * Loads the properties of an object.
+     *
+     * @param preloaded the properties of the object already loaded by {@link #preloadXWikiProperties}, or {@code null}
+     *            if they must be queried now
+     */
+    private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument doc, XWikiContext inputxcontext,
+        boolean bTransaction, boolean alreadyLoaded, PreloadedProperties preloaded) throws XWikiException
     {
         XWikiContext context = getExecutionXContext(inputxcontext, true);
 
@@ -1399,63 +1439,32 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
 
                 // Load strings, integers, dates all at once
 
-                Query query = session
-                    .createQuery("select prop.name, prop.classType from BaseProperty as prop where prop.id.id = :id");
-                query.setLong("id", object.getId());
-                for (Object[] result : (List<Object[]>) query.list()) {
-                    String name = (String) result[0];
+                Map<String, String> propertyTypes;
+                if (preloaded != null) {
+                    propertyTypes = preloaded.types;
+                } else {
+                    propertyTypes = new LinkedHashMap<>();
+                    Query query = session.createQuery(
+                        "select prop.name, prop.classType from BaseProperty as prop where prop.id.id = :id");
+                    query.setLong("id", object.getId());
+                    for (Object[] result : (List<Object[]>) query.list()) {
+                        propertyTypes.put((String) result[0], (String) result[1]);
+                    }
+                }
+                for (Map.Entry<String, String> propertyType : propertyTypes.entrySet()) {
+                    String name = propertyType.getKey();
                     // No need to load fields already loaded from
                     // custom mapping
                     if (handledProps.contains(name)) {
                         continue;
                     }
-                    String classType = (String) result[1];
-                    BaseProperty property = null;
-
-                    try {
-                        property = (BaseProperty) Class.forName(classType).newInstance();
+                    BaseProperty property = (preloaded != null) ? preloaded.values.get(name) : null;
+                    if (property != null) {
                         property.setObject(object);
-                        property.setName(name);
-                        loadXWikiProperty(property, context, false);
-                    } catch (Exception e) {
-                        // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
-                        try {
-                            if (property instanceof StringProperty) {
-                                LargeStringProperty property2 = new LargeStringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof TextAreaClass) {
-                                        property = property2;
-                                    }
-                                }
-
-                            } else if (property instanceof LargeStringProperty) {
-                                StringProperty property2 = new StringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof StringClass) {
-                                        property = property2;
-                                    }
-                                }
-                            } else {
-                                throw e;
-                            }
-                        } catch (Throwable e2) {
-                            Object[] args =
-                                { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
-                            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
-                                "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
-                                e, args);
-                        }
+                        initializeLoadedProperty(property);
+                    } else {
+                        // Not preloaded, or stored in a different table than its declared type
+                        property = loadXWikiProperty(object, bclass, name, propertyType.getValue(), context);
                     }
 
                     object.addField(name, property);
@@ -1484,6 +1493,142 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
 
     }
 
+    private BaseProperty loadXWikiProperty(BaseCollection object, BaseClass bclass, String name, String classType,
+        XWikiContext context) throws XWikiException
+    {
+        BaseProperty property = null;
+        try {
+            property = (BaseProperty) Class.forName(classType).newInstance();
+            property.setObject(object);
+            property.setName(name);
+            loadXWikiProperty(property, context, false);
+        } catch (Exception e) {
+            // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
+            try {
+                if (property instanceof StringProperty) {
+                    LargeStringProperty property2 = new LargeStringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof TextAreaClass) {
+                            property = property2;
+                        }
+                    }
+
+                } else if (property instanceof LargeStringProperty) {
+                    StringProperty property2 = new StringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof StringClass) {
+                            property = property2;
+                        }
+                    }
+                } else {
+                    throw e;
+                }
+            } catch (Throwable e2) {
+                Object[] args =
+                    { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                    "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
+                    e, args);
+            }
+        }
+        return property;
+    }
+
+    private boolean isBulkObjectLoadingEnabled()
+    {
+        return this.xwikicfgProvider.get().getProperty(BULK_OBJECT_LOADING_PARAMETER, Boolean.FALSE);
+    }
+
+    /**
+     * Loads the properties of all the objects of a document with one query listing the properties, and one query per
+     * property type, instead of one query per object and one per property. Properties that can't be loaded this way
+     * are only listed, and will be loaded individually, like when bulk loading is disabled.
+     *
+     * @param doc the document whose objects are being loaded
+     * @param session the current session
+     * @return the loaded properties, grouped by object identifier; objects without any properties are not included
+     */
+    Map<Long, PreloadedProperties> preloadXWikiProperties(XWikiDocument doc, Session session)
+    {
+        long start = System.currentTimeMillis();
+        Map<Long, PreloadedProperties> result = new HashMap<>();
+        Query query = session.createQuery("select prop.id.id, prop.name, prop.classType from BaseProperty as prop, "
+            + "BaseObject as bobject where bobject.name = :name and bobject.id = prop.id.id"
+            + BULK_OBJECTS_FILTER);
+        query.setText("name", doc.getFullName());
+        Set<String> classTypes = new LinkedHashSet<>();
+        for (Object[] row : (List<Object[]>) query.list()) {
+            PreloadedProperties objectProperties = result.get(row[0]);
+            if (objectProperties == null) {
+                objectProperties = new PreloadedProperties();
+                result.put((Long) row[0], objectProperties);
+            }
+            objectProperties.types.put((String) row[1], (String) row[2]);
+            classTypes.add((String) row[2]);
+        }
+        int queries = 1;
+        for (String classType : classTypes) {
+            ClassMetadata metadata = session.getSessionFactory().getClassMetadata(classType);
+            if (metadata == null) {
+                // Not a mapped property type, these properties will be loaded individually
+                continue;
+            }
+            boolean hasList = ArrayUtils.contains(metadata.getPropertyNames(), LIST_PROPERTY)
+                && metadata.getPropertyType(LIST_PROPERTY).isCollectionType();
+            Query propertiesQuery = session.createQuery("select " + (hasList ? "distinct " : "") + "prop from "
+                + classType + " as prop" + (hasList ? " left join fetch prop.list" : "")
+                + " where prop.id.id in (select bobject.id from BaseObject as bobject where bobject.name = :name"
+                + BULK_OBJECTS_FILTER + ")");
+            propertiesQuery.setText("name", doc.getFullName());
+            ++queries;
+            for (Object loaded : propertiesQuery.list()) {
+                BaseProperty property = (BaseProperty) loaded;
+                PreloadedProperties objectProperties = result.get(property.getId());
+                // Only keep properties of the type they are declared with, the others need the mismatch workaround,
+                // which loads them again individually, and must not find them already attached to the session
+                if (objectProperties != null && classType.equals(objectProperties.types.get(property.getName()))) {
+                    objectProperties.values.put(property.getName(), property);
+                } else {
+                    session.evict(property);
+                }
+            }
+        }
+        this.logger.debug("Loaded the properties of [{}] objects of [{}] using [{}] queries in [{}] ms",
+            result.size(), doc.getDocumentReference(), queries, System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Performs the same initialization on a property loaded by a query as {@link #loadXWikiProperty} does.
+     *
+     * @param property the freshly loaded property
+     */
+    private void initializeLoadedProperty(BaseProperty property)
+    {
+        // In Oracle, empty string are converted to NULL
+        if (property instanceof BaseStringProperty) {
+            BaseStringProperty stringProperty = (BaseStringProperty) property;
+            if (stringProperty.getValue() == null) {
+                stringProperty.setValue("");
+            }
+        }
+        property.setValueDirty(false);
+        if (property instanceof ListProperty) {
+            ((ListProperty) property).getList();
+        }
+    }
+
     /**
      * @deprecated This is internal to XWikiHibernateStore and may be removed in the future.
      */
@@ -3234,4 +3379,30 @@ private XWikiAttachmentStoreInterface getXWikiAttachmentStoreInterface(XWikiAtta
 
         return this.attachmentContentStore;
     }
+
+    /** The properties of an object, as listed and loaded by {@link XWikiHibernateStore#preloadXWikiProperties}. */
+    static final class PreloadedProperties
+    {
+        /** The names and declared types of all the properties of the object, in the order they were listed. */
+        private final Map<String, String> types = new LinkedHashMap<>();
+
+        /** The properties that were loaded, by name. */
+        private final Map<String, BaseProperty> values = new HashMap<>();
+
+        /**
+         * @return the names and declared types of all the properties of the object, in the order they were listed
+         */
+        Map<String, String> getTypes()
+        {
+            return this.types;
+        }
+
+        /**
+         * @return the properties that were loaded, by name
+         */
+        Map<String, BaseProperty> getValues()
+        {
+            return this.values;
+        }
+    }
 }
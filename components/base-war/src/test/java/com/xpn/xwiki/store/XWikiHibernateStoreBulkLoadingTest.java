@@ -0,0 +1,241 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package com.xpn.xwiki.store;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.StringProperty;
+import com.xpn.xwiki.store.XWikiHibernateStore.PreloadedProperties;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the bulk loading of object properties in {@link XWikiHibernateStore}, enabled by the
+ * {@code xwiki.store.hibernate.bulkObjectLoading} configuration parameter.
+ *
+ * @version $Id$
+ */
+public class XWikiHibernateStoreBulkLoadingTest
+{
+    private static final String STRING_TYPE = StringProperty.class.getName();
+
+    private static final String INTEGER_TYPE = IntegerProperty.class.getName();
+
+    private static final String LIST_TYPE = DBStringListProperty.class.getName();
+
+    private static final String LISTING_STATEMENT = "select prop.id.id, prop.name, prop.classType ";
+
+    private XWikiHibernateStore store;
+
+    private Session session;
+
+    private SessionFactory sessionFactory;
+
+    private XWikiDocument doc;
+
+    @Before
+    public void setup()
+    {
+        this.store = new XWikiHibernateStore();
+        ReflectionUtils.setFieldValue(this.store, "logger", mock(Logger.class));
+
+        this.session = mock(Session.class);
+        this.sessionFactory = mock(SessionFactory.class);
+        when(this.session.getSessionFactory()).thenReturn(this.sessionFactory);
+        mockMetadata(STRING_TYPE, false);
+        mockMetadata(INTEGER_TYPE, false);
+        mockMetadata(LIST_TYPE, true);
+
+        this.doc = mock(XWikiDocument.class);
+        when(this.doc.getFullName()).thenReturn("data.P0000001");
+        when(this.doc.getDocumentReference()).thenReturn(new DocumentReference("xwiki", "data", "P0000001"));
+    }
+
+    @Test
+    public void propertiesOfMixedTypesAreAssignedToTheirObjects()
+    {
+        StringProperty firstName = property(new StringProperty(), 1, "first_name");
+        StringProperty lastName = property(new StringProperty(), 1, "last_name");
+        DBStringListProperty tags = property(new DBStringListProperty(), 1, "tags");
+        StringProperty otherName = property(new StringProperty(), 2, "first_name");
+        IntegerProperty age = property(new IntegerProperty(), 2, "age");
+        mockListing(
+            row(1, "first_name", STRING_TYPE),
+            row(1, "last_name", STRING_TYPE),
+            row(1, "tags", LIST_TYPE),
+            row(2, "first_name", STRING_TYPE),
+            row(2, "age", INTEGER_TYPE));
+        mockProperties(STRING_TYPE, firstName, lastName, otherName);
+        mockProperties(INTEGER_TYPE, age);
+        mockProperties(LIST_TYPE, tags);
+
+        Map<Long, PreloadedProperties> result = this.store.preloadXWikiProperties(this.doc, this.session);
+
+        Assert.assertEquals(2, result.size());
+        PreloadedProperties first = result.get(1L);
+        Assert.assertEquals(Arrays.asList("first_name", "last_name", "tags"),
+            new ArrayList<>(first.getTypes().keySet()));
+        Assert.assertSame(firstName, first.getValues().get("first_name"));
+        Assert.assertSame(lastName, first.getValues().get("last_name"));
+        Assert.assertSame(tags, first.getValues().get("tags"));
+        PreloadedProperties second = result.get(2L);
+        Assert.assertEquals(INTEGER_TYPE, second.getTypes().get("age"));
+        Assert.assertSame(otherName, second.getValues().get("first_name"));
+        Assert.assertSame(age, second.getValues().get("age"));
+        Assert.assertEquals(2, second.getValues().size());
+
+        // One query listing the properties, and one query per property type
+        verify(this.session, times(4)).createQuery(anyString());
+        verify(this.session).createQuery(contains("from " + LIST_TYPE + " as prop left join fetch prop.list"));
+        verify(this.session, never()).evict(any());
+    }
+
+    @Test
+    public void objectsWithoutPropertiesDontNeedQueries()
+    {
+        StringProperty name = property(new StringProperty(), 1, "first_name");
+        mockListing(row(1, "first_name", STRING_TYPE));
+        mockProperties(STRING_TYPE, name);
+
+        Map<Long, PreloadedProperties> result = this.store.preloadXWikiProperties(this.doc, this.session);
+
+        // Object 2 has no properties, it is not listed and will get an empty set of preloaded properties
+        Assert.assertEquals(Collections.singleton(1L), result.keySet());
+        Assert.assertNull(result.get(2L));
+        verify(this.session, times(2)).createQuery(anyString());
+    }
+
+    @Test
+    public void theNumberOfQueriesDoesntDependOnTheNumberOfObjects()
+    {
+        int objects = 50;
+        Object[][] rows = new Object[objects * 2][];
+        List<StringProperty> names = new ArrayList<>();
+        List<IntegerProperty> ages = new ArrayList<>();
+        for (int i = 0; i < objects; ++i) {
+            rows[2 * i] = row(i, "first_name", STRING_TYPE);
+            rows[2 * i + 1] = row(i, "age", INTEGER_TYPE);
+            names.add(property(new StringProperty(), i, "first_name"));
+            ages.add(property(new IntegerProperty(), i, "age"));
+        }
+        mockListing(rows);
+        mockProperties(STRING_TYPE, names.toArray(new BaseProperty[0]));
+        mockProperties(INTEGER_TYPE, ages.toArray(new BaseProperty[0]));
+
+        Map<Long, PreloadedProperties> result = this.store.preloadXWikiProperties(this.doc, this.session);
+
+        Assert.assertEquals(objects, result.size());
+        for (int i = 0; i < objects; ++i) {
+            Assert.assertSame(names.get(i), result.get((long) i).getValues().get("first_name"));
+            Assert.assertSame(ages.get(i), result.get((long) i).getValues().get("age"));
+        }
+        verify(this.session, times(3)).createQuery(anyString());
+    }
+
+    @Test
+    public void propertiesStoredWithAnotherTypeAreLeftForIndividualLoading()
+    {
+        // Declared as a number, but stored as a string, which needs the type mismatch workaround
+        StringProperty mismatched = property(new StringProperty(), 1, "age");
+        mockListing(row(1, "age", INTEGER_TYPE), row(1, "comments", "com.example.UnmappedProperty"));
+        mockProperties(INTEGER_TYPE, mismatched);
+
+        Map<Long, PreloadedProperties> result = this.store.preloadXWikiProperties(this.doc, this.session);
+
+        PreloadedProperties properties = result.get(1L);
+        Assert.assertEquals(2, properties.getTypes().size());
+        Assert.assertTrue(properties.getValues().isEmpty());
+        verify(this.session).evict(mismatched);
+        // Unmapped types are only listed
+        verify(this.session, times(2)).createQuery(anyString());
+    }
+
+    private void mockMetadata(String classType, boolean hasList)
+    {
+        ClassMetadata metadata = mock(ClassMetadata.class);
+        if (hasList) {
+            when(metadata.getPropertyNames()).thenReturn(new String[] { "list" });
+            Type listType = mock(Type.class);
+            when(listType.isCollectionType()).thenReturn(true);
+            when(metadata.getPropertyType("list")).thenReturn(listType);
+        } else {
+            when(metadata.getPropertyNames()).thenReturn(new String[] { "value" });
+        }
+        when(this.sessionFactory.getClassMetadata(classType)).thenReturn(metadata);
+    }
+
+    private void mockListing(Object[]... rows)
+    {
+        Query listing = query(Arrays.<Object>asList(rows));
+        when(this.session.createQuery(startsWith(LISTING_STATEMENT))).thenReturn(listing);
+    }
+
+    private void mockProperties(String classType, BaseProperty... properties)
+    {
+        Query propertiesQuery = query(Arrays.<Object>asList(properties));
+        when(this.session.createQuery(contains("from " + classType + " as prop"))).thenReturn(propertiesQuery);
+    }
+
+    private Query query(List<Object> results)
+    {
+        Query result = mock(Query.class);
+        when(result.list()).thenReturn(results);
+        return result;
+    }
+
+    private Object[] row(long objectId, String name, String classType)
+    {
+        return new Object[] { objectId, name, classType };
+    }
+
+    private <T extends BaseProperty> T property(T property, long objectId, String name)
+    {
+        property.setId(objectId);
+        property.setName(name);
+        return property;
+    }
+}
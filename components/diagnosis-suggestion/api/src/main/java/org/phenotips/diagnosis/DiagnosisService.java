@@ -22,7 +22,9 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service that suggests plausible diagnoses for a set of features.
@@ -44,4 +46,18 @@
      * @return a list of suggested diagnoses
      */
     List<VocabularyTerm> getDiagnosis(List<String> phenotypes, List<String> nonstandardPhenotypes, int limit);
+
+    /**
+     * Reports how the service performs.
+     *
+     * @return named counters and timings, such as the number of {@code requests} served, how many were
+     *         {@code cacheHits}, and the {@code averageMillis} and {@code maxMillis} time spent per request; may be
+     *         empty if the implementation doesn't collect statistics
+     * @since 1.5
+     */
+    @Unstable
+    default Map<String, Number> getStatistics()
+    {
+        return Collections.emptyMap();
+    }
 }
@@ -0,0 +1,385 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+
+import ontologizer.association.Association;
+import ontologizer.association.AssociationContainer;
+import ontologizer.association.Gene2Associations;
+import ontologizer.go.Ontology;
+import ontologizer.go.ParentTermID;
+import ontologizer.go.Term;
+import ontologizer.go.TermContainer;
+import ontologizer.go.TermID;
+import ontologizer.go.TermRelation;
+import ontologizer.types.ByteString;
+
+/**
+ * Compact binary copy of the data BOQA is set up with: the ontology terms with their parents, obsolete flag and
+ * alternative identifiers, and the disease annotations with their frequency and negation. Reading the snapshot is
+ * much faster, and needs much less memory, than parsing the bundled OBO and annotation files. The file starts with a
+ * header holding the version of the data it was built from, so an outdated snapshot is ignored, and is read through a
+ * memory mapping.
+ * <p>
+ * Layout, all numbers big-endian: the {@code int} magic number and format version, the {@code long} data version, a
+ * table of distinct strings ({@code int} count, then each string as an {@code int} byte length followed by its UTF-8
+ * bytes), the terms ({@code int} count, then for each term the {@code int} string indexes of its identifier and name,
+ * the {@code boolean} obsolete flag, its {@code int} number of alternative identifiers, each as an {@code int} string
+ * index, and its {@code int} number of parents, each as the {@code int} string index of the parent identifier and the
+ * {@code byte} ordinal of the relation), and the annotated items ({@code int} count, then for each item the
+ * {@code int} string index of its symbol, and the {@code int} number of annotations, each as the {@code int} string
+ * index of the annotated term identifier, the {@code boolean} NOT qualifier, and the {@code int} string index of the
+ * aspect, which holds the frequency of the phenotype in the HPO annotations).
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class BoqaDataSnapshot
+{
+    private static final int MAGIC = 0x42514144;
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final TermRelation[] RELATIONS = TermRelation.values();
+
+    /** The number of fields of an annotation line in the GAF format. */
+    private static final int GAF_FIELDS = 15;
+
+    private static final int GAF_SYMBOL = 2;
+
+    private static final int GAF_QUALIFIER = 3;
+
+    private static final int GAF_TERM = 4;
+
+    private static final int GAF_ASPECT = 8;
+
+    private static final String NOT_QUALIFIER = "NOT";
+
+    private final File file;
+
+    private final Logger logger;
+
+    private Ontology graph;
+
+    private AssociationContainer dataAssociation;
+
+    /**
+     * Simple constructor.
+     *
+     * @param file where the snapshot is stored
+     * @param logger where to log failures
+     */
+    public BoqaDataSnapshot(File file, Logger logger)
+    {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Computes the version of the bundled data files, as a checksum of their content.
+     *
+     * @param sources the content of the data files, closed after reading
+     * @return a checksum identifying the data
+     * @throws IOException if reading the data fails
+     */
+    public static long computeDataVersion(InputStream... sources) throws IOException
+    {
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        for (InputStream source : sources) {
+            if (source == null) {
+                throw new IOException("Missing BOQA data file");
+            }
+            try (InputStream in = source) {
+                int read = in.read(buffer);
+                while (read >= 0) {
+                    checksum.update(buffer, 0, read);
+                    read = in.read(buffer);
+                }
+            }
+        }
+        return (long) FORMAT_VERSION << 32 | checksum.getValue();
+    }
+
+    /**
+     * Loads the snapshot, if it exists and it was built from the expected data.
+     *
+     * @param dataVersion the version of the current data, as returned by {@link #computeDataVersion}
+     * @return {@code true} if the snapshot was loaded, {@code false} if it is missing, outdated or unreadable
+     */
+    public boolean load(long dataVersion)
+    {
+        if (!this.file.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getLong() != dataVersion) {
+                this.logger.info("The BOQA data snapshot [{}] is outdated", this.file);
+                return false;
+            }
+            String[] strings = readStrings(buffer);
+            Ontology loadedGraph = readGraph(buffer, strings);
+            this.dataAssociation = readAssociations(buffer, strings);
+            this.graph = loadedGraph;
+            return true;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException ex) {
+            this.logger.warn("Failed to read the BOQA data snapshot [{}]: {}", this.file, ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes a new snapshot, replacing the previous one.
+     *
+     * @param dataVersion the version of the data, as returned by {@link #computeDataVersion}
+     * @param ontology the ontology to save
+     * @param associations the annotations to save
+     * @throws IOException if writing the snapshot fails
+     */
+    public void save(long dataVersion, Ontology ontology, AssociationContainer associations) throws IOException
+    {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringTable = new ArrayList<>();
+        List<Term> terms = new ArrayList<>();
+        for (Term term : ontology) {
+            terms.add(term);
+        }
+        List<ByteString> items = new ArrayList<>(associations.getAllAnnotatedGenes());
+
+        File parent = this.file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        File temp = File.createTempFile("boqa", ".tmp", parent);
+        try {
+            // The string table comes first in the file, but it is only known after going through all the data
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(1024 * 1024);
+            DataOutputStream body = new DataOutputStream(bodyBytes);
+            writeTerms(body, terms, strings, stringTable);
+            writeAssociations(body, items, associations, strings, stringTable);
+            body.flush();
+            try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(dataVersion);
+                out.writeInt(stringTable.size());
+                for (String string : stringTable) {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                bodyBytes.writeTo(out);
+            }
+            Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        this.graph = ontology;
+        this.dataAssociation = associations;
+    }
+
+    /**
+     * The ontology read from or written to the snapshot.
+     *
+     * @return the ontology graph, {@code null} if the snapshot wasn't loaded or saved
+     */
+    public Ontology getGraph()
+    {
+        return this.graph;
+    }
+
+    /**
+     * The annotations read from or written to the snapshot.
+     *
+     * @return the association container, {@code null} if the snapshot wasn't loaded or saved
+     */
+    public AssociationContainer getDataAssociation()
+    {
+        return this.dataAssociation;
+    }
+
+    private void writeTerms(DataOutputStream out, List<Term> terms, Map<String, Integer> strings,
+        List<String> stringTable) throws IOException
+    {
+        out.writeInt(terms.size());
+        for (Term term : terms) {
+            out.writeInt(intern(term.getIDAsString(), strings, stringTable));
+            out.writeInt(intern(term.getName(), strings, stringTable));
+            out.writeBoolean(term.isObsolete());
+            List<TermID> alternatives = term.getAlternatives();
+            out.writeInt(alternatives == null ? 0 : alternatives.size());
+            if (alternatives != null) {
+                for (TermID alternative : alternatives) {
+                    out.writeInt(intern(alternative.toString(), strings, stringTable));
+                }
+            }
+            ParentTermID[] parents = term.getParents();
+            out.writeInt(parents.length);
+            for (ParentTermID parent : parents) {
+                out.writeInt(intern(parent.termid.toString(), strings, stringTable));
+                out.writeByte(parent.relation.ordinal());
+            }
+        }
+    }
+
+    private void writeAssociations(DataOutputStream out, List<ByteString> items, AssociationContainer associations,
+        Map<String, Integer> strings, List<String> stringTable) throws IOException
+    {
+        out.writeInt(items.size());
+        for (ByteString item : items) {
+            List<Association> annotations = new ArrayList<>();
+            Gene2Associations itemAssociations = associations.get(item);
+            if (itemAssociations != null) {
+                for (Association association : itemAssociations) {
+                    annotations.add(association);
+                }
+            }
+            out.writeInt(intern(item.toString(), strings, stringTable));
+            out.writeInt(annotations.size());
+            for (Association association : annotations) {
+                out.writeInt(intern(association.getTermID().toString(), strings, stringTable));
+                out.writeBoolean(association.hasNotQualifier());
+                out.writeInt(intern(toString(association.getAspect()), strings, stringTable));
+            }
+        }
+    }
+
+    private static String toString(ByteString value)
+    {
+        return value == null ? null : value.toString();
+    }
+
+    private static int intern(String value, Map<String, Integer> strings, List<String> stringTable)
+    {
+        String key = value == null ? "" : value;
+        Integer index = strings.get(key);
+        if (index == null) {
+            index = stringTable.size();
+            strings.put(key, index);
+            stringTable.add(key);
+        }
+        return index;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer)
+    {
+        String[] result = new String[buffer.getInt()];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < result.length; ++i) {
+            int length = buffer.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+            buffer.get(bytes, 0, length);
+            result[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    private static Ontology readGraph(ByteBuffer buffer, String[] strings)
+    {
+        int count = buffer.getInt();
+        Set<Term> terms = new LinkedHashSet<>(count * 4 / 3 + 1);
+        Map<String, TermID> ids = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; ++i) {
+            String id = strings[buffer.getInt()];
+            String name = strings[buffer.getInt()];
+            boolean obsolete = buffer.get() != 0;
+            int alternativesCount = buffer.getInt();
+            ArrayList<TermID> alternatives = new ArrayList<>(alternativesCount);
+            for (int j = 0; j < alternativesCount; ++j) {
+                alternatives.add(ids.computeIfAbsent(strings[buffer.getInt()], TermID::new));
+            }
+            ParentTermID[] parents = new ParentTermID[buffer.getInt()];
+            for (int j = 0; j < parents.length; ++j) {
+                TermID parent = ids.computeIfAbsent(strings[buffer.getInt()], TermID::new);
+                parents[j] = new ParentTermID(parent, RELATIONS[buffer.get()]);
+            }
+            Term term = new Term(id, name, parents);
+            term.setObsolete(obsolete);
+            if (!alternatives.isEmpty()) {
+                term.setAlternatives(alternatives);
+            }
+            terms.add(term);
+        }
+        return new Ontology(new TermContainer(terms, "", ""));
+    }
+
+    private static AssociationContainer readAssociations(ByteBuffer buffer, String[] strings) throws IOException
+    {
+        AssociationContainer result = new AssociationContainer();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; ++i) {
+            String item = strings[buffer.getInt()];
+            int annotations = buffer.getInt();
+            for (int j = 0; j < annotations; ++j) {
+                String termId = strings[buffer.getInt()];
+                boolean not = buffer.get() != 0;
+                String aspect = strings[buffer.getInt()];
+                result.addAssociation(createAssociation(item, termId, not, aspect));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates an association the same way the annotation file is parsed, from a line in the GAF format, so that the
+     * NOT qualifier and the aspect, holding the frequency, are set like in the original associations.
+     */
+    private static Association createAssociation(String item, String termId, boolean not, String aspect)
+        throws IOException
+    {
+        String[] fields = new String[GAF_FIELDS];
+        Arrays.fill(fields, "");
+        fields[GAF_SYMBOL] = item;
+        fields[GAF_QUALIFIER] = not ? NOT_QUALIFIER : "";
+        fields[GAF_TERM] = termId;
+        fields[GAF_ASPECT] = aspect;
+        try {
+            return Association.createFromGAFLine(String.join("\t", fields));
+        } catch (Exception ex) {
+            throw new IOException("Invalid annotation of [" + item + "] with [" + termId + "]", ex);
+        }
+    }
+}
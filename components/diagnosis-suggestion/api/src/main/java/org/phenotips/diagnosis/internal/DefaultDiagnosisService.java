@@ -21,9 +21,14 @@
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 
 import java.io.File;
@@ -33,20 +38,24 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
+import ontologizer.association.AssociationContainer;
+import ontologizer.go.Ontology;
 import ontologizer.go.Term;
 import ontologizer.types.ByteString;
 import sonumina.boqa.calculation.BOQA;
@@ -54,7 +63,11 @@
 
 /**
  * An implementation of {@link DiagnosisService} using BOQA, see
- * <a href="http://bioinformatics.oxfordjournals.org/content/28/19/2502.abstract">this article</a>.
+ * <a href="http://bioinformatics.oxfordjournals.org/content/28/19/2502.abstract">this article</a>. The bundled
+ * ontology and annotation files are only parsed when they change, otherwise BOQA is set up from a
+ * {@link BoqaDataSnapshot} kept in the permanent directory. Marginals are computed on several threads, configured with
+ * {@code phenotips.diagnosis.threads}, and recent results are cached, keyed by the canonical set of requested
+ * phenotypes.
  *
  * @since 1.1M1
  * @version $Id$
@@ -63,6 +76,18 @@
 @Component
 public class DefaultDiagnosisService implements DiagnosisService, Initializable
 {
+    /** Diseases whose name starts with one of these symbols are not suggested. */
+    private static final String IGNORED_DISEASES = "*+^";
+
+    private static final String OMIM_PREFIX = "OMIM:";
+
+    private static final String ANNOTATION_FILE = "new_phenotype.gz";
+
+    private static final String VOCABULARY_FILE = "hp.obo.gz";
+
+    /** Where the parsed data files are kept, in the permanent directory. */
+    private static final String SNAPSHOT_FILE = "boqa/data.snapshot";
+
     @Inject
     private Logger logger;
 
@@ -79,6 +104,38 @@ public class DefaultDiagnosisService implements DiagnosisService, Initializable
     @Inject
     private Utils utils;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    /** Recent results, keyed by the limit and the sorted indexes of the requested phenotypes. */
+    private Cache<List<VocabularyTerm>> cache;
+
+    /** How many threads are used for computing the marginals of a single request. */
+    private int threads;
+
+    /** The observations array of each thread, reused between requests. */
+    private ThreadLocal<boolean[]> observations;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong computations = new AtomicLong();
+
+    private final AtomicLong totalTime = new AtomicLong();
+
+    private final LongAccumulator maxTime = new LongAccumulator(Math::max, 0);
+
+    private final AtomicLong totalComputeTime = new AtomicLong();
+
+    private final LongAccumulator maxComputeTime = new LongAccumulator(Math::max, 0);
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -92,14 +149,56 @@ public void initialize() throws InitializationException
         this.boqa.setMaxFrequencyTerms(2);
         this.boqa.setPrecalculateJaccard(false);
 
+        Ontology graph;
+        AssociationContainer dataAssociation;
+        BoqaDataSnapshot snapshot = getSnapshot();
+        long dataVersion = snapshot == null ? 0 : getDataVersion();
+        if (snapshot != null && dataVersion != 0 && snapshot.load(dataVersion)) {
+            graph = snapshot.getGraph();
+            dataAssociation = snapshot.getDataAssociation();
+        } else {
+            loadDataFiles();
+            graph = this.utils.getGraph();
+            dataAssociation = this.utils.getDataAssociation();
+            if (snapshot != null && dataVersion != 0) {
+                try {
+                    snapshot.save(dataVersion, graph, dataAssociation);
+                } catch (IOException | RuntimeException ex) {
+                    this.logger.warn("Failed to save the BOQA data snapshot: {}", ex.getMessage());
+                }
+            }
+        }
+
+        this.boqa.setup(graph, dataAssociation);
+
+        // Set up our index -> OMIM mapping by flipping the OMIM -> Index mapping in boqa
+        Set<Map.Entry<ByteString, Integer>> omimtonum = this.boqa.item2Index.entrySet();
+        this.omimMap = new HashMap<>(omimtonum.size());
+
+        for (Map.Entry<ByteString, Integer> item : omimtonum) {
+            this.omimMap.put(item.getValue(), item.getKey());
+        }
+
+        int numberOfTerms = this.boqa.getOntology().getNumberOfTerms();
+        this.observations = ThreadLocal.withInitial(() -> new boolean[numberOfTerms]);
+        this.threads = getConfiguredNumber("phenotips.diagnosis.threads", Runtime.getRuntime().availableProcessors());
+        try {
+            this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("diagnosisSuggestions",
+                getConfiguredNumber("phenotips.diagnosis.cacheSize", 1000), 3600));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the diagnosis cache", ex);
+        }
+    }
+
+    private void loadDataFiles() throws InitializationException
+    {
         String annotationPath = null;
         String vocabularyPath = null;
         try {
-            annotationPath =
-                stream2file(BOQA.class.getClassLoader().getResourceAsStream("new_phenotype.gz"), "annotation")
-                    .getPath();
+            annotationPath = stream2file(BOQA.class.getClassLoader().getResourceAsStream(ANNOTATION_FILE),
+                "annotation").getPath();
             vocabularyPath =
-                stream2file(BOQA.class.getClassLoader().getResourceAsStream("hp.obo.gz"), "ontology").getPath();
+                stream2file(BOQA.class.getClassLoader().getResourceAsStream(VOCABULARY_FILE), "ontology").getPath();
         } catch (IOException e) {
             throw new InitializationException(e.getMessage());
         }
@@ -112,15 +211,28 @@ public void initialize() throws InitializationException
         } catch (IOException e) {
             throw new InitializationException(e.getMessage());
         }
+    }
 
-        this.boqa.setup(this.utils.getGraph(), this.utils.getDataAssociation());
-
-        // Set up our index -> OMIM mapping by flipping the OMIM -> Index mapping in boqa
-        Set<Map.Entry<ByteString, Integer>> omimtonum = this.boqa.item2Index.entrySet();
-        this.omimMap = new HashMap<>(omimtonum.size());
+    private BoqaDataSnapshot getSnapshot()
+    {
+        File directory = this.env.getPermanentDirectory();
+        return directory == null ? null : new BoqaDataSnapshot(new File(directory, SNAPSHOT_FILE), this.logger);
+    }
 
-        for (Map.Entry<ByteString, Integer> item : omimtonum) {
-            this.omimMap.put(item.getValue(), item.getKey());
+    /**
+     * Computes the version of the bundled data files, used for checking if the snapshot is up to date.
+     *
+     * @return a checksum of the data files, or {@code 0} if they cannot be read
+     */
+    private long getDataVersion()
+    {
+        ClassLoader loader = BOQA.class.getClassLoader();
+        try {
+            return BoqaDataSnapshot.computeDataVersion(loader.getResourceAsStream(ANNOTATION_FILE),
+                loader.getResourceAsStream(VOCABULARY_FILE));
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the BOQA data files: {}", ex.getMessage());
+            return 0;
         }
     }
 
@@ -129,96 +241,143 @@ public List<VocabularyTerm> getDiagnosis(List<String> phenotypes, List<String> n
     {
         // TODO: use the `nonstandardPhenotypes` argument
 
-        Observations o = new Observations();
-        o.observations = new boolean[this.boqa.getOntology().getNumberOfTerms()];
-        boolean searchIsEmpty = true;
+        long start = System.nanoTime();
+        this.requests.incrementAndGet();
+        try {
+            int[] terms = getTermIndexes(phenotypes);
+            if (terms.length == 0) {
+                return Collections.emptyList();
+            }
 
-        // Add all hpo terms with ancestors to array of booleans
-        for (String hpo : phenotypes) {
-            Term t = this.boqa.getOntology().getTerm(hpo);
-            searchIsEmpty = !addTermAndAncestors(t, o) && searchIsEmpty;
+            // The same phenotypes listed in a different order, repeated, or together with invalid terms, share the key
+            String key = limit + "|" + StringUtils.join(terms, ',');
+            List<VocabularyTerm> results = this.cache.get(key);
+            if (results != null) {
+                this.cacheHits.incrementAndGet();
+                return results;
+            }
+
+            long computeStart = System.nanoTime();
+            results = Collections.unmodifiableList(computeDiagnosis(terms, limit));
+            long computeTime = System.nanoTime() - computeStart;
+            this.computations.incrementAndGet();
+            this.totalComputeTime.addAndGet(computeTime);
+            this.maxComputeTime.accumulate(computeTime);
+            this.cache.set(key, results);
+
+            this.logger.debug(String.valueOf(results));
+            return results;
+        } finally {
+            long time = System.nanoTime() - start;
+            this.totalTime.addAndGet(time);
+            this.maxTime.accumulate(time);
         }
+    }
+
+    @Override
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> result = new LinkedHashMap<>();
+        long requestCount = this.requests.get();
+        long computationCount = this.computations.get();
+        long uptime = System.currentTimeMillis() - this.startTime;
+        result.put("requests", requestCount);
+        result.put("cacheHits", this.cacheHits.get());
+        result.put("computations", computationCount);
+        result.put("threads", this.threads);
+        result.put("requestsPerMinute", uptime > 0 ? requestCount * 60000 / uptime : 0L);
+        result.put("averageMillis", toMillis(this.totalTime.get(), requestCount));
+        result.put("maxMillis", toMillis(this.maxTime.get(), 1));
+        result.put("averageComputeMillis", toMillis(this.totalComputeTime.get(), computationCount));
+        result.put("maxComputeMillis", toMillis(this.maxComputeTime.get(), 1));
+        return result;
+    }
 
-        if (searchIsEmpty) {
-            return Collections.emptyList();
+    private List<VocabularyTerm> computeDiagnosis(int[] terms, int limit)
+    {
+        // Add all hpo terms with ancestors to array of booleans, reusing the array of the current thread
+        Observations o = new Observations();
+        o.observations = this.observations.get();
+        Arrays.fill(o.observations, false);
+        for (int id : terms) {
+            o.observations[id] = true;
+            this.boqa.activateAncestors(id, o.observations);
         }
 
         // Get marginals
-        final BOQA.Result res = this.boqa.assignMarginals(o, false, 1);
-
-        // All of this is sorting diseases by marginals
-        Integer[] order = new Integer[res.size()];
-        for (int i = 0; i < order.length; i++) {
-            order[i] = i;
+        BOQA.Result res = this.boqa.assignMarginals(o, false, this.threads);
+        double[] marginals = new double[res.size()];
+        for (int i = 0; i < marginals.length; i++) {
+            marginals[i] = res.getMarginal(i);
         }
 
-        Arrays.sort(order, new Comparator<Integer>()
-        {
-            @Override
-            public int compare(Integer o1, Integer o2)
-            {
-                if (res.getMarginal(o1) < res.getMarginal(o2)) {
-                    return 1;
-                }
-                if (res.getMarginal(o1) > res.getMarginal(o2)) {
-                    return -1;
+        // Get top limit results, ranking and resolving only as many candidates as needed
+        MarginalRanking ranking = new MarginalRanking(marginals);
+        List<VocabularyTerm> results = new ArrayList<>(limit);
+        while (results.size() < limit && ranking.hasNext()) {
+            List<String> candidates = new ArrayList<>();
+            while (candidates.size() < limit - results.size() && ranking.hasNext()) {
+                String termId = String.valueOf(this.omimMap.get(ranking.next()));
+                // ignore non-OMIM diseases (BOQA has ORPHANET and DECIPHER as well)
+                if (termId.startsWith(OMIM_PREFIX)) {
+                    // Strip 'O' in "OMIM"
+                    candidates.add(termId.substring(1));
                 }
-                return 0;
-            }
-        });
-
-        // Get top limit results
-        List<VocabularyTerm> results = new ArrayList<>();
-        for (int id : order) {
-            if (results.size() >= limit) {
-                break;
             }
 
-            String termId = String.valueOf(this.omimMap.get(id));
-            String vocabularyId = StringUtils.substringBefore(termId, ":");
-
-            // ignore non-OMIM diseases (BOQA has ORPHANET and DECIPHER as well)
-            if (!"OMIM".equals(vocabularyId)) {
-                continue;
-            }
+            Map<String, VocabularyTerm> resolved = this.vocabulary.resolveTerms(candidates);
+            for (String termId : candidates) {
+                VocabularyTerm term = resolved.get(termId);
 
-            // Strip 'O' in "OMIM"
-            termId = termId.substring(1);
+                if (term == null) {
+                    this.logger.warn(String.format(
+                        "Unable to resolve OMIM term '%s' due to outdated OMIM vocabulary.", termId));
+                    continue;
+                }
 
-            VocabularyTerm term = this.vocabulary.resolveTerm(termId);
+                // Do not suggest diseases that start with *, +, and ^
+                String name = term.getName();
+                if (StringUtils.isNotEmpty(name) && IGNORED_DISEASES.indexOf(name.charAt(0)) >= 0) {
+                    continue;
+                }
 
-            if (term == null) {
-                this.logger.warn(String.format(
-                    "Unable to resolve OMIM term '%s' due to outdated OMIM vocabulary.", termId));
-                continue;
+                results.add(term);
             }
+        }
+        return results;
+    }
 
-            // Do not suggest diseases that start with *, +, and ^
-            Pattern pattern = Pattern.compile("[*+^]");
-            if (pattern.matcher(term.getName().substring(0, 1)).matches()) {
-                continue;
+    /**
+     * Finds the BOQA indexes of the valid phenotypes.
+     *
+     * @param phenotypes a list of phenotype term IDs
+     * @return the sorted, distinct indexes of the phenotypes known to BOQA, may be empty
+     */
+    private int[] getTermIndexes(List<String> phenotypes)
+    {
+        int[] result = new int[phenotypes.size()];
+        int count = 0;
+        for (String hpo : phenotypes) {
+            Term t = this.boqa.getOntology().getTerm(hpo);
+            try {
+                result[count] = this.boqa.getTermIndex(t);
+                ++count;
+            } catch (Exception e) {
+                this.logger.warn("Unable to find the boqa index of [{}].", t);
             }
-
-            results.add(term);
-
         }
+        return Arrays.stream(result, 0, count).sorted().distinct().toArray();
+    }
 
-        this.logger.debug(String.valueOf(results));
-
-        return results;
+    private int getConfiguredNumber(String name, int defaultValue)
+    {
+        Integer value = this.configuration.getProperty(name, Integer.class);
+        return value != null && value > 0 ? value : defaultValue;
     }
 
-    private boolean addTermAndAncestors(Term t, Observations o)
+    private static double toMillis(long nanos, long count)
     {
-        try {
-            int id = this.boqa.getTermIndex(t);
-            o.observations[id] = true;
-            this.boqa.activateAncestors(id, o.observations);
-        } catch (Exception e) {
-            this.logger.warn("Unable to find the boqa index of [{}].", t);
-            return false;
-        }
-        return true;
+        return count > 0 ? nanos / 1e6 / count : 0;
     }
 
     /**
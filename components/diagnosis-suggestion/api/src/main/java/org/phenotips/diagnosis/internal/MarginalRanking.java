@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.internal;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Lists the indexes of an array of scores in decreasing order of their score, without boxing or sorting the whole
+ * array. The indexes are kept in a binary heap built in linear time, and each call to {@link #next()} only takes a
+ * logarithmic time, so retrieving the top {@code k} out of {@code n} candidates costs {@code O(n + k log n)}. Indexes
+ * with the same score are listed in increasing order.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class MarginalRanking
+{
+    private final double[] scores;
+
+    private final int[] heap;
+
+    private int size;
+
+    /**
+     * Simple constructor.
+     *
+     * @param scores the scores to rank; the array is not copied, and must not be changed while ranking
+     */
+    public MarginalRanking(double[] scores)
+    {
+        this.scores = scores;
+        this.size = scores.length;
+        this.heap = new int[this.size];
+        for (int i = 0; i < this.size; ++i) {
+            this.heap[i] = i;
+        }
+        for (int i = this.size / 2 - 1; i >= 0; --i) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Checks if there are more indexes to list.
+     *
+     * @return {@code true} if {@link #next()} can be called
+     */
+    public boolean hasNext()
+    {
+        return this.size > 0;
+    }
+
+    /**
+     * Gets the index with the highest score among the ones not listed yet.
+     *
+     * @return an index in the scores array
+     * @throws NoSuchElementException if all the indexes have already been listed
+     */
+    public int next()
+    {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        int result = this.heap[0];
+        this.heap[0] = this.heap[--this.size];
+        siftDown(0);
+        return result;
+    }
+
+    private void siftDown(int position)
+    {
+        int current = position;
+        int item = this.heap[current];
+        while (true) {
+            int child = 2 * current + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && before(this.heap[child + 1], this.heap[child])) {
+                ++child;
+            }
+            if (!before(this.heap[child], item)) {
+                break;
+            }
+            this.heap[current] = this.heap[child];
+            current = child;
+        }
+        this.heap[current] = item;
+    }
+
+    private boolean before(int a, int b)
+    {
+        return this.scores[a] > this.scores[b] || (!(this.scores[a] < this.scores[b]) && a < b);
+    }
+}
@@ -22,8 +22,10 @@
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.stability.Unstable;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -57,4 +59,16 @@ public List<VocabularyTerm> get(List<String> phenotypes, List<String> nonstandar
     {
         return this.service.getDiagnosis(phenotypes, nonstandardPhenotypes, limit);
     }
+
+    /**
+     * Reports the throughput and latency of the diagnosis service.
+     *
+     * @return named counters and timings, see {@link DiagnosisService#getStatistics()}
+     * @since 1.5
+     */
+    @Unstable
+    public Map<String, Number> getStatistics()
+    {
+        return this.service.getStatistics();
+    }
 }
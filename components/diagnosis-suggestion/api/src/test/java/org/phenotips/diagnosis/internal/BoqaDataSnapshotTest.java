@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.internal;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import ontologizer.association.Association;
+import ontologizer.association.AssociationContainer;
+import ontologizer.go.Ontology;
+import ontologizer.go.ParentTermID;
+import ontologizer.go.Term;
+import ontologizer.go.TermID;
+import ontologizer.types.ByteString;
+import sonumina.boqa.calculation.BOQA;
+import sonumina.boqa.calculation.Observations;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link BoqaDataSnapshot}.
+ *
+ * @version $Id$
+ */
+public class BoqaDataSnapshotTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<Utils> mocker = new MockitoComponentMockingRule<>(BoqaUtils.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** How many patients are diagnosed with both setups. */
+    private static final int SAMPLE_PATIENTS = 20;
+
+    /** How many of the top diseases are compared. */
+    private static final int RANKING_SIZE = 20;
+
+    private final Logger logger = mock(Logger.class);
+
+    private Utils utils;
+
+    private File file;
+
+    @Before
+    public void setup() throws ComponentLookupException, IOException
+    {
+        Environment env = this.mocker.getInstance(Environment.class);
+        doReturn(this.folder.newFolder("tmp")).when(env).getTemporaryDirectory();
+        this.utils = this.mocker.getComponentUnderTest();
+        this.file = new File(this.folder.getRoot(), "boqa/data.snapshot");
+    }
+
+    @Test
+    public void snapshotPreservesOntologyAndAnnotations() throws Exception
+    {
+        saveSnapshot();
+
+        BoqaDataSnapshot snapshot = new BoqaDataSnapshot(this.file, this.logger);
+        Assert.assertTrue(snapshot.load(42));
+
+        Ontology original = this.utils.getGraph();
+        Ontology loaded = snapshot.getGraph();
+        Assert.assertEquals(original.getNumberOfTerms(), loaded.getNumberOfTerms());
+        for (Term term : original) {
+            Term copy = loaded.getTerm(term.getIDAsString());
+            Assert.assertNotNull(copy);
+            Assert.assertEquals(term.getName(), copy.getName());
+            Assert.assertEquals(term.isObsolete(), copy.isObsolete());
+            Assert.assertEquals(alternativesOf(term), alternativesOf(copy));
+            Assert.assertEquals(term.getParents().length, copy.getParents().length);
+            for (int i = 0; i < term.getParents().length; ++i) {
+                ParentTermID parent = term.getParents()[i];
+                Assert.assertEquals(parent.termid, copy.getParents()[i].termid);
+                Assert.assertEquals(parent.relation, copy.getParents()[i].relation);
+            }
+        }
+
+        AssociationContainer originalAssociations = this.utils.getDataAssociation();
+        AssociationContainer loadedAssociations = snapshot.getDataAssociation();
+        Assert.assertEquals(originalAssociations.getAllAnnotatedGenes(), loadedAssociations.getAllAnnotatedGenes());
+        for (ByteString item : originalAssociations.getAllAnnotatedGenes()) {
+            Assert.assertEquals(annotationsOf(originalAssociations, item), annotationsOf(loadedAssociations, item));
+        }
+    }
+
+    @Test
+    public void snapshotGivesSameDiagnosisSetup() throws Exception
+    {
+        saveSnapshot();
+        BoqaDataSnapshot snapshot = new BoqaDataSnapshot(this.file, this.logger);
+        Assert.assertTrue(snapshot.load(42));
+
+        BOQA original = createBoqa();
+        original.setup(this.utils.getGraph(), this.utils.getDataAssociation());
+        BOQA loaded = createBoqa();
+        loaded.setup(snapshot.getGraph(), snapshot.getDataAssociation());
+        Assert.assertEquals(original.item2Index.keySet(), loaded.item2Index.keySet());
+        Assert.assertEquals(original.getOntology().getNumberOfTerms(), loaded.getOntology().getNumberOfTerms());
+
+        // Sample patients, each with the phenotypes of one of the diseases
+        List<ByteString> items = new ArrayList<>(this.utils.getDataAssociation().getAllAnnotatedGenes());
+        Collections.sort(items, Comparator.comparing(ByteString::toString));
+        for (int i = 0; i < items.size(); i += Math.max(1, items.size() / SAMPLE_PATIENTS)) {
+            Set<String> phenotypes = termsOf(this.utils.getDataAssociation(), items.get(i));
+            Map<String, Double> originalMarginals = getMarginals(original, phenotypes);
+            Map<String, Double> loadedMarginals = getMarginals(loaded, phenotypes);
+            Assert.assertEquals(originalMarginals, loadedMarginals);
+            Assert.assertEquals(rank(originalMarginals), rank(loadedMarginals));
+        }
+    }
+
+    @Test
+    public void outdatedSnapshotIsNotLoaded() throws Exception
+    {
+        saveSnapshot();
+        BoqaDataSnapshot snapshot = new BoqaDataSnapshot(this.file, this.logger);
+        Assert.assertFalse(snapshot.load(43));
+        Assert.assertNull(snapshot.getGraph());
+    }
+
+    @Test
+    public void missingOrCorruptSnapshotIsNotLoaded() throws Exception
+    {
+        Assert.assertFalse(new BoqaDataSnapshot(this.file, this.logger).load(42));
+
+        saveSnapshot();
+        byte[] content = Files.readAllBytes(this.file.toPath());
+        Files.write(this.file.toPath(), Arrays.copyOf(content, content.length / 2));
+        Assert.assertFalse(new BoqaDataSnapshot(this.file, this.logger).load(42));
+    }
+
+    @Test
+    public void dataVersionDependsOnContent() throws IOException
+    {
+        long version = BoqaDataSnapshot.computeDataVersion(stream("a"), stream("b"));
+        Assert.assertEquals(version, BoqaDataSnapshot.computeDataVersion(stream("a"), stream("b")));
+        Assert.assertNotEquals(version, BoqaDataSnapshot.computeDataVersion(stream("a"), stream("c")));
+    }
+
+    @Test(expected = IOException.class)
+    public void dataVersionFailsForMissingFiles() throws IOException
+    {
+        BoqaDataSnapshot.computeDataVersion(stream("a"), null);
+    }
+
+    private void saveSnapshot() throws IOException, InterruptedException
+    {
+        this.utils.loadDataFiles(copy("hp.obo.gz"), copy("new_phenotype.gz"));
+        new BoqaDataSnapshot(this.file, this.logger).save(42, this.utils.getGraph(), this.utils.getDataAssociation());
+    }
+
+    /** Configures BOQA like the diagnosis service does. */
+    private static BOQA createBoqa()
+    {
+        BOQA result = new BOQA();
+        result.setConsiderFrequenciesOnly(false);
+        result.setPrecalculateScoreDistribution(false);
+        result.setCacheScoreDistribution(false);
+        result.setPrecalculateItemMaxs(false);
+        result.setPrecalculateMaxICs(false);
+        result.setMaxFrequencyTerms(2);
+        result.setPrecalculateJaccard(false);
+        return result;
+    }
+
+    /** Computes the marginal of each disease for a patient with the given phenotypes, keyed by disease. */
+    private static Map<String, Double> getMarginals(BOQA boqa, Set<String> phenotypes)
+    {
+        Observations o = new Observations();
+        o.observations = new boolean[boqa.getOntology().getNumberOfTerms()];
+        for (String phenotype : phenotypes) {
+            Term term = boqa.getOntology().getTerm(phenotype);
+            if (term != null) {
+                int id = boqa.getTermIndex(term);
+                o.observations[id] = true;
+                boqa.activateAncestors(id, o.observations);
+            }
+        }
+        BOQA.Result result = boqa.assignMarginals(o, false, 1);
+        Map<String, Double> marginals = new HashMap<>();
+        for (Map.Entry<ByteString, Integer> item : boqa.item2Index.entrySet()) {
+            marginals.put(item.getKey().toString(), result.getMarginal(item.getValue()));
+        }
+        return marginals;
+    }
+
+    /** Lists the top diseases, in decreasing order of their marginal, then by name. */
+    private static List<String> rank(Map<String, Double> marginals)
+    {
+        List<String> result = new ArrayList<>(marginals.keySet());
+        Collections.sort(result, Comparator.comparing((String item) -> marginals.get(item)).reversed()
+            .thenComparing(Comparator.naturalOrder()));
+        return result.subList(0, Math.min(RANKING_SIZE, result.size()));
+    }
+
+    private static Set<String> alternativesOf(Term term)
+    {
+        Set<String> result = new HashSet<>();
+        if (term.getAlternatives() != null) {
+            for (TermID alternative : term.getAlternatives()) {
+                result.add(alternative.toString());
+            }
+        }
+        return result;
+    }
+
+    /** Describes the annotations of an item by their term, negation and frequency. */
+    private static Set<String> annotationsOf(AssociationContainer associations, ByteString item)
+    {
+        Set<String> result = new HashSet<>();
+        for (Association association : associations.get(item)) {
+            result.add(association.getTermID() + "|" + association.hasNotQualifier() + "|"
+                + association.getAspect());
+        }
+        return result;
+    }
+
+    private static Set<String> termsOf(AssociationContainer associations, ByteString item)
+    {
+        Set<String> result = new HashSet<>();
+        for (Association association : associations.get(item)) {
+            result.add(association.getTermID().toString());
+        }
+        return result;
+    }
+
+    private static InputStream stream(String content)
+    {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String copy(String resource) throws IOException
+    {
+        File result = new File(this.folder.getRoot(), resource);
+        try (InputStream in = BOQA.class.getClassLoader().getResourceAsStream(resource)) {
+            Files.copy(in, result.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return result.getPath();
+    }
+}
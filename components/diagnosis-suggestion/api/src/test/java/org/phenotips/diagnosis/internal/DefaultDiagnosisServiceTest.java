@@ -21,6 +21,10 @@
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.environment.Environment;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
@@ -30,8 +34,12 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
@@ -41,7 +49,10 @@
 
 import sonumina.boqa.calculation.BOQA;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
@@ -64,7 +75,8 @@
         new MockitoComponentMockingRule<>(BoqaUtils.class);
 
     @Test
-    public void returnsCorrectDiagnosis() throws ComponentLookupException, IOException, InterruptedException
+    public void returnsCorrectDiagnosis() throws ComponentLookupException, IOException, InterruptedException,
+        CacheException
     {
         String tempDir = System.getProperty("java.io.tmpdir");
 
@@ -126,7 +138,22 @@ public VocabularyTerm answer(InvocationOnMock invocationOnMock) throws Throwable
                 return term;
             }
         }).when(vocabulary).resolveTerm(anyString());
+        doAnswer(new Answer<Map<String, VocabularyTerm>>()
+        {
+            @Override
+            public Map<String, VocabularyTerm> answer(InvocationOnMock invocationOnMock) throws Throwable
+            {
+                @SuppressWarnings("unchecked")
+                Collection<String> ids = (Collection<String>) invocationOnMock.getArguments()[0];
+                Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+                for (String id : ids) {
+                    result.put(id, vocabulary.resolveTerm(id));
+                }
+                return result;
+            }
+        }).when(vocabulary).resolveTerms(anyCollectionOf(String.class));
 
+        mockCache();
         doReturn(tempSpy).when(env).getTemporaryDirectory();
         doReturn(workingUtilsComponent.getGraph()).when(utils).getGraph();
         doReturn(workingUtilsComponent.getDataAssociation()).when(utils).getDataAssociation();
@@ -146,7 +173,28 @@ public VocabularyTerm answer(InvocationOnMock invocationOnMock) throws Throwable
             assertTrue(diagnosisIds.containsAll(disorderIds.get(i)));
             i++;
         }
-        verify(vocabulary, times(limit * (i - invalidPhenotypes))).resolveTerm(anyString());
+        // All the top OMIM candidates can be suggested, so they are resolved in a single request;
+        // the last set only adds an invalid term to an earlier set, so its diagnosis comes from the cache
+        int computed = i - invalidPhenotypes - 1;
+        verify(vocabulary, times(computed)).resolveTerms(anyCollectionOf(String.class));
+        verify(vocabulary, times(limit * computed)).resolveTerm(anyString());
+
+        Map<String, Number> statistics = diagnosisService.getStatistics();
+        assertEquals(8L, statistics.get("requests"));
+        assertEquals(1L, statistics.get("cacheHits"));
+        assertEquals((long) computed, statistics.get("computations"));
+    }
+
+    private void mockCache() throws ComponentLookupException, CacheException
+    {
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        @SuppressWarnings("unchecked")
+        Cache<Object> cache = mock(Cache.class);
+        Map<String, Object> entries = new HashMap<>();
+        doAnswer(invocation -> entries.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+            .when(cache).set(anyString(), any());
+        doAnswer(invocation -> entries.get(invocation.getArguments()[0])).when(cache).get(anyString());
+        doReturn(cache).when(cacheManager).createNewCache(any(CacheConfiguration.class));
     }
 
     private File stream2file(InputStream in) throws IOException
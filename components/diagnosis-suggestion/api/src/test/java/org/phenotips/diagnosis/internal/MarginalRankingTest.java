@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.internal;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MarginalRanking} class.
+ *
+ * @version $Id$
+ */
+public class MarginalRankingTest
+{
+    @Test
+    public void listsIndexesInDecreasingOrderOfScore()
+    {
+        MarginalRanking ranking = new MarginalRanking(new double[] { 0.1, 0.7, 0.3, 0.9, 0.0 });
+        int[] expected = { 3, 1, 2, 0, 4 };
+        for (int index : expected) {
+            Assert.assertTrue(ranking.hasNext());
+            Assert.assertEquals(index, ranking.next());
+        }
+        Assert.assertFalse(ranking.hasNext());
+    }
+
+    @Test
+    public void equalScoresAreListedInIncreasingOrderOfIndex()
+    {
+        MarginalRanking ranking = new MarginalRanking(new double[] { 0.5, 0.2, 0.5, 0.2, 0.5 });
+        int[] expected = { 0, 2, 4, 1, 3 };
+        for (int index : expected) {
+            Assert.assertEquals(index, ranking.next());
+        }
+    }
+
+    @Test
+    public void matchesAStableSort()
+    {
+        Random random = new Random(42);
+        double[] scores = new double[1000];
+        for (int i = 0; i < scores.length; ++i) {
+            // Few distinct values, so that there are many ties
+            scores[i] = random.nextInt(50) / 50.0;
+        }
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> -scores[i]));
+
+        MarginalRanking ranking = new MarginalRanking(scores);
+        for (Integer index : order) {
+            Assert.assertEquals(index.intValue(), ranking.next());
+        }
+        Assert.assertFalse(ranking.hasNext());
+    }
+
+    @Test
+    public void emptyScoresHaveNoRanking()
+    {
+        Assert.assertFalse(new MarginalRanking(new double[0]).hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void nextFailsWhenAllIndexesWereListed()
+    {
+        MarginalRanking ranking = new MarginalRanking(new double[] { 1 });
+        ranking.next();
+        ranking.next();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.entities.internal;
+
+import org.phenotips.entities.spi.IdentifierSequence;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.function.LongSupplier;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+/**
+ * Identifier sequences stored in the {@code phenotips_identifier_sequence} table of each wiki. Each row holds the last
+ * reserved identifier of a sequence, and a block of identifiers is reserved with a conditional update that only
+ * succeeds if the row wasn't changed since it was read, so that nodes sharing the database never reserve the same
+ * identifiers, whatever the transaction isolation level. The identifiers of the reserved blocks are then handed out
+ * from memory, without accessing the database or holding a lock.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Singleton
+public class HibernateIdentifierSequence implements IdentifierSequence
+{
+    /** How many identifiers are reserved at once. */
+    private static final int BLOCK_SIZE = 50;
+
+    /** How many times to retry reserving a block when other nodes update the same sequence concurrently. */
+    private static final int MAX_ATTEMPTS = 10;
+
+    private static final String NAME = "name";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    private final IdentifierBlocks blocks = new IdentifierBlocks(BLOCK_SIZE);
+
+    @Override
+    public long next(String sequence, LongSupplier lastUsed)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        return this.blocks.next(context.getWikiId() + ':' + sequence, () -> reserve(context, sequence, lastUsed));
+    }
+
+    private long reserve(XWikiContext context, String sequence, LongSupplier lastUsed)
+    {
+        XWikiHibernateStore store = context.getWiki().getHibernateStore();
+        Exception failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt) {
+            try {
+                Long first = store.executeWrite(context, new ReserveBlockCallback(sequence, lastUsed));
+                if (first != null) {
+                    return first;
+                }
+            } catch (XWikiException ex) {
+                // Most likely another node created the sequence at the same time, try again
+                failure = ex;
+                this.logger.debug("Failed to reserve identifiers from sequence [{}]: {}", sequence, ex.getMessage());
+            }
+        }
+        throw new IllegalStateException("Failed to reserve identifiers from sequence [" + sequence + "]", failure);
+    }
+
+    /**
+     * Reserves the next block of identifiers, returning the first identifier of the block, or {@code null} if the
+     * sequence was changed concurrently.
+     */
+    private static final class ReserveBlockCallback implements HibernateCallback<Long>
+    {
+        private final String sequence;
+
+        private final LongSupplier lastUsed;
+
+        ReserveBlockCallback(String sequence, LongSupplier lastUsed)
+        {
+            this.sequence = sequence;
+            this.lastUsed = lastUsed;
+        }
+
+        @Override
+        public Long doInHibernate(Session session) throws HibernateException, XWikiException
+        {
+            Long current = (Long) session
+                .createQuery("select s.value from IdentifierSequenceEntry s where s.name = :name")
+                .setString(NAME, this.sequence).uniqueResult();
+            if (current == null) {
+                long start = Math.max(0, this.lastUsed.getAsLong());
+                // Fails with a constraint violation if another node created the sequence in the meantime
+                session.save(new IdentifierSequenceEntry(this.sequence, start + BLOCK_SIZE));
+                return start + 1;
+            }
+            int updated = session.createQuery("update IdentifierSequenceEntry s set s.value = :next"
+                + " where s.name = :name and s.value = :current")
+                .setLong("next", current + BLOCK_SIZE)
+                .setString(NAME, this.sequence)
+                .setLong("current", current)
+                .executeUpdate();
+            return updated == 1 ? current + 1 : null;
+        }
+    }
+}
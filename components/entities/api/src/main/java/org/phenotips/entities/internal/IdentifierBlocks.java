@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.entities.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Hands out identifiers from blocks reserved in advance, one current block per sequence. Taking an identifier from the
+ * current block is lock-free. When the block is used up, only one thread reserves a new block and installs it as the
+ * current block; other threads that ran out at the same time wait for it and then take their identifiers from the new
+ * block, so no reserved identifier is skipped.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class IdentifierBlocks
+{
+    private final int blockSize;
+
+    private final ConcurrentMap<String, AtomicReference<Block>> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * Simple constructor.
+     *
+     * @param blockSize how many identifiers are reserved at once
+     */
+    public IdentifierBlocks(int blockSize)
+    {
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * Gets the number of identifiers reserved at once.
+     *
+     * @return a positive number
+     */
+    public int getBlockSize()
+    {
+        return this.blockSize;
+    }
+
+    /**
+     * Gets the next identifier of a sequence.
+     *
+     * @param key identifies the sequence
+     * @param reserve reserves a new block of {@link #getBlockSize()} identifiers for the sequence, and returns the
+     *            first identifier in the block; invoked only when the current block is used up
+     * @return an identifier that was not returned before for the same key
+     */
+    public long next(String key, LongSupplier reserve)
+    {
+        AtomicReference<Block> current = this.blocks.get(key);
+        if (current == null) {
+            current = this.blocks.computeIfAbsent(key, k -> new AtomicReference<>(Block.EMPTY));
+        }
+        long id = current.get().take();
+        if (id != Block.NONE) {
+            return id;
+        }
+        synchronized (current) {
+            // Another thread may have installed a new block while this one was waiting
+            id = current.get().take();
+            while (id == Block.NONE) {
+                current.set(new Block(reserve.getAsLong(), this.blockSize));
+                id = current.get().take();
+            }
+            return id;
+        }
+    }
+
+    private static final class Block
+    {
+        private static final long NONE = Long.MIN_VALUE;
+
+        private static final Block EMPTY = new Block(0, 0);
+
+        private final AtomicLong next;
+
+        private final long last;
+
+        Block(long first, int size)
+        {
+            this.next = new AtomicLong(first);
+            this.last = first + size - 1;
+        }
+
+        long take()
+        {
+            long id = this.next.getAndIncrement();
+            return id <= this.last ? id : NONE;
+        }
+    }
+}
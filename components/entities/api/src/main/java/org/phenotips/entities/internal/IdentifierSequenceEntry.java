@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.entities.internal;
+
+/**
+ * The persistent state of an {@link org.phenotips.entities.spi.IdentifierSequence identifier sequence}, mapped to the
+ * database by {@code IdentifierSequenceEntry.hbm.xml}.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class IdentifierSequenceEntry
+{
+    /** The name of the sequence. */
+    private String name;
+
+    /** The last identifier reserved from this sequence. */
+    private long value;
+
+    /** Default constructor, used by Hibernate. */
+    public IdentifierSequenceEntry()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Constructor setting all the fields.
+     *
+     * @param name the name of the sequence
+     * @param value the last identifier reserved from this sequence
+     */
+    public IdentifierSequenceEntry(String name, long value)
+    {
+        this.name = name;
+        this.value = value;
+    }
+
+    /**
+     * Gets the name of the sequence.
+     *
+     * @return the name of the sequence
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * Sets the name of the sequence.
+     *
+     * @param name the name of the sequence
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Gets the last identifier reserved from this sequence.
+     *
+     * @return an identifier, {@code 0} if none was reserved yet
+     */
+    public long getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * Sets the last identifier reserved from this sequence.
+     *
+     * @param value an identifier
+     */
+    public void setValue(long value)
+    {
+        this.value = value;
+    }
+}
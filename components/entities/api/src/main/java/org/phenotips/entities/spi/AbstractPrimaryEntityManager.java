@@ -68,8 +68,9 @@
  * <li>the prefix is computed from the uppercase letters of the XClass name, excluding {@code Class}, e.g. for
  * {@code PhenoTips.DiseaseStudyClass} the prefix will be {@code DS}; override {@link #getIdPrefix()} to change this
  * behavior</li>
- * <li>the number is a 0-padded 7 digit number, starting at {@code 0000001} and automatically incremented for each new
- * entity created</li>
+ * <li>the number is a 0-padded 7 digit number, starting at {@code 0000001} and taken from a persistent
+ * {@link IdentifierSequence sequence} for each new entity created; numbers are unique, but not necessarily
+ * consecutive</li>
  * </ul>
  * </li>
  * </ul>
@@ -112,6 +113,14 @@
     @Named("local")
     protected EntityReferenceSerializer<String> localSerializer;
 
+    /**
+     * Hands out the sequence numbers used in the names of new documents.
+     *
+     * @since 1.5
+     */
+    @Inject
+    protected IdentifierSequence idSequence;
+
     /** The concrete {@link PrimaryEntity} instance class being managed. */
     private Class<? extends E> eclass;
 
@@ -125,27 +134,11 @@ public E create()
     }
 
     @Override
-    public synchronized E create(DocumentReference creator)
+    public E create(DocumentReference creator)
     {
         try {
             XWikiContext context = this.xcontextProvider.get();
-            DocumentReference newDoc = getNextDocument();
-            XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(newDoc);
-
-            DocumentReference template = getEntityXClassReference();
-            template = new DocumentReference(template.getName().concat("Template"), template.getLastSpaceReference());
-            if (!this.bridge.exists(template)) {
-                template = new DocumentReference(template.getName().replaceAll("Class(Template)$", "$1"),
-                    template.getLastSpaceReference());
-            }
-            if (this.bridge.exists(template)) {
-                doc.readFromTemplate(template, context);
-            }
-            if (creator != null) {
-                doc.setCreatorReference(creator);
-                doc.setAuthorReference(creator);
-                doc.setContentAuthorReference(creator);
-            }
+            XWikiDocument doc = prepareNewDocument(creator);
             context.getWiki().saveDocument(doc, context);
 
             return load(doc);
@@ -155,6 +148,39 @@ public synchronized E create(DocumentReference creator)
         }
     }
 
+    /**
+     * Prepares the document for a new entity, using the {@link #getNextDocument() next available name}, filled in from
+     * the entity template, if one exists, and owned by the given creator. The document is not saved.
+     *
+     * @param creator a reference to the document representing the entity which will be set as the creator and author
+     *            of the new document, may be {@code null}
+     * @return a new, unsaved document
+     * @throws Exception if accessing the documents fails
+     * @since 1.5
+     */
+    protected XWikiDocument prepareNewDocument(DocumentReference creator) throws Exception
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        DocumentReference newDoc = getNextDocument();
+        XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(newDoc);
+
+        DocumentReference template = getEntityXClassReference();
+        template = new DocumentReference(template.getName().concat("Template"), template.getLastSpaceReference());
+        if (!this.bridge.exists(template)) {
+            template = new DocumentReference(template.getName().replaceAll("Class(Template)$", "$1"),
+                template.getLastSpaceReference());
+        }
+        if (this.bridge.exists(template)) {
+            doc.readFromTemplate(template, context);
+        }
+        if (creator != null) {
+            doc.setCreatorReference(creator);
+            doc.setAuthorReference(creator);
+            doc.setContentAuthorReference(creator);
+        }
+        return doc;
+    }
+
     @Override
     public E get(String id)
     {
@@ -252,19 +278,23 @@ public E load(DocumentModelBridge document) throws IllegalArgumentException
 
     /**
      * Gets a reference to the next document that can be used for a newly created entity. It uses {@link #getIdPrefix()
-     * a short prefix} and {@link #getLastUsedId() a sequence number} for the document name, and {@link #getDataSpace()
-     * a space that can be configured by subclases}.
+     * a short prefix} and a sequence number for the document name, and {@link #getDataSpace() a space that can be
+     * configured by subclases}. The sequence numbers come from {@link IdentifierSequence a persistent sequence} for the
+     * entity type, started after {@link #getLastUsedId() the last used number}, so this doesn't need to be
+     * synchronized.
      *
      * @return a reference for a new document
      */
     protected DocumentReference getNextDocument()
     {
         String prefix = getIdPrefix();
-        long id = getLastUsedId();
+        String sequence = this.localSerializer.serialize(getEntityXClassReference());
         DocumentReference newDoc;
         do {
+            // Documents may also be created by other means, such as imports, without using the sequence
             newDoc = this.referenceResolver.resolve(new EntityReference(
-                prefix + String.format("%07d", ++id), EntityType.DOCUMENT, getDataSpace()));
+                prefix + String.format("%07d", this.idSequence.next(sequence, this::getLastUsedId)),
+                EntityType.DOCUMENT, getDataSpace()));
         } while (this.bridge.exists(newDoc));
         return newDoc;
     }
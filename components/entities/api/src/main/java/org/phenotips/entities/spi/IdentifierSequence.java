@@ -0,0 +1,47 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.entities.spi;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Hands out numeric identifiers for new entities from persistent sequences, one per entity type. Identifiers are
+ * unique across all the application nodes sharing the same database, but they are not necessarily consecutive, since
+ * each node reserves identifiers in blocks, and the unused part of a block is lost when the node stops.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable("New API introduced in 1.5")
+@Role
+public interface IdentifierSequence
+{
+    /**
+     * Gets the next identifier from a sequence, creating the sequence in the current wiki if it doesn't exist yet.
+     *
+     * @param sequence the name of the sequence, usually the serialized reference to the XClass of the entity type
+     * @param lastUsed computes the largest identifier already in use, only invoked when the sequence is created, so
+     *            that it continues after the entities created before the sequence existed
+     * @return a new, strictly positive identifier
+     * @throws IllegalStateException if the sequence cannot be read or updated in the database
+     */
+    long next(String sequence, LongSupplier lastUsed);
+}
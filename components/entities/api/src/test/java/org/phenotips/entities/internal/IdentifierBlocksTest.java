@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.entities.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IdentifierBlocks}.
+ *
+ * @version $Id$
+ */
+public class IdentifierBlocksTest
+{
+    @Test
+    public void identifiersAreHandedOutFromReservedBlocks()
+    {
+        IdentifierBlocks blocks = new IdentifierBlocks(3);
+        AtomicInteger reservations = new AtomicInteger();
+        AtomicLong lastReserved = new AtomicLong(10);
+        LongSupplier reserve = () -> {
+            reservations.incrementAndGet();
+            return lastReserved.getAndAdd(3) + 1;
+        };
+
+        for (long expected = 11; expected <= 16; ++expected) {
+            Assert.assertEquals(expected, blocks.next("seq", reserve));
+        }
+        Assert.assertEquals(2, reservations.get());
+    }
+
+    @Test
+    public void sequencesAreIndependent()
+    {
+        IdentifierBlocks blocks = new IdentifierBlocks(10);
+
+        Assert.assertEquals(1, blocks.next("a", () -> 1));
+        Assert.assertEquals(101, blocks.next("b", () -> 101));
+        Assert.assertEquals(2, blocks.next("a", () -> 1000));
+        Assert.assertEquals(102, blocks.next("b", () -> 1000));
+    }
+
+    @Test
+    public void concurrentCallsGetDistinctIdentifiers() throws Exception
+    {
+        IdentifierBlocks blocks = new IdentifierBlocks(7);
+        AtomicLong lastReserved = new AtomicLong();
+        LongSupplier reserve = () -> lastReserved.getAndAdd(7) + 1;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            Callable<List<Long>> task = () -> {
+                List<Long> ids = new ArrayList<>();
+                for (int j = 0; j < 1000; ++j) {
+                    ids.add(blocks.next("seq", reserve));
+                }
+                return ids;
+            };
+            results.add(executor.submit(task));
+        }
+        Set<Long> allIds = new HashSet<>();
+        for (Future<List<Long>> result : results) {
+            for (Long id : result.get()) {
+                Assert.assertTrue("Duplicate identifier " + id, allIds.add(id));
+                Assert.assertTrue(id > 0 && id <= lastReserved.get());
+            }
+        }
+        executor.shutdown();
+        Assert.assertEquals(8000, allIds.size());
+        // Blocks reserved by racing threads are not discarded, so only the last block is partially used
+        Assert.assertEquals(8001, lastReserved.get());
+    }
+}
@@ -33,6 +33,8 @@
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import javax.inject.Provider;
 
@@ -85,6 +87,8 @@
 
     private EntityReferenceSerializer<String> localSerializer;
 
+    private IdentifierSequence sequence;
+
     private DocumentReference currentUser = new DocumentReference("main", "XWiki", "padams");
 
     @Mock
@@ -145,6 +149,14 @@ public void setUp() throws Exception
         when(this.xcontext.getWiki()).thenReturn(this.xwiki);
 
         when(this.dab.getCurrentUserReference()).thenReturn(this.currentUser);
+
+        // Behaves like a new sequence, which starts after the last used identifier
+        AtomicLong lastId = new AtomicLong(-1);
+        this.sequence = this.mocker.getInstance(IdentifierSequence.class);
+        when(this.sequence.next(eq("PhenoTips.PersonClass"), any(LongSupplier.class))).thenAnswer(invocation -> {
+            lastId.compareAndSet(-1, ((LongSupplier) invocation.getArguments()[1]).getAsLong());
+            return lastId.incrementAndGet();
+        });
     }
 
     @Test
@@ -205,6 +217,23 @@ public void createSkipsExistingDocuments() throws Exception
         Mockito.verify(this.xwiki).saveDocument(this.doc, this.xcontext);
     }
 
+    @Test
+    public void createUsesIdentifierFromSequence() throws Exception
+    {
+        when(this.sequence.next(eq("PhenoTips.PersonClass"), any(LongSupplier.class))).thenReturn(42L);
+        DocumentReference ref = new DocumentReference("main", "Persons", "P0000042");
+        when(this.referenceResolver
+            .resolve(new EntityReference("P0000042", EntityType.DOCUMENT, this.manager.getDataSpace())))
+                .thenReturn(ref);
+        when(this.dab.getDocument(ref)).thenReturn(this.doc);
+        when(this.doc.getDocumentReference()).thenReturn(ref);
+
+        Person result = this.manager.create();
+
+        Assert.assertEquals("P0000042", result.getId());
+        Mockito.verify(this.getLastIdQuery, Mockito.never()).execute();
+    }
+
     @Test
     public void createSetsCurrentUserAsAuthor() throws Exception
     {
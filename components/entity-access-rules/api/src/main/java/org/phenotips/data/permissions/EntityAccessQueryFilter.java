@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.stability.Unstable;
+import org.xwiki.users.User;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Translates the entity access rules into query conditions, so that listings of entities can be filtered, and when
+ * possible paged, by the database. Two conditions are offered, based on the {@link Owner owner}, the
+ * {@link Collaborator collaborators}, including through group membership, and the {@link Visibility visibility} of the
+ * entities: the {@link #getViewCondition view condition} selects a superset of the entities that the user may view,
+ * keeping any entity whose access may be granted by other means, while the {@link #getGrantedViewCondition granted
+ * condition} selects only entities that these rules let the user view. When no entity matches the first condition
+ * without matching the second, the granted condition decides visibility by itself and listings can be paged in the
+ * database. Callers should still check the access rights of the returned entities, since other authorization
+ * modules may restrict access further.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable
+@Role
+public interface EntityAccessQueryFilter
+{
+    /**
+     * Builds a HQL condition selecting the entity documents that a user might be allowed to view. Every entity that
+     * the user can view matches the condition, but some matching entities may still be denied.
+     *
+     * @param documentAlias the alias of the {@code XWikiDocument} entity in the query where the condition will be used
+     * @param user the user whose access is checked, {@code null} for guests
+     * @param space the space holding the entities, used for checking if the user can administer all of them
+     * @param parameters a map where the values of the named parameters used in the condition are added, to be bound
+     *            on the query
+     * @return a HQL condition, enclosed in parentheses, or {@code null} if no entity can be excluded in advance
+     */
+    @Nullable
+    String getViewCondition(@Nonnull String documentAlias, @Nullable User user, @Nonnull EntityReference space,
+        @Nonnull Map<String, Object> parameters);
+
+    /**
+     * Builds a HQL condition selecting the entity documents that the owner, collaborator, visibility and guest-owned
+     * records rules let a user view. The matching entities are a subset of those matching the
+     * {@link #getViewCondition view condition}.
+     *
+     * @param documentAlias the alias of the {@code XWikiDocument} entity in the query where the condition will be used
+     * @param user the user whose access is checked, {@code null} for guests
+     * @param space the space holding the entities, used for checking if the user can administer all of them
+     * @param parameters a map where the values of the named parameters used in the condition are added, to be bound
+     *            on the query
+     * @return a HQL condition, enclosed in parentheses, or {@code null} if the user can view all the entities
+     */
+    @Nullable
+    String getGrantedViewCondition(@Nonnull String documentAlias, @Nullable User user, @Nonnull EntityReference space,
+        @Nonnull Map<String, Object> parameters);
+}
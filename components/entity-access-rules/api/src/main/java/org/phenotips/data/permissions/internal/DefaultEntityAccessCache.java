@@ -0,0 +1,245 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Default implementation of {@link EntityAccessCache}, backed by two LRU caches. The sizes of the caches can be
+ * configured in {@code xwiki.properties}:
+ * <ul>
+ * <li>{@code phenotips.entityAccess.cache.maxEntities}: how many entities can have cached decisions, 10000 by
+ * default</li>
+ * <li>{@code phenotips.entityAccess.cache.maxUsers}: how many users and groups can have their group membership cached,
+ * 1000 by default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Singleton
+public class DefaultEntityAccessCache implements EntityAccessCache, Initializable, Disposable
+{
+    private static final String CONFIGURATION_PREFIX = "phenotips.entityAccess.cache.";
+
+    private static final int DEFAULT_MAX_ENTITIES = 10000;
+
+    private static final int DEFAULT_MAX_USERS = 1000;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Cached decisions, grouped by the entity they apply to. */
+    private Cache<EntityDecisions> decisions;
+
+    /** Guards the replacement and removal of the decisions cached for an entity. */
+    private final Object decisionsLock = new Object();
+
+    /** Cached transitive group memberships. */
+    private Cache<Collection<DocumentReference>> groups;
+
+    private final LongAdder decisionHits = new LongAdder();
+
+    private final LongAdder decisionMisses = new LongAdder();
+
+    private final LongAdder groupHits = new LongAdder();
+
+    private final LongAdder groupMisses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            LRUEvictionConfiguration decisionsEviction = new LRUEvictionConfiguration(
+                this.configuration.getProperty(CONFIGURATION_PREFIX + "maxEntities", DEFAULT_MAX_ENTITIES));
+            this.decisions = this.cacheManager.createNewLocalCache(
+                new CacheConfiguration("phenotips.entityAccess.decisions", decisionsEviction));
+            LRUEvictionConfiguration groupsEviction = new LRUEvictionConfiguration(
+                this.configuration.getProperty(CONFIGURATION_PREFIX + "maxUsers", DEFAULT_MAX_USERS));
+            this.groups = this.cacheManager.createNewLocalCache(
+                new CacheConfiguration("phenotips.entityAccess.groups", groupsEviction));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the entity access caches", ex);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.decisions.dispose();
+        this.groups.dispose();
+    }
+
+    @Nullable
+    @Override
+    public Collection<DocumentReference> getGroups(@Nonnull final DocumentReference userOrGroup)
+    {
+        Collection<DocumentReference> result = this.groups.get(userOrGroup.toString());
+        (result == null ? this.groupMisses : this.groupHits).increment();
+        return result;
+    }
+
+    @Override
+    public void setGroups(@Nonnull final DocumentReference userOrGroup,
+        @Nonnull final Collection<DocumentReference> groupsOfUser)
+    {
+        this.groups.set(userOrGroup.toString(), Collections.unmodifiableCollection(groupsOfUser));
+    }
+
+    @Nullable
+    @Override
+    public Object getDecision(@Nonnull final DocumentReference entity, @Nonnull final String version,
+        @Nonnull final String key)
+    {
+        EntityDecisions entityDecisions = this.decisions.get(entity.toString());
+        Object result = null;
+        if (entityDecisions != null && version.equals(entityDecisions.version)) {
+            result = entityDecisions.values.get(key);
+        }
+        (result == null ? this.decisionMisses : this.decisionHits).increment();
+        return result;
+    }
+
+    @Override
+    public void setDecision(@Nonnull final DocumentReference entity, @Nonnull final String version,
+        @Nonnull final String key, @Nonnull final Object decision)
+    {
+        String entityKey = entity.toString();
+        EntityDecisions entityDecisions = this.decisions.get(entityKey);
+        if (entityDecisions == null || !version.equals(entityDecisions.version)) {
+            entityDecisions = getOrCreateDecisions(entityKey, version);
+        }
+        entityDecisions.values.put(key, decision);
+    }
+
+    @Override
+    public void invalidate(@Nonnull final DocumentReference entity)
+    {
+        this.invalidations.increment();
+        synchronized (this.decisionsLock) {
+            this.decisions.remove(entity.toString());
+        }
+    }
+
+    @Override
+    public void invalidateDecisions()
+    {
+        this.invalidations.increment();
+        synchronized (this.decisionsLock) {
+            this.decisions.removeAll();
+        }
+    }
+
+    @Override
+    public void invalidateAll()
+    {
+        this.invalidations.increment();
+        synchronized (this.decisionsLock) {
+            this.decisions.removeAll();
+        }
+        this.groups.removeAll();
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> result = new LinkedHashMap<>();
+        result.put("decisionHits", this.decisionHits.sum());
+        result.put("decisionMisses", this.decisionMisses.sum());
+        result.put("decisionHitRatio", ratio(this.decisionHits.sum(), this.decisionMisses.sum()));
+        result.put("groupHits", this.groupHits.sum());
+        result.put("groupMisses", this.groupMisses.sum());
+        result.put("groupHitRatio", ratio(this.groupHits.sum(), this.groupMisses.sum()));
+        result.put("invalidations", this.invalidations.sum());
+        return result;
+    }
+
+    /**
+     * Returns the decisions cached for a version of an entity, replacing the decisions cached for another version.
+     * Since the cache doesn't offer atomic operations, the check and the replacement are done under a lock, so that
+     * threads racing to cache the first decisions for a new version all end up using the same holder.
+     *
+     * @param entityKey the serialized reference of the entity document
+     * @param version the version of the entity document
+     * @return the holder of the decisions cached for that version, already stored in the cache
+     */
+    private EntityDecisions getOrCreateDecisions(String entityKey, String version)
+    {
+        synchronized (this.decisionsLock) {
+            EntityDecisions entityDecisions = this.decisions.get(entityKey);
+            if (entityDecisions == null || !version.equals(entityDecisions.version)) {
+                entityDecisions = new EntityDecisions(version);
+                this.decisions.set(entityKey, entityDecisions);
+            }
+            return entityDecisions;
+        }
+    }
+
+    private double ratio(long hits, long misses)
+    {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * The decisions cached for one version of an entity.
+     */
+    private static final class EntityDecisions
+    {
+        private final String version;
+
+        private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+        EntityDecisions(String version)
+        {
+            this.version = version;
+        }
+    }
+}
@@ -32,9 +32,10 @@
 import org.xwiki.security.authorization.AuthorizationManager;
 import org.xwiki.security.authorization.Right;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Objects;
@@ -81,6 +82,8 @@ public class DefaultEntityAccessManager implements EntityAccessManager
 
     private static final String ACCESS = "access";
 
+    private static final String ACCESS_LEVEL_CACHE_KEY_PREFIX = "accessLevel:";
+
     @Inject
     private Logger logger;
 
@@ -113,6 +116,9 @@ public class DefaultEntityAccessManager implements EntityAccessManager
     @Named("none")
     private AccessLevel noAccess;
 
+    @Inject
+    private EntityAccessCache cache;
+
     @Nonnull
     @Override
     public Collection<AccessLevel> listAccessLevels()
@@ -153,40 +159,87 @@ public AccessLevel resolveAccessLevel(@Nullable final String name)
     @Override
     public AccessLevel getAccessLevel(@Nullable final PrimaryEntity entity, @Nullable final EntityReference userOrGroup)
     {
-        AccessLevel result = resolveAccessLevel(NONE);
         if (entity == null || userOrGroup == null) {
+            return resolveAccessLevel(NONE);
+        }
+        // Access levels only depend on the entity document and on the groups of the user, so they can be cached for
+        // the current version of the document, until the groups change; documents with unsaved changes don't match the
+        // stored version, so they are never cached
+        final DocumentReference entityReference = entity.getDocumentReference();
+        final XWikiDocument entityDocument = entity.getXDocument();
+        final String version = isCacheable(entityDocument) ? entityDocument.getVersion() : null;
+        final String cacheKey = ACCESS_LEVEL_CACHE_KEY_PREFIX + userOrGroup;
+        if (entityReference != null && version != null) {
+            final Object cached = this.cache.getDecision(entityReference, version, cacheKey);
+            if (cached instanceof AccessLevel) {
+                return (AccessLevel) cached;
+            }
+        }
+
+        AccessLevel result = resolveAccessLevel(NONE);
+        final Owner ownerObj = getOwner(entity);
+        final EntityReference owner = ownerObj == null ? null : ownerObj.getUser();
+        final Collection<Collaborator> collaborators = getCollaborators(entity);
+        final Collection<DocumentReference> usersAndGroups = getAllGroups((DocumentReference) userOrGroup);
+        if (usersAndGroups == null) {
+            this.logger.warn("Failed to compute access level for [{}] on [{}]", userOrGroup, entity.getId());
             return result;
         }
-        try {
-            final Owner ownerObj = getOwner(entity);
-            final EntityReference owner = ownerObj == null ? null : ownerObj.getUser();
-            final Collection<Collaborator> collaborators = getCollaborators(entity);
-            final Set<DocumentReference> processedEntities = new HashSet<>();
+        for (final DocumentReference item : usersAndGroups) {
+            final AccessLevel itemAccess = getAccessLevel(item, owner, collaborators);
+            if (itemAccess.compareTo(result) > 0) {
+                result = itemAccess;
+            }
+        }
+
+        if (entityReference != null && version != null) {
+            this.cache.setDecision(entityReference, version, cacheKey, result);
+        }
+        return result;
+    }
 
+    /**
+     * Checks if decisions computed from a document can be cached under its version, i.e. if the document is saved and
+     * has no unsaved changes.
+     *
+     * @param document the entity document, may be {@code null}
+     * @return {@code true} if the document content is the one stored for its version
+     */
+    private boolean isCacheable(@Nullable final XWikiDocument document)
+    {
+        return document != null && !document.isNew() && !document.isContentDirty() && !document.isMetaDataDirty();
+    }
+
+    @Nullable
+    @Override
+    public Collection<DocumentReference> getAllGroups(@Nonnull final DocumentReference userOrGroup)
+    {
+        Collection<DocumentReference> result = this.cache.getGroups(userOrGroup);
+        if (result != null) {
+            return result;
+        }
+        try {
+            final Set<DocumentReference> processedEntities = new LinkedHashSet<>();
             final Queue<DocumentReference> entitiesToCheck = new LinkedList<>();
-            entitiesToCheck.add((DocumentReference) userOrGroup);
+            entitiesToCheck.add(userOrGroup);
 
-            AccessLevel currentItemAccess;
-            DocumentReference currentItem;
             final XWikiContext context = this.xcontextProvider.get();
             final XWikiGroupService groupService = context.getWiki().getGroupService(context);
             while (!entitiesToCheck.isEmpty()) {
-                currentItem = entitiesToCheck.poll();
-                currentItemAccess = getAccessLevel(currentItem, owner, collaborators);
-                if (currentItemAccess.compareTo(result) > 0) {
-                    result = currentItemAccess;
-                }
+                final DocumentReference currentItem = entitiesToCheck.poll();
                 processedEntities.add(currentItem);
                 final Collection<DocumentReference> groups =
-                    groupService.getAllGroupsReferencesForMember(currentItem, 0, 0, context);
+                    new ArrayList<>(groupService.getAllGroupsReferencesForMember(currentItem, 0, 0, context));
                 groups.removeAll(processedEntities);
                 entitiesToCheck.addAll(groups);
             }
+            result = new ArrayList<>(processedEntities);
+            this.cache.setGroups(userOrGroup, result);
+            return result;
         } catch (final XWikiException ex) {
-            this.logger.warn("Failed to compute access level for [{}] on [{}]: {}", userOrGroup, entity.getId(),
-                ex.getMessage());
+            this.logger.warn("Failed to retrieve the groups of [{}]: {}", userOrGroup, ex.getMessage());
         }
-        return result;
+        return null;
     }
 
     /**
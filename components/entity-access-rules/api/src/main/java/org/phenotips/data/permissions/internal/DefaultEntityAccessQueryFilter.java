@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.EntityAccessQueryFilter;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Default implementation of {@link EntityAccessQueryFilter}. The granted condition mirrors the authorization modules
+ * that grant view access: entities that the user or one of their groups own or collaborate on, entities whose
+ * visibility grants view access to registered users, and entities without an owner or owned by guests. The view
+ * condition also keeps the entities that other modules could let the user view: entities with their own XWiki access
+ * rights, entities that belong to a family, and, for guests, entities with a visibility granting view access. The
+ * space level XWiki rights are not taken into account, since the default deny module takes precedence over them for
+ * entities; only administrators get no condition.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Singleton
+public class DefaultEntityAccessQueryFilter implements EntityAccessQueryFilter
+{
+    /** Checks that the entity document has an object of a class, with a string property among a list of values. */
+    private static final String PROPERTY_CONDITION =
+        "exists (select %2$sObj.id from BaseObject %2$sObj, StringProperty %2$sProp"
+            + " where %2$sObj.name = %1$s.fullName and %2$sObj.className = :%2$sClass"
+            + " and %2$sProp.id.id = %2$sObj.id and %2$sProp.id.name = :%2$sName and %2$sProp.value in (:%3$s))";
+
+    /** Checks that the entity document has no object of a class with a string property outside a list of values. */
+    private static final String NO_OTHER_PROPERTY_CONDITION =
+        "not exists (select %2$sObj.id from BaseObject %2$sObj, StringProperty %2$sProp"
+            + " where %2$sObj.name = %1$s.fullName and %2$sObj.className = :%2$sClass"
+            + " and %2$sProp.id.id = %2$sObj.id and %2$sProp.id.name = :%2$sName"
+            + " and trim(%2$sProp.value) not in (:%3$s))";
+
+    /** Checks that the entity document has an object of a class. */
+    private static final String OBJECT_CONDITION = "exists (select %2$sObj.id from BaseObject %2$sObj"
+        + " where %2$sObj.name = %1$s.fullName and %2$sObj.className = :%2$sClass)";
+
+    /** The values stored in the owner property of entities without an owner, or owned by guests. */
+    private static final Collection<String> NO_OWNER_VALUES =
+        Arrays.asList("", "null", "XWiki.XWikiGuest", "xwiki:XWiki.XWikiGuest");
+
+    /** The class of the objects holding document level XWiki access rights. */
+    private static final String RIGHTS_CLASS = "XWiki.XWikiRights";
+
+    /** The class of the objects linking a patient to its family, which may grant access to family members. */
+    private static final String FAMILY_REFERENCE_CLASS = "PhenoTips.FamilyReferenceClass";
+
+    private static final String PRINCIPALS_PARAMETER = "eaqPrincipals";
+
+    private static final String VISIBILITIES_PARAMETER = "eaqVisibilities";
+
+    private static final String NO_OWNER_PARAMETER = "eaqNoOwner";
+
+    private static final String OWNER_PROPERTY = "owner";
+
+    private static final String CLASS_SUFFIX = "Class";
+
+    private static final String OR = " or ";
+
+    @Inject
+    private AuthorizationService access;
+
+    @Inject
+    private EntityAccessManager accessManager;
+
+    @Inject
+    private EntityVisibilityManager visibilityManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Nullable
+    @Override
+    public String getViewCondition(@Nonnull final String documentAlias, @Nullable final User user,
+        @Nonnull final EntityReference space, @Nonnull final Map<String, Object> parameters)
+    {
+        if (user != null && this.access.hasAccess(user, Right.ADMIN, space)) {
+            return null;
+        }
+        final DocumentReference profile = user == null ? null : user.getProfileDocument();
+        final StringBuilder condition = new StringBuilder();
+        appendGrantedConditions(condition, documentAlias, profile, parameters);
+
+        if (profile == null) {
+            // The visibility doesn't grant access to guests, but keep the entities that other modules may open to them
+            appendVisibilityCondition(condition, documentAlias, parameters);
+        }
+        // Rights set on the entity document itself, and family membership, are checked entity by entity
+        appendCondition(condition, OBJECT_CONDITION, documentAlias, "eaqRights", null, RIGHTS_CLASS, null,
+            parameters);
+        appendCondition(condition, OBJECT_CONDITION, documentAlias, "eaqFamily", null, FAMILY_REFERENCE_CLASS, null,
+            parameters);
+
+        return "(" + condition + ")";
+    }
+
+    @Nullable
+    @Override
+    public String getGrantedViewCondition(@Nonnull final String documentAlias, @Nullable final User user,
+        @Nonnull final EntityReference space, @Nonnull final Map<String, Object> parameters)
+    {
+        if (user != null && this.access.hasAccess(user, Right.ADMIN, space)) {
+            return null;
+        }
+        final StringBuilder condition = new StringBuilder();
+        appendGrantedConditions(condition, documentAlias, user == null ? null : user.getProfileDocument(),
+            parameters);
+        return "(" + condition + ")";
+    }
+
+    /**
+     * Appends the conditions matching the entities that the owner, collaborator, visibility and guest-owned records
+     * authorization modules let the user view.
+     */
+    private void appendGrantedConditions(final StringBuilder condition, final String documentAlias,
+        @Nullable final DocumentReference profile, final Map<String, Object> parameters)
+    {
+        final Collection<DocumentReference> principals =
+            profile == null ? null : this.accessManager.getAllGroups(profile);
+        if (principals != null && !principals.isEmpty()) {
+            final Set<String> names = new LinkedHashSet<>();
+            for (final DocumentReference principal : principals) {
+                // Both forms can be found in the stored data
+                names.add(this.serializer.serialize(principal));
+                names.add(this.localSerializer.serialize(principal));
+            }
+            parameters.put(PRINCIPALS_PARAMETER, names);
+            appendCondition(condition, PROPERTY_CONDITION, documentAlias, "eaqOwner", PRINCIPALS_PARAMETER,
+                this.localSerializer.serialize(Owner.CLASS_REFERENCE), OWNER_PROPERTY, parameters);
+            appendCondition(condition, PROPERTY_CONDITION, documentAlias, "eaqCollaborator", PRINCIPALS_PARAMETER,
+                this.localSerializer.serialize(Collaborator.CLASS_REFERENCE), "collaborator", parameters);
+        }
+        if (profile != null) {
+            appendVisibilityCondition(condition, documentAlias, parameters);
+        }
+
+        // Entities without an owner, or owned by a guest, are accessible to everyone
+        parameters.put(NO_OWNER_PARAMETER, NO_OWNER_VALUES);
+        appendCondition(condition, NO_OTHER_PROPERTY_CONDITION, documentAlias, "eaqNoOwner", NO_OWNER_PARAMETER,
+            this.localSerializer.serialize(Owner.CLASS_REFERENCE), OWNER_PROPERTY, parameters);
+    }
+
+    private void appendVisibilityCondition(final StringBuilder condition, final String documentAlias,
+        final Map<String, Object> parameters)
+    {
+        final Set<String> visibilities = new LinkedHashSet<>();
+        for (final Visibility visibility : this.visibilityManager.listAllVisibilityOptions()) {
+            if (grantsView(visibility)) {
+                visibilities.add(visibility.getName());
+            }
+        }
+        if (!visibilities.isEmpty()) {
+            parameters.put(VISIBILITIES_PARAMETER, visibilities);
+            appendCondition(condition, PROPERTY_CONDITION, documentAlias, "eaqVisibility", VISIBILITIES_PARAMETER,
+                this.localSerializer.serialize(Visibility.CLASS_REFERENCE), "visibility", parameters);
+        }
+    }
+
+    private void appendCondition(final StringBuilder condition, final String template, final String documentAlias,
+        final String prefix, final String valuesParameter, final String className, final String property,
+        final Map<String, Object> parameters)
+    {
+        if (condition.length() > 0) {
+            condition.append(OR);
+        }
+        condition.append(String.format(template, documentAlias, prefix, valuesParameter));
+        parameters.put(prefix + CLASS_SUFFIX, className);
+        if (property != null) {
+            parameters.put(prefix + "Name", property);
+        }
+    }
+
+    private boolean grantsView(final Visibility visibility)
+    {
+        final Right granted = visibility.getDefaultAccessLevel().getGrantedRight();
+        return Right.VIEW.equals(granted)
+            || (granted.getImpliedRights() != null && granted.getImpliedRights().contains(Right.VIEW));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Caches the results of the expensive steps of access checks on entities: the transitive group membership of users,
+ * and the access decisions computed for a specific version of an entity. Cached values are invalidated when entities,
+ * groups or entity rights change.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Role
+public interface EntityAccessCache
+{
+    /**
+     * Retrieves the cached list of all the groups that a user or group belongs to, directly or indirectly.
+     *
+     * @param userOrGroup the user or group whose groups are requested
+     * @return the {@code userOrGroup} itself, followed by all its groups, or {@code null} if not cached
+     */
+    @Nullable
+    Collection<DocumentReference> getGroups(@Nonnull DocumentReference userOrGroup);
+
+    /**
+     * Caches the list of all the groups that a user or group belongs to, directly or indirectly.
+     *
+     * @param userOrGroup the user or group whose groups are stored
+     * @param groups the {@code userOrGroup} itself, followed by all its groups
+     */
+    void setGroups(@Nonnull DocumentReference userOrGroup, @Nonnull Collection<DocumentReference> groups);
+
+    /**
+     * Retrieves a cached access decision.
+     *
+     * @param entity the document of the entity being accessed
+     * @param version the current version of the entity document; decisions cached for other versions are ignored
+     * @param key identifies the decision, for example the user and the requested right
+     * @return the cached decision, or {@code null} if not cached
+     */
+    @Nullable
+    Object getDecision(@Nonnull DocumentReference entity, @Nonnull String version, @Nonnull String key);
+
+    /**
+     * Caches an access decision.
+     *
+     * @param entity the document of the entity being accessed
+     * @param version the version of the entity document used for computing the decision
+     * @param key identifies the decision, for example the user and the requested right
+     * @param decision the decision to cache, must not be {@code null}
+     */
+    void setDecision(@Nonnull DocumentReference entity, @Nonnull String version, @Nonnull String key,
+        @Nonnull Object decision);
+
+    /**
+     * Discards all the decisions cached for an entity.
+     *
+     * @param entity the document of the entity that changed
+     */
+    void invalidate(@Nonnull DocumentReference entity);
+
+    /**
+     * Discards all the cached decisions, for example when the rights of an entity changed in a way that doesn't
+     * update its document.
+     */
+    void invalidateDecisions();
+
+    /**
+     * Discards all the cached decisions and group memberships, for example when a group changed.
+     */
+    void invalidateAll();
+
+    /**
+     * Reports the usage counters of the cache, since the application started.
+     *
+     * @return a map with the number of {@code decisionHits}, {@code decisionMisses}, {@code decisionHitRatio},
+     *         {@code groupHits}, {@code groupMisses}, {@code groupHitRatio}, and {@code invalidations}
+     */
+    @Nonnull
+    Map<String, Number> getStatistics();
+}
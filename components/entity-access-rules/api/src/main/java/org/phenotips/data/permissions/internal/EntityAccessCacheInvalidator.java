@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.events.EntityRightsUpdatedEvent;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keeps the {@link EntityAccessCache} up to date: decisions cached for an entity are discarded when its document is
+ * saved or deleted, all decisions are discarded when entity rights are updated, and everything is discarded when a
+ * group changes, since group membership affects the access of all its members on all entities.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named("phenotips-entity-access-cache-invalidator")
+@Singleton
+public class EntityAccessCacheInvalidator extends AbstractEventListener
+{
+    /** The XClass used for defining group members in XWiki. */
+    private static final EntityReference GROUP_CLASS_REFERENCE = new EntityReference("XWikiGroups",
+        EntityType.DOCUMENT, new EntityReference("XWiki", EntityType.SPACE));
+
+    @Inject
+    private EntityAccessCache cache;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public EntityAccessCacheInvalidator()
+    {
+        super("phenotips-entity-access-cache-invalidator", new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent(), new EntityRightsUpdatedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof EntityRightsUpdatedEvent) {
+            this.cache.invalidateDecisions();
+            return;
+        }
+        XWikiDocument doc = (XWikiDocument) source;
+        if (isGroup(doc) || isGroup(doc.getOriginalDocument())) {
+            this.cache.invalidateAll();
+        } else {
+            this.cache.invalidate(doc.getDocumentReference());
+        }
+    }
+
+    private boolean isGroup(XWikiDocument doc)
+    {
+        return doc != null && doc.getXObject(GROUP_CLASS_REFERENCE) != null;
+    }
+}
@@ -78,6 +78,17 @@
     @Nonnull
     AccessLevel getAccessLevel(@Nullable PrimaryEntity entity, @Nullable EntityReference userOrGroup);
 
+    /**
+     * Lists a user or group together with all the groups it belongs to, directly or through other groups.
+     *
+     * @param userOrGroup the user or group whose groups are requested
+     * @return the {@code userOrGroup} itself, followed by all its groups, or {@code null} if the groups could not be
+     *         retrieved
+     * @since 1.5
+     */
+    @Nullable
+    Collection<DocumentReference> getAllGroups(@Nonnull DocumentReference userOrGroup);
+
     /**
      * Returns true iff {@link EntityAccessHelper#getCurrentUser() the current user} has administrative access level,
      * false otherwise.
@@ -17,20 +17,26 @@
  */
 package org.phenotips.data.permissions.script;
 
+import org.phenotips.Constants;
 import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
 import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.permissions.internal.EntityAccessCache;
 import org.phenotips.entities.PrimaryEntity;
 import org.phenotips.entities.PrimaryEntityResolver;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.UserManager;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -60,6 +66,15 @@ public class EntityPermissionsManagerScriptService implements ScriptService
     @Inject
     private AuthorizationService access;
 
+    /** Holds the cached access decisions, queried for usage statistics. */
+    @Inject
+    private EntityAccessCache accessCache;
+
+    /** Used for resolving the reference to the administration space, where admin rights are checked. */
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<EntityReference> referenceResolver;
+
     /**
      * Get the visibility options available, excluding {@link Visibility#isDisabled() disabled} ones.
      *
@@ -162,4 +177,20 @@ public void fireRightsUpdateEvent(String targetEntityId)
     {
         this.manager.fireRightsUpdateEvent(targetEntityId);
     }
+
+    /**
+     * Reports the usage of the entity access decisions cache. Requires admin rights.
+     *
+     * @return the hit, miss and invalidation counters of the cache, or an empty map if the current user isn't an
+     *         administrator
+     * @since 1.5
+     */
+    public Map<String, Number> getAccessCacheStatistics()
+    {
+        if (!this.access.hasAccess(this.userManager.getCurrentUser(), Right.ADMIN,
+            this.referenceResolver.resolve(Constants.XWIKI_SPACE_REFERENCE))) {
+            return Collections.emptyMap();
+        }
+        return this.accessCache.getStatistics();
+    }
 }
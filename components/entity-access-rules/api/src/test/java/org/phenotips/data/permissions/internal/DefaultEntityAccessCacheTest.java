@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultEntityAccessCache}.
+ *
+ * @version $Id$
+ */
+public class DefaultEntityAccessCacheTest
+{
+    private static final DocumentReference ENTITY = new DocumentReference("xwiki", "data", "P0000001");
+
+    @Rule
+    public final MockitoComponentMockingRule<EntityAccessCache> mocker =
+        new MockitoComponentMockingRule<>(DefaultEntityAccessCache.class);
+
+    private EntityAccessCache cache;
+
+    @Before
+    public void setup() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArguments()[1]);
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewLocalCache(any(CacheConfiguration.class))).thenAnswer(invocation -> mockCache());
+        this.cache = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void decisionsAreReturnedOnlyForTheSameVersion()
+    {
+        this.cache.setDecision(ENTITY, "1.1", "view", Boolean.TRUE);
+        Assert.assertEquals(Boolean.TRUE, this.cache.getDecision(ENTITY, "1.1", "view"));
+        Assert.assertNull(this.cache.getDecision(ENTITY, "1.2", "view"));
+
+        this.cache.setDecision(ENTITY, "1.2", "edit", Boolean.FALSE);
+        Assert.assertNull(this.cache.getDecision(ENTITY, "1.1", "view"));
+        Assert.assertEquals(Boolean.FALSE, this.cache.getDecision(ENTITY, "1.2", "edit"));
+    }
+
+    @Test
+    public void invalidatingAnEntityIsCounted()
+    {
+        this.cache.setDecision(ENTITY, "1.1", "view", Boolean.TRUE);
+        this.cache.invalidate(ENTITY);
+        Assert.assertNull(this.cache.getDecision(ENTITY, "1.1", "view"));
+        Assert.assertEquals(1L, this.cache.getStatistics().get("invalidations"));
+
+        this.cache.invalidateDecisions();
+        this.cache.invalidateAll();
+        Assert.assertEquals(3L, this.cache.getStatistics().get("invalidations"));
+    }
+
+    @Test
+    public void concurrentDecisionsForANewVersionAreAllKept() throws Exception
+    {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Object>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; ++i) {
+                final String key = "decision" + i;
+                Callable<Object> task = () -> {
+                    start.await();
+                    this.cache.setDecision(ENTITY, "2.1", key, Boolean.TRUE);
+                    return null;
+                };
+                results.add(executor.submit(task));
+            }
+            start.countDown();
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = 0; i < threads; ++i) {
+            Assert.assertEquals(Boolean.TRUE, this.cache.getDecision(ENTITY, "2.1", "decision" + i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Cache<T> mockCache()
+    {
+        Map<String, T> values = new ConcurrentHashMap<>();
+        Cache<T> result = mock(Cache.class);
+        doAnswer(invocation -> values.put((String) invocation.getArguments()[0], (T) invocation.getArguments()[1]))
+            .when(result).set(anyString(), any());
+        when(result.get(anyString())).thenAnswer(invocation -> values.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> values.remove(invocation.getArguments()[0])).when(result).remove(anyString());
+        doAnswer(invocation -> {
+            values.clear();
+            return null;
+        }).when(result).removeAll();
+        return result;
+    }
+}
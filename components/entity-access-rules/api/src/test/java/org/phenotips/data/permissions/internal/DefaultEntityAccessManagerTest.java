@@ -41,6 +41,7 @@
 
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -984,6 +985,91 @@ public void getAccessLevelWithGroupMemberCollaborator() throws XWikiException
         Assert.assertSame(EDIT_ACCESS, this.component.getAccessLevel(this.entity, COLLABORATOR));
     }
 
+    /**
+     * {@link EntityAccessManager#getAccessLevel(PrimaryEntity, EntityReference)} returns the cached access level for
+     * the current version of the entity, without computing it again.
+     */
+    @Test
+    public void getAccessLevelReturnsCachedDecision() throws Exception
+    {
+        EntityAccessCache cache = this.mocker.getInstance(EntityAccessCache.class);
+        when(this.entityDoc.getVersion()).thenReturn("2.1");
+        when(cache.getDecision(PATIENT_REFERENCE, "2.1", "accessLevel:" + COLLABORATOR)).thenReturn(VIEW_ACCESS);
+
+        Assert.assertSame(VIEW_ACCESS, this.component.getAccessLevel(this.entity, COLLABORATOR));
+        verify(this.xwiki, never()).getGroupService(this.context);
+        verify(cache, never()).setDecision(any(DocumentReference.class), anyString(), anyString(), any());
+    }
+
+    /**
+     * {@link EntityAccessManager#getAccessLevel(PrimaryEntity, EntityReference)} stores the computed access level and
+     * the groups of the user in the cache.
+     */
+    @Test
+    public void getAccessLevelStoresComputedDecision() throws Exception
+    {
+        EntityAccessCache cache = this.mocker.getInstance(EntityAccessCache.class);
+        when(this.entityDoc.getVersion()).thenReturn("2.1");
+        List<BaseObject> objects = new ArrayList<>();
+        when(this.collaboratorObject1.getStringValue(COLLABORATOR_LABEL)).thenReturn(GROUP_STR);
+        when(this.collaboratorObject1.getStringValue(ACCESS_LABEL)).thenReturn(EDIT_LABEL);
+        objects.add(this.collaboratorObject1);
+        when(this.entityDoc.getXObjects(COLLABORATOR_CLASS)).thenReturn(objects);
+        when(this.xwiki.getGroupService(this.context)).thenReturn(this.groupService);
+        when(this.groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
+            .thenReturn(Collections.singletonList(GROUP));
+        when(this.groupService.getAllGroupsReferencesForMember(GROUP, 0, 0, this.context))
+            .thenReturn(Collections.emptyList());
+
+        Assert.assertSame(EDIT_ACCESS, this.component.getAccessLevel(this.entity, COLLABORATOR));
+        verify(cache).setDecision(PATIENT_REFERENCE, "2.1", "accessLevel:" + COLLABORATOR, EDIT_ACCESS);
+        verify(cache).setGroups(COLLABORATOR, Arrays.asList(COLLABORATOR, GROUP));
+    }
+
+    /**
+     * {@link EntityAccessManager#getAccessLevel(PrimaryEntity, EntityReference)} doesn't use the cache for documents
+     * with unsaved changes, since their content doesn't match the stored version.
+     */
+    @Test
+    public void getAccessLevelDoesntCacheDecisionsForModifiedDocuments() throws Exception
+    {
+        EntityAccessCache cache = this.mocker.getInstance(EntityAccessCache.class);
+        when(this.entityDoc.getVersion()).thenReturn("2.1");
+        when(this.entityDoc.isMetaDataDirty()).thenReturn(true);
+        when(cache.getDecision(PATIENT_REFERENCE, "2.1", "accessLevel:" + COLLABORATOR)).thenReturn(VIEW_ACCESS);
+        List<BaseObject> objects = new ArrayList<>();
+        when(this.collaboratorObject1.getStringValue(COLLABORATOR_LABEL)).thenReturn(COLLABORATOR_STR);
+        when(this.collaboratorObject1.getStringValue(ACCESS_LABEL)).thenReturn(EDIT_LABEL);
+        objects.add(this.collaboratorObject1);
+        when(this.entityDoc.getXObjects(COLLABORATOR_CLASS)).thenReturn(objects);
+        when(this.xwiki.getGroupService(this.context)).thenReturn(this.groupService);
+        when(this.groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
+            .thenReturn(Collections.emptyList());
+
+        Assert.assertSame(EDIT_ACCESS, this.component.getAccessLevel(this.entity, COLLABORATOR));
+        verify(cache, never()).getDecision(any(DocumentReference.class), anyString(), anyString());
+        verify(cache, never()).setDecision(any(DocumentReference.class), anyString(), anyString(), any());
+    }
+
+    /**
+     * {@link EntityAccessManager#getAccessLevel(PrimaryEntity, EntityReference)} doesn't cache decisions for documents
+     * that weren't saved yet.
+     */
+    @Test
+    public void getAccessLevelDoesntCacheDecisionsForNewDocuments() throws Exception
+    {
+        EntityAccessCache cache = this.mocker.getInstance(EntityAccessCache.class);
+        when(this.entityDoc.getVersion()).thenReturn("1.1");
+        when(this.entityDoc.isNew()).thenReturn(true);
+        when(this.xwiki.getGroupService(this.context)).thenReturn(this.groupService);
+        when(this.groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
+            .thenReturn(Collections.emptyList());
+
+        this.component.getAccessLevel(this.entity, COLLABORATOR);
+        verify(cache, never()).getDecision(any(DocumentReference.class), anyString(), anyString());
+        verify(cache, never()).setDecision(any(DocumentReference.class), anyString(), anyString(), any());
+    }
+
     /**
      * {@link EntityAccessManager#getAccessLevel(PrimaryEntity, EntityReference)} returns no access when XWiki throws
      * exceptions.
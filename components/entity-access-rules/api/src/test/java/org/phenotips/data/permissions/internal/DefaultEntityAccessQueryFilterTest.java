@@ -0,0 +1,213 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.EntityAccessQueryFilter;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.permissions.internal.access.NoAccessLevel;
+import org.phenotips.data.permissions.internal.access.ViewAccessLevel;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultEntityAccessQueryFilter} component.
+ *
+ * @version $Id$
+ */
+public class DefaultEntityAccessQueryFilterTest
+{
+    private static final EntityReference DATA_SPACE = new EntityReference("data", EntityType.SPACE);
+
+    private static final DocumentReference USER = new DocumentReference("xwiki", "XWiki", "jdoe");
+
+    private static final DocumentReference GROUP = new DocumentReference("xwiki", "XWiki", "Cardiology");
+
+    @Rule
+    public final MockitoComponentMockingRule<EntityAccessQueryFilter> mocker =
+        new MockitoComponentMockingRule<>(DefaultEntityAccessQueryFilter.class);
+
+    private AuthorizationService access;
+
+    private User user = mock(User.class);
+
+    private Map<String, Object> parameters = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.access = this.mocker.getInstance(AuthorizationService.class);
+        when(this.user.getProfileDocument()).thenReturn(USER);
+
+        EntityAccessManager accessManager = this.mocker.getInstance(EntityAccessManager.class);
+        when(accessManager.getAllGroups(USER)).thenReturn(Arrays.asList(USER, GROUP));
+
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class));
+        when(serializer.serialize(USER)).thenReturn("xwiki:XWiki.jdoe");
+        when(serializer.serialize(GROUP)).thenReturn("xwiki:XWiki.Cardiology");
+        EntityReferenceSerializer<String> localSerializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class), "local");
+        when(localSerializer.serialize(USER)).thenReturn("XWiki.jdoe");
+        when(localSerializer.serialize(GROUP)).thenReturn("XWiki.Cardiology");
+        when(localSerializer.serialize(Owner.CLASS_REFERENCE)).thenReturn("PhenoTips.OwnerClass");
+        when(localSerializer.serialize(Collaborator.CLASS_REFERENCE)).thenReturn("PhenoTips.CollaboratorClass");
+        when(localSerializer.serialize(Visibility.CLASS_REFERENCE)).thenReturn("PhenoTips.VisibilityClass");
+
+        Visibility publicVisibility = mockVisibility("public", new ViewAccessLevel());
+        Visibility privateVisibility = mockVisibility("private", new NoAccessLevel());
+        EntityVisibilityManager visibilityManager = this.mocker.getInstance(EntityVisibilityManager.class);
+        when(visibilityManager.listAllVisibilityOptions())
+            .thenReturn(Arrays.asList(privateVisibility, publicVisibility));
+    }
+
+    /** Administrators can see everything, so no condition is needed. */
+    @Test
+    public void noConditionForAdministrators() throws Exception
+    {
+        when(this.access.hasAccess(this.user, Right.ADMIN, DATA_SPACE)).thenReturn(true);
+        Assert.assertNull(this.mocker.getComponentUnderTest().getViewCondition("doc", this.user, DATA_SPACE,
+            this.parameters));
+        Assert.assertNull(this.mocker.getComponentUnderTest().getGrantedViewCondition("doc", this.user, DATA_SPACE,
+            this.parameters));
+        Assert.assertTrue(this.parameters.isEmpty());
+    }
+
+    /** The space level XWiki rights, such as the default edit right of all registered users, don't drop the filter. */
+    @Test
+    public void conditionIsUsedEvenWhenXWikiRightsGrantViewOnTheSpace() throws Exception
+    {
+        AuthorizationManager rights = this.mocker.getInstance(AuthorizationManager.class);
+        when(rights.hasAccess(Right.VIEW, USER, DATA_SPACE)).thenReturn(true);
+        when(rights.hasAccess(Right.EDIT, USER, DATA_SPACE)).thenReturn(true);
+        when(this.access.hasAccess(this.user, Right.VIEW, DATA_SPACE)).thenReturn(true);
+        when(this.access.hasAccess(this.user, Right.EDIT, DATA_SPACE)).thenReturn(true);
+        Assert.assertNotNull(this.mocker.getComponentUnderTest().getViewCondition("doc", this.user, DATA_SPACE,
+            this.parameters));
+        Assert.assertNotNull(this.mocker.getComponentUnderTest().getGrantedViewCondition("doc", this.user,
+            DATA_SPACE, this.parameters));
+    }
+
+    /** Guests still match the entities that other modules may grant them access to. */
+    @Test
+    public void guestsMatchPublicOwnerlessAndOtherwiseGrantedEntities() throws Exception
+    {
+        String condition = this.mocker.getComponentUnderTest().getViewCondition("doc", null, DATA_SPACE,
+            this.parameters);
+
+        Assert.assertFalse(condition.contains("eaqOwnerObj"));
+        Assert.assertFalse(condition.contains("eaqCollaboratorObj"));
+        Assert.assertTrue(condition.startsWith("(not exists (select eaqNoOwnerObj.id"));
+        Assert.assertTrue(condition.contains(" or exists (select eaqVisibilityObj.id"));
+        Assert.assertTrue(condition.contains("trim(eaqNoOwnerProp.value) not in (:eaqNoOwner)"));
+        Assert.assertTrue(condition.contains(" or exists (select eaqRightsObj.id"));
+        Assert.assertTrue(condition.endsWith(" or exists (select eaqFamilyObj.id from BaseObject eaqFamilyObj"
+            + " where eaqFamilyObj.name = doc.fullName and eaqFamilyObj.className = :eaqFamilyClass))"));
+        Assert.assertEquals("XWiki.XWikiRights", this.parameters.get("eaqRightsClass"));
+        Assert.assertEquals("PhenoTips.FamilyReferenceClass", this.parameters.get("eaqFamilyClass"));
+        Assert.assertEquals("PhenoTips.OwnerClass", this.parameters.get("eaqNoOwnerClass"));
+        Assert.assertEquals("owner", this.parameters.get("eaqNoOwnerName"));
+        Assert.assertTrue(((Collection<?>) this.parameters.get("eaqNoOwner")).contains("XWiki.XWikiGuest"));
+        Assert.assertTrue(((Collection<?>) this.parameters.get("eaqNoOwner")).contains(""));
+    }
+
+    /** Registered users also match owned and shared entities. */
+    @Test
+    public void registeredUsersMatchOwnerCollaboratorsAndVisibility() throws Exception
+    {
+        String condition = this.mocker.getComponentUnderTest().getViewCondition("doc", this.user, DATA_SPACE,
+            this.parameters);
+
+        Assert.assertTrue(condition.startsWith("(exists (select eaqOwnerObj.id from BaseObject eaqOwnerObj"));
+        Assert.assertTrue(condition.contains("eaqOwnerObj.name = doc.fullName"));
+        Assert.assertTrue(condition.contains(" or exists (select eaqCollaboratorObj.id"));
+        Assert.assertTrue(condition.contains("eaqVisibilityProp.value in (:eaqVisibilities)"));
+        Assert.assertTrue(condition.contains(" or not exists (select eaqNoOwnerObj.id"));
+        Assert.assertTrue(condition.contains(" or exists (select eaqRightsObj.id"));
+        Assert.assertTrue(condition.contains(" or exists (select eaqFamilyObj.id"));
+        Assert.assertEquals(Arrays.asList("xwiki:XWiki.jdoe", "XWiki.jdoe", "xwiki:XWiki.Cardiology",
+            "XWiki.Cardiology"), Arrays.asList(((Collection<?>) this.parameters.get("eaqPrincipals")).toArray()));
+        Assert.assertEquals(Collections.singleton("public"), this.parameters.get("eaqVisibilities"));
+        Assert.assertEquals("PhenoTips.OwnerClass", this.parameters.get("eaqOwnerClass"));
+        Assert.assertEquals("collaborator", this.parameters.get("eaqCollaboratorName"));
+    }
+
+    /** Guests are only certainly granted ownerless and guest-owned entities. */
+    @Test
+    public void guestsAreGrantedOwnerlessEntities() throws Exception
+    {
+        String condition = this.mocker.getComponentUnderTest().getGrantedViewCondition("doc", null, DATA_SPACE,
+            this.parameters);
+
+        Assert.assertEquals("(not exists (select eaqNoOwnerObj.id from BaseObject eaqNoOwnerObj, StringProperty"
+            + " eaqNoOwnerProp where eaqNoOwnerObj.name = doc.fullName and eaqNoOwnerObj.className = :eaqNoOwnerClass"
+            + " and eaqNoOwnerProp.id.id = eaqNoOwnerObj.id and eaqNoOwnerProp.id.name = :eaqNoOwnerName"
+            + " and trim(eaqNoOwnerProp.value) not in (:eaqNoOwner)))", condition);
+        Assert.assertEquals(3, this.parameters.size());
+    }
+
+    /** Registered users are granted owned, shared and visible entities, but not those with other access rules. */
+    @Test
+    public void registeredUsersAreGrantedOwnedSharedVisibleAndOwnerlessEntities() throws Exception
+    {
+        String condition = this.mocker.getComponentUnderTest().getGrantedViewCondition("doc", this.user,
+            DATA_SPACE, this.parameters);
+
+        Assert.assertTrue(condition.startsWith("(exists (select eaqOwnerObj.id from BaseObject eaqOwnerObj"));
+        Assert.assertTrue(condition.contains(" or exists (select eaqCollaboratorObj.id"));
+        Assert.assertTrue(condition.contains(" or exists (select eaqVisibilityObj.id"));
+        Assert.assertTrue(condition.endsWith("trim(eaqNoOwnerProp.value) not in (:eaqNoOwner)))"));
+        Assert.assertFalse(condition.contains("eaqRightsObj"));
+        Assert.assertFalse(condition.contains("eaqFamilyObj"));
+        Assert.assertFalse(this.parameters.containsKey("eaqRightsClass"));
+        Assert.assertFalse(this.parameters.containsKey("eaqFamilyClass"));
+    }
+
+    private Visibility mockVisibility(String name, AccessLevel defaultAccess)
+    {
+        Visibility result = mock(Visibility.class);
+        when(result.getName()).thenReturn(name);
+        when(result.getDefaultAccessLevel()).thenReturn(defaultAccess);
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.events.EntityRightsUpdatedEvent;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link EntityAccessCacheInvalidator}.
+ *
+ * @version $Id$
+ */
+public class EntityAccessCacheInvalidatorTest
+{
+    private static final EntityReference GROUP_CLASS = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
+        new EntityReference("XWiki", EntityType.SPACE));
+
+    private static final DocumentReference DOC_REFERENCE = new DocumentReference("xwiki", "data", "P0000001");
+
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<>(EntityAccessCacheInvalidator.class);
+
+    private XWikiDocument doc = mock(XWikiDocument.class);
+
+    private EntityAccessCache cache;
+
+    @Before
+    public void setup() throws Exception
+    {
+        this.cache = this.mocker.getInstance(EntityAccessCache.class);
+        when(this.doc.getDocumentReference()).thenReturn(DOC_REFERENCE);
+    }
+
+    /** Saving a regular document only discards the decisions cached for that document. */
+    @Test
+    public void documentUpdateInvalidatesTheDocument() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), this.doc, null);
+        verify(this.cache).invalidate(DOC_REFERENCE);
+        verify(this.cache, never()).invalidateAll();
+    }
+
+    /** Saving a group discards everything, since group membership affects all entities. */
+    @Test
+    public void groupUpdateInvalidatesEverything() throws Exception
+    {
+        when(this.doc.getXObject(GROUP_CLASS)).thenReturn(mock(BaseObject.class));
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), this.doc, null);
+        verify(this.cache).invalidateAll();
+        verify(this.cache, never()).invalidate(any(DocumentReference.class));
+    }
+
+    /** Deleting a group also discards everything, the group objects being only present on the original document. */
+    @Test
+    public void groupDeletionInvalidatesEverything() throws Exception
+    {
+        XWikiDocument original = mock(XWikiDocument.class);
+        when(original.getXObject(GROUP_CLASS)).thenReturn(mock(BaseObject.class));
+        when(this.doc.getOriginalDocument()).thenReturn(original);
+        this.mocker.getComponentUnderTest().onEvent(new DocumentDeletedEvent(), this.doc, null);
+        verify(this.cache).invalidateAll();
+    }
+
+    /** Updating entity rights discards all the cached decisions, but keeps the group memberships. */
+    @Test
+    public void rightsUpdateInvalidatesDecisions() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new EntityRightsUpdatedEvent("P0000001"), null, null);
+        verify(this.cache).invalidateDecisions();
+        verify(this.cache, never()).invalidateAll();
+    }
+}
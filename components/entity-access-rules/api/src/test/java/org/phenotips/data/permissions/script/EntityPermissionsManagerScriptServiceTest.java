@@ -17,11 +17,13 @@
  */
 package org.phenotips.data.permissions.script;
 
+import org.phenotips.Constants;
 import org.phenotips.data.Patient;
 import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
 import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.permissions.internal.EntityAccessCache;
 import org.phenotips.data.permissions.internal.SecureEntityPermissionsManager;
 import org.phenotips.data.permissions.internal.access.EditAccessLevel;
 import org.phenotips.data.permissions.internal.visibility.PublicVisibility;
@@ -30,6 +32,8 @@
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
@@ -37,7 +41,9 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -147,4 +153,27 @@ public void getPatientAccessForwardsCallsCorrectly() throws ComponentLookupExcep
         EntityAccess result2 = this.mocker.getComponentUnderTest().getEntityAccess(testID);
         Assert.assertNull(result2);
     }
+
+    @Test
+    public void accessCacheStatisticsRequireAdminRights() throws ComponentLookupException
+    {
+        EntityAccessCache cache = this.mocker.getInstance(EntityAccessCache.class);
+        Map<String, Number> statistics = Collections.singletonMap("hits", 1L);
+        when(cache.getStatistics()).thenReturn(statistics);
+
+        User currentUser = mock(User.class);
+        UserManager userManager = this.mocker.getInstance(UserManager.class);
+        when(userManager.getCurrentUser()).thenReturn(currentUser);
+        DocumentReference xwikiPreferences = mock(DocumentReference.class);
+        DocumentReferenceResolver<EntityReference> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_REFERENCE, "currentmixed");
+        when(resolver.resolve(Constants.XWIKI_SPACE_REFERENCE)).thenReturn(xwikiPreferences);
+        AuthorizationService access = this.mocker.getInstance(AuthorizationService.class);
+
+        when(access.hasAccess(currentUser, Right.ADMIN, xwikiPreferences)).thenReturn(false);
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getAccessCacheStatistics().isEmpty());
+
+        when(access.hasAccess(currentUser, Right.ADMIN, xwikiPreferences)).thenReturn(true);
+        Assert.assertSame(statistics, this.mocker.getComponentUnderTest().getAccessCacheStatistics());
+    }
 }
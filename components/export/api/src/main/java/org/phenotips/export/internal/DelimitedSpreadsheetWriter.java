@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Writes a spreadsheet as delimiter-separated text, one line per spreadsheet row, as soon as the rows are available.
+ * Styles and merged cells are not supported: the value of a merged cell is written in its first column only. With a
+ * comma separator the output follows the CSV conventions, values containing separators, quotes or line breaks being
+ * quoted; with a tab separator, tabs and line breaks inside values are replaced by spaces.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class DelimitedSpreadsheetWriter implements SpreadsheetWriter
+{
+    private static final char QUOTE = '"';
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final Writer writer;
+
+    private final char separator;
+
+    /** The number of columns of the widest row so far, shorter rows are padded with empty values. */
+    private int columns;
+
+    /**
+     * Simple constructor.
+     *
+     * @param outputStream where rows are written, using the UTF-8 encoding
+     * @param separator the character separating the values in a row, usually a comma or a tab
+     */
+    public DelimitedSpreadsheetWriter(OutputStream outputStream, char separator)
+    {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.separator = separator;
+    }
+
+    @Override
+    public void write(DataSection section, int firstRow) throws IOException
+    {
+        DataCell[][] cells = section.getMatrix();
+        this.columns = Math.max(this.columns, section.getMaxX() + 1);
+        for (int y = 0; y <= section.getMaxY(); y++) {
+            for (int x = 0; x < this.columns; x++) {
+                if (x > 0) {
+                    this.writer.write(this.separator);
+                }
+                DataCell cell = x <= section.getMaxX() ? cells[x][y] : null;
+                if (cell != null) {
+                    this.writer.write(escape(cell.getValue()));
+                }
+            }
+            this.writer.write(LINE_SEPARATOR);
+        }
+    }
+
+    @Override
+    public void finish(int headerHeight) throws IOException
+    {
+        this.writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.writer.flush();
+    }
+
+    private String escape(String value)
+    {
+        if (this.separator == '\t') {
+            return StringUtils.replaceChars(value.replace(LINE_SEPARATOR, " "), "\t\r\n", "   ");
+        }
+        if (StringUtils.containsAny(value, this.separator, QUOTE, '\r', '\n')) {
+            return QUOTE + value.replace("\"", "\"\"") + QUOTE;
+        }
+        return value;
+    }
+}
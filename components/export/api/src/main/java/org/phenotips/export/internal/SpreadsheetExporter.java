@@ -24,10 +24,20 @@
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -37,13 +47,20 @@
 
 /**
  * Abstracts all export functionality by exposing a single function {@link #export(String[], java.util.List,
- * java.io.OutputStream)}.
+ * java.io.OutputStream)}, which builds the whole workbook in memory, and its streaming counterpart
+ * {@link #export(String[], Iterator, SpreadsheetFormat, OutputStream)}, meant for large exports.
  *
  * @version $Id$
  * @since 1.0RC1
  */
 public class SpreadsheetExporter
 {
+    /** How many converted patients may wait to be written, when streaming. */
+    private static final int QUEUE_CAPACITY = 50;
+
+    /** Marks the end of the converted patients queue. */
+    private static final List<DataSection> END = new LinkedList<>();
+
     protected Workbook wBook;
 
     /**
@@ -82,6 +99,120 @@ public void export(String[] enabledFieldsArray, List<Patient> patients, OutputSt
         }
     }
 
+    /**
+     * For the patients provided by an iterator, completes an export limited by the list of fields that are requested,
+     * and streams the result to the output stream. Patients are read and converted one at a time on the calling
+     * thread, since reading patient data requires the current execution context, while the rows of already converted
+     * patients are assembled, styled and written from a background thread. Only a bounded number of converted patients
+     * waits to be written, and written rows are flushed out of memory, so memory use does not grow with the number of
+     * exported patients.
+     *
+     * @param enabledFieldsArray array of field ids that should be present in the export
+     * @param patients the patients whose information should be present in the export, fetched lazily; {@code null}
+     *            items are skipped
+     * @param format the file format to produce
+     * @param outputStream stream to which the export will be written to
+     * @throws Exception an attempt to close outputStream will be made, but the exception will not be handled
+     * @since 1.5
+     */
+    public void export(String[] enabledFieldsArray, Iterator<Patient> patients, SpreadsheetFormat format,
+        OutputStream outputStream) throws Exception
+    {
+        if (enabledFieldsArray == null || outputStream == null) {
+            return;
+        }
+        Set<String> enabledFields = new HashSet<String>(Arrays.asList(enabledFieldsArray));
+        try (SpreadsheetWriter writer = createWriter(format, outputStream)) {
+            streamMainSheet(enabledFields, patients, writer);
+        } finally {
+            try {
+                outputStream.close();
+            } catch (IOException ex) {
+                //If this happens,something went very wrong.
+            }
+        }
+    }
+
+    protected SpreadsheetWriter createWriter(SpreadsheetFormat format, OutputStream outputStream)
+    {
+        return format.createWriter(outputStream);
+    }
+
+    /**
+     * Writes the header, then converts the patients and hands them to a background thread writing their rows. The
+     * section borders are extended from the header to the rows of each patient, as done for the whole sheet when
+     * working in memory.
+     */
+    protected void streamMainSheet(Set<String> enabledFields, Iterator<Patient> patients, SpreadsheetWriter writer)
+        throws Exception
+    {
+        DataToCellConverter converter = SheetAssembler.createConverter(enabledFields);
+        DataSection header = SheetAssembler.assembleHeader(SheetAssembler.generateHeader(converter, enabledFields));
+        List<Set<StyleOption>> borders =
+            Styler.getColumnStyles(header, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+        Styler.applyColumnStyles(header, borders);
+        writer.write(header, 0);
+        int headerHeight = header.getMaxY() + 1;
+
+        BlockingQueue<List<DataSection>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        ExecutorService committer = Executors.newSingleThreadExecutor(
+            new BasicThreadFactory.Builder().namingPattern("spreadsheet-export-%d").daemon(true).build());
+        Future<Void> committed = committer.submit(() -> commitPatients(queue, writer, borders, headerHeight));
+        try {
+            while (patients.hasNext()) {
+                Patient patient = patients.next();
+                if (patient == null) {
+                    continue;
+                }
+                List<DataSection> sections = SheetAssembler.generatePatientSections(converter, patient);
+                while (!queue.offer(sections, 1, TimeUnit.SECONDS)) {
+                    if (committed.isDone()) {
+                        // The writer stopped, report its failure
+                        awaitCommitted(committed);
+                    }
+                }
+            }
+            while (!queue.offer(END, 1, TimeUnit.SECONDS)) {
+                if (committed.isDone()) {
+                    awaitCommitted(committed);
+                }
+            }
+            awaitCommitted(committed);
+        } finally {
+            committer.shutdownNow();
+            committer.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        writer.finish(headerHeight);
+    }
+
+    private Void commitPatients(BlockingQueue<List<DataSection>> queue, SpreadsheetWriter writer,
+        List<Set<StyleOption>> borders, int firstRow) throws Exception
+    {
+        int row = firstRow;
+        while (true) {
+            List<DataSection> sections = queue.take();
+            if (sections == END) {
+                return null;
+            }
+            DataSection patient = SheetAssembler.assemblePatient(sections);
+            Styler.applyColumnStyles(patient, borders);
+            writer.write(patient, row);
+            row += patient.getMaxY() + 1;
+        }
+    }
+
+    private void awaitCommitted(Future<Void> committed) throws Exception
+    {
+        try {
+            committed.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
     protected Workbook createNewWorkbook()
     {
         return new XSSFWorkbook();
@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * The file formats supported by the {@link SpreadsheetExporter}.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public enum SpreadsheetFormat
+{
+    /** Excel workbook. */
+    XLSX,
+    /** Comma-separated values. */
+    CSV,
+    /** Tab-separated values. */
+    TSV;
+
+    /**
+     * Finds the format with the given name.
+     *
+     * @param name the name of the format, case insensitive, for example {@code csv}
+     * @return the matching format, or {@link #XLSX} if the name is {@code null} or unknown
+     */
+    public static SpreadsheetFormat fromName(String name)
+    {
+        if (name != null) {
+            for (SpreadsheetFormat format : values()) {
+                if (format.name().equals(name.toUpperCase(Locale.ROOT))) {
+                    return format;
+                }
+            }
+        }
+        return XLSX;
+    }
+
+    /**
+     * Creates a writer producing this format.
+     *
+     * @param outputStream where the spreadsheet is written
+     * @return a new writer
+     */
+    public SpreadsheetWriter createWriter(OutputStream outputStream)
+    {
+        switch (this) {
+            case CSV:
+                return new DelimitedSpreadsheetWriter(outputStream, ',');
+            case TSV:
+                return new DelimitedSpreadsheetWriter(outputStream, '\t');
+            default:
+                return new XlsxSpreadsheetWriter(outputStream);
+        }
+    }
+}
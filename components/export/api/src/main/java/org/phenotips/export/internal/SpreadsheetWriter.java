@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes assembled {@link DataSection}s into a spreadsheet as soon as they are available, so that the whole sheet never
+ * needs to be held in memory. Sections must be written in order, each one starting on the row following the last row
+ * of the previous one.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public interface SpreadsheetWriter extends Closeable
+{
+    /**
+     * Writes the cells of a section.
+     *
+     * @param section a section that has been {@link DataSection#finalizeToMatrix() finalized}
+     * @param firstRow the spreadsheet row where the top of the section is placed
+     * @throws IOException if writing fails
+     */
+    void write(DataSection section, int firstRow) throws IOException;
+
+    /**
+     * Completes the spreadsheet, after all the sections were written, and sends it to the output.
+     *
+     * @param headerHeight the number of rows occupied by the header, which may be kept visible while scrolling
+     * @throws IOException if writing fails
+     */
+    void finish(int headerHeight) throws IOException;
+
+    /**
+     * Releases the resources used while writing, without closing the output stream.
+     *
+     * @throws IOException if releasing resources fails
+     */
+    @Override
+    void close() throws IOException;
+}
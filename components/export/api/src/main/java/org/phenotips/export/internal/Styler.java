@@ -17,6 +17,7 @@
  */
 package org.phenotips.export.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -210,38 +211,75 @@ public static void extendStyleHorizontally(DataSection section, StyleOption... s
      * @param styles an array of styles to look for
      * @throws Exception if the section was not {@link DataSection#finalizeToMatrix()}
      */
-    @SuppressWarnings({ "checkstyle:NPathComplexity", "checkstyle:CyclomaticComplexity" })
     public static void extendStyleVertically(DataSection section, StyleOption... styles)
         throws Exception
+    {
+        applyColumnStyles(section, getColumnStyles(section, styles));
+    }
+
+    /**
+     * Finds, for each column of the section, which of the passed in styles are set on the topmost cell having at least
+     * one of them. This is what {@link #extendStyleVertically(DataSection, StyleOption...)} extends, and allows
+     * extending the styles found in a header to sections that are committed later.
+     *
+     * @param section cannot be null
+     * @param styles an array of styles to look for
+     * @return the styles to extend, indexed by column, with {@code null} for columns where none of the styles is found
+     * @throws Exception if the section was not {@link DataSection#finalizeToMatrix()}
+     */
+    public static List<Set<StyleOption>> getColumnStyles(DataSection section, StyleOption... styles)
+        throws Exception
     {
         DataCell[][] cellMatrix = section.getMatrix();
         if (cellMatrix == null) {
             throw new Exception(NO_MATRIX_ERR_MSG);
         }
 
+        List<Set<StyleOption>> result = new ArrayList<>(section.getMaxX() + 1);
         for (int x = 0; x <= section.getMaxX(); x++) {
-            Set<StyleOption> toExtend = new HashSet<>();
-            Boolean found = false;
-            for (int y = 0; y <= section.getMaxY(); y++) {
-                found = false;
+            Set<StyleOption> toExtend = null;
+            for (int y = 0; y <= section.getMaxY() && toExtend == null; y++) {
                 DataCell cell = cellMatrix[x][y];
-                if (cell == null) {
+                if (cell == null || cell.isChild() || cell.getStyles() == null) {
                     continue;
                 }
                 for (StyleOption style : styles) {
-                    if (!cell.isChild() && cell.getStyles() != null && cell.getStyles().contains(style)) {
+                    if (cell.getStyles().contains(style)) {
+                        if (toExtend == null) {
+                            toExtend = new HashSet<>();
+                        }
                         toExtend.add(style);
-                        found = true;
                     }
                 }
-                if (found) {
-                    break;
-                }
             }
-            if (!found) {
+            result.add(toExtend);
+        }
+        return result;
+    }
+
+    /**
+     * Adds styles to all the cells of each column of the section. Creates new
+     * {@link org.phenotips.export.internal.DataCell}s, if missing.
+     *
+     * @param section cannot be null
+     * @param columnStyles the styles to add, indexed by column, as returned by
+     *            {@link #getColumnStyles(DataSection, StyleOption...)}; {@code null} items are skipped
+     * @throws Exception if the section was not {@link DataSection#finalizeToMatrix()}
+     */
+    public static void applyColumnStyles(DataSection section, List<Set<StyleOption>> columnStyles)
+        throws Exception
+    {
+        DataCell[][] cellMatrix = section.getMatrix();
+        if (cellMatrix == null) {
+            throw new Exception(NO_MATRIX_ERR_MSG);
+        }
+
+        int maxX = Math.min(section.getMaxX(), columnStyles.size() - 1);
+        for (int x = 0; x <= maxX; x++) {
+            Set<StyleOption> toExtend = columnStyles.get(x);
+            if (toExtend == null) {
                 continue;
             }
-
             /* In case the border passes through non-existent cells */
             for (int y = 0; y <= section.getMaxY(); y++) {
                 DataCell cell = cellMatrix[x][y];
@@ -264,6 +302,12 @@ public static void extendStyleVertically(DataSection section, StyleOption... sty
     public void style(DataCell dataCell, Cell cell, Workbook wBook)
     {
         Set<StyleOption> styles = dataCell.getStyles();
+        /* Check the cache first, since the workbook can only hold a limited number of styles */
+        CellStyle cached = this.styleCache.get(styles == null ? Collections.<StyleOption>emptySet() : styles);
+        if (cached != null) {
+            cell.setCellStyle(cached);
+            return;
+        }
         CellStyle cellStyle = wBook.createCellStyle();
         /* For \n to work properly set to true */
         cellStyle.setWrapText(true);
@@ -277,10 +321,6 @@ public void style(DataCell dataCell, Cell cell, Workbook wBook)
         if (this.setDefaultStyle(styles, cell, cellStyle)) {
             return;
         }
-        if (this.styleCache.containsKey(styles)) {
-            cell.setCellStyle(this.styleCache.get(styles));
-            return;
-        }
 
         /* Priority of styles can be coded in by placing the if statement lower within the corresponding function. */
         this.setFontStyles(styles, cell, cellStyle, wBook);
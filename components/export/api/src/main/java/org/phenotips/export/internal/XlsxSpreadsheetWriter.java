@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Writes an {@code .xlsx} spreadsheet using a sliding window of rows: only the most recent rows are kept in memory,
+ * older rows are flushed to a compressed temporary file. Since flushed rows can't be measured anymore, column widths
+ * are estimated from the length of the values written in each column, instead of auto-sizing the columns at the end.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class XlsxSpreadsheetWriter implements SpreadsheetWriter
+{
+    /** How many rows are kept in memory before being flushed to disk. */
+    public static final int ROW_WINDOW = 200;
+
+    /** The approximate width of one character of the default font, in units of 1/256th of a standard character. */
+    private static final int CHARACTER_WIDTH = 210;
+
+    /** The widest a column can get, like when auto-sizing columns. */
+    private static final int MAX_COLUMN_WIDTH = DataToCellConverter.MAX_CHARACTERS_PER_LINE * CHARACTER_WIDTH;
+
+    /** Extra space added around the content of a column, in characters. */
+    private static final int COLUMN_PADDING = 2;
+
+    private static final int LINE_HEIGHT = 400;
+
+    private final OutputStream outputStream;
+
+    private final SXSSFWorkbook workbook;
+
+    private final Sheet sheet;
+
+    private final Styler styler = new Styler();
+
+    /** The length of the longest line written in each column. */
+    private final List<Integer> columnLengths = new ArrayList<>();
+
+    /**
+     * Creates a new workbook with a single sheet.
+     *
+     * @param outputStream where the finished workbook is written
+     */
+    public XlsxSpreadsheetWriter(OutputStream outputStream)
+    {
+        this.outputStream = outputStream;
+        this.workbook = new SXSSFWorkbook(ROW_WINDOW);
+        this.workbook.setCompressTempFiles(true);
+        this.sheet = this.workbook.createSheet("Patient Sheet");
+    }
+
+    @Override
+    public void write(DataSection section, int firstRow)
+    {
+        DataCell[][] cells = section.getMatrix();
+        for (int y = 0; y <= section.getMaxY(); y++) {
+            Row row = this.sheet.createRow(firstRow + y);
+            int maxLines = 0;
+
+            for (int x = 0; x <= section.getMaxX(); x++) {
+                DataCell dataCell = cells[x][y];
+                if (dataCell == null) {
+                    continue;
+                }
+                Cell cell = row.createCell(x);
+                cell.setCellValue(dataCell.getValue());
+                this.styler.style(dataCell, cell, this.workbook);
+
+                if (dataCell.getNumberOfLines() != null) {
+                    maxLines = Math.max(maxLines, dataCell.getNumberOfLines());
+                }
+                if (dataCell.getMergeX() != null) {
+                    /* Like auto-sizing, merged cells don't contribute to the width of the column */
+                    this.sheet.addMergedRegion(new CellRangeAddress(row.getRowNum(), row.getRowNum(), x,
+                        x + dataCell.getMergeX()));
+                } else if (!dataCell.isChild()) {
+                    measure(x, dataCell.getValue());
+                }
+            }
+            if (maxLines > 1) {
+                row.setHeight((short) (maxLines * LINE_HEIGHT));
+            }
+        }
+    }
+
+    @Override
+    public void finish(int headerHeight) throws IOException
+    {
+        for (int col = 0; col < this.columnLengths.size(); col++) {
+            int width = (this.columnLengths.get(col) + COLUMN_PADDING) * CHARACTER_WIDTH;
+            this.sheet.setColumnWidth(col, Math.min(width, MAX_COLUMN_WIDTH));
+        }
+        this.sheet.createFreezePane(0, headerHeight);
+        this.workbook.write(this.outputStream);
+        this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.workbook.dispose();
+        this.workbook.close();
+    }
+
+    /**
+     * Get the estimated width of each column.
+     *
+     * @return the length of the longest line written in each column, in characters
+     */
+    List<Integer> getColumnLengths()
+    {
+        return this.columnLengths;
+    }
+
+    private void measure(int column, String value)
+    {
+        while (this.columnLengths.size() <= column) {
+            this.columnLengths.add(0);
+        }
+        int longest = 0;
+        for (String line : value.split("\n")) {
+            longest = Math.max(longest, line.length());
+        }
+        if (longest > this.columnLengths.get(column)) {
+            this.columnLengths.set(column, longest);
+        }
+    }
+}
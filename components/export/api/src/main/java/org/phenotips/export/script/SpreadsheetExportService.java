@@ -19,7 +19,9 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.internal.VocabularyTermsPrefetcher;
 import org.phenotips.export.internal.SpreadsheetExporter;
+import org.phenotips.export.internal.SpreadsheetFormat;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
@@ -30,8 +32,12 @@
 import org.xwiki.users.UserManager;
 
 import java.io.OutputStream;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -40,7 +46,8 @@
 import org.slf4j.Logger;
 
 /**
- * Service for exporting a list of patients into an {@code .xlsx} Excel file.
+ * Service for exporting a list of patients into an {@code .xlsx} Excel file, or a {@code .csv} or {@code .tsv} text
+ * file.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -51,6 +58,9 @@
 @Singleton
 public class SpreadsheetExportService implements ScriptService
 {
+    /** How many patients are loaded ahead of the exporter, so that their vocabulary terms can be fetched together. */
+    private static final int PREFETCH_BATCH_SIZE = 50;
+
     @Inject
     private Logger logger;
 
@@ -69,6 +79,10 @@ public class SpreadsheetExportService implements ScriptService
     @Inject
     private AuthorizationService access;
 
+    /** Used for retrieving the vocabulary terms of several patients at once. */
+    @Inject
+    private VocabularyTermsPrefetcher termsPrefetcher;
+
     /**
      * Export the provided list of patients into an Excel file, containing the specified columns. The resulting binary
      * filled will be sent through the provided output stream, usually the {@code $response}'s output stream.
@@ -79,6 +93,24 @@ public class SpreadsheetExportService implements ScriptService
      * @param outputStream the output stream where the resulting binary {@code .xlsx} file will be sent
      */
     public void export(List<String> patientIds, String[] enabledFields, OutputStream outputStream)
+    {
+        export(patientIds, enabledFields, null, outputStream);
+    }
+
+    /**
+     * Export the provided list of patients into a file of the requested format, containing the specified columns. The
+     * export is streamed: patients are loaded one at a time, and their rows are written to the output stream as soon
+     * as they are ready, so that large exports don't need to be held in memory.
+     *
+     * @param patientIds list of patient IDs of the the patients to export
+     * @param enabledFields a list of field names to export; these are internal names, which will be turned into human
+     *            readable labels
+     * @param format the output format, one of {@code xlsx} (the default, used for {@code null} or unknown values),
+     *            {@code csv} or {@code tsv}
+     * @param outputStream the output stream where the resulting file will be sent
+     * @since 1.5
+     */
+    public void export(List<String> patientIds, String[] enabledFields, String format, OutputStream outputStream)
     {
         SpreadsheetExporter exporter = new SpreadsheetExporter();
         try {
@@ -88,19 +120,55 @@ public void export(List<String> patientIds, String[] enabledFields, OutputStream
             // FIXME: once new version of entities is in, need to refactor PrimaryEntityManager and incorporate
             //        security features into the entities framework to avoid doing permission checks in client code
             //        that requires non-secure versions of the Patient object
-            List<Patient> patients = new LinkedList<>();
-            for (String patientId : patientIds) {
-                Patient patient = this.patientRepository.get(patientId);
-                if (patient == null || !this.access.hasAccess(
-                        this.userManager.getCurrentUser(), Right.VIEW, patient.getDocumentReference())) {
-                    continue;
+            exporter.export(enabledFields, new AccessiblePatientsIterator(patientIds),
+                SpreadsheetFormat.fromName(format), outputStream);
+        } catch (Exception ex) {
+            this.logger.error("Error caught while generating an export spreadsheet", ex);
+        }
+    }
+
+    /**
+     * Loads patients in small batches, when the exporter asks for them, skipping those that don't exist or that the
+     * current user may not view. The vocabulary terms of each batch are fetched together before the patients are
+     * handed to the exporter.
+     */
+    private final class AccessiblePatientsIterator implements Iterator<Patient>
+    {
+        private final Iterator<String> ids;
+
+        private final Deque<Patient> loaded = new ArrayDeque<>(PREFETCH_BATCH_SIZE);
+
+        AccessiblePatientsIterator(List<String> patientIds)
+        {
+            this.ids = patientIds.iterator();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (this.loaded.isEmpty() && this.ids.hasNext()) {
+                List<Patient> batch = new ArrayList<>(PREFETCH_BATCH_SIZE);
+                while (batch.size() < PREFETCH_BATCH_SIZE && this.ids.hasNext()) {
+                    Patient patient = SpreadsheetExportService.this.patientRepository.get(this.ids.next());
+                    if (patient != null && SpreadsheetExportService.this.access.hasAccess(
+                        SpreadsheetExportService.this.userManager.getCurrentUser(), Right.VIEW,
+                        patient.getDocumentReference())) {
+                        batch.add(patient);
+                    }
                 }
-                patients.add(patient);
+                SpreadsheetExportService.this.termsPrefetcher.prefetch(batch);
+                this.loaded.addAll(batch);
             }
+            return !this.loaded.isEmpty();
+        }
 
-            exporter.export(enabledFields, patients, outputStream);
-        } catch (Exception ex) {
-            this.logger.error("Error caught while generating an export spreadsheet", ex);
+        @Override
+        public Patient next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.loaded.poll();
         }
     }
 }
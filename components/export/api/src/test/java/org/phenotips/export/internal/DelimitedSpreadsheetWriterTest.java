@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DelimitedSpreadsheetWriterTest
+{
+    @Test
+    public void csvValuesAreQuotedWhenNeeded() throws Exception
+    {
+        DataSection section = new DataSection();
+        section.addCell(new DataCell("plain", 0, 0));
+        section.addCell(new DataCell("a, b", 1, 0));
+        section.addCell(new DataCell("say \"hi\"", 2, 0));
+        section.addCell(new DataCell("two\nlines", 0, 1));
+        section.finalizeToMatrix();
+
+        Assert.assertEquals("plain,\"a, b\",\"say \"\"hi\"\"\"\r\n\"two\nlines\",,\r\n", write(',', section));
+    }
+
+    @Test
+    public void tsvValuesAreFlattened() throws Exception
+    {
+        DataSection section = new DataSection();
+        section.addCell(new DataCell("a\tb", 0, 0));
+        section.addCell(new DataCell("two\r\nlines", 1, 0));
+        section.finalizeToMatrix();
+
+        Assert.assertEquals("a b\ttwo lines\r\n", write('\t', section));
+    }
+
+    @Test
+    public void narrowerSectionsArePadded() throws Exception
+    {
+        DataSection header = new DataSection();
+        header.addCell(new DataCell("A", 0, 0));
+        header.addCell(new DataCell("B", 1, 0));
+        header.addCell(new DataCell("C", 2, 0));
+        header.finalizeToMatrix();
+        DataSection body = new DataSection();
+        body.addCell(new DataCell("1", 0, 0));
+        body.finalizeToMatrix();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SpreadsheetWriter writer = new DelimitedSpreadsheetWriter(out, ',')) {
+            writer.write(header, 0);
+            writer.write(body, 1);
+            writer.finish(1);
+        }
+        Assert.assertEquals("A,B,C\r\n1,,\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private String write(char separator, DataSection section) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SpreadsheetWriter writer = new DelimitedSpreadsheetWriter(out, separator)) {
+            writer.write(section, 0);
+            writer.finish(1);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -17,7 +17,10 @@
  */
 package org.phenotips.export.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.poi.ss.usermodel.Cell;
@@ -287,4 +290,37 @@ public void extendVerticallyNullMatrix() throws Exception
 
         verifyNoMoreInteractions(section);
     }
+
+    @Test
+    public void columnStylesAreTakenFromTopmostStyledCell() throws Exception
+    {
+        DataSection header = new DataSection();
+        header.addCell(new DataCell("a", 0, 0, StyleOption.SECTION_BORDER_LEFT));
+        header.addCell(new DataCell("b", 1, 0, StyleOption.HEADER));
+        header.addCell(new DataCell("c", 1, 1, StyleOption.SECTION_BORDER_RIGHT));
+        header.finalizeToMatrix();
+
+        List<Set<StyleOption>> columnStyles =
+            Styler.getColumnStyles(header, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+
+        Assert.assertEquals(Arrays.asList(Collections.singleton(StyleOption.SECTION_BORDER_LEFT),
+            Collections.singleton(StyleOption.SECTION_BORDER_RIGHT)), columnStyles);
+    }
+
+    @Test
+    public void columnStylesAreAppliedToAllRows() throws Exception
+    {
+        DataSection body = new DataSection();
+        body.addCell(new DataCell("a", 0, 0));
+        body.addCell(new DataCell("b", 1, 2));
+        body.finalizeToMatrix();
+
+        Styler.applyColumnStyles(body,
+            Arrays.asList(null, Collections.singleton(StyleOption.SECTION_BORDER_RIGHT), null));
+
+        Assert.assertNull(body.getMatrix()[0][0].getStyles());
+        for (int y = 0; y <= 2; y++) {
+            Assert.assertTrue(body.getMatrix()[1][y].getStyles().contains(StyleOption.SECTION_BORDER_RIGHT));
+        }
+    }
 }
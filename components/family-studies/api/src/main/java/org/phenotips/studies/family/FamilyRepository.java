@@ -24,8 +24,11 @@
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
 import org.xwiki.users.User;
 
+import org.json.JSONObject;
+
 /**
  * Utility methods for manipulating families. No access right checks are performed.
  *
@@ -152,4 +155,20 @@ boolean canAddToFamily(Family family, Patient patient, User updatingUser, boolea
      */
     boolean canDeleteFamily(Family family, User updatingUser, boolean deleteAllMembers, boolean throwException)
         throws PTException;
+
+    /**
+     * Reports how long the operations changing families waited for and held the locks of the affected family and
+     * patient documents.
+     *
+     * @return a JSON object with, for each type of operation, the number of times it was run ({@code count}), the
+     *         {@code totalWaitMillis} and {@code maxWaitMillis} waiting for the locks, and the {@code totalHoldMillis}
+     *         and {@code maxHoldMillis} holding them, and the number of documents currently locked or waited for as
+     *         {@code lockedDocuments}; an empty object if not supported
+     * @since 1.5
+     */
+    @Unstable("New API introduced in 1.5")
+    default JSONObject getLockStatistics()
+    {
+        return new JSONObject();
+    }
 }
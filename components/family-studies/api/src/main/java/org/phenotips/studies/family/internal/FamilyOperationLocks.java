@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import org.phenotips.studies.family.exceptions.PTException;
+import org.phenotips.studies.family.exceptions.PTInternalErrorException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Locks the documents affected by a family operation, a family and some of its members, for the duration of the
+ * operation, so that operations on unrelated families can run in parallel. The family is locked first, so that the
+ * affected members can be listed while its membership can't change, then the members are locked in the natural order
+ * of the document names, which prevents deadlocks between operations that affect overlapping sets of documents. Locks
+ * are reentrant, so an operation can call other locking operations on the same documents. A lock that can't be
+ * acquired in time fails the operation instead of letting it run unprotected. A lock is only kept in memory while it
+ * is held or waited for. For each type of operation, the time spent waiting for the locks and holding them is
+ * counted.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class FamilyOperationLocks
+{
+    /** How long to wait for a lock before failing, so that an unforeseen lock cycle can't block forever. */
+    private static final long LOCK_TIMEOUT = 60;
+
+    private final Logger logger = LoggerFactory.getLogger(FamilyOperationLocks.class);
+
+    private final Map<String, DocumentLock> locks = new ConcurrentHashMap<>();
+
+    private final Map<String, OperationCounters> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Runs an operation while holding the locks of the affected documents.
+     *
+     * @param <T> the type of the operation's result
+     * @param operation the name of the operation, used for grouping the lock statistics
+     * @param documents the names of the documents affected by the operation; {@code null} names are ignored
+     * @param action the operation to run
+     * @return the result of the operation
+     * @throws PTException if the operation fails, or if the locks can't be acquired
+     */
+    public <T> T call(String operation, Collection<String> documents, LockedOperation<T> action) throws PTException
+    {
+        return call(operation, null, () -> documents, action);
+    }
+
+    /**
+     * Runs an operation on a family while holding the locks of the family and of the other affected documents. The
+     * family is locked before the other documents are listed, so that they can be computed from its current members.
+     *
+     * @param <T> the type of the operation's result
+     * @param operation the name of the operation, used for grouping the lock statistics
+     * @param family the name of the family document, may be {@code null}
+     * @param documents lists the names of the other documents affected by the operation, called while holding the lock
+     *            of the family; {@code null} names are ignored
+     * @param action the operation to run
+     * @return the result of the operation
+     * @throws PTException if the operation fails, or if the locks can't be acquired
+     */
+    public <T> T call(String operation, String family, Supplier<Collection<String>> documents,
+        LockedOperation<T> action) throws PTException
+    {
+        long start = System.nanoTime();
+        List<String> acquired = new ArrayList<>();
+        try {
+            if (family != null) {
+                lock(family);
+                acquired.add(family);
+            }
+            SortedSet<String> names = new TreeSet<>();
+            for (String document : documents.get()) {
+                if (document != null) {
+                    names.add(document);
+                }
+            }
+            for (String name : names) {
+                lock(name);
+                acquired.add(name);
+            }
+            long locked = System.nanoTime();
+            try {
+                return action.run();
+            } finally {
+                this.operations.computeIfAbsent(operation, k -> new OperationCounters())
+                    .record(locked - start, System.nanoTime() - locked);
+            }
+        } finally {
+            for (int i = acquired.size() - 1; i >= 0; --i) {
+                unlock(acquired.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reports how long the locks were waited for and held.
+     *
+     * @return a JSON object with, for each type of operation that was run, the number of times it was run
+     *         ({@code count}), the {@code totalWaitMillis} and {@code maxWaitMillis} waiting for the locks, and the
+     *         {@code totalHoldMillis} and {@code maxHoldMillis} holding them; the number of documents currently locked
+     *         or waited for is reported as {@code lockedDocuments}
+     */
+    public JSONObject getStatistics()
+    {
+        JSONObject result = new JSONObject();
+        for (Map.Entry<String, OperationCounters> operation : this.operations.entrySet()) {
+            result.put(operation.getKey(), operation.getValue().toJSON());
+        }
+        result.put("lockedDocuments", this.locks.size());
+        return result;
+    }
+
+    private void lock(String name) throws PTException
+    {
+        DocumentLock lock = this.locks.compute(name, (k, v) -> {
+            DocumentLock result = v == null ? new DocumentLock() : v;
+            ++result.users;
+            return result;
+        });
+        boolean result = false;
+        try {
+            result = lock.lock.tryLock(LOCK_TIMEOUT, TimeUnit.SECONDS);
+            if (!result) {
+                this.logger.error("Timed out while waiting for lock on [{}]", name);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Interrupted while waiting for lock on [{}]", name);
+        }
+        if (!result) {
+            release(name);
+            throw new PTInternalErrorException();
+        }
+    }
+
+    private void unlock(String name)
+    {
+        DocumentLock lock = this.locks.get(name);
+        if (lock != null) {
+            lock.lock.unlock();
+        }
+        release(name);
+    }
+
+    private void release(String name)
+    {
+        this.locks.computeIfPresent(name, (k, v) -> --v.users == 0 ? null : v);
+    }
+
+    /**
+     * An operation that runs while holding locks.
+     *
+     * @param <T> the type of the operation's result
+     */
+    @FunctionalInterface
+    public interface LockedOperation<T>
+    {
+        /**
+         * Runs the operation.
+         *
+         * @return the result of the operation
+         * @throws PTException if the operation fails
+         */
+        T run() throws PTException;
+    }
+
+    /**
+     * A lock of a document. The {@link #users} field is only accessed while computing the entry of the document in the
+     * locks map, which is atomic.
+     */
+    private static final class DocumentLock
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** How many lock acquisitions hold or wait for this lock, counting reentrant acquisitions separately. */
+        private int users;
+    }
+
+    /** Counts how long the locks of a type of operation were waited for and held. */
+    private static final class OperationCounters
+    {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder waitNanos = new LongAdder();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private final LongAdder holdNanos = new LongAdder();
+
+        private final AtomicLong maxHoldNanos = new AtomicLong();
+
+        void record(long wait, long hold)
+        {
+            this.count.increment();
+            this.waitNanos.add(wait);
+            this.maxWaitNanos.accumulateAndGet(wait, Math::max);
+            this.holdNanos.add(hold);
+            this.maxHoldNanos.accumulateAndGet(hold, Math::max);
+        }
+
+        JSONObject toJSON()
+        {
+            JSONObject result = new JSONObject();
+            result.put("count", this.count.sum());
+            result.put("totalWaitMillis", TimeUnit.NANOSECONDS.toMillis(this.waitNanos.sum()));
+            result.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos.get()));
+            result.put("totalHoldMillis", TimeUnit.NANOSECONDS.toMillis(this.holdNanos.sum()));
+            result.put("maxHoldMillis", TimeUnit.NANOSECONDS.toMillis(this.maxHoldNanos.get()));
+            return result;
+        }
+    }
+}
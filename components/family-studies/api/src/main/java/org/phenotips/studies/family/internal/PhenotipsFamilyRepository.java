@@ -45,6 +45,10 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -61,7 +65,8 @@
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Provides utility methods for working with family documents and patients.
+ * Provides utility methods for working with family documents and patients. Operations that change a family lock the
+ * documents of the family and of the affected patients, so that operations on unrelated families run in parallel.
  *
  * @version $Id$
  * @since 1.4
@@ -92,6 +97,8 @@ public class PhenotipsFamilyRepository extends FamilyEntityManager implements Fa
     @Inject
     private EntityReferenceSerializer<String> entitySerializer;
 
+    private final FamilyOperationLocks locks = new FamilyOperationLocks();
+
     @Override
     public Family createFamily(User creator)
     {
@@ -99,7 +106,7 @@ public Family createFamily(User creator)
     }
 
     @Override
-    public synchronized Family create(final DocumentReference creator)
+    public Family create(final DocumentReference creator)
     {
         try {
             final XWikiContext context = this.xcontextProvider.get();
@@ -123,19 +130,30 @@ public synchronized Family create(final DocumentReference creator)
     }
 
     @Override
-    public synchronized boolean deleteFamily(Family family, User updatingUser, boolean deleteAllMembers)
+    public boolean deleteFamily(Family family, User updatingUser, boolean deleteAllMembers)
     {
         return delete(family, deleteAllMembers);
     }
 
     @Override
-    public synchronized boolean delete(final Family family)
+    public boolean delete(final Family family)
     {
         return delete(family, false);
     }
 
     @Override
-    public synchronized boolean delete(final Family family, boolean deleteAllMembers)
+    public boolean delete(final Family family, boolean deleteAllMembers)
+    {
+        try {
+            return this.locks.call("delete", getFamilyDocument(family),
+                () -> getPatientDocuments(getCurrentMembersIds(family)), () -> deleteLocked(family, deleteAllMembers));
+        } catch (PTException ex) {
+            // Only thrown if the locks can't be acquired
+            return false;
+        }
+    }
+
+    private boolean deleteLocked(final Family family, boolean deleteAllMembers)
     {
         // TODO: Should there be a SecureFamilyRepository to perform these checks (similar to SecurePatientRepository)?
         final User currentUser = this.userManager.getCurrentUser();
@@ -160,6 +178,18 @@ public synchronized boolean delete(final Family family, boolean deleteAllMembers
 
     @Override
     public boolean forceRemoveAllMembers(Family family, User updatingUser)
+    {
+        try {
+            return this.locks.call("forceRemoveAllMembers", getFamilyDocument(family),
+                () -> getPatientDocuments(getCurrentMembersIds(family)),
+                () -> forceRemoveAllMembersLocked(family, updatingUser));
+        } catch (PTException ex) {
+            // Only thrown if the locks can't be acquired
+            return false;
+        }
+    }
+
+    private boolean forceRemoveAllMembersLocked(Family family, User updatingUser)
     {
         if (!this.authorizationService.hasAccess(updatingUser, Right.EDIT, family.getDocumentReference())) {
             return false;
@@ -218,9 +248,13 @@ public Family getFamilyForPatient(Patient patient)
     }
 
     @Override
-    public synchronized void addMember(Family family, Patient patient, User updatingUser) throws PTException
+    public void addMember(Family family, Patient patient, User updatingUser) throws PTException
     {
-        this.addMember(family, patient, updatingUser, false);
+        final Collection<String> patientDocuments = getPatientDocuments(getPatientIds(patient));
+        this.locks.call("addMember", getFamilyDocument(family), () -> patientDocuments, () -> {
+            this.addMember(family, patient, updatingUser, false);
+            return null;
+        });
     }
 
     /**
@@ -289,9 +323,13 @@ private void addMember(Family family, Patient patient, User updatingUser, boolea
     }
 
     @Override
-    public synchronized void removeMember(Family family, Patient patient, User updatingUser) throws PTException
+    public void removeMember(Family family, Patient patient, User updatingUser) throws PTException
     {
-        this.removeMember(family, patient, updatingUser, false);
+        final Collection<String> patientDocuments = getPatientDocuments(getPatientIds(patient));
+        this.locks.call("removeMember", getFamilyDocument(family), () -> patientDocuments, () -> {
+            this.removeMember(family, patient, updatingUser, false);
+            return null;
+        });
     }
 
     private void removeMember(Family family, Patient patient, User updatingUser, boolean batchUpdate)
@@ -450,7 +488,28 @@ private void checkIfPatientCanBeRemovedFromFamily(Family family, Patient patient
     }
 
     @Override
-    public synchronized void setPedigree(Family family, Pedigree pedigree, User updatingUser) throws PTException
+    public void setPedigree(Family family, Pedigree pedigree, User updatingUser) throws PTException
+    {
+        this.locks.call("setPedigree", getFamilyDocument(family), () -> {
+            // Both the old and the new members are affected
+            Collection<String> patientIds = getCurrentMembersIds(family);
+            if (pedigree != null) {
+                patientIds.addAll(pedigree.extractIds());
+            }
+            return getPatientDocuments(patientIds);
+        }, () -> {
+            setPedigreeLocked(family, pedigree, updatingUser);
+            return null;
+        });
+    }
+
+    @Override
+    public JSONObject getLockStatistics()
+    {
+        return this.locks.getStatistics();
+    }
+
+    private void setPedigreeLocked(Family family, Pedigree pedigree, User updatingUser) throws PTException
     {
         // note: whenever available, internal versions of helper methods are used which modify the
         // family document but do not save it to disk
@@ -610,7 +669,7 @@ private boolean savePatientDocument(XWikiDocument patientDocument, String docume
         return true;
     }
 
-    private synchronized boolean saveFamilyDocument(Family family, String documentHistoryComment, XWikiContext context)
+    private boolean saveFamilyDocument(Family family, String documentHistoryComment, XWikiContext context)
     {
         try {
             family.getXDocument().setAuthorReference(context.getUserReference());
@@ -623,6 +682,62 @@ private synchronized boolean saveFamilyDocument(Family family, String documentHi
         return true;
     }
 
+    private List<String> getMembersIds(Family family)
+    {
+        return family == null ? Collections.<String>emptyList() : family.getMembersIds();
+    }
+
+    private List<String> getPatientIds(Patient patient)
+    {
+        return patient == null ? Collections.<String>emptyList() : Collections.singletonList(patient.getId());
+    }
+
+    /**
+     * Lists the identifiers of the members of a family, as known by the family object and by the stored family
+     * document, since the family object may have been loaded before the lock was acquired. Meant to be called while
+     * holding the lock of the family, so that the list can't change afterwards.
+     *
+     * @param family the target family, may be {@code null}
+     * @return a modifiable set of patient identifiers
+     */
+    private Collection<String> getCurrentMembersIds(Family family)
+    {
+        Collection<String> result = new LinkedHashSet<>(getMembersIds(family));
+        if (family != null) {
+            result.addAll(getMembersIds(get(family.getDocumentReference())));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name of the document to lock for an operation on a family.
+     *
+     * @param family the target family, may be {@code null}
+     * @return the serialized reference of the family document, or {@code null} if there's no family
+     */
+    private String getFamilyDocument(Family family)
+    {
+        return family == null ? null : this.entitySerializer.serialize(family.getDocumentReference());
+    }
+
+    /**
+     * Lists the names of the patient documents to lock for an operation on a family.
+     *
+     * @param patientIds the identifiers of the affected patients
+     * @return the serialized references of the patient documents
+     */
+    private Collection<String> getPatientDocuments(Collection<String> patientIds)
+    {
+        Collection<String> result = new ArrayList<>(patientIds.size());
+        for (String patientId : patientIds) {
+            if (StringUtils.isNotBlank(patientId)) {
+                result.add(this.entitySerializer.serialize(
+                    this.stringResolver.resolve(patientId, Patient.DEFAULT_DATA_SPACE)));
+            }
+        }
+        return result;
+    }
+
     /*
      * returns a reference to a family document from an XWiki patient document.
      */
@@ -0,0 +1,187 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import org.phenotips.studies.family.exceptions.PTInternalErrorException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FamilyOperationLocks}.
+ *
+ * @version $Id$
+ */
+public class FamilyOperationLocksTest
+{
+    private final FamilyOperationLocks locks = new FamilyOperationLocks();
+
+    @Test
+    public void unrelatedFamiliesAreNotBlocked() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> first = executor.submit(() -> this.locks.call("setPedigree",
+            Arrays.asList("xwiki:Families.FAM0000001", "xwiki:data.P0000001"), () -> {
+                started.countDown();
+                await(release);
+                return null;
+            }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Object result = this.locks.call("setPedigree",
+            Arrays.asList("xwiki:Families.FAM0000002", "xwiki:data.P0000002"), () -> "done");
+
+        Assert.assertEquals("done", result);
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+    }
+
+    @Test
+    public void overlappingOperationsRunOneAtATime() throws Exception
+    {
+        AtomicBoolean running = new AtomicBoolean();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<?>[] results = new Future<?>[20];
+        for (int i = 0; i < results.length; ++i) {
+            // Same patient, documents listed in different orders
+            String family = "xwiki:Families.FAM000000" + (i % 2);
+            List<String> documents = i % 2 == 0 ? Arrays.asList(family, "xwiki:data.P0000001")
+                : Arrays.asList("xwiki:data.P0000001", family);
+            results[i] = executor.submit(() -> this.locks.call("addMember", documents, () -> {
+                if (!running.compareAndSet(false, true)) {
+                    overlapped.set(true);
+                }
+                pause(5);
+                running.set(false);
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        Assert.assertFalse(overlapped.get());
+    }
+
+    @Test
+    public void locksAreReentrant() throws Exception
+    {
+        Object result = this.locks.call("delete", Collections.singleton("xwiki:Families.FAM0000001"),
+            () -> this.locks.call("removeMember", Arrays.asList("xwiki:Families.FAM0000001", null),
+                () -> "nested"));
+        Assert.assertEquals("nested", result);
+    }
+
+    @Test
+    public void membersAreListedAfterLockingTheFamily() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean familyReleased = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Object> first = executor.submit(() -> this.locks.call("addMember",
+            Arrays.asList("xwiki:Families.FAM0000001", "xwiki:data.P0000002"), () -> {
+                started.countDown();
+                await(release);
+                familyReleased.set(true);
+                return null;
+            }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Future<Boolean> second = executor.submit(() -> this.locks.call("setPedigree", "xwiki:Families.FAM0000001",
+            () -> {
+                // The members must not be listed while another operation may still change them
+                Assert.assertTrue(familyReleased.get());
+                return Arrays.asList("xwiki:data.P0000001", "xwiki:data.P0000002");
+            }, () -> true));
+        pause(50);
+        Assert.assertFalse(second.isDone());
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, this.locks.getStatistics().getInt("lockedDocuments"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void operationFailsIfTheLocksCantBeAcquired() throws Exception
+    {
+        AtomicBoolean ran = new AtomicBoolean();
+        Thread.currentThread().interrupt();
+        try {
+            this.locks.call("delete", Collections.singleton("xwiki:Families.FAM0000001"), () -> ran.getAndSet(true));
+            Assert.fail("The operation must not run without its locks");
+        } catch (PTInternalErrorException ex) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+        Assert.assertFalse(ran.get());
+        Assert.assertEquals(0, this.locks.getStatistics().getInt("lockedDocuments"));
+    }
+
+    @Test
+    public void statisticsAreCountedPerOperation() throws Exception
+    {
+        this.locks.call("addMember", Collections.singleton("xwiki:Families.FAM0000001"), () -> {
+            pause(50);
+            return null;
+        });
+        this.locks.call("addMember", Collections.singleton("xwiki:Families.FAM0000001"), () -> null);
+
+        JSONObject stats = this.locks.getStatistics();
+        Assert.assertEquals(0, stats.getInt("lockedDocuments"));
+        JSONObject addMember = stats.getJSONObject("addMember");
+        Assert.assertEquals(2, addMember.getLong("count"));
+        Assert.assertTrue(addMember.getLong("maxHoldMillis") >= 50);
+        Assert.assertTrue(addMember.getLong("totalHoldMillis") >= addMember.getLong("maxHoldMillis"));
+        Assert.assertFalse(stats.has("setPedigree"));
+    }
+
+    private static void pause(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // Tests, we don't care
+        }
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // Tests, we don't care
+        }
+    }
+}
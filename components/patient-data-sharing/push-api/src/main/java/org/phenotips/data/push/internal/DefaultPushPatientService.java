@@ -203,7 +203,20 @@ public PatientPushHistory getPatientPushHistory(String localPatientID, String re
 
     private Patient getPatientByID(String patientID, String accessLevelName)
     {
-        Patient patient = this.patientRepository.get(patientID);
+        return getPatientByID(patientID, accessLevelName, null);
+    }
+
+    /**
+     * Loads a patient, restricted to a projection, and checks that the current user has the requested access on it.
+     *
+     * @param patientID the identifier of the patient
+     * @param accessLevelName the required access level
+     * @param selectedFields the fields that will be exported, {@code null} for all the fields
+     * @return the patient, or {@code null} if it doesn't exist or the current user doesn't have the requested access
+     */
+    private Patient getPatientByID(String patientID, String accessLevelName, Set<String> selectedFields)
+    {
+        Patient patient = this.patientRepository.get(patientID, selectedFields);
         if (patient == null) {
             return null;
         }
@@ -245,12 +258,13 @@ private Set<String> parseJSONArrayIntoSet(String listOfStrings)
     @Override
     public JSONObject getLocalPatientJSON(String patientID, String exportFieldListJSON)
     {
-        Patient patient = getPatientByID(patientID, "view");
+        Set<String> exportFields = parseJSONArrayIntoSet(exportFieldListJSON);
+        Patient patient = getPatientByID(patientID, "view", exportFields);
         if (patient == null) {
             return null;
         }
 
-        return patient.toJSON(parseJSONArrayIntoSet(exportFieldListJSON));
+        return patient.toJSON(exportFields);
     }
 
     @Override
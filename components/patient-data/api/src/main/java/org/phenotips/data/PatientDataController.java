@@ -130,6 +130,22 @@ default void save(Patient patient, PatientWritePolicy policy)
      */
     void writeJSON(Patient patient, JSONObject json, Collection<String> selectedFieldNames);
 
+    /**
+     * Checks if this controller may write anything in the JSON export when only some fields are selected, so that
+     * controllers which don't handle any of the selected fields can be skipped without loading their data. The default
+     * implementation doesn't know which fields are handled, and always returns {@code true}.
+     *
+     * @param selectedFieldNames the list of Patient record fields selected for the export, may be {@code null}, in
+     *            which case all fields are selected
+     * @return {@code false} if {@link #writeJSON(Patient, JSONObject, Collection)} is known to not write anything for
+     *         these fields, {@code true} otherwise
+     * @since 1.5
+     */
+    default boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        return true;
+    }
+
     /**
      * Given a JSON object, extracts data from it and returns it to the patient.
      *
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Provides the {@link PatientDataController patient data controllers} to patient records. The list of controllers is
+ * looked up once and shared by all the patients, until controllers are registered or unregistered, and the time spent
+ * by each controller loading data is measured.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable
+@Role
+public interface PatientDataControllerRegistry
+{
+    /**
+     * Get all the available controllers.
+     *
+     * @return an unmodifiable map of controllers, keyed and sorted by their {@link PatientDataController#getName()
+     *         name}
+     */
+    SortedMap<String, PatientDataController<?>> getControllers();
+
+    /**
+     * Get the controllers needed for exporting some fields, i.e. the ones that
+     * {@link PatientDataController#supportsFields(Collection) support} at least one of these fields.
+     *
+     * @param selectedFieldNames the list of Patient record fields selected for the export, may be {@code null}, in
+     *            which case all the controllers are returned
+     * @return an unmodifiable map of controllers, keyed and sorted by their name
+     */
+    SortedMap<String, PatientDataController<?>> getControllers(Collection<String> selectedFieldNames);
+
+    /**
+     * Loads the data managed by a controller, measuring how long it takes.
+     *
+     * @param <T> the type of data managed by the controller
+     * @param controller the controller to use
+     * @param patient the patient being loaded
+     * @return the loaded data, as returned by {@link PatientDataController#load(Patient)}
+     */
+    <T> PatientData<T> load(PatientDataController<T> controller, Patient patient);
+
+    /**
+     * Reports how much time the controllers spent loading data, since the registry was created.
+     *
+     * @return for each controller name, the number of {@code loads}, the {@code totalMillis} and {@code maxMillis}
+     *         spent loading data, and the number of {@code failed} loads
+     */
+    Map<String, Map<String, Number>> getLoadStatistics();
+}
@@ -24,6 +24,10 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+
+import org.json.JSONObject;
+
 /**
  * API that provides access to patient data. No access rights are checked here.
  *
@@ -45,6 +49,44 @@ public interface PatientRepository extends PrimaryEntityManager<Patient>
     @Deprecated
     Patient getPatientById(String id);
 
+    /**
+     * Retrieve a {@link Patient patient} by it's PhenoTips identifier, restricted to a projection: its
+     * {@link Patient#toJSON() JSON export} only contains the selected fields, and only the data controllers handling
+     * these fields load data while exporting. Other data is still loaded on demand by {@link Patient#getData(String)}.
+     * The default implementation ignores the projection.
+     *
+     * @param id the patient identifier, i.e. the serialized document reference
+     * @param selectedFieldNames the list of Patient record fields to export, may be {@code null}, in which case all
+     *            fields are exported
+     * @return the patient data, or {@code null} if the requested patient does not exist or is not a valid patient
+     * @since 1.5
+     */
+    default Patient get(String id, Collection<String> selectedFieldNames)
+    {
+        return get(id);
+    }
+
+    /**
+     * Create a new patient record owned by the given entity, filled in with data in the format generated by
+     * {@link Patient#toJSON()}. Implementations should save the new record only once, with all its data, which makes
+     * this method preferable to {@link #create(DocumentReference)} followed by {@link Patient#updateFromJSON} for bulk
+     * imports. The default implementation does exactly that, saving the record twice.
+     *
+     * @param json the data of the new patient record, may be {@code null} for an empty record
+     * @param creator a reference to the document representing an entity (a user or a group) which will be set as the
+     *            owner for the created {@link Patient patient}
+     * @return the created patient record, or {@code null} if creating the record failed
+     * @since 1.5
+     */
+    default Patient create(JSONObject json, DocumentReference creator)
+    {
+        Patient patient = create(creator);
+        if (patient != null && json != null) {
+            patient.updateFromJSON(json);
+        }
+        return patient;
+    }
+
     /**
      * Retrieve a {@link Patient patient} by it's clinical identifier. Only works if external identifiers are enabled
      * and used.
@@ -25,6 +25,7 @@
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
 import java.util.Iterator;
 
 import javax.inject.Inject;
@@ -81,6 +82,26 @@ public Patient get(String id)
         }
     }
 
+    /**
+     * Retrieve a {@link Patient patient} by it's PhenoTips identifier, restricted to some fields.
+     *
+     * @param id the patient identifier, i.e. the serialized document reference
+     * @param selectedFieldNames the list of Patient record fields to export, may be {@code null}, in which case all
+     *            fields are exported
+     * @return the patient data, or {@code null} if the requested patient does not exist, is not a valid patient, or is
+     *         not accessible by the current user
+     * @see PatientRepository#get(String, Collection)
+     * @since 1.5
+     */
+    public Patient get(String id, Collection<String> selectedFieldNames)
+    {
+        try {
+            return this.internalService.get(id, selectedFieldNames);
+        } catch (SecurityException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
     /**
      * Retrieve a {@link Patient patient} by it's PhenoTips identifier.
      *
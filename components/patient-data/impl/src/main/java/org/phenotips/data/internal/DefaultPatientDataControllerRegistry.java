@@ -0,0 +1,203 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.PatientDataController;
+import org.phenotips.data.PatientDataControllerRegistry;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Default implementation of the {@link PatientDataControllerRegistry}, caching the controllers looked up in the
+ * context component manager until {@link #invalidate() invalidated} by the
+ * {@link PatientDataControllersChangedListener}.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Singleton
+public class DefaultPatientDataControllerRegistry implements PatientDataControllerRegistry
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    /** Incremented on each invalidation, so that controllers looked up from an outdated set are not reused. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The last looked up controllers, along with the generation they were looked up for; {@code null} until then. */
+    private volatile CachedControllers cached;
+
+    /** Load timings, keyed by controller name. */
+    private final Map<String, LoadStatistics> statistics = new ConcurrentHashMap<>();
+
+    @Override
+    public SortedMap<String, PatientDataController<?>> getControllers()
+    {
+        // Read the generation before looking up the controllers, so that an invalidation happening during the lookup
+        // makes the result stale instead of being lost
+        long currentGeneration = this.generation.get();
+        CachedControllers current = this.cached;
+        if (current != null && current.generation == currentGeneration) {
+            return current.controllers;
+        }
+        SortedMap<String, PatientDataController<?>> result = lookupControllers();
+        this.cached = new CachedControllers(currentGeneration, result);
+        return result;
+    }
+
+    @Override
+    public SortedMap<String, PatientDataController<?>> getControllers(Collection<String> selectedFieldNames)
+    {
+        SortedMap<String, PatientDataController<?>> all = getControllers();
+        if (selectedFieldNames == null) {
+            return all;
+        }
+        SortedMap<String, PatientDataController<?>> result = new TreeMap<>();
+        for (Map.Entry<String, PatientDataController<?>> controller : all.entrySet()) {
+            if (controller.getValue().supportsFields(selectedFieldNames)) {
+                result.put(controller.getKey(), controller.getValue());
+            }
+        }
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    @Override
+    public <T> PatientData<T> load(PatientDataController<T> controller, Patient patient)
+    {
+        LoadStatistics stats = this.statistics.computeIfAbsent(controller.getName(), k -> new LoadStatistics());
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            PatientData<T> result = controller.load(patient);
+            success = true;
+            return result;
+        } finally {
+            stats.record(System.nanoTime() - start, success);
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Number>> getLoadStatistics()
+    {
+        Map<String, Map<String, Number>> result = new TreeMap<>();
+        for (Map.Entry<String, LoadStatistics> stats : this.statistics.entrySet()) {
+            result.put(stats.getKey(), stats.getValue().toMap());
+        }
+        return result;
+    }
+
+    /**
+     * Discards the cached controllers, so that they are looked up again when next needed. Controllers being looked up
+     * while this method is called are not reused either.
+     */
+    public void invalidate()
+    {
+        this.generation.incrementAndGet();
+    }
+
+    private SortedMap<String, PatientDataController<?>> lookupControllers()
+    {
+        SortedMap<String, PatientDataController<?>> result = new TreeMap<>();
+        try {
+            for (PatientDataController<?> controller : this.componentManager.get()
+                .<PatientDataController<?>>getInstanceList(PatientDataController.class)) {
+                if (result.containsKey(controller.getName())) {
+                    this.logger.warn("Overwriting patient data controller with the name [{}]", controller.getName());
+                }
+                result.put(controller.getName(), controller);
+            }
+        } catch (ComponentLookupException ex) {
+            this.logger.error("Failed to lookup serializers", ex);
+        }
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    /**
+     * Looked up controllers, tagged with the generation they were looked up for.
+     */
+    private static final class CachedControllers
+    {
+        private final long generation;
+
+        private final SortedMap<String, PatientDataController<?>> controllers;
+
+        CachedControllers(long generation, SortedMap<String, PatientDataController<?>> controllers)
+        {
+            this.generation = generation;
+            this.controllers = controllers;
+        }
+    }
+
+    private static final class LoadStatistics
+    {
+        private final LongAdder loads = new LongAdder();
+
+        private final LongAdder failed = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean success)
+        {
+            this.loads.increment();
+            if (!success) {
+                this.failed.increment();
+            }
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Number> toMap()
+        {
+            Map<String, Number> result = new LinkedHashMap<>();
+            result.put("loads", this.loads.sum());
+            result.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(this.totalNanos.sum()));
+            result.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(this.maxNanos.get()));
+            result.put("failed", this.failed.sum());
+            return result;
+        }
+    }
+}
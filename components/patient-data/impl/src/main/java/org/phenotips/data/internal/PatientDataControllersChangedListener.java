@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.PatientDataController;
+import org.phenotips.data.PatientDataControllerRegistry;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Discards the cached list of {@link PatientDataController patient data controllers} whenever a controller is
+ * registered or unregistered, for example when an extension is installed or uninstalled.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named("patient-data-controllers-changed")
+@Singleton
+public class PatientDataControllersChangedListener implements EventListener
+{
+    @Inject
+    private PatientDataControllerRegistry registry;
+
+    @Override
+    public String getName()
+    {
+        return "patient-data-controllers-changed";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(PatientDataController.class),
+            new ComponentDescriptorRemovedEvent(PatientDataController.class));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.registry instanceof DefaultPatientDataControllerRegistry) {
+            ((DefaultPatientDataControllerRegistry) this.registry).invalidate();
+        }
+    }
+}
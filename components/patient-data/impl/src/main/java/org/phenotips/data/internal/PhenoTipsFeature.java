@@ -29,6 +29,7 @@
 import org.xwiki.model.reference.EntityReference;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +80,9 @@ public class PhenoTipsFeature extends AbstractPhenoTipsVocabularyProperty implem
 
     private static final Pattern NEGATIVE_PREFIX = Pattern.compile("^" + NEGATIVE_PHENOTYPE_PREFIX);
 
+    /** The properties identifying the metadata and categories objects of a feature. */
+    private static final List<String> TARGET_PROPERTIES = Arrays.asList(META_PROPERTY_NAME, META_PROPERTY_VALUE);
+
     /** Used for reading and writing Features to JSON. */
     private static final String TYPE_JSON_KEY_NAME = "type";
 
@@ -122,6 +126,20 @@ public class PhenoTipsFeature extends AbstractPhenoTipsVocabularyProperty implem
      * @param value the specific value from the property represented by this object
      */
     public PhenoTipsFeature(XWikiDocument doc, ListProperty property, String value)
+    {
+        this(new XObjectIndex(doc), property, value);
+    }
+
+    /**
+     * Constructor that copies the data from an XProperty value, looking up the metadata objects in an index shared with
+     * the other features of the same patient.
+     *
+     * @param objects the index of the objects of the XDocument representing the described patient in XWiki
+     * @param property the feature category XProperty
+     * @param value the specific value from the property represented by this object
+     * @since 1.5
+     */
+    public PhenoTipsFeature(XObjectIndex objects, ListProperty property, String value)
     {
         super(value);
         this.propertyName = property.getName();
@@ -132,7 +150,7 @@ public PhenoTipsFeature(XWikiDocument doc, ListProperty property, String value)
         this.metadata = new TreeMap<>();
         String metadataNotes = "";
         try {
-            BaseObject metadataObject = findMetadataObject(doc);
+            BaseObject metadataObject = findMetadataObject(objects);
             if (metadataObject != null) {
                 for (FeatureMetadatum.Type metadataType : FeatureMetadatum.Type.values()) {
                     StringProperty metadataProp = (StringProperty) metadataObject.get(metadataType.toString());
@@ -152,7 +170,7 @@ public PhenoTipsFeature(XWikiDocument doc, ListProperty property, String value)
 
         List<String> categoriesList = Collections.emptyList();
         try {
-            BaseObject categoriesObject = findCategoriesObject(doc);
+            BaseObject categoriesObject = findCategoriesObject(objects);
             if (categoriesObject != null && categoriesObject.getListValue(META_PROPERTY_CATEGORIES) != null) {
                 @SuppressWarnings("unchecked")
                 List<String> originalCategories = categoriesObject.getListValue(META_PROPERTY_CATEGORIES);
@@ -287,53 +305,29 @@ public JSONObject toJSON()
     /**
      * Find the XObject that contains metadata for this feature, if any.
      *
-     * @param doc the patient's XDocument, where metadata objects are stored
+     * @param objects the index of the patient's XDocument, where metadata objects are stored
      * @return the found object, or {@code null} if one wasn't found
      * @throws XWikiException if accessing the data fails
      */
-    private BaseObject findMetadataObject(XWikiDocument doc) throws XWikiException
+    private BaseObject findMetadataObject(XObjectIndex objects) throws XWikiException
     {
-        List<BaseObject> objects = doc.getXObjects(FeatureMetadatum.CLASS_REFERENCE);
-        if (objects != null && !objects.isEmpty()) {
-            for (BaseObject o : objects) {
-                if (o == null) {
-                    continue;
-                }
-                StringProperty nameProperty = (StringProperty) o.get(META_PROPERTY_NAME);
-                StringProperty valueProperty = (StringProperty) o.get(META_PROPERTY_VALUE);
-                if (nameProperty != null && StringUtils.equals(nameProperty.getValue(), this.propertyName)
-                    && valueProperty != null && StringUtils.equals(valueProperty.getValue(), this.getValue())) {
-                    return o;
-                }
-            }
-        }
-        return null;
+        return objects.getObject(FeatureMetadatum.CLASS_REFERENCE, TARGET_PROPERTIES, getTargetValues());
     }
 
     /**
      * Find the XObject that contains the custom categories for this non-standard feature, if any.
      *
-     * @param doc the patient's XDocument, where objects are stored
+     * @param objects the index of the patient's XDocument, where objects are stored
      * @return the found object, or {@code null} if one wasn't found
      * @throws XWikiException if accessing the data fails
      */
-    private BaseObject findCategoriesObject(XWikiDocument doc) throws XWikiException
+    private BaseObject findCategoriesObject(XObjectIndex objects) throws XWikiException
     {
-        List<BaseObject> objects =
-            doc.getXObjects(CATEGORY_CLASS_REFERENCE);
-        if (objects != null && !objects.isEmpty()) {
-            for (BaseObject o : objects) {
-                if (o == null) {
-                    continue;
-                }
-                StringProperty nameProperty = (StringProperty) o.get(META_PROPERTY_NAME);
-                StringProperty valueProperty = (StringProperty) o.get(META_PROPERTY_VALUE);
-                if (nameProperty != null && StringUtils.equals(nameProperty.getValue(), this.propertyName)
-                    && valueProperty != null && StringUtils.equals(valueProperty.getValue(), this.getValue())) {
-                    return o;
-                }
-            }
-        }
-        return null;
+        return objects.getObject(CATEGORY_CLASS_REFERENCE, TARGET_PROPERTIES, getTargetValues());
+    }
+
+    private List<String> getTargetValues()
+    {
+        return Arrays.asList(this.propertyName, this.getValue());
     }
 }
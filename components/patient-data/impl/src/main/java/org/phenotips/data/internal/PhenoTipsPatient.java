@@ -24,6 +24,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
+import org.phenotips.data.PatientDataControllerRegistry;
 import org.phenotips.data.PatientWritePolicy;
 import org.phenotips.entities.spi.AbstractPrimaryEntity;
 
@@ -34,8 +35,8 @@
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -74,20 +75,43 @@ public class PhenoTipsPatient extends AbstractPrimaryEntity implements Patient
     /** Logging helper object. */
     private Logger logger = LoggerFactory.getLogger(PhenoTipsPatient.class);
 
-    /** The list of all the initialized data holders (PatientDataSerializer). */
-    private Map<String, PatientDataController<?>> serializers = new TreeMap<>();
+    /** Provides the data controllers and measures their load times, may be {@code null} if it can't be found. */
+    private PatientDataControllerRegistry registry;
+
+    /** The list of all the initialized data holders (PatientDataSerializer), shared by all patients. */
+    private Map<String, PatientDataController<?>> serializers = Collections.emptyMap();
+
+    /** The fields exported by {@link #toJSON()}, {@code null} if all the fields are exported. */
+    private final Collection<String> projection;
 
     /** Extra data that can be plugged into the patient record. */
     private Map<String, PatientData<?>> extraData = new TreeMap<>();
 
+    /** Shared by the data controllers for looking up objects while loading data, discarded when the data changes. */
+    private XObjectIndex objectIndex;
+
     /**
      * Constructor that copies the data from an XDocument.
      *
      * @param doc the XDocument representing this patient in XWiki
      */
     public PhenoTipsPatient(XWikiDocument doc)
+    {
+        this(doc, null);
+    }
+
+    /**
+     * Constructor that copies the data from an XDocument, restricted to a projection: the {@link #toJSON() JSON export}
+     * only contains the selected fields, and only the data controllers handling these fields are used for exporting.
+     *
+     * @param doc the XDocument representing this patient in XWiki
+     * @param selectedFields the fields to export, may be {@code null}, in which case all fields are exported
+     * @since 1.5
+     */
+    public PhenoTipsPatient(XWikiDocument doc, Collection<String> selectedFields)
     {
         super(doc);
+        this.projection = selectedFields == null ? null : Collections.unmodifiableSet(new HashSet<>(selectedFields));
 
         BaseObject data = doc.getXObject(CLASS_REFERENCE);
         if (data == null) {
@@ -106,15 +130,9 @@ public EntityReference getType()
     private void loadSerializers()
     {
         try {
-            List<PatientDataController<?>> availableSerializers = ComponentManagerRegistry
-                .getContextComponentManager()
-                .getInstanceList(PatientDataController.class);
-            for (PatientDataController<?> serializer : availableSerializers) {
-                if (this.serializers.containsKey(serializer.getName())) {
-                    this.logger.warn("Overwriting patient data controller with the name [{}]", serializer.getName());
-                }
-                this.serializers.put(serializer.getName(), serializer);
-            }
+            this.registry = ComponentManagerRegistry.getContextComponentManager()
+                .getInstance(PatientDataControllerRegistry.class);
+            this.serializers = this.registry.getControllers();
         } catch (ComponentLookupException ex) {
             this.logger.error("Failed to lookup serializers", ex);
         }
@@ -127,13 +145,28 @@ private void readPatientData(String name)
     {
         PatientDataController<?> serializer = this.serializers.get(name);
         if (serializer != null) {
-            PatientData<?> data = serializer.load(this);
+            PatientData<?> data = this.registry.load(serializer, this);
             if (data != null) {
                 this.extraData.put(data.getName(), data);
             }
         }
     }
 
+    /**
+     * Get the index of the objects of this patient's document, shared by all the data controllers loading data for this
+     * patient, so that objects are indexed only once.
+     *
+     * @return the current index, created if needed
+     * @since 1.5
+     */
+    public XObjectIndex getXObjectIndex()
+    {
+        if (this.objectIndex == null) {
+            this.objectIndex = new XObjectIndex(this.document);
+        }
+        return this.objectIndex;
+    }
+
     private boolean isFieldIncluded(Collection<String> selectedFields, String fieldName)
     {
         return (selectedFields == null || selectedFields.contains(fieldName));
@@ -202,8 +235,9 @@ public JSONObject toJSON()
     }
 
     @Override
-    public JSONObject toJSON(Collection<String> selectedFields)
+    public JSONObject toJSON(Collection<String> requestedFields)
     {
+        Collection<String> selectedFields = restrictToProjection(requestedFields);
         JSONObject result = new JSONObject();
 
         if (isFieldIncluded(selectedFields, JSON_KEY_ID)) {
@@ -215,13 +249,39 @@ public JSONObject toJSON(Collection<String> selectedFields)
             result.put(JSON_KEY_REPORTER, getReporter().getName());
         }
 
-        for (PatientDataController<?> serializer : this.serializers.values()) {
+        // Controllers which don't handle any of the selected fields are skipped, so that their data isn't loaded
+        Collection<PatientDataController<?>> exporters = selectedFields == null || this.registry == null
+            ? this.serializers.values() : this.registry.getControllers(selectedFields).values();
+        for (PatientDataController<?> serializer : exporters) {
             serializer.writeJSON(this, result, selectedFields);
         }
 
         return result;
     }
 
+    /**
+     * Get the fields selected by this patient's projection, if any.
+     *
+     * @return an unmodifiable collection of field names, or {@code null} if all the fields are exported
+     * @since 1.5
+     */
+    public Collection<String> getProjection()
+    {
+        return this.projection;
+    }
+
+    private Collection<String> restrictToProjection(Collection<String> requestedFields)
+    {
+        if (this.projection == null) {
+            return requestedFields;
+        } else if (requestedFields == null) {
+            return this.projection;
+        }
+        Collection<String> result = new HashSet<>(requestedFields);
+        result.retainAll(this.projection);
+        return result;
+    }
+
     @Override
     public void updateFromJSON(JSONObject json)
     {
@@ -240,30 +300,10 @@ public void updateFromJSON(JSONObject json, PatientWritePolicy policy)
 
             XWikiContext context = getXContext();
 
-            BaseObject data = this.document.getXObject(CLASS_REFERENCE);
-            if (data == null) {
+            if (!readFromJSON(json, policy)) {
                 return;
             }
 
-            for (PatientDataController<?> serializer : this.serializers.values()) {
-                try {
-                    PatientData<?> patientData = serializer.readJSON(json);
-                    if (patientData != null || PatientWritePolicy.REPLACE.equals(policy)) {
-                        this.extraData.put(patientData != null ? patientData.getName() : serializer.getName(),
-                            patientData);
-                        serializer.save(this, policy);
-                        this.logger.info("Successfully updated patient form JSON using serializer [{}]",
-                            serializer.getName());
-                    }
-                } catch (UnsupportedOperationException ex) {
-                    this.logger.debug("Unable to update patient from JSON using serializer [{}]: not supported",
-                        serializer.getName());
-                } catch (Exception ex) {
-                    this.logger.error("Failed to update patient data from JSON using serializer [{}]: {}",
-                        serializer.getName(), ex.getMessage(), ex);
-                }
-            }
-
             this.document.setAuthorReference(context.getUserReference());
             context.getWiki().saveDocument(this.document, "Updated from JSON", true, context);
         } catch (Exception ex) {
@@ -271,6 +311,46 @@ public void updateFromJSON(JSONObject json, PatientWritePolicy policy)
         }
     }
 
+    /**
+     * Updates the patient document with the data from the provided JSON, like {@link #updateFromJSON(JSONObject,
+     * PatientWritePolicy)}, but without saving the document.
+     *
+     * @param json the JSON representation of the patient data
+     * @param policy the policy according to which the patient data should be written
+     * @return {@code false} if the document doesn't hold patient data, {@code true} otherwise
+     */
+    boolean readFromJSON(JSONObject json, PatientWritePolicy policy)
+    {
+        BaseObject data = this.document.getXObject(CLASS_REFERENCE);
+        if (data == null) {
+            return false;
+        }
+
+        for (PatientDataController<?> serializer : this.serializers.values()) {
+            // Controllers may change the document's objects, and may load data again while saving
+            this.objectIndex = null;
+            try {
+                PatientData<?> patientData = serializer.readJSON(json);
+                if (patientData != null || PatientWritePolicy.REPLACE.equals(policy)) {
+                    this.extraData.put(patientData != null ? patientData.getName() : serializer.getName(),
+                        patientData);
+                    serializer.save(this, policy);
+                    this.logger.info("Successfully updated patient form JSON using serializer [{}]",
+                        serializer.getName());
+                }
+            } catch (UnsupportedOperationException ex) {
+                this.logger.debug("Unable to update patient from JSON using serializer [{}]: not supported",
+                    serializer.getName());
+            } catch (Exception ex) {
+                this.logger.error("Failed to update patient data from JSON using serializer [{}]: {}",
+                    serializer.getName(), ex.getMessage(), ex);
+            }
+        }
+
+        this.objectIndex = null;
+        return true;
+    }
+
     @Override
     public String toString()
     {
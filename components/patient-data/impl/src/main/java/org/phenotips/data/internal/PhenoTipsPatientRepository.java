@@ -20,6 +20,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRecordInitializer;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.PatientWritePolicy;
 
 import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.component.annotation.Component;
@@ -27,12 +28,15 @@
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.json.JSONObject;
+
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 
@@ -56,6 +60,25 @@ public Patient getPatientById(String id)
         return get(id);
     }
 
+    @Override
+    public Patient get(String id, Collection<String> selectedFieldNames)
+    {
+        if (selectedFieldNames == null) {
+            return get(id);
+        }
+        DocumentReference reference = this.stringResolver.resolve(id, getDataSpace());
+        try {
+            XWikiDocument document = (XWikiDocument) this.bridge.getDocument(reference);
+            if (document == null || document.isNew()) {
+                return null;
+            }
+            return new PhenoTipsPatient(document, selectedFieldNames);
+        } catch (Exception ex) {
+            this.logger.error("Failed to read document [{}]: {}", reference, ex.getMessage());
+        }
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -97,19 +120,19 @@ public Patient loadPatientFromDocument(DocumentModelBridge document)
     }
 
     @Override
-    public synchronized Patient createNewPatient()
+    public Patient createNewPatient()
     {
         return create();
     }
 
     @Override
-    public synchronized Patient createNewPatient(DocumentReference creator)
+    public Patient createNewPatient(DocumentReference creator)
     {
         return create(creator);
     }
 
     @Override
-    public synchronized Patient create(DocumentReference creator)
+    public Patient create(DocumentReference creator)
     {
         try {
             XWikiContext context = this.xcontextProvider.get();
@@ -123,16 +146,36 @@ public synchronized Patient create(DocumentReference creator)
                 doc.setContentAuthorReference(creator);
             }
             context.getWiki().saveDocument(doc, context);
-            for (PatientRecordInitializer initializer : this.initializers.get()) {
-                try {
-                    initializer.initialize(patient);
-                } catch (Exception ex) {
-                    // Initializers shouldn't block the creation of a new patient, especially since the new patient
-                    // has already been saved...
-                    this.logger.warn("Patient initializer [{}] failed: {}", initializer.getClass().getName(),
-                        ex.getMessage(), ex);
-                }
+            initialize(patient);
+            return patient;
+        } catch (Exception ex) {
+            this.logger.warn("Failed to create patient: {}", ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new record is saved once, after being filled in by the {@link PatientRecordInitializer initializers} and then
+     * with the JSON data, which takes precedence over the initial data. Nothing is synchronized, so several records can
+     * be created in parallel.
+     * </p>
+     */
+    @Override
+    public Patient create(JSONObject json, DocumentReference creator)
+    {
+        try {
+            XWikiContext context = this.xcontextProvider.get();
+            XWikiDocument doc = prepareNewDocument(creator);
+            PhenoTipsPatient patient = new PhenoTipsPatient(doc);
+            doc.getXObject(Patient.CLASS_REFERENCE).setLongValue("identifier",
+                Integer.parseInt(patient.getId().replaceAll("\\D++", "")));
+            initialize(patient);
+            if (json != null && json.length() > 0) {
+                patient.readFromJSON(json, PatientWritePolicy.UPDATE);
             }
+            context.getWiki().saveDocument(doc, context);
             return patient;
         } catch (Exception ex) {
             this.logger.warn("Failed to create patient: {}", ex.getMessage(), ex);
@@ -151,6 +194,20 @@ public boolean deletePatient(String id)
         return this.delete(patient);
     }
 
+    private void initialize(Patient patient)
+    {
+        for (PatientRecordInitializer initializer : this.initializers.get()) {
+            try {
+                initializer.initialize(patient);
+            } catch (Exception ex) {
+                // Initializers shouldn't block the creation of a new patient, especially since the new patient
+                // has already been saved...
+                this.logger.warn("Patient initializer [{}] failed: {}", initializer.getClass().getName(),
+                    ex.getMessage(), ex);
+            }
+        }
+    }
+
     @Override
     protected long getLastUsedId()
     {
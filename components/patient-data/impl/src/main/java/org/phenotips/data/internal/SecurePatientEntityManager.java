@@ -33,6 +33,7 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.Collection;
 import java.util.Iterator;
 
 import javax.inject.Inject;
@@ -90,6 +91,23 @@ public Patient get(String id)
         return checkAccess(patient, this.userManager.getCurrentUser());
     }
 
+    /**
+     * Retrieve a patient restricted to a projection, if the current user has view rights on it.
+     *
+     * @param id the patient identifier, i.e. the serialized document reference
+     * @param selectedFieldNames the list of Patient record fields to export, may be {@code null}, in which case all
+     *            fields are exported
+     * @return the patient data, or {@code null} if the requested patient does not exist or is not a valid patient
+     * @throws SecurityException if the current user does not have view rights on the patient
+     * @see PatientRepository#get(String, Collection)
+     * @since 1.5
+     */
+    public Patient get(String id, Collection<String> selectedFieldNames)
+    {
+        Patient patient = this.internalService.get(id, selectedFieldNames);
+        return checkAccess(patient, this.userManager.getCurrentUser());
+    }
+
     @Override
     public Patient get(DocumentReference reference)
     {
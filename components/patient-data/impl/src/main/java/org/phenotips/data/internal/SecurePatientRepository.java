@@ -42,7 +42,7 @@
 public class SecurePatientRepository extends SecurePatientEntityManager implements PatientRepository
 {
     @Override
-    public synchronized Patient createNewPatient()
+    public Patient createNewPatient()
     {
         return create();
     }
@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.VocabularyProperty;
+import org.phenotips.vocabulary.VocabularyManager;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Retrieves at once the vocabulary terms used by the features and disorders of many patients, so that their names are
+ * then found in the vocabulary caches instead of being queried one by one. Meant for code processing patients in bulk,
+ * such as exports; loading a single patient doesn't need it.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable("New API introduced in 1.5")
+@Role
+@Component(roles = VocabularyTermsPrefetcher.class)
+@Singleton
+public class VocabularyTermsPrefetcher
+{
+    @Inject
+    private VocabularyManager vocabularyManager;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Resolves, with one batch lookup, the terms of all the features and disorders of the given patients. Failures
+     * are only logged, since the terms will just be resolved individually later.
+     *
+     * @param patients the patients about to be processed, {@code null} elements are ignored
+     */
+    public void prefetch(Collection<? extends Patient> patients)
+    {
+        if (patients == null || patients.isEmpty()) {
+            return;
+        }
+        Set<String> termIds = new LinkedHashSet<>();
+        for (Patient patient : patients) {
+            if (patient != null) {
+                Stream.concat(stream(patient.getFeatures()), stream(patient.getDisorders()))
+                    .map(VocabularyProperty::getId)
+                    .filter(StringUtils::isNotEmpty)
+                    .forEach(termIds::add);
+            }
+        }
+        if (termIds.isEmpty()) {
+            return;
+        }
+        try {
+            this.vocabularyManager.resolveTerms(termIds);
+        } catch (Exception ex) {
+            this.logger.debug("Failed to prefetch vocabulary terms: {}", ex.getMessage());
+        }
+    }
+
+    private static Stream<? extends VocabularyProperty> stream(Collection<? extends VocabularyProperty> properties)
+    {
+        return properties == null ? Stream.empty() : properties.stream();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.model.reference.EntityReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.PropertyInterface;
+
+/**
+ * Finds the XObjects of a document by the values of some of their properties, for example the metadata object of a
+ * feature, identified by the feature's property name and value. The objects of a class are indexed on the first lookup
+ * for that class and key properties, so that many lookups cost one pass over the objects instead of one pass per
+ * lookup. The index is a snapshot of the document, and must be {@link #clear() cleared} once objects are added,
+ * removed, or have their key properties changed.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class XObjectIndex
+{
+    private static final String SEPARATOR = "\u0000";
+
+    private final XWikiDocument document;
+
+    /** The indexed objects, grouped by class and key properties, then keyed by the values of the key properties. */
+    private final Map<String, Map<List<String>, BaseObject>> indexes = new HashMap<>();
+
+    /**
+     * Simple constructor.
+     *
+     * @param document the document whose objects are indexed
+     */
+    public XObjectIndex(@Nonnull XWikiDocument document)
+    {
+        this.document = document;
+    }
+
+    /**
+     * Get the index to use for looking up objects in the document of a patient, shared with the other lookups done for
+     * the same patient if possible.
+     *
+     * @param patient the patient whose document is searched
+     * @return the shared index of the patient, or a new index if the patient doesn't provide one
+     */
+    public static XObjectIndex forPatient(@Nonnull Patient patient)
+    {
+        if (patient instanceof PhenoTipsPatient) {
+            return ((PhenoTipsPatient) patient).getXObjectIndex();
+        }
+        return new XObjectIndex(patient.getXDocument());
+    }
+
+    /**
+     * Get the indexed document.
+     *
+     * @return the document whose objects are indexed
+     */
+    public XWikiDocument getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * Find the first object of a class whose key properties have the requested values.
+     *
+     * @param classReference the class of the object to find
+     * @param keyProperties the names of the properties identifying the object
+     * @param keyValues the values of the key properties, in the same order
+     * @return the first matching object, or {@code null} if no object matches
+     * @throws XWikiException if accessing the properties of the objects fails
+     */
+    @Nullable
+    public synchronized BaseObject getObject(@Nonnull EntityReference classReference,
+        @Nonnull List<String> keyProperties, @Nonnull List<String> keyValues) throws XWikiException
+    {
+        String indexKey = classReference + SEPARATOR + String.join(SEPARATOR, keyProperties);
+        Map<List<String>, BaseObject> index = this.indexes.get(indexKey);
+        if (index == null) {
+            index = buildIndex(classReference, keyProperties);
+            this.indexes.put(indexKey, index);
+        }
+        return index.get(keyValues);
+    }
+
+    /**
+     * Discard the indexed objects, so that the next lookups read them again from the document. Must be called after
+     * objects are added to or removed from the document, or have their key properties changed.
+     */
+    public synchronized void clear()
+    {
+        this.indexes.clear();
+    }
+
+    private Map<List<String>, BaseObject> buildIndex(EntityReference classReference, List<String> keyProperties)
+        throws XWikiException
+    {
+        Map<List<String>, BaseObject> result = new HashMap<>();
+        List<BaseObject> objects = this.document.getXObjects(classReference);
+        if (objects == null) {
+            return result;
+        }
+        for (BaseObject object : objects) {
+            if (object == null) {
+                continue;
+            }
+            List<String> values = getKeyValues(object, keyProperties);
+            if (values != null) {
+                // Keep the first object, like a scan of the objects would
+                result.putIfAbsent(values, object);
+            }
+        }
+        return result;
+    }
+
+    private List<String> getKeyValues(BaseObject object, List<String> keyProperties) throws XWikiException
+    {
+        List<String> result = new ArrayList<>(keyProperties.size());
+        for (String name : keyProperties) {
+            PropertyInterface property = object.get(name);
+            if (!(property instanceof BaseProperty)) {
+                // Objects missing a key property can't match any lookup
+                return null;
+            }
+            Object value = ((BaseProperty<?>) property).getValue();
+            result.add(value == null ? null : String.valueOf(value));
+        }
+        return result;
+    }
+}
@@ -144,6 +144,21 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This controller only writes the properties whose {@link #getControllingFieldName(String) controlling field} is
+     * selected. Controllers which don't declare their properties are always considered to support the selected fields.
+     * </p>
+     */
+    @Override
+    public boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        List<String> properties = getProperties();
+        return selectedFieldNames == null || properties.isEmpty()
+            || properties.stream().map(this::getControllingFieldName).anyMatch(selectedFieldNames::contains);
+    }
+
     /**
      * @return name of controlling field which is responsible for export fields grouping
      */
@@ -207,6 +207,21 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This controller only writes the selected {@link #getProperties() properties}. Controllers which don't declare
+     * their properties are always considered to support the selected fields.
+     * </p>
+     */
+    @Override
+    public boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        List<String> properties = getProperties();
+        return selectedFieldNames == null || properties.isEmpty()
+            || properties.stream().anyMatch(selectedFieldNames::contains);
+    }
+
     @Override
     public PatientData<String> readJSON(JSONObject json)
     {
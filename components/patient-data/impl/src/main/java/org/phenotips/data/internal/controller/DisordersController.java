@@ -153,6 +153,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(JSON_KEY_DISORDERS, diseasesToJSON(data, selectedFieldNames));
     }
 
+    @Override
+    public boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        return isFieldIncluded(selectedFieldNames, DISORDER_PROPERTIES);
+    }
+
     /** creates & returns a new JSON array of all patient diseases (as JSON objects). */
     private JSONArray diseasesToJSON(PatientData<Disorder> data, Collection<String> selectedFieldNames)
     {
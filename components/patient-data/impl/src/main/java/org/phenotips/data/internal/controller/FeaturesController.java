@@ -25,6 +25,7 @@
 import org.phenotips.data.PatientDataController;
 import org.phenotips.data.PatientWritePolicy;
 import org.phenotips.data.internal.PhenoTipsFeature;
+import org.phenotips.data.internal.XObjectIndex;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.EntityReference;
@@ -149,6 +150,7 @@ public IndexedPatientData<Feature> load(Patient patient)
             }
 
             List<Feature> features = new ArrayList<>();
+            XObjectIndex objects = XObjectIndex.forPatient(patient);
 
             Collection<BaseProperty<EntityReference>> fields = data.getFieldList();
             for (BaseProperty<EntityReference> field : fields) {
@@ -160,7 +162,7 @@ public IndexedPatientData<Feature> load(Patient patient)
                 ListProperty values = (ListProperty) field;
                 for (String value : values.getList()) {
                     if (StringUtils.isNotBlank(value)) {
-                        features.add(new PhenoTipsFeature(patient.getXDocument(), values, value));
+                        features.add(new PhenoTipsFeature(objects, values, value));
                     }
                 }
             }
@@ -187,6 +189,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(JSON_KEY_NON_STANDARD_FEATURES, nonStandardFeaturesToJSON(data, selectedFieldNames));
     }
 
+    @Override
+    public boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        return isFieldSuffixIncluded(selectedFieldNames, PHENOTYPE_POSITIVE_PROPERTY);
+    }
+
     /**
      * creates & returns a new JSON array of all patient features (as JSON objects).
      */
@@ -311,6 +319,9 @@ public void save(@Nonnull final Patient patient, @Nonnull final PatientWritePoli
             }
         } catch (final Exception ex) {
             this.logger.error("Failed to save features data: {}", ex.getMessage(), ex);
+        } finally {
+            // Metadata and category objects were removed and re-created, the shared index must not keep the old ones
+            XObjectIndex.forPatient(patient).clear();
         }
     }
 
@@ -332,6 +343,10 @@ private void saveFeatures(
         @Nonnull final PatientWritePolicy policy,
         @Nonnull final XWikiContext context)
     {
+        if (PatientWritePolicy.MERGE.equals(policy)) {
+            // Other controllers may have changed the objects since the index was built
+            XObjectIndex.forPatient(patient).clear();
+        }
         final Stream<Feature> featureStream = PatientWritePolicy.MERGE.equals(policy)
             ? buildFeaturesStream(load(patient), features)
             : StreamSupport.stream(features.spliterator(), false);
@@ -176,6 +176,12 @@ private String getFieldValue(BaseObject geneObject, String property)
         }
     }
 
+    @Override
+    public boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        return selectedFieldNames == null || selectedFieldNames.contains(GENES_ENABLING_FIELD_NAME);
+    }
+
     @Override
     public void writeJSON(Patient patient, JSONObject json, Collection<String> selectedFieldNames)
     {
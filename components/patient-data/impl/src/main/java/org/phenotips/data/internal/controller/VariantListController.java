@@ -298,6 +298,12 @@ private String getFieldValue(BaseObject variantObject, String property)
         }
     }
 
+    @Override
+    public boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        return selectedFieldNames == null || selectedFieldNames.contains(VARIANTS_ENABLING_FIELD_NAME);
+    }
+
     @SuppressWarnings("checkstyle:CyclomaticComplexity")
     @Override
     public void writeJSON(Patient patient, JSONObject json, Collection<String> selectedFieldNames)
@@ -126,6 +126,12 @@ private void addPhenoTipsVersion(Map<String, String> versions)
         }
     }
 
+    @Override
+    public boolean supportsFields(Collection<String> selectedFieldNames)
+    {
+        return selectedFieldNames == null || selectedFieldNames.contains(getEnablingFieldName());
+    }
+
     @Override
     public void writeJSON(Patient patient, JSONObject json, Collection<String> selectedFieldNames)
     {
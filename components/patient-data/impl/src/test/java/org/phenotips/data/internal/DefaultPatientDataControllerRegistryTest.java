@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.PatientDataController;
+import org.phenotips.data.PatientDataControllerRegistry;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultPatientDataControllerRegistry} component.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientDataControllerRegistryTest
+{
+    private static final Collection<String> FIELDS = Collections.singleton("first_name");
+
+    @Rule
+    public final MockitoComponentMockingRule<PatientDataControllerRegistry> mocker =
+        new MockitoComponentMockingRule<>(DefaultPatientDataControllerRegistry.class);
+
+    @Mock
+    private PatientDataController<String> first;
+
+    @Mock
+    private PatientDataController<String> second;
+
+    @Mock
+    private Patient patient;
+
+    private ComponentManager componentManager;
+
+    @Before
+    public void setup() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        when(this.first.getName()).thenReturn("first");
+        when(this.second.getName()).thenReturn("second");
+        when(this.first.supportsFields(anyCollectionOf(String.class))).thenReturn(true);
+        this.componentManager = this.mocker.getInstance(ComponentManager.class, "context");
+        when(this.componentManager.<PatientDataController<?>>getInstanceList(PatientDataController.class))
+            .thenReturn(Arrays.<PatientDataController<?>>asList(this.second, this.first));
+    }
+
+    /** Controllers are looked up once, sorted by name, and looked up again only after an invalidation. */
+    @Test
+    public void controllersAreCachedUntilInvalidated() throws Exception
+    {
+        PatientDataControllerRegistry registry = this.mocker.getComponentUnderTest();
+        Map<String, PatientDataController<?>> controllers = registry.getControllers();
+        Assert.assertEquals(Arrays.asList("first", "second"), Arrays.asList(controllers.keySet().toArray()));
+        Assert.assertSame(controllers, registry.getControllers());
+        verify(this.componentManager, times(1)).getInstanceList(PatientDataController.class);
+
+        ((DefaultPatientDataControllerRegistry) registry).invalidate();
+        registry.getControllers();
+        verify(this.componentManager, times(2)).getInstanceList(PatientDataController.class);
+    }
+
+    /** Controllers looked up while an invalidation happens are not cached as if they were up to date. */
+    @Test
+    public void invalidationDuringLookupIsNotLost() throws Exception
+    {
+        DefaultPatientDataControllerRegistry registry =
+            (DefaultPatientDataControllerRegistry) this.mocker.getComponentUnderTest();
+        doAnswer(invocation -> {
+            // A controller is registered while the previous ones are being looked up
+            registry.invalidate();
+            return Collections.<PatientDataController<?>>singletonList(this.first);
+        }).doReturn(Arrays.<PatientDataController<?>>asList(this.second, this.first))
+            .when(this.componentManager).getInstanceList(PatientDataController.class);
+
+        Assert.assertEquals(Collections.singleton("first"), registry.getControllers().keySet());
+        Assert.assertEquals(Arrays.asList("first", "second"),
+            Arrays.asList(registry.getControllers().keySet().toArray()));
+        registry.getControllers();
+        verify(this.componentManager, times(2)).getInstanceList(PatientDataController.class);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void controllersCannotBeModified() throws Exception
+    {
+        this.mocker.getComponentUnderTest().getControllers().clear();
+    }
+
+    /** Only the controllers supporting at least one of the selected fields are needed for exporting them. */
+    @Test
+    public void controllersAreFilteredBySelectedFields() throws Exception
+    {
+        PatientDataControllerRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(Collections.singleton("first"), registry.getControllers(FIELDS).keySet());
+        Assert.assertSame(registry.getControllers(), registry.getControllers(null));
+    }
+
+    /** Load times are recorded per controller, including failed loads. */
+    @Test
+    public void loadsAreMeasured() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        PatientData<String> data = mock(PatientData.class);
+        when(this.first.load(this.patient)).thenReturn(data);
+        when(this.second.load(this.patient)).thenThrow(new IllegalStateException());
+
+        PatientDataControllerRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertSame(data, registry.load(this.first, this.patient));
+        Assert.assertSame(data, registry.load(this.first, this.patient));
+        try {
+            registry.load(this.second, this.patient);
+            Assert.fail("Load failures should be propagated");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+
+        Map<String, Map<String, Number>> statistics = registry.getLoadStatistics();
+        Assert.assertEquals(2L, statistics.get("first").get("loads"));
+        Assert.assertEquals(0L, statistics.get("first").get("failed"));
+        Assert.assertEquals(1L, statistics.get("second").get("loads"));
+        Assert.assertEquals(1L, statistics.get("second").get("failed"));
+        Assert.assertTrue(statistics.get("first").get("maxMillis").longValue() >= 0);
+    }
+}
@@ -32,6 +32,7 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -60,6 +61,8 @@
  */
 public class SecurePatientRepositoryTest
 {
+    private static final Collection<String> PROJECTION = Collections.singleton("first_name");
+
     @Rule
     public final MockitoComponentMockingRule<PatientRepository> mocker =
         new MockitoComponentMockingRule<>(SecurePatientRepository.class);
@@ -94,6 +97,7 @@ public void setup() throws ComponentLookupException
         when(this.patient.getDocumentReference()).thenReturn(this.patientReference);
 
         when(this.internalRepo.get("P0123456")).thenReturn(this.patient);
+        when(this.internalRepo.get("P0123456", PROJECTION)).thenReturn(this.patient);
         when(this.internalRepo.getByName("Neuro123")).thenReturn(this.patient);
         when(this.internalRepo.create()).thenReturn(this.patient);
         when(this.internalRepo.create(this.currentUser.getProfileDocument())).thenReturn(this.patient);
@@ -129,6 +133,20 @@ public void getDeniesUnauthorizedAccess() throws ComponentLookupException
         this.mocker.getComponentUnderTest().get("P0123456");
     }
 
+    @Test
+    public void getWithProjectionForwardsCallsWhenAuthorized() throws ComponentLookupException
+    {
+        when(this.access.hasAccess(this.currentUser, Right.VIEW, this.patientReference)).thenReturn(true);
+        Assert.assertSame(this.securePatient, this.componentUnderTest.get("P0123456", PROJECTION));
+    }
+
+    @Test(expected = SecurityException.class)
+    public void getWithProjectionDeniesUnauthorizedAccess() throws ComponentLookupException
+    {
+        when(this.access.hasAccess(this.currentUser, Right.VIEW, this.patientReference)).thenReturn(false);
+        this.mocker.getComponentUnderTest().get("P0123456", PROJECTION);
+    }
+
     @Test
     public void getByNameForwardsCallsWhenAuthorized() throws ComponentLookupException
     {
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.FeatureMetadatum;
+import org.phenotips.data.Patient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.StringProperty;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link XObjectIndex}.
+ *
+ * @version $Id$
+ */
+public class XObjectIndexTest
+{
+    private static final List<String> KEYS = Arrays.asList("target_property_name", "target_property_value");
+
+    /** A patient with many phenotypes, each one with its own metadata object. */
+    private static final int FEATURES = 600;
+
+    private XWikiDocument doc;
+
+    private List<BaseObject> objects;
+
+    @Before
+    public void setup() throws XWikiException
+    {
+        this.doc = mock(XWikiDocument.class);
+        this.objects = new ArrayList<>();
+        this.objects.add(null);
+        for (int i = 0; i < FEATURES; ++i) {
+            this.objects.add(mockObject("phenotype", "HP:" + i));
+        }
+        // Same keys as an earlier object, must not replace it
+        this.objects.add(mockObject("phenotype", "HP:0"));
+        // Missing key property
+        BaseObject incomplete = mock(BaseObject.class);
+        this.objects.add(incomplete);
+        when(this.doc.getXObjects(FeatureMetadatum.CLASS_REFERENCE)).thenReturn(this.objects);
+    }
+
+    @Test
+    public void lookupsIndexTheObjectsOnlyOnce() throws XWikiException
+    {
+        XObjectIndex index = new XObjectIndex(this.doc);
+        for (int i = FEATURES - 1; i >= 0; --i) {
+            Assert.assertSame(this.objects.get(i + 1),
+                index.getObject(FeatureMetadatum.CLASS_REFERENCE, KEYS, Arrays.asList("phenotype", "HP:" + i)));
+        }
+        Assert.assertNull(
+            index.getObject(FeatureMetadatum.CLASS_REFERENCE, KEYS, Arrays.asList("negative_phenotype", "HP:1")));
+
+        verify(this.doc, times(1)).getXObjects(FeatureMetadatum.CLASS_REFERENCE);
+        for (BaseObject object : this.objects.subList(1, FEATURES + 1)) {
+            verify(object, times(1)).get("target_property_name");
+        }
+    }
+
+    @Test
+    public void clearReindexesTheObjects() throws XWikiException
+    {
+        XObjectIndex index = new XObjectIndex(this.doc);
+        List<String> keys = Arrays.asList("phenotype", "HP:" + FEATURES);
+        Assert.assertNull(index.getObject(FeatureMetadatum.CLASS_REFERENCE, KEYS, keys));
+
+        BaseObject added = mockObject("phenotype", "HP:" + FEATURES);
+        this.objects.add(added);
+        BaseObject removed = this.objects.remove(1);
+        index.clear();
+
+        Assert.assertSame(added, index.getObject(FeatureMetadatum.CLASS_REFERENCE, KEYS, keys));
+        Assert.assertNotSame(removed,
+            index.getObject(FeatureMetadatum.CLASS_REFERENCE, KEYS, Arrays.asList("phenotype", "HP:0")));
+        verify(this.doc, times(2)).getXObjects(FeatureMetadatum.CLASS_REFERENCE);
+    }
+
+    @Test
+    public void missingClassIsHandled() throws XWikiException
+    {
+        XObjectIndex index = new XObjectIndex(this.doc);
+        Assert.assertNull(index.getObject(PhenoTipsFeature.CATEGORY_CLASS_REFERENCE, KEYS,
+            Arrays.asList("phenotype", "HP:1")));
+        Assert.assertSame(this.doc, index.getDocument());
+    }
+
+    @Test
+    public void forPatientCreatesIndexForOtherPatientImplementations()
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getXDocument()).thenReturn(this.doc);
+        Assert.assertSame(this.doc, XObjectIndex.forPatient(patient).getDocument());
+    }
+
+    private BaseObject mockObject(String name, String value) throws XWikiException
+    {
+        BaseObject result = mock(BaseObject.class);
+        StringProperty nameProperty = new StringProperty();
+        nameProperty.setValue(name);
+        when(result.get("target_property_name")).thenReturn(nameProperty);
+        StringProperty valueProperty = new StringProperty();
+        valueProperty.setValue(value);
+        when(result.get("target_property_value")).thenReturn(valueProperty);
+        return result;
+    }
+}
@@ -28,7 +28,9 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
@@ -499,4 +501,15 @@ public void readJSONReadsAllProperties() throws ComponentLookupException
         Assert.assertEquals("datum2", result.get(PROPERTY_2));
         Assert.assertEquals("datum3", result.get(PROPERTY_3));
     }
+
+    // -----------------------------------supportsFields() tests-----------------------------------
+
+    @Test
+    public void supportsFieldsWhenAnyPropertyIsSelected() throws ComponentLookupException
+    {
+        Assert.assertTrue(this.component.supportsFields(null));
+        Assert.assertTrue(this.component.supportsFields(Arrays.asList("other", PROPERTY_2)));
+        Assert.assertFalse(this.component.supportsFields(Collections.singleton("other")));
+        Assert.assertFalse(this.component.supportsFields(Collections.<String>emptyList()));
+    }
 }
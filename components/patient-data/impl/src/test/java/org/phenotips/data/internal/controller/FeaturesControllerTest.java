@@ -38,6 +38,7 @@
 
 import javax.inject.Provider;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -340,4 +341,12 @@ public void saveReplacesFeaturesWhenPolicyIsReplace() throws XWikiException
 
         verifyNoMoreInteractions(this.doc, this.dataHolder);
     }
+
+    @Test
+    public void supportsFieldsOnlyWhenPhenotypesAreSelected()
+    {
+        Assert.assertTrue(this.component.supportsFields(null));
+        Assert.assertTrue(this.component.supportsFields(Arrays.asList("first_name", "prenatal_phenotype")));
+        Assert.assertFalse(this.component.supportsFields(Collections.singleton("first_name")));
+    }
 }
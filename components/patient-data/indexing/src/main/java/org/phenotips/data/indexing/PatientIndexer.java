@@ -22,6 +22,10 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * API for indexing patient data in a search engine.
  *
@@ -32,6 +36,15 @@
 @Role
 public interface PatientIndexer
 {
+    /**
+     * The name of an execution context property which, when set to {@code true}, stops patients changed in that context
+     * from being indexed as they are saved. Bulk operations set it, and then {@link #index(Iterator) index} all the
+     * changed patients at once.
+     *
+     * @since 1.5
+     */
+    String DEFERRED_INDEXING = "patientIndexer.deferred";
+
     /**
      * Add (or update) a patient to the index.
      *
@@ -39,6 +52,23 @@
      */
     void index(Patient patient);
 
+    /**
+     * Add (or update) several patients to the index, making them visible in searches all at once. The default
+     * implementation indexes them one by one.
+     *
+     * @param patients the patients to index, may be loaded lazily
+     * @since 1.5
+     */
+    default void index(Iterator<Patient> patients)
+    {
+        while (patients.hasNext()) {
+            Patient patient = patients.next();
+            if (patient != null) {
+                index(patient);
+            }
+        }
+    }
+
     /**
      * Delete from the index a patient.
      *
@@ -50,4 +80,16 @@
      * Reindex all the patients.
      */
     void reindex();
+
+    /**
+     * Reports the state of the indexer, such as the number of updates waiting to be indexed and how long they have
+     * been waiting.
+     *
+     * @return named metrics, may be empty if the indexer doesn't collect any
+     * @since 1.5
+     */
+    default Map<String, Number> getStatistics()
+    {
+        return Collections.emptyMap();
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Suggests patients matching a partial identifier or name, answering from the patient index instead of scanning the
+ * patient records.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable
+@Role
+public interface PatientSuggestionService
+{
+    /**
+     * Checks if the index can be used for answering suggestion requests. The index is not available until it holds
+     * all the patients, for example right after an upgrade, before the patients are reindexed.
+     *
+     * @return {@code true} if the index is available and populated, {@code false} otherwise
+     */
+    boolean isAvailable();
+
+    /**
+     * Finds the patients whose identifier or external identifier, and optionally first or last name, contain the given
+     * text. Patients that the current user certainly can't access are skipped, but the results may still include
+     * patients that the user isn't allowed to access, so the rights must be checked on each returned patient, and the
+     * {@code start} offset counts all the candidates, not just the accessible ones.
+     *
+     * @param input the text to look for, case insensitive
+     * @param includeNames whether to also look in the first and last names of the patients
+     * @param requiredRight the right that the current user must have on the returned patients
+     * @param sortByExternalId {@code true} to sort the results by external identifier, {@code false} to sort them by
+     *            internal identifier
+     * @param ascending {@code true} for ascending sort order, {@code false} for descending
+     * @param start the number of results to skip, for paging
+     * @param maxResults the maximum number of results to return
+     * @return the serialized references of the matching patient documents, or {@code null} if the index could not be
+     *         queried
+     */
+    @Nullable
+    List<String> suggest(String input, boolean includeNames, Right requiredRight, boolean sortByExternalId,
+        boolean ascending, int start, int maxResults);
+}
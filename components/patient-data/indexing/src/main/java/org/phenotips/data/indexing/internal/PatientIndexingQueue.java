@@ -0,0 +1,358 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+
+/**
+ * Sends patient index updates to Solr from a pool of background threads. Updates are keyed by the serialized patient
+ * document reference: a newer update for a document that is still waiting replaces the older one, and an update is
+ * never sent while another update for the same document is being sent, so the last update always wins. Instead of
+ * committing after each update, documents are added and deleted with a {@code commitWithin} delay, letting Solr group
+ * the changes of all the updates received in that interval in a single soft commit.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class PatientIndexingQueue
+{
+    /** The name of the field holding the time when a document was sent to the index. */
+    public static final String INDEXED_AT_FIELD = "indexed_at";
+
+    private final SolrClient client;
+
+    private final int batchSize;
+
+    private final int threads;
+
+    private final int commitWithin;
+
+    private final Logger logger;
+
+    private final ExecutorService workers;
+
+    /** The updates waiting to be sent, in the order they were first queued. Also used as the lock for the queue. */
+    private final Map<String, PendingUpdate> pending = new LinkedHashMap<>();
+
+    /** The documents whose updates are currently being sent. */
+    private final Set<String> inFlight = new HashSet<>();
+
+    private int activeWorkers;
+
+    private final AtomicLong indexed = new AtomicLong();
+
+    private final AtomicLong deleted = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private volatile long lastLag;
+
+    private volatile long maxLag;
+
+    /**
+     * Creates a new queue with its own worker threads.
+     *
+     * @param client the Solr core where documents are sent
+     * @param batchSize the maximum number of updates to send to Solr at once
+     * @param threads how many threads to use for preparing and sending updates
+     * @param commitWithin the maximum delay, in milliseconds, before sent updates become visible in searches
+     * @param logger where to log failures
+     */
+    public PatientIndexingQueue(SolrClient client, int batchSize, int threads, int commitWithin, Logger logger)
+    {
+        this.client = client;
+        this.batchSize = Math.max(1, batchSize);
+        this.threads = Math.max(1, threads);
+        this.commitWithin = commitWithin;
+        this.logger = logger;
+        this.workers = Executors.newFixedThreadPool(this.threads,
+            new BasicThreadFactory.Builder().namingPattern("patient-indexing-%d").daemon(true).build());
+    }
+
+    /**
+     * Queues a document to be added to the index, replacing any update still waiting for the same document.
+     *
+     * @param key the unique key of the document
+     * @param document computes the document to index; it is invoked from a worker thread, so it must not depend on the
+     *            current execution context
+     */
+    public void index(String key, Supplier<SolrInputDocument> document)
+    {
+        enqueue(new PendingUpdate(key, document));
+    }
+
+    /**
+     * Queues a document to be removed from the index, replacing any update still waiting for the same document.
+     *
+     * @param key the unique key of the document
+     */
+    public void delete(String key)
+    {
+        enqueue(new PendingUpdate(key, null));
+    }
+
+    /**
+     * Waits until less than {@code maxPending} updates are waiting to be sent, so that bulk producers don't accumulate
+     * all their documents in memory.
+     *
+     * @param maxPending the maximum number of waiting updates
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void awaitCapacity(int maxPending) throws InterruptedException
+    {
+        boolean stalled;
+        synchronized (this.pending) {
+            while (this.pending.size() >= maxPending && this.activeWorkers > 0) {
+                this.pending.wait(TimeUnit.SECONDS.toMillis(1));
+            }
+            stalled = this.pending.size() >= maxPending;
+        }
+        if (stalled) {
+            flush();
+        }
+    }
+
+    /**
+     * Waits until all the queued updates have been sent to Solr. If no worker is available, the updates are sent from
+     * the current thread. The updates are not necessarily committed yet.
+     */
+    public void flush()
+    {
+        while (true) {
+            synchronized (this.pending) {
+                if (this.pending.isEmpty() && this.inFlight.isEmpty()) {
+                    return;
+                }
+                if (this.activeWorkers > 0 || this.pending.isEmpty()) {
+                    try {
+                        this.pending.wait(TimeUnit.SECONDS.toMillis(1));
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                ++this.activeWorkers;
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Sends the remaining updates and stops the worker threads. Updates queued afterwards are only sent by
+     * {@link #flush()}.
+     */
+    public void shutdown()
+    {
+        flush();
+        this.workers.shutdown();
+    }
+
+    /**
+     * Reports the state of the queue.
+     *
+     * @return the current {@code queueDepth} (updates waiting to be sent), the number of updates {@code inFlight}, the
+     *         {@code oldestPendingMillis} age of the oldest waiting update, the {@code lastLagMillis} and
+     *         {@code maxLagMillis} delay between queuing and sending updates, and the number of documents
+     *         {@code indexed} and {@code deleted}, of updates {@code coalesced} into a newer one, of updates that
+     *         {@code failed}, and of {@code batches} sent since the queue was created
+     */
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> result = new LinkedHashMap<>();
+        synchronized (this.pending) {
+            result.put("queueDepth", this.pending.size());
+            result.put("inFlight", this.inFlight.size());
+            Iterator<PendingUpdate> oldest = this.pending.values().iterator();
+            result.put("oldestPendingMillis",
+                oldest.hasNext() ? System.currentTimeMillis() - oldest.next().queuedAt : 0L);
+        }
+        result.put("lastLagMillis", this.lastLag);
+        result.put("maxLagMillis", this.maxLag);
+        result.put("indexed", this.indexed.get());
+        result.put("deleted", this.deleted.get());
+        result.put("coalesced", this.coalesced.get());
+        result.put("failed", this.failed.get());
+        result.put("batches", this.batches.get());
+        return result;
+    }
+
+    private void enqueue(PendingUpdate update)
+    {
+        synchronized (this.pending) {
+            PendingUpdate previous = this.pending.get(update.key);
+            if (previous != null) {
+                // Keep the original position and age, the document has been waiting since then
+                update.queuedAt = previous.queuedAt;
+                this.coalesced.incrementAndGet();
+            }
+            this.pending.put(update.key, update);
+            if (this.activeWorkers < this.threads) {
+                try {
+                    this.workers.execute(this::drain);
+                    ++this.activeWorkers;
+                } catch (RejectedExecutionException ex) {
+                    // The queue was shut down, the update will be sent by the next flush
+                }
+            }
+        }
+    }
+
+    private void drain()
+    {
+        while (true) {
+            List<PendingUpdate> batch;
+            synchronized (this.pending) {
+                batch = takeBatch();
+                if (batch.isEmpty()) {
+                    --this.activeWorkers;
+                    this.pending.notifyAll();
+                    return;
+                }
+            }
+            try {
+                send(batch);
+            } finally {
+                synchronized (this.pending) {
+                    for (PendingUpdate update : batch) {
+                        this.inFlight.remove(update.key);
+                    }
+                    this.pending.notifyAll();
+                }
+            }
+        }
+    }
+
+    private List<PendingUpdate> takeBatch()
+    {
+        List<PendingUpdate> result = new ArrayList<>();
+        Iterator<PendingUpdate> it = this.pending.values().iterator();
+        while (it.hasNext() && result.size() < this.batchSize) {
+            PendingUpdate update = it.next();
+            // Updates for documents being sent must wait, otherwise they could reach Solr before the older update
+            if (this.inFlight.add(update.key)) {
+                it.remove();
+                result.add(update);
+            }
+        }
+        return result;
+    }
+
+    private void send(List<PendingUpdate> batch)
+    {
+        List<SolrInputDocument> additions = new ArrayList<>(batch.size());
+        List<String> deletions = new ArrayList<>();
+        long oldest = Long.MAX_VALUE;
+        Date now = new Date();
+        for (PendingUpdate update : batch) {
+            oldest = Math.min(oldest, update.queuedAt);
+            if (update.document == null) {
+                deletions.add(update.key);
+                continue;
+            }
+            try {
+                SolrInputDocument doc = update.document.get();
+                doc.setField(INDEXED_AT_FIELD, now);
+                additions.add(doc);
+            } catch (RuntimeException ex) {
+                this.failed.incrementAndGet();
+                this.logger.warn("Failed to prepare patient [{}] for indexing: {}", update.key, ex.getMessage());
+            }
+        }
+        sendAdditions(additions);
+        sendDeletions(deletions);
+        this.batches.incrementAndGet();
+        long lag = now.getTime() - oldest;
+        this.lastLag = lag;
+        this.maxLag = Math.max(this.maxLag, lag);
+    }
+
+    private void sendAdditions(List<SolrInputDocument> additions)
+    {
+        if (additions.isEmpty()) {
+            return;
+        }
+        try {
+            this.client.add(additions, this.commitWithin);
+            this.indexed.addAndGet(additions.size());
+        } catch (SolrServerException ex) {
+            this.failed.addAndGet(additions.size());
+            this.logger.warn("Failed to perform Solr search: {}", ex.getMessage());
+        } catch (IOException ex) {
+            this.failed.addAndGet(additions.size());
+            this.logger.warn("Error occurred while performing Solr search: {}", ex.getMessage());
+        }
+    }
+
+    private void sendDeletions(List<String> deletions)
+    {
+        if (deletions.isEmpty()) {
+            return;
+        }
+        try {
+            this.client.deleteById(deletions, this.commitWithin);
+            this.deleted.addAndGet(deletions.size());
+        } catch (SolrServerException ex) {
+            this.failed.addAndGet(deletions.size());
+            this.logger.warn("Failed to delete from Solr: {}", ex.getMessage());
+        } catch (IOException ex) {
+            this.failed.addAndGet(deletions.size());
+            this.logger.warn("Error occurred while deleting Solr documents: {}", ex.getMessage());
+        }
+    }
+
+    private static final class PendingUpdate
+    {
+        private final String key;
+
+        /** Computes the document to index, or {@code null} if the document must be deleted. */
+        private final Supplier<SolrInputDocument> document;
+
+        private long queuedAt = System.currentTimeMillis();
+
+        PendingUpdate(String key, Supplier<SolrInputDocument> document)
+        {
+            this.key = key;
+            this.document = document;
+        }
+    }
+}
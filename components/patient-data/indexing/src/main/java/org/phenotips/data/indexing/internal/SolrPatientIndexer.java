@@ -23,21 +23,46 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.vocabulary.OntologyGraph;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -47,19 +72,25 @@
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
-import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
 /**
- * Indexes patients in a local Solr core.
+ * Indexes patients in a local Solr core. The documents are prepared on the calling thread, since they need access to
+ * the patient data and rights, but expanding the phenotype ancestors and sending the documents to Solr is done in the
+ * background by a {@link PatientIndexingQueue}, which also coalesces repeated updates of the same patient and relies
+ * on {@code commitWithin} instead of explicit commits. A full {@link #reindex() reindex} streams the patients in chunks
+ * and records its progress after each chunk, so that an interrupted reindex resumes where it stopped.
  *
  * @version $Id$
  * @since 1.0M8
  */
 @Component
 @Singleton
-public class SolrPatientIndexer implements PatientIndexer, Initializable
+public class SolrPatientIndexer implements PatientIndexer, Initializable, Disposable
 {
     private static final String GENES_KEY = "genes";
 
@@ -67,6 +98,47 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
 
     private static final String SOLR_GENE_STATUS_FIELD_POSTFIX = "_genes";
 
+    private static final String FIRST_NAME = "first_name";
+
+    private static final String LAST_NAME = "last_name";
+
+    /**
+     * Lists the other means through which access to the patient may be granted, and which can't be checked in the
+     * index, so that access filters don't exclude these patients.
+     */
+    private static final String ACCESS_RULES = "access_rules";
+
+    private static final EntityReference RIGHTS_CLASS_REFERENCE = new EntityReference("XWikiRights",
+        EntityType.DOCUMENT, new EntityReference("XWiki", EntityType.SPACE));
+
+    private static final EntityReference FAMILY_REFERENCE_CLASS_REFERENCE = new EntityReference(
+        "FamilyReferenceClass", EntityType.DOCUMENT, new EntityReference("PhenoTips", EntityType.SPACE));
+
+    /** How many updates to send to Solr at once. */
+    private static final int BATCH_SIZE = 100;
+
+    /** How many background threads to use for sending updates. */
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    /** The maximum delay, in milliseconds, before an update becomes visible in searches. */
+    private static final int COMMIT_WITHIN = 1000;
+
+    /** How many patients to load with each reindex query; progress is recorded after each chunk. */
+    private static final int REINDEX_CHUNK_SIZE = 500;
+
+    /** How many prepared documents can wait to be sent during a reindex. */
+    private static final int REINDEX_MAX_PENDING = BATCH_SIZE * THREADS * 2;
+
+    private static final String REINDEX_QUERY = "select doc.fullName from Document doc, "
+        + "doc.object(PhenoTips.PatientClass) as patient where doc.fullName > :last order by doc.fullName";
+
+    /** The file, in the permanent directory, where the progress of a running reindex is recorded. */
+    private static final String CHECKPOINT_FILE = "patients-reindex.properties";
+
+    private static final String CHECKPOINT_STARTED = "started";
+
+    private static final String CHECKPOINT_LAST = "last";
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -77,6 +149,9 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
     /** The Solr server instance used. */
     private SolrClient server;
 
+    /** Sends the updates to the Solr server. */
+    private PatientIndexingQueue queue;
+
     /** Allows querying for patients. */
     @Inject
     private QueryManager qm;
@@ -96,29 +171,41 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
     @Inject
     private EntityReferenceSerializer<String> referenceSerializer;
 
+    /** Used for finding the permanent directory, where the reindex progress is recorded. */
+    @Inject
+    private Environment environment;
+
+    private final AtomicBoolean reindexing = new AtomicBoolean();
+
+    private final AtomicLong reindexed = new AtomicLong();
+
     @Override
     public void initialize() throws InitializationException
     {
         this.server = new EmbeddedSolrServer(this.cores.getContainer(), "patients");
+        this.queue = new PatientIndexingQueue(this.server, BATCH_SIZE, THREADS, COMMIT_WITHIN, this.logger);
     }
 
     @Override
-    public void index(Patient patient)
+    public void dispose() throws ComponentLifecycleException
     {
-        this.internalIndex(patient, true);
+        this.queue.shutdown();
     }
 
-    private void internalIndex(Patient patient, boolean commit)
+    @Override
+    public void index(Patient patient)
     {
         SolrInputDocument input = new SolrInputDocument();
-        input.setField("document", this.referenceSerializer.serialize(patient.getDocumentReference()));
+        String document = this.referenceSerializer.serialize(patient.getDocumentReference());
+        input.setField("document", document);
         String reporter = "";
         if (patient.getReporter() != null) {
             reporter = patient.getReporter().toString();
         }
         input.setField("reporter", reporter);
 
-        // Index direct phenotypes and extended ancestor sets
+        // Index direct phenotypes, the extended ancestor sets are computed in the background
+        Map<String, List<String>> extendedTerms = new LinkedHashMap<>();
         for (Feature phenotype : patient.getFeatures()) {
             String presence = (phenotype.isPresent() ? "" : "negative_");
             String fieldName = presence + phenotype.getType();
@@ -127,64 +214,243 @@ private void internalIndex(Patient patient, boolean commit)
             String termId = phenotype.getId();
             if (StringUtils.isNotBlank(termId)) {
                 input.addField(fieldName, termId);
-                // Add ancestors of the term
-                VocabularyTerm term = this.ontologyService.getTerm(termId);
-                if (term != null) {
-                    for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
-                        input.addField(ancestorFieldName, ancestor.getId());
-                    }
-                }
+                extendedTerms.computeIfAbsent(ancestorFieldName, k -> new ArrayList<>()).add(termId);
             }
         }
 
-        input.setField("visibility", this.permissions.getEntityAccess(patient).getVisibility().getName());
-        input.setField("accessLevel", this.permissions.getEntityAccess(patient).getVisibility().getPermissiveness());
+        EntityAccess access = this.permissions.getEntityAccess(patient);
+        input.setField("visibility", access.getVisibility().getName());
+        input.setField("accessLevel", access.getVisibility().getPermissiveness());
+        addAccessRights(input, access, patient.getXDocument());
 
+        addIdentifiers(input, patient);
         addGenes(input, patient);
 
+        this.queue.index(document, () -> addAncestors(input, extendedTerms));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The patients are sent in batches by the background threads, and made visible with a single commit once all of
+     * them have been sent.
+     * </p>
+     */
+    @Override
+    public void index(Iterator<Patient> patients)
+    {
         try {
-            this.server.add(input);
-            if (commit) {
-                this.server.commit();
+            while (patients.hasNext()) {
+                Patient patient = patients.next();
+                if (patient != null) {
+                    this.queue.awaitCapacity(REINDEX_MAX_PENDING);
+                    this.index(patient);
+                }
             }
+            this.queue.flush();
+            this.server.commit();
         } catch (SolrServerException ex) {
-            this.logger.warn("Failed to perform Solr search: {}", ex.getMessage());
+            this.logger.warn("Failed to commit indexed patients: {}", ex.getMessage());
         } catch (IOException ex) {
-            this.logger.warn("Error occurred while performing Solr search: {}", ex.getMessage());
+            this.logger.warn("Error occurred while committing indexed patients: {}", ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Bulk patient indexing was interrupted");
         }
     }
 
     @Override
     public void delete(Patient patient)
     {
-        try {
-            this.server.deleteByQuery("document:"
-                + ClientUtils.escapeQueryChars(this.referenceSerializer.serialize(patient.getDocumentReference())));
-            this.server.commit();
-        } catch (SolrServerException ex) {
-            this.logger.warn("Failed to delete from Solr: {}", ex.getMessage());
-        } catch (IOException ex) {
-            this.logger.warn("Error occurred while deleting Solr documents: {}", ex.getMessage());
-        }
+        this.queue.delete(this.referenceSerializer.serialize(patient.getDocumentReference()));
     }
 
     @Override
     public void reindex()
     {
+        if (!this.reindexing.compareAndSet(false, true)) {
+            this.logger.info("Patients are already being reindexed");
+            return;
+        }
+        this.reindexed.set(0);
         try {
-            List<String> patientDocs =
-                this.qm.createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL).execute();
-            this.server.deleteByQuery("*:*");
-            for (String patientDoc : patientDocs) {
-                this.internalIndex(this.patientRepository.get(patientDoc), false);
+            Properties checkpoint = loadCheckpoint();
+            long started = Long.parseLong(
+                checkpoint.getProperty(CHECKPOINT_STARTED, String.valueOf(System.currentTimeMillis())));
+            String last = checkpoint.getProperty(CHECKPOINT_LAST, "");
+            if (StringUtils.isNotEmpty(last)) {
+                this.logger.info("Resuming the patients reindex after [{}]", last);
             }
+            List<String> patientDocs;
+            do {
+                patientDocs = this.qm.createQuery(REINDEX_QUERY, Query.XWQL).bindValue(CHECKPOINT_LAST, last)
+                    .setLimit(REINDEX_CHUNK_SIZE).execute();
+                for (String patientDoc : patientDocs) {
+                    Patient patient = this.patientRepository.get(patientDoc);
+                    if (patient != null) {
+                        this.queue.awaitCapacity(REINDEX_MAX_PENDING);
+                        this.index(patient);
+                        this.reindexed.incrementAndGet();
+                    }
+                }
+                this.queue.flush();
+                if (!patientDocs.isEmpty()) {
+                    last = patientDocs.get(patientDocs.size() - 1);
+                    saveCheckpoint(started, last);
+                }
+            } while (patientDocs.size() == REINDEX_CHUNK_SIZE);
+            // Everything indexed since the reindex started is current, anything older belongs to deleted patients
+            this.server.commit();
+            this.server.deleteByQuery("*:* -" + PatientIndexingQueue.INDEXED_AT_FIELD + ":[\""
+                + Instant.ofEpochMilli(started) + "\" TO *]");
             this.server.commit();
+            clearCheckpoint();
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to reindex patients: {}", ex.getMessage());
         } catch (IOException ex) {
             this.logger.warn("Error occurred while reindexing patients: {}", ex.getMessage());
         } catch (QueryException ex) {
             this.logger.warn("Failed to search patients for reindexing: {}", ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Patients reindexing was interrupted, it will resume on the next reindex");
+        } finally {
+            this.reindexing.set(false);
+        }
+    }
+
+    @Override
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> result = this.queue.getStatistics();
+        result.put("reindexRunning", this.reindexing.get() ? 1 : 0);
+        result.put("reindexed", this.reindexed.get());
+        return result;
+    }
+
+    /**
+     * Waits until all the queued updates have been sent to Solr. Mostly useful for bulk operations and tests, since
+     * sent updates still become visible in searches only after the {@code commitWithin} delay.
+     */
+    public void flush()
+    {
+        this.queue.flush();
+    }
+
+    private SolrInputDocument addAncestors(SolrInputDocument input, Map<String, List<String>> extendedTerms)
+    {
+        OntologyGraph graph = this.ontologyService.getOntologyGraph();
+        for (Map.Entry<String, List<String>> terms : extendedTerms.entrySet()) {
+            for (String termId : terms.getValue()) {
+                for (String ancestorId : getAncestorsAndSelf(termId, graph)) {
+                    input.addField(terms.getKey(), ancestorId);
+                }
+            }
+        }
+        return input;
+    }
+
+    /**
+     * Gets the identifiers of a term and its ancestors from the HPO graph if it knows the term, so that no term has to
+     * be loaded from the vocabulary, or from the HPO vocabulary otherwise.
+     *
+     * @param termId the identifier of the term
+     * @param graph the HPO graph, may be {@code null}
+     * @return the identifiers of the term and of its ancestors, or an empty set if the term is unknown
+     */
+    private Set<String> getAncestorsAndSelf(String termId, OntologyGraph graph)
+    {
+        if (graph != null && graph.contains(termId)) {
+            return graph.getAncestorsAndSelf(termId);
+        }
+        VocabularyTerm term = this.ontologyService.getTerm(termId);
+        return term != null ? term.getAncestorsAndSelfIds() : Collections.emptySet();
+    }
+
+    private File getCheckpointFile()
+    {
+        File directory = this.environment.getPermanentDirectory();
+        return directory == null ? null : new File(directory, CHECKPOINT_FILE);
+    }
+
+    private Properties loadCheckpoint()
+    {
+        Properties result = new Properties();
+        File file = getCheckpointFile();
+        if (file != null && file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                result.load(in);
+            } catch (IOException ex) {
+                this.logger.warn("Failed to read the patients reindex progress, starting over: {}", ex.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private void saveCheckpoint(long started, String last)
+    {
+        File file = getCheckpointFile();
+        if (file == null) {
+            return;
+        }
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty(CHECKPOINT_STARTED, String.valueOf(started));
+        checkpoint.setProperty(CHECKPOINT_LAST, last);
+        try (OutputStream out = new FileOutputStream(file)) {
+            checkpoint.store(out, null);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to record the patients reindex progress: {}", ex.getMessage());
+        }
+    }
+
+    private void clearCheckpoint()
+    {
+        File file = getCheckpointFile();
+        if (file != null && file.exists() && !file.delete()) {
+            this.logger.warn("Failed to remove the patients reindex progress file [{}]", file);
+        }
+    }
+
+    private void addAccessRights(SolrInputDocument input, EntityAccess access, XWikiDocument document)
+    {
+        Owner owner = access.getOwner();
+        if (owner != null && owner.getUser() != null) {
+            input.setField("owner", this.referenceSerializer.serialize(owner.getUser()));
+        }
+        for (Collaborator collaborator : access.getCollaborators()) {
+            if (collaborator.getUser() != null) {
+                input.addField("collaborator", this.referenceSerializer.serialize(collaborator.getUser()));
+            }
+        }
+        if (hasObject(document, RIGHTS_CLASS_REFERENCE)) {
+            input.addField(ACCESS_RULES, "rights");
+        }
+        if (hasObject(document, FAMILY_REFERENCE_CLASS_REFERENCE)) {
+            input.addField(ACCESS_RULES, "family");
+        }
+    }
+
+    private boolean hasObject(XWikiDocument document, EntityReference classReference)
+    {
+        List<BaseObject> objects = document == null ? null : document.getXObjects(classReference);
+        return objects != null && objects.stream().anyMatch(Objects::nonNull);
+    }
+
+    private void addIdentifiers(SolrInputDocument input, Patient patient)
+    {
+        setFieldIfNotBlank(input, "id", patient.getId());
+        setFieldIfNotBlank(input, "external_id", patient.getExternalId());
+        PatientData<String> names = patient.getData("patientName");
+        if (names != null) {
+            setFieldIfNotBlank(input, FIRST_NAME, names.get(FIRST_NAME));
+            setFieldIfNotBlank(input, LAST_NAME, names.get(LAST_NAME));
+        }
+    }
+
+    private void setFieldIfNotBlank(SolrInputDocument input, String field, String value)
+    {
+        if (StringUtils.isNotBlank(value)) {
+            input.setField(field, value);
         }
     }
 
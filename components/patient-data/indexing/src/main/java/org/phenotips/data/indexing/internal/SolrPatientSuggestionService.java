@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.indexing.PatientSuggestionService;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.permissions.internal.EntityAccessManager;
+import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.vocabulary.SolrCoreContainerHandler;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.slf4j.Logger;
+
+/**
+ * Suggests patients from the {@code patients} Solr core, where identifiers and names are indexed as substrings by
+ * {@link SolrPatientIndexer}. The indexed owner, collaborators, visibility and other access rules are used for
+ * skipping the patients that the current user certainly can't access, but the results must still be checked. The core
+ * is only used once it has been populated with these fields, so that suggestions keep coming from the database after
+ * an upgrade, until the patients are reindexed.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Singleton
+public class SolrPatientSuggestionService implements PatientSuggestionService, Initializable
+{
+    /** The longest substring indexed, as configured in the {@code text_substring} field type of the core. */
+    private static final int MAX_SUBSTRING_LENGTH = 40;
+
+    private static final String DOCUMENT_FIELD = "document";
+
+    private static final String OR = " OR ";
+
+    /** Matches the patients without an owner, which anyone can access. */
+    private static final String NO_OWNER = "(*:* -owner:[* TO *])";
+
+    /** Matches the patients with document rights or a family, which may grant access in ways not indexed. */
+    private static final String OTHER_ACCESS_RULES = "access_rules:[* TO *]";
+
+    /** Matches the patients indexed before the substring fields were added, which can't be suggested. */
+    private static final String WITHOUT_SUBSTRINGS = "*:* -identifier_substrings:[* TO *]";
+
+    /** The indexer statistic telling if a full reindex is running. */
+    private static final String REINDEX_RUNNING = "reindexRunning";
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SolrCoreContainerHandler cores;
+
+    /** The Solr server instance used. */
+    private SolrClient server;
+
+    @Inject
+    private AuthorizationService access;
+
+    /** Tells if the patients are being reindexed, in which case the core may still be incomplete. */
+    @Inject
+    private PatientIndexer indexer;
+
+    /** Whether the core was found populated with all the patients, checked again on each request until it is. */
+    private volatile boolean populated;
+
+    @Inject
+    private UserManager users;
+
+    @Inject
+    private EntityPermissionsManager permissions;
+
+    @Inject
+    private EntityAccessManager accessManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> referenceSerializer;
+
+    /** Fills in missing reference fields with those from the current context document to create a full reference. */
+    @Inject
+    @Named("current")
+    private EntityReferenceResolver<EntityReference> currentResolver;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.server = new EmbeddedSolrServer(this.cores.getContainer(), "patients");
+    }
+
+    @Override
+    public boolean isAvailable()
+    {
+        if (this.server != null && !this.populated) {
+            this.populated = !isReindexing() && isPopulated();
+        }
+        return this.populated;
+    }
+
+    @Override
+    public List<String> suggest(String input, boolean includeNames, Right requiredRight, boolean sortByExternalId,
+        boolean ascending, int start, int maxResults)
+    {
+        if (StringUtils.isBlank(input) || maxResults <= 0) {
+            return new ArrayList<>();
+        }
+        String text = ClientUtils.escapeQueryChars(
+            StringUtils.left(input.trim().toLowerCase(Locale.ROOT), MAX_SUBSTRING_LENGTH));
+        SolrQuery query = new SolrQuery("identifier_substrings:" + text);
+        if (includeNames) {
+            query.setQuery(query.getQuery() + OR + "name_substrings:" + text);
+        }
+        String accessFilter = getAccessFilter(requiredRight);
+        if (accessFilter != null) {
+            query.addFilterQuery(accessFilter);
+        }
+        query.setFields(DOCUMENT_FIELD);
+        query.setSort(sortByExternalId ? "external_id" : "id", ascending ? SolrQuery.ORDER.asc : SolrQuery.ORDER.desc);
+        query.setStart(Math.max(0, start));
+        query.setRows(maxResults);
+        try {
+            List<String> result = new ArrayList<>();
+            for (SolrDocument doc : this.server.query(query).getResults()) {
+                result.add((String) doc.getFieldValue(DOCUMENT_FIELD));
+            }
+            return result;
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            this.logger.warn("Failed to query the patient index for suggestions: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    private boolean isReindexing()
+    {
+        Number running = this.indexer.getStatistics().get(REINDEX_RUNNING);
+        return running != null && running.intValue() > 0;
+    }
+
+    /**
+     * Checks that the core holds patients, all of them indexed with the substring fields. An empty core, for example a
+     * new one, or one still holding patients indexed by an older version, can't answer suggestions until the patients
+     * are reindexed.
+     *
+     * @return {@code true} if the core can be used for suggestions
+     */
+    private boolean isPopulated()
+    {
+        try {
+            SolrQuery query = new SolrQuery("*:*");
+            query.setRows(0);
+            if (this.server.query(query).getResults().getNumFound() == 0) {
+                return false;
+            }
+            query.setQuery(WITHOUT_SUBSTRINGS);
+            return this.server.query(query).getResults().getNumFound() == 0;
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            this.logger.warn("Failed to check the patient index: {}", ex.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Builds a filter query matching all the patients that the current user might access: through their owner,
+     * collaborators or visibility, because they have no owner, or because other access rules apply to them. This only
+     * narrows down the candidates, the access rights of each result must still be checked.
+     *
+     * @param requiredRight the right needed on the patients
+     * @return a filter query, or {@code null} if no patient can be excluded in advance
+     */
+    private String getAccessFilter(Right requiredRight)
+    {
+        User user = this.users.getCurrentUser();
+        EntityReference dataSpace = this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE);
+        if (user != null && this.access.hasAccess(user, Right.ADMIN, dataSpace)) {
+            return null;
+        }
+        // The space level XWiki rights aren't used: the default deny module takes precedence over them for patients
+        DocumentReference profile = user == null ? null : user.getProfileDocument();
+
+        List<String> clauses = new ArrayList<>();
+        Collection<DocumentReference> principals = profile == null ? null : this.accessManager.getAllGroups(profile);
+        if (principals != null && !principals.isEmpty()) {
+            String values = principals.stream()
+                .map(principal -> ClientUtils.escapeQueryChars(this.referenceSerializer.serialize(principal)))
+                .collect(Collectors.joining(OR, "(", ")"));
+            clauses.add("owner:" + values);
+            clauses.add("collaborator:" + values);
+        }
+        String visibilities = this.permissions.listAllVisibilityOptions().stream()
+            .filter(visibility -> grants(visibility, requiredRight))
+            .map(visibility -> ClientUtils.escapeQueryChars(visibility.getName()))
+            .collect(Collectors.joining(OR));
+        if (StringUtils.isNotEmpty(visibilities)) {
+            clauses.add("visibility:(" + visibilities + ")");
+        }
+        clauses.add(NO_OWNER);
+        clauses.add(OTHER_ACCESS_RULES);
+        return String.join(OR, clauses);
+    }
+
+    private boolean grants(Visibility visibility, Right right)
+    {
+        Right granted = visibility.getDefaultAccessLevel().getGrantedRight();
+        return granted.equals(right) || (granted.getImpliedRights() != null
+            && granted.getImpliedRights().contains(right));
+    }
+}
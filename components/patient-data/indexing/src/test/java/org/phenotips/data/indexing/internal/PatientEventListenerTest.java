@@ -23,6 +23,8 @@
 import org.phenotips.data.indexing.PatientIndexer;
 
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.observation.EventListener;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -32,8 +34,10 @@
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 public class PatientEventListenerTest
@@ -79,4 +83,17 @@ public void indexPatientTest()
         this.eventListener.onEvent(patientEvent, mock(Object.class), mock(Object.class));
         verify(this.patientIndexer).index(this.patient);
     }
+
+    @Test
+    public void indexingIsSkippedWhenDeferred() throws ComponentLookupException
+    {
+        ExecutionContext context = new ExecutionContext();
+        context.setProperty(PatientIndexer.DEFERRED_INDEXING, true);
+        doReturn(context).when(this.mocker.getInstance(Execution.class)).getContext();
+        PatientEvent patientEvent = mock(PatientEvent.class);
+        doReturn(this.patient).when(patientEvent).getPatient();
+
+        this.eventListener.onEvent(patientEvent, mock(Object.class), mock(Object.class));
+        verify(this.patientIndexer, never()).index(any(Patient.class));
+    }
 }
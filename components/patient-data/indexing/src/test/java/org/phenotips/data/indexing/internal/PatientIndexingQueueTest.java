@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link PatientIndexingQueue}. The queue is shut down before queuing updates, so that they are only sent
+ * when flushing, from the test thread.
+ *
+ * @version $Id$
+ */
+public class PatientIndexingQueueTest
+{
+    private SolrClient client;
+
+    private Logger logger;
+
+    private PatientIndexingQueue queue;
+
+    @Before
+    public void setUp()
+    {
+        this.client = mock(SolrClient.class);
+        this.logger = mock(Logger.class);
+        this.queue = new PatientIndexingQueue(this.client, 2, 1, 500, this.logger);
+        this.queue.shutdown();
+    }
+
+    @Test
+    public void repeatedUpdatesAreCoalesced() throws Exception
+    {
+        this.queue.index("P1", () -> document("P1", "old"));
+        this.queue.index("P2", () -> document("P2", "only"));
+        this.queue.index("P1", () -> document("P1", "new"));
+        Assert.assertEquals(2, this.queue.getStatistics().get("queueDepth").intValue());
+
+        this.queue.flush();
+
+        Collection<SolrInputDocument> docs = captureAdditions();
+        Assert.assertEquals(2, docs.size());
+        for (SolrInputDocument doc : docs) {
+            Assert.assertNotEquals("old", doc.getFieldValue("reporter"));
+            Assert.assertNotNull(doc.getFieldValue(PatientIndexingQueue.INDEXED_AT_FIELD));
+        }
+        Map<String, Number> statistics = this.queue.getStatistics();
+        Assert.assertEquals(0, statistics.get("queueDepth").intValue());
+        Assert.assertEquals(1, statistics.get("coalesced").intValue());
+        Assert.assertEquals(2, statistics.get("indexed").intValue());
+        Assert.assertEquals(1, statistics.get("batches").intValue());
+    }
+
+    @Test
+    public void deletionReplacesPendingUpdate() throws Exception
+    {
+        this.queue.index("P1", () -> document("P1", "old"));
+        this.queue.delete("P1");
+
+        this.queue.flush();
+
+        verify(this.client, never()).add(anyCollectionOf(SolrInputDocument.class), anyInt());
+        verify(this.client).deleteById(Collections.singletonList("P1"), 500);
+        Assert.assertEquals(1, this.queue.getStatistics().get("deleted").intValue());
+    }
+
+    @Test
+    public void updatesAreSentInBatches() throws Exception
+    {
+        for (String id : Arrays.asList("P1", "P2", "P3")) {
+            this.queue.index(id, () -> document(id, "user"));
+        }
+
+        this.queue.awaitCapacity(2);
+
+        Assert.assertEquals(2, this.queue.getStatistics().get("batches").intValue());
+        Assert.assertEquals(3, this.queue.getStatistics().get("indexed").intValue());
+    }
+
+    @Test
+    public void failedPreparationIsSkipped() throws Exception
+    {
+        this.queue.index("P1", () -> {
+            throw new IllegalStateException("vocabulary unavailable");
+        });
+        this.queue.index("P2", () -> document("P2", "user"));
+
+        this.queue.flush();
+
+        Assert.assertEquals(1, captureAdditions().size());
+        verify(this.logger).warn("Failed to prepare patient [{}] for indexing: {}", "P1", "vocabulary unavailable");
+        Assert.assertEquals(1, this.queue.getStatistics().get("failed").intValue());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private Collection<SolrInputDocument> captureAdditions() throws Exception
+    {
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.client).add(captor.capture(), eq(500));
+        return captor.getValue();
+    }
+
+    private SolrInputDocument document(String id, String reporter)
+    {
+        SolrInputDocument result = new SolrInputDocument();
+        result.setField("document", id);
+        result.setField("reporter", reporter);
+        return result;
+    }
+}
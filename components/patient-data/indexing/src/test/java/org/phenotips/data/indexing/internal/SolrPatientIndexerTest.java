@@ -25,11 +25,14 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Owner;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.DefaultEntityAccess;
 import org.phenotips.data.permissions.internal.visibility.PublicVisibility;
+import org.phenotips.vocabulary.OntologyGraph;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
@@ -38,52 +41,71 @@
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Provider;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.UpdateResponse;
-import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.CoreContainer;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.mockito.internal.matchers.CapturingMatcher;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.StaticListClass;
 import com.xpn.xwiki.web.Utils;
 
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -91,9 +113,17 @@
 {
     private static final String STATUS_KEY = "status";
 
+    private static final int COMMIT_WITHIN = 1000;
+
+    private static final String REINDEX_QUERY = "select doc.fullName from Document doc, "
+        + "doc.object(PhenoTips.PatientClass) as patient where doc.fullName > :last order by doc.fullName";
+
     private static final List<String> STATUS_VALUES = Arrays.asList("candidate", "rejected", "rejected_candidate",
         "solved", "carrier");
 
+    @Rule
+    public TemporaryFolder permanentDirectory = new TemporaryFolder();
+
     @Rule
     public MockitoComponentMockingRule<PatientIndexer> mocker =
         new MockitoComponentMockingRule<>(SolrPatientIndexer.class);
@@ -172,6 +202,8 @@ public void setUp() throws Exception
         this.logger = this.mocker.getMockedLogger();
 
         ReflectionUtils.setFieldValue(this.patientIndexer, "server", this.server);
+        ReflectionUtils.setFieldValue(this.patientIndexer, "queue",
+            new PatientIndexingQueue(this.server, 100, 2, COMMIT_WITHIN, this.logger));
     }
 
     @Before
@@ -193,6 +225,9 @@ public void setupVocabulary() throws ComponentLookupException
         ancestors.add(term);
 
         when(term.getAncestorsAndSelf()).thenReturn(ancestors);
+        Set<String> ancestorAndSelfIds = new LinkedHashSet<>(Arrays.asList(ancestorIds));
+        ancestorAndSelfIds.add(term.getId());
+        when(term.getAncestorsAndSelfIds()).thenReturn(ancestorAndSelfIds);
         when(hpo.getTerm(term.getId())).thenReturn(term);
     }
 
@@ -216,9 +251,6 @@ public void indexDefaultPhenotypeBehaviourTest() throws IOException, SolrServerE
         EntityAccess entityAccess = mock(DefaultEntityAccess.class);
         Visibility patientVisibility = new PublicVisibility();
 
-        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
-        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
-
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
         doReturn(reporterReference).when(this.patient).getReporter();
         doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
@@ -226,14 +258,43 @@ public void indexDefaultPhenotypeBehaviourTest() throws IOException, SolrServerE
 
         this.patientIndexer.index(this.patient);
 
-        SolrInputDocument inputDoc = capturedArgument.getLastValue();
-        verify(this.server).add(inputDoc);
+        SolrInputDocument inputDoc = getIndexedDocument();
         Assert.assertEquals("public", inputDoc.getFieldValue("visibility"));
         Assert.assertEquals("HP:0001367", inputDoc.getFieldValue("phenotype"));
         Assert.assertEquals("id2", inputDoc.getFieldValue("negative_phenotype"));
         Assert.assertEquals(5, inputDoc.getFieldValues("extended_phenotype").size());
     }
 
+    @Test
+    public void indexTakesAncestorsFromTheOntologyGraph() throws Exception
+    {
+        Vocabulary hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
+        OntologyGraph graph = new OntologyGraph.Builder()
+            .addTerm("HP:0000118", Collections.singleton("HP:0000001"))
+            .addTerm("HP:0000924", Collections.singleton("HP:0000118"))
+            .addTerm("HP:0001367", Collections.singleton("HP:0000924"))
+            .build();
+        when(hpo.getOntologyGraph()).thenReturn(graph);
+
+        Feature testFeature = mock(Feature.class);
+        doReturn(true).when(testFeature).isPresent();
+        doReturn("phenotype").when(testFeature).getType();
+        doReturn("HP:0001367").when(testFeature).getId();
+        doReturn(Collections.singleton(testFeature)).when(this.patient).getFeatures();
+
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
+
+        this.patientIndexer.index(this.patient);
+
+        SolrInputDocument inputDoc = getIndexedDocument();
+        Assert.assertEquals(new HashSet<>(Arrays.asList("HP:0001367", "HP:0000924", "HP:0000118", "HP:0000001")),
+            new HashSet<>(inputDoc.getFieldValues("extended_phenotype")));
+        verify(hpo, never()).getTerm(anyString());
+    }
+
     @Test
     public void indexDefaultGeneBehaviourTest() throws IOException, SolrServerException
     {
@@ -244,9 +305,6 @@ public void indexDefaultGeneBehaviourTest() throws IOException, SolrServerExcept
         EntityAccess entityAccess = mock(DefaultEntityAccess.class);
         Visibility patientVisibility = new PublicVisibility();
 
-        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
-        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
-
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
         doReturn(reporterReference).when(this.patient).getReporter();
 
@@ -267,8 +325,7 @@ public void indexDefaultGeneBehaviourTest() throws IOException, SolrServerExcept
         doReturn(patientVisibility).when(entityAccess).getVisibility();
 
         this.patientIndexer.index(this.patient);
-        SolrInputDocument inputDoc = capturedArgument.getLastValue();
-        verify(this.server).add(inputDoc);
+        SolrInputDocument inputDoc = getIndexedDocument();
 
         Collection<Object> indexedGenes;
         indexedGenes = inputDoc.getFieldValues("candidate_genes");
@@ -313,9 +370,10 @@ public void indexThrowsSolrException() throws IOException, SolrServerException
         doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
         doReturn(patientVisibility).when(entityAccess).getVisibility();
         doThrow(new SolrServerException("Error while adding SolrInputDocument")).when(this.server)
-            .add(any(SolrInputDocument.class));
+            .add(anyCollectionOf(SolrInputDocument.class), anyInt());
 
         this.patientIndexer.index(this.patient);
+        ((SolrPatientIndexer) this.patientIndexer).flush();
 
         verify(this.logger).warn("Failed to perform Solr search: {}", "Error while adding SolrInputDocument");
     }
@@ -341,9 +399,10 @@ public void indexThrowsIOException() throws IOException, SolrServerException
         doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
         doReturn(patientVisibility).when(entityAccess).getVisibility();
         doThrow(new IOException("Error while adding SolrInputDocument")).when(this.server)
-            .add(any(SolrInputDocument.class));
+            .add(anyCollectionOf(SolrInputDocument.class), anyInt());
 
         this.patientIndexer.index(this.patient);
+        ((SolrPatientIndexer) this.patientIndexer).flush();
 
         verify(this.logger).warn("Error occurred while performing Solr search: {}",
             "Error while adding SolrInputDocument");
@@ -358,9 +417,6 @@ public void indexGetReporterIsNull() throws IOException, SolrServerException
         EntityAccess entityAccess = mock(DefaultEntityAccess.class);
         Visibility patientVisibility = new PublicVisibility();
 
-        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
-        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
-
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
         doReturn(null).when(this.patient).getReporter();
 
@@ -373,86 +429,176 @@ public void indexGetReporterIsNull() throws IOException, SolrServerException
         doReturn(patientVisibility).when(entityAccess).getVisibility();
 
         this.patientIndexer.index(this.patient);
-        SolrInputDocument inputDoc = capturedArgument.getLastValue();
-        verify(this.server).add(inputDoc);
+        SolrInputDocument inputDoc = getIndexedDocument();
         Assert.assertEquals(inputDoc.getFieldValue("reporter"), "");
     }
 
+    @Test
+    public void indexIdentifiersAndAccessRights() throws IOException, SolrServerException
+    {
+        doReturn(Collections.emptySet()).when(this.patient).getFeatures();
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn("P0000001").when(this.patient).getId();
+        doReturn("EXT-1").when(this.patient).getExternalId();
+        @SuppressWarnings("unchecked")
+        PatientData<String> names = mock(PatientData.class);
+        doReturn("John").when(names).get("first_name");
+        doReturn(" ").when(names).get("last_name");
+        doReturn(names).when(this.patient).getData("patientName");
+
+        DocumentReference ownerReference = new DocumentReference("xwiki", "XWiki", "owner");
+        DocumentReference collaboratorReference = new DocumentReference("xwiki", "XWiki", "collaborator");
+        EntityReferenceSerializer<String> referenceSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(referenceSerializer.serialize(ownerReference)).thenReturn("xwiki:XWiki.owner");
+        when(referenceSerializer.serialize(collaboratorReference)).thenReturn("xwiki:XWiki.collaborator");
+        Owner owner = mock(Owner.class);
+        doReturn(ownerReference).when(owner).getUser();
+        Collaborator collaborator = mock(Collaborator.class);
+        doReturn(collaboratorReference).when(collaborator).getUser();
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
+        doReturn(owner).when(entityAccess).getOwner();
+        doReturn(Collections.singleton(collaborator)).when(entityAccess).getCollaborators();
+
+        this.patientIndexer.index(this.patient);
+
+        SolrInputDocument inputDoc = getIndexedDocument();
+        Assert.assertEquals("P0000001", inputDoc.getFieldValue("id"));
+        Assert.assertEquals("EXT-1", inputDoc.getFieldValue("external_id"));
+        Assert.assertEquals("John", inputDoc.getFieldValue("first_name"));
+        Assert.assertNull(inputDoc.getFieldValue("last_name"));
+        Assert.assertEquals("xwiki:XWiki.owner", inputDoc.getFieldValue("owner"));
+        Assert.assertEquals(Collections.singletonList("xwiki:XWiki.collaborator"),
+            new ArrayList<>(inputDoc.getFieldValues("collaborator")));
+    }
+
+    @Test
+    public void indexOtherAccessRules() throws IOException, SolrServerException
+    {
+        doReturn(Collections.emptySet()).when(this.patient).getFeatures();
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
+        doReturn(Collections.emptySet()).when(entityAccess).getCollaborators();
+        XWikiDocument document = mock(XWikiDocument.class);
+        doReturn(document).when(this.patient).getXDocument();
+        doReturn(Arrays.asList(null, mock(BaseObject.class))).when(document).getXObjects(
+            new EntityReference("XWikiRights", EntityType.DOCUMENT, new EntityReference("XWiki", EntityType.SPACE)));
+
+        this.patientIndexer.index(this.patient);
+
+        SolrInputDocument inputDoc = getIndexedDocument();
+        Assert.assertNull(inputDoc.getFieldValue("owner"));
+        Assert.assertEquals(Collections.singletonList("rights"),
+            new ArrayList<>(inputDoc.getFieldValues("access_rules")));
+    }
+
+    @Test
+    public void indexCoalescesUpdatesAndReportsStatistics() throws IOException, SolrServerException
+    {
+        mockIndexablePatient();
+
+        this.patientIndexer.index(this.patient);
+        this.patientIndexer.index(this.patient);
+        ((SolrPatientIndexer) this.patientIndexer).flush();
+
+        verify(this.server, never()).commit();
+        Map<String, Number> statistics = this.patientIndexer.getStatistics();
+        Assert.assertEquals(0, statistics.get("queueDepth").intValue());
+        Assert.assertEquals(0, statistics.get("inFlight").intValue());
+        Assert.assertEquals(0, statistics.get("failed").intValue());
+        Assert.assertEquals(0, statistics.get("reindexRunning").intValue());
+        Assert.assertEquals(2, statistics.get("indexed").intValue() + statistics.get("coalesced").intValue());
+    }
+
     @Test
     public void deleteDefaultBehaviourTest() throws IOException, SolrServerException
     {
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
         this.patientIndexer.delete(this.patient);
-        verify(this.server).deleteByQuery("document:"
-            + ClientUtils.escapeQueryChars(this.patientDocReference.toString()));
-        verify(this.server).commit();
+        ((SolrPatientIndexer) this.patientIndexer).flush();
+        verify(this.server).deleteById(Collections.singletonList("wiki:patient.P0000001"), COMMIT_WITHIN);
+        verify(this.server, never()).commit();
     }
 
     @Test
     public void deleteThrowsSolrException() throws IOException, SolrServerException
     {
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
-        doThrow(new SolrServerException("commit failed")).when(this.server).commit();
+        doThrow(new SolrServerException("delete failed")).when(this.server)
+            .deleteById(anyListOf(String.class), anyInt());
         this.patientIndexer.delete(this.patient);
-        verify(this.logger).warn("Failed to delete from Solr: {}", "commit failed");
+        ((SolrPatientIndexer) this.patientIndexer).flush();
+        verify(this.logger).warn("Failed to delete from Solr: {}", "delete failed");
     }
 
     @Test
     public void deleteThrowsIOException() throws IOException, SolrServerException
     {
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
-        doThrow(new IOException("commit failed")).when(this.server).commit();
+        doThrow(new IOException("delete failed")).when(this.server).deleteById(anyListOf(String.class), anyInt());
         this.patientIndexer.delete(this.patient);
-        verify(this.logger).warn("Error occurred while deleting Solr documents: {}", "commit failed");
+        ((SolrPatientIndexer) this.patientIndexer).flush();
+        verify(this.logger).warn("Error occurred while deleting Solr documents: {}", "delete failed");
     }
 
     @Test
-    public void reindexDefaultBehaviour() throws QueryException, IOException, SolrServerException
+    public void reindexDefaultBehaviour() throws Exception
     {
-        List<String> patientDocs = new ArrayList<>();
-        patientDocs.add("P0000001");
-
-        Query testQuery = mock(Query.class);
-        doReturn(testQuery).when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
-        doReturn(patientDocs).when(testQuery).execute();
+        Query testQuery = mockReindexQuery(Collections.singletonList("P0000001"));
         doReturn(this.patient).when(this.patientRepository).get("P0000001");
+        mockIndexablePatient();
 
-        Set<Feature> patientFeatures = new HashSet<>();
-        Feature testFeature = mock(Feature.class);
-        patientFeatures.add(testFeature);
-        DocumentReference reporterReference = new DocumentReference("xwiki", "XWiki", "user");
-        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
-        Visibility patientVisibility = new PublicVisibility();
-
-        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
-        doReturn(reporterReference).when(this.patient).getReporter();
+        this.patientIndexer.reindex();
 
-        doReturn(patientFeatures).when(this.patient).getFeatures();
-        doReturn(true).when(testFeature).isPresent();
-        doReturn("phenotype").when(testFeature).getType();
-        doReturn("id").when(testFeature).getId();
+        verify(testQuery).bindValue("last", "");
+        verify(this.server).add(anyCollectionOf(SolrInputDocument.class), eq(COMMIT_WITHIN));
+        verify(this.server, times(2)).commit();
+        verify(this.server).deleteByQuery(startsWith("*:* -indexed_at:[\""));
+        verify(this.server, never()).deleteByQuery("*:*");
+        Assert.assertEquals(1, this.patientIndexer.getStatistics().get("reindexed").intValue());
+    }
 
-        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
-        doReturn(patientVisibility).when(entityAccess).getVisibility();
+    @Test
+    public void reindexResumesFromCheckpointAndRemovesItWhenDone() throws Exception
+    {
+        File checkpoint = mockCheckpoint("started=1000\nlast=P0000005\n");
+        Query testQuery = mockReindexQuery(Collections.emptyList());
 
         this.patientIndexer.reindex();
 
-        verify(this.server).deleteByQuery("*:*");
-        verify(this.server).commit();
+        verify(testQuery).bindValue("last", "P0000005");
+        verify(this.server).deleteByQuery("*:* -indexed_at:[\"1970-01-01T00:00:01Z\" TO *]");
+        Assert.assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void reindexRecordsProgressWhenInterrupted() throws Exception
+    {
+        File checkpoint = mockCheckpoint(null);
+        mockReindexQuery(Collections.singletonList("P0000001"));
+        doThrow(new SolrServerException("commit failed")).when(this.server).commit();
+
+        this.patientIndexer.reindex();
 
+        Properties progress = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            progress.load(in);
+        }
+        Assert.assertEquals("P0000001", progress.getProperty("last"));
+        Assert.assertNotNull(progress.getProperty("started"));
+        verify(this.logger).warn("Failed to reindex patients: {}", "commit failed");
     }
 
     @Test
     public void reindexSolrServerException() throws QueryException, IOException, SolrServerException
     {
-        List<String> patientDocs = new ArrayList<>();
-        patientDocs.add("P0000001");
+        mockReindexQuery(Collections.singletonList("P0000001"));
 
-        Query testQuery = mock(Query.class);
-        doReturn(testQuery).when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
-        doReturn(patientDocs).when(testQuery).execute();
-
-        doThrow(new SolrServerException("deleteByQuery failed")).when(this.server).deleteByQuery("*:*");
+        doThrow(new SolrServerException("deleteByQuery failed")).when(this.server).deleteByQuery(anyString());
 
         this.patientIndexer.reindex();
 
@@ -462,14 +608,9 @@ public void reindexSolrServerException() throws QueryException, IOException, Sol
     @Test
     public void reindexIOException() throws QueryException, IOException, SolrServerException
     {
-        List<String> patientDocs = new ArrayList<>();
-        patientDocs.add("P0000001");
-
-        Query testQuery = mock(Query.class);
-        doReturn(testQuery).when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
-        doReturn(patientDocs).when(testQuery).execute();
+        mockReindexQuery(Collections.singletonList("P0000001"));
 
-        doThrow(new IOException("deleteByQuery failed")).when(this.server).deleteByQuery("*:*");
+        doThrow(new IOException("deleteByQuery failed")).when(this.server).deleteByQuery(anyString());
 
         this.patientIndexer.reindex();
 
@@ -480,13 +621,76 @@ public void reindexIOException() throws QueryException, IOException, SolrServerE
     public void reindexQueryException() throws QueryException, IOException, SolrServerException
     {
         doThrow(new QueryException("createQuery failed", null, null))
-            .when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
+            .when(this.qm).createQuery(REINDEX_QUERY, Query.XWQL);
 
         this.patientIndexer.reindex();
 
         verify(this.logger).warn("Failed to search patients for reindexing: {}", "createQuery failed");
     }
 
+    @Test
+    public void reindexIsSkippedWhileAnotherReindexIsRunning() throws Exception
+    {
+        ((AtomicBoolean) ReflectionUtils.getFieldValue(this.patientIndexer, "reindexing")).set(true);
+
+        this.patientIndexer.reindex();
+
+        verify(this.qm, never()).createQuery(anyString(), anyString());
+        Assert.assertEquals(1, this.patientIndexer.getStatistics().get("reindexRunning").intValue());
+    }
+
+    @Test
+    public void disposeSendsRemainingUpdates() throws Exception
+    {
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        this.patientIndexer.delete(this.patient);
+
+        ((SolrPatientIndexer) this.patientIndexer).dispose();
+
+        verify(this.server).deleteById(Collections.singletonList("wiki:patient.P0000001"), COMMIT_WITHIN);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private SolrInputDocument getIndexedDocument() throws IOException, SolrServerException
+    {
+        ((SolrPatientIndexer) this.patientIndexer).flush();
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.server).add(captor.capture(), eq(COMMIT_WITHIN));
+        Collection<SolrInputDocument> docs = captor.getValue();
+        Assert.assertEquals(1, docs.size());
+        return docs.iterator().next();
+    }
+
+    private void mockIndexablePatient()
+    {
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn(Collections.emptySet()).when(this.patient).getFeatures();
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
+    }
+
+    private Query mockReindexQuery(List<String> results) throws QueryException
+    {
+        Query testQuery = mock(Query.class);
+        doReturn(testQuery).when(this.qm).createQuery(REINDEX_QUERY, Query.XWQL);
+        doReturn(testQuery).when(testQuery).bindValue(anyString(), any());
+        doReturn(testQuery).when(testQuery).setLimit(anyInt());
+        doReturn(results).when(testQuery).execute();
+        return testQuery;
+    }
+
+    private File mockCheckpoint(String content) throws Exception
+    {
+        Environment environment = this.mocker.getInstance(Environment.class);
+        doReturn(this.permanentDirectory.getRoot()).when(environment).getPermanentDirectory();
+        File checkpoint = new File(this.permanentDirectory.getRoot(), "patients-reindex.properties");
+        if (content != null) {
+            Files.write(checkpoint.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return checkpoint;
+    }
+
     private Gene mockGene(String id, String status)
     {
         Gene result = mock(Gene.class);
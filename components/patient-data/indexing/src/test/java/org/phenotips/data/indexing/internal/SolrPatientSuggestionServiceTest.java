@@ -0,0 +1,292 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.indexing.PatientSuggestionService;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.permissions.internal.EntityAccessManager;
+import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.vocabulary.SolrCoreContainerHandler;
+
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.CoreContainer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link SolrPatientSuggestionService} component.
+ *
+ * @version $Id$
+ */
+public class SolrPatientSuggestionServiceTest
+{
+    private static final EntityReference DATA_SPACE = new EntityReference("data", EntityType.SPACE,
+        new EntityReference("xwiki", EntityType.WIKI));
+
+    private static final DocumentReference USER = new DocumentReference("xwiki", "XWiki", "jdoe");
+
+    private static final DocumentReference GROUP = new DocumentReference("xwiki", "XWiki", "Cardiology");
+
+    @Rule
+    public final MockitoComponentMockingRule<PatientSuggestionService> mocker =
+        new MockitoComponentMockingRule<>(SolrPatientSuggestionService.class);
+
+    private SolrClient server = mock(SolrClient.class);
+
+    private User user = mock(User.class);
+
+    private AuthorizationService access;
+
+    private PatientSuggestionService service;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SolrCoreContainerHandler cores = this.mocker.getInstance(SolrCoreContainerHandler.class);
+        when(cores.getContainer()).thenReturn(mock(CoreContainer.class));
+        this.service = this.mocker.getComponentUnderTest();
+        ReflectionUtils.setFieldValue(this.service, "server", this.server);
+
+        UserManager users = this.mocker.getInstance(UserManager.class);
+        when(users.getCurrentUser()).thenReturn(this.user);
+        when(this.user.getProfileDocument()).thenReturn(USER);
+        EntityReferenceResolver<EntityReference> resolver = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceResolver.class, EntityReference.class), "current");
+        when(resolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE)).thenReturn(DATA_SPACE);
+        this.access = this.mocker.getInstance(AuthorizationService.class);
+
+        EntityAccessManager accessManager = this.mocker.getInstance(EntityAccessManager.class);
+        when(accessManager.getAllGroups(USER)).thenReturn(Arrays.asList(USER, GROUP));
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(USER)).thenReturn("xwiki:XWiki.jdoe");
+        when(serializer.serialize(GROUP)).thenReturn("xwiki:XWiki.Cardiology");
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        List<Visibility> visibilities = Arrays.asList(mockVisibility("private", Right.ILLEGAL),
+            mockVisibility("public", Right.VIEW), mockVisibility("open", Right.EDIT));
+        when(permissions.listAllVisibilityOptions()).thenReturn(visibilities);
+
+        SolrDocumentList results = new SolrDocumentList();
+        results.add(document("xwiki:data.P0000001"));
+        results.add(document("xwiki:data.P0000002"));
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(results);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+    }
+
+    @Test
+    public void isAvailableOncePopulated() throws Exception
+    {
+        mockCounts(10, 0);
+        Assert.assertTrue(this.service.isAvailable());
+        Assert.assertTrue(this.service.isAvailable());
+        // Once populated, the core isn't checked again
+        verify(this.server, times(2)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void isNotAvailableWhileEmpty() throws Exception
+    {
+        mockCounts(0, 0);
+        Assert.assertFalse(this.service.isAvailable());
+
+        mockCounts(10, 0);
+        Assert.assertTrue(this.service.isAvailable());
+    }
+
+    @Test
+    public void isNotAvailableWhileSomePatientsWereIndexedWithoutSubstrings() throws Exception
+    {
+        mockCounts(10, 3);
+        Assert.assertFalse(this.service.isAvailable());
+    }
+
+    @Test
+    public void isNotAvailableWhileReindexing() throws Exception
+    {
+        mockCounts(10, 0);
+        PatientIndexer indexer = this.mocker.getInstance(PatientIndexer.class);
+        when(indexer.getStatistics()).thenReturn(Collections.singletonMap("reindexRunning", 1));
+        Assert.assertFalse(this.service.isAvailable());
+        verify(this.server, never()).query(any(SolrParams.class));
+
+        when(indexer.getStatistics()).thenReturn(Collections.singletonMap("reindexRunning", 0));
+        Assert.assertTrue(this.service.isAvailable());
+    }
+
+    @Test
+    public void isNotAvailableWhenTheCoreCantBeQueried() throws Exception
+    {
+        when(this.server.query(any(SolrParams.class))).thenThrow(new SolrServerException("failed"));
+        Assert.assertFalse(this.service.isAvailable());
+    }
+
+    @Test
+    public void suggestQueriesIdentifiersWithAccessFilter() throws Exception
+    {
+        List<String> result = this.service.suggest(" P00 ", false, Right.VIEW, false, true, 10, 5);
+
+        Assert.assertEquals(Arrays.asList("xwiki:data.P0000001", "xwiki:data.P0000002"), result);
+        SolrQuery query = captureQuery();
+        Assert.assertEquals("identifier_substrings:p00", query.getQuery());
+        String filter = query.getFilterQueries()[0];
+        Assert.assertTrue(filter.startsWith("owner:(xwiki\\:XWiki.jdoe OR xwiki\\:XWiki.Cardiology)"
+            + " OR collaborator:(xwiki\\:XWiki.jdoe OR xwiki\\:XWiki.Cardiology)"
+            + " OR visibility:(public"));
+        Assert.assertTrue(filter.endsWith(" OR (*:* -owner:[* TO *]) OR access_rules:[* TO *]"));
+        Assert.assertFalse(filter.contains("private"));
+        Assert.assertEquals("id asc", query.get("sort"));
+        Assert.assertEquals(Integer.valueOf(10), query.getStart());
+        Assert.assertEquals(Integer.valueOf(5), query.getRows());
+    }
+
+    @Test
+    public void suggestWithNamesAndEditRight() throws Exception
+    {
+        this.service.suggest("Smith", true, Right.EDIT, true, false, 0, 5);
+
+        SolrQuery query = captureQuery();
+        Assert.assertEquals("identifier_substrings:smith OR name_substrings:smith", query.getQuery());
+        Assert.assertTrue(query.getFilterQueries()[0].contains(" OR visibility:(open) OR "));
+        Assert.assertEquals("external_id desc", query.get("sort"));
+    }
+
+    @Test
+    public void suggestForAdministratorsIsNotFiltered() throws Exception
+    {
+        when(this.access.hasAccess(this.user, Right.ADMIN, DATA_SPACE)).thenReturn(true);
+        this.service.suggest("P00", false, Right.VIEW, false, true, 0, 5);
+
+        Assert.assertNull(captureQuery().getFilterQueries());
+    }
+
+    @Test
+    public void suggestForGuestsMatchesPublicOwnerlessAndOtherwiseGrantedPatients() throws Exception
+    {
+        UserManager users = this.mocker.getInstance(UserManager.class);
+        when(users.getCurrentUser()).thenReturn(null);
+        this.service.suggest("P00", false, Right.VIEW, false, true, 0, 5);
+
+        Assert.assertEquals("visibility:(public) OR (*:* -owner:[* TO *]) OR access_rules:[* TO *]",
+            captureQuery().getFilterQueries()[0]);
+    }
+
+    @Test
+    public void suggestIsFilteredEvenWhenXWikiRightsGrantAccessToTheSpace() throws Exception
+    {
+        // Registered users get edit rights on the data space by default
+        AuthorizationManager rights = this.mocker.getInstance(AuthorizationManager.class);
+        when(rights.hasAccess(Right.VIEW, USER, DATA_SPACE)).thenReturn(true);
+        when(rights.hasAccess(Right.EDIT, USER, DATA_SPACE)).thenReturn(true);
+        this.service.suggest("P00", false, Right.VIEW, false, true, 0, 5);
+
+        Assert.assertTrue(captureQuery().getFilterQueries()[0].startsWith("owner:(xwiki\\:XWiki.jdoe"));
+    }
+
+    @Test
+    public void suggestWithBlankInputDoesNotQuery() throws Exception
+    {
+        Assert.assertTrue(this.service.suggest(" ", false, Right.VIEW, false, true, 0, 5).isEmpty());
+        verify(this.server, never()).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void suggestReturnsNullWhenQueryFails() throws Exception
+    {
+        when(this.server.query(any(SolrParams.class))).thenThrow(new SolrServerException("failed"));
+        Assert.assertNull(this.service.suggest("P00", false, Right.VIEW, false, true, 0, 5));
+
+        when(this.server.query(any(SolrParams.class))).thenThrow(new IOException("failed"));
+        Assert.assertNull(this.service.suggest("P00", false, Right.VIEW, false, true, 0, 5));
+    }
+
+    /** Mocks the number of indexed patients, and of those indexed without the substring fields. */
+    private void mockCounts(long total, long withoutSubstrings) throws Exception
+    {
+        QueryResponse all = mock(QueryResponse.class);
+        SolrDocumentList allResults = new SolrDocumentList();
+        allResults.setNumFound(total);
+        when(all.getResults()).thenReturn(allResults);
+        QueryResponse old = mock(QueryResponse.class);
+        SolrDocumentList oldResults = new SolrDocumentList();
+        oldResults.setNumFound(withoutSubstrings);
+        when(old.getResults()).thenReturn(oldResults);
+        when(this.server.query(any(SolrParams.class))).thenReturn(all, old);
+    }
+
+    private SolrQuery captureQuery() throws Exception
+    {
+        ArgumentCaptor<SolrParams> captor = ArgumentCaptor.forClass(SolrParams.class);
+        verify(this.server).query(captor.capture());
+        return (SolrQuery) captor.getValue();
+    }
+
+    private static Visibility mockVisibility(String name, Right defaultRight)
+    {
+        AccessLevel accessLevel = mock(AccessLevel.class);
+        when(accessLevel.getGrantedRight()).thenReturn(defaultRight);
+        Visibility result = mock(Visibility.class);
+        when(result.getName()).thenReturn(name);
+        when(result.getDefaultAccessLevel()).thenReturn(accessLevel);
+        return result;
+    }
+
+    private static SolrDocument document(String reference)
+    {
+        SolrDocument result = new SolrDocument();
+        result.setField("document", reference);
+        return result;
+    }
+}
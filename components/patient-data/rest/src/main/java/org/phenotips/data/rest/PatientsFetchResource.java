@@ -20,9 +20,17 @@
 import org.phenotips.rest.ParentResource;
 import org.phenotips.rest.Relation;
 
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -47,4 +55,27 @@
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     Response fetchPatients();
+
+    /**
+     * Retrieve multiple patient records, identified by their given "external" or "internal" identifiers, like
+     * {@link #fetchPatients()}, but write them to the response while they are being loaded, so that large numbers of
+     * patient records can be retrieved without holding all of them in memory.
+     *
+     * @param format {@code array} to return a JSON array, or {@code ndjson} to return newline-delimited JSON, one
+     *            patient record per line
+     * @param fields the names of the fields to include in the JSON of each patient record; all fields are included if
+     *            none is specified
+     * @param acceptEncoding the encodings accepted by the client; the response is compressed if {@code gzip} is
+     *            accepted
+     * @return JSON representations of the requested patients, or a status message in case of error
+     * @since 1.5
+     */
+    @Unstable
+    @GET
+    @Path("/stream")
+    @Produces({ MediaType.APPLICATION_JSON, "application/x-ndjson" })
+    Response streamPatients(
+        @QueryParam("format") @DefaultValue("array") String format,
+        @QueryParam("field") List<String> fields,
+        @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding);
 }
@@ -23,6 +23,9 @@
 import org.phenotips.rest.RequiredAccess;
 
 import org.xwiki.rest.resources.RootResource;
+import org.xwiki.stability.Unstable;
+
+import java.io.InputStream;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
@@ -57,12 +60,31 @@
     @RequiredAccess("edit")
     Response add(String json);
 
+    /**
+     * Import many patients at once from a JSON array, reading the array while the patients are being created. Unlike
+     * {@link #add(String)}, failures to create some of the patients don't stop the import, and the patients are
+     * indexed for searches all at once, after all of them were created.
+     *
+     * @param json the JSON array of new patients to add
+     * @return a report with the identifier of each new patient, or the reason it could not be created, and statistics
+     *         about the import
+     * @since 1.5
+     */
+    @Unstable
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @POST
+    @Path("/import")
+    @RequiredAccess("edit")
+    Response importPatients(InputStream json);
+
     /**
      * @param start for large result set paging, the index of the first patient to display in the returned page
      * @param number for large result set paging, how many patients to display in the returned page
      * @param orderField field used for ordering the patients, can be one of {@code id} (default) or {@code eid}
      * @param order the sorting order, can be one of {@code asc} (default) or {@code desc}
-     * @return a list of patient records
+     * @return a list of patient records, with the total number of patients the user can view when it can be computed
+     *         by the database
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
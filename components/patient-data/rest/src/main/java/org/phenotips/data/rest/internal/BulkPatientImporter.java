@@ -0,0 +1,269 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Imports patients from a JSON array while it is being read. Records are grouped in batches, which are created by a
+ * pool of worker threads; the number of records read, but not yet created, is bounded, so that the whole input is never
+ * held in memory. Instances are meant for a single import run.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class BulkPatientImporter
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String INDEX = "index";
+
+    private static final String STATUS = "status";
+
+    private static final String ERROR = "error";
+
+    private static final String FAILED = "failed";
+
+    private static final String DATA = "data";
+
+    private final Function<JSONObject, String> creator;
+
+    private final int batchSize;
+
+    private final int threads;
+
+    private final Logger logger;
+
+    /** The identifiers of the records created so far, in no particular order. */
+    private final Queue<String> created = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Simple constructor.
+     *
+     * @param creator creates a patient record from its JSON, returning the identifier of the new record, or
+     *            {@code null} if the record couldn't be created; it is invoked concurrently from several threads
+     * @param batchSize how many records are created in one task
+     * @param threads how many threads create records
+     * @param logger where to log failures
+     */
+    public BulkPatientImporter(Function<JSONObject, String> creator, int batchSize, int threads, Logger logger)
+    {
+        this.creator = creator;
+        this.batchSize = Math.max(1, batchSize);
+        this.threads = Math.max(1, threads);
+        this.logger = logger;
+    }
+
+    /**
+     * Reads the JSON array of patients, creating a new record for each object in the array.
+     *
+     * @param input the JSON array of patients
+     * @return a report with the number of records {@code created} and {@code failed}, the {@code elapsedMillis} and
+     *         the {@code recordsPerSecond} throughput, and the {@code results} for each record, in the order of the
+     *         input: the {@code index} of the record in the input, its {@code status}, either {@code created} or
+     *         {@code failed}, and the {@code id} of the new record or the {@code error} message; if the input is not a
+     *         valid JSON array, the report also has an {@code error}, and only the records before the invalid part
+     *         are imported
+     * @throws IOException if reading the input fails; the records created before the failure are still listed by
+     *             {@link #getCreated()}
+     */
+    public JSONObject importPatients(InputStream input) throws IOException
+    {
+        final long start = System.currentTimeMillis();
+        final JSONObject report = new JSONObject();
+        final List<Batch> batches = new ArrayList<>();
+        final Semaphore pendingBatches = new Semaphore(this.threads * 2);
+        final ExecutorService workers = Executors.newFixedThreadPool(this.threads,
+            new BasicThreadFactory.Builder().namingPattern("patients-import-%d").daemon(true).build());
+        try (JsonParser parser = MAPPER.getFactory().createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                report.put(ERROR, "Expected a JSON array of patients");
+            } else {
+                List<JSONObject> batch = new ArrayList<>(this.batchSize);
+                int index = 0;
+                try {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        batch.add(readRecord(parser, index++));
+                        if (batch.size() == this.batchSize) {
+                            batches.add(submit(workers, pendingBatches, batch));
+                            batch = new ArrayList<>(this.batchSize);
+                        }
+                    }
+                } catch (JsonProcessingException ex) {
+                    report.put(ERROR, "Invalid JSON after record " + index + ": " + ex.getOriginalMessage());
+                }
+                if (!batch.isEmpty()) {
+                    batches.add(submit(workers, pendingBatches, batch));
+                }
+            }
+            collectResults(batches, report);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing patients", ex);
+        } finally {
+            workers.shutdownNow();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        report.put("elapsedMillis", elapsed);
+        report.put("recordsPerSecond",
+            elapsed > 0 ? report.getJSONArray("results").length() * 1000L / elapsed : 0);
+        return report;
+    }
+
+    /**
+     * Lists the identifiers of the records created so far, including when the import failed.
+     *
+     * @return an unmodifiable view of the identifiers of the created records, in no particular order
+     */
+    public Collection<String> getCreated()
+    {
+        return Collections.unmodifiableCollection(this.created);
+    }
+
+    /**
+     * Reads the next value of the array. Values that aren't JSON objects are kept as a failed result.
+     */
+    private JSONObject readRecord(JsonParser parser, int index) throws IOException
+    {
+        final JsonNode node = parser.readValueAsTree();
+        final JSONObject result = new JSONObject().put(INDEX, index);
+        if (node != null && node.isObject()) {
+            return result.put(DATA, new JSONObject(node.toString()));
+        }
+        return result.put(STATUS, FAILED).put(ERROR, "Not a JSON object");
+    }
+
+    private Batch submit(ExecutorService workers, Semaphore pendingBatches, List<JSONObject> batch)
+        throws InterruptedException
+    {
+        pendingBatches.acquire();
+        try {
+            return new Batch(batch, workers.submit(createBatch(batch, pendingBatches)));
+        } catch (RuntimeException ex) {
+            pendingBatches.release();
+            throw ex;
+        }
+    }
+
+    private Callable<Void> createBatch(List<JSONObject> batch, Semaphore pendingBatches)
+    {
+        return () -> {
+            try {
+                for (JSONObject record : batch) {
+                    JSONObject data = (JSONObject) record.remove(DATA);
+                    if (data != null) {
+                        create(data, record);
+                    }
+                }
+                return null;
+            } finally {
+                pendingBatches.release();
+            }
+        };
+    }
+
+    private void create(JSONObject data, JSONObject result)
+    {
+        try {
+            String id = this.creator.apply(data);
+            if (id != null) {
+                this.created.add(id);
+                result.put(STATUS, "created").put("id", id);
+                return;
+            }
+            result.put(STATUS, FAILED).put(ERROR, "The patient record could not be created");
+        } catch (RuntimeException ex) {
+            this.logger.warn("Failed to import patient record [{}]: {}", result.get(INDEX), ex.getMessage());
+            result.put(STATUS, FAILED).put(ERROR, StringUtils.defaultString(ex.getMessage(), ex.toString()));
+        }
+    }
+
+    private void collectResults(List<Batch> batches, JSONObject report) throws InterruptedException
+    {
+        JSONArray results = new JSONArray();
+        int createdCount = 0;
+        for (Batch batch : batches) {
+            try {
+                batch.result.get();
+            } catch (ExecutionException ex) {
+                // Failures of individual records are caught while creating them, so this isn't expected; the records
+                // the batch didn't get to are reported as failed
+                this.logger.error("Failed to import a batch of patient records: {}", ex.getMessage(), ex);
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                for (JSONObject record : batch.records) {
+                    if (!record.has(STATUS)) {
+                        record.remove(DATA);
+                        record.put(STATUS, FAILED)
+                            .put(ERROR, StringUtils.defaultString(cause.getMessage(), cause.toString()));
+                    }
+                }
+            }
+            for (JSONObject record : batch.records) {
+                results.put(record);
+                if (record.has("id")) {
+                    ++createdCount;
+                }
+            }
+        }
+        report.put("created", createdCount);
+        report.put(FAILED, results.length() - createdCount);
+        report.put("results", results);
+    }
+
+    /**
+     * The records of a batch, along with the task creating them.
+     */
+    private static final class Batch
+    {
+        private final List<JSONObject> records;
+
+        private final Future<Void> result;
+
+        Batch(List<JSONObject> records, Future<Void> result)
+        {
+            this.records = records;
+            this.result = result;
+        }
+    }
+}
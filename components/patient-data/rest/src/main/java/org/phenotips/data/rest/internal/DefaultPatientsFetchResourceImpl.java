@@ -23,28 +23,43 @@
 import org.phenotips.data.rest.PatientsFetchResource;
 import org.phenotips.entities.PrimaryEntity;
 import org.phenotips.rest.Autolinker;
+import org.phenotips.rest.model.Link;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.container.Container;
 import org.xwiki.container.Request;
+import org.xwiki.context.Execution;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.json.JSONObject;
 
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -65,11 +80,29 @@
 @Component
 @Named("org.phenotips.data.rest.internal.DefaultPatientsFetchResourceImpl")
 @Singleton
-public class DefaultPatientsFetchResourceImpl extends XWikiResource implements PatientsFetchResource
+public class DefaultPatientsFetchResourceImpl extends XWikiResource implements PatientsFetchResource, Disposable
 {
+    /** The media type of newline-delimited JSON responses. */
+    private static final String NDJSON_TYPE = "application/x-ndjson";
+
+    private static final String GZIP = "gzip";
+
+    /** How many patients are loaded in one task when streaming. */
+    private static final int STREAM_BATCH_SIZE = 50;
+
+    /** How many batches of one streaming request can be loaded, or waiting to be written, at the same time. */
+    private static final int STREAM_MAX_PENDING_BATCHES = 4;
+
+    /** How many threads, shared by all the streaming requests, load patients. */
+    private static final int STREAM_THREADS = 4;
+
     /** Jackson object mapper to facilitate array serialization. */
     private final ObjectMapper objectMapper = getCustomObjectMapper();
 
+    /** Loads the patients of streaming requests. */
+    private final ExecutorService streamLoaders = Executors.newFixedThreadPool(STREAM_THREADS,
+        new BasicThreadFactory.Builder().namingPattern("patients-fetch-%d").daemon(true).build());
+
     /** The query manager for patient retrieval. */
     @Inject
     private QueryManager qm;
@@ -86,6 +119,10 @@ public class DefaultPatientsFetchResourceImpl extends XWikiResource implements P
     @Inject
     private Provider<Autolinker> autolinker;
 
+    /** Used for passing the current request context to the threads loading streamed patients. */
+    @Inject
+    private Execution execution;
+
     @Override
     public Response fetchPatients()
     {
@@ -138,12 +175,130 @@ private void addEids(@Nonnull final ImmutableSet.Builder<PrimaryEntity> patients
      */
     private void collectPatientsFromEids(@Nonnull final ImmutableSet.Builder<PrimaryEntity> patientsBuilder,
         @Nonnull final List<Object> eids) throws QueryException
+    {
+        addIds(patientsBuilder, findIdsByEids(eids));
+    }
+
+    /**
+     * Finds the internal identifiers of the patients with the provided external IDs.
+     *
+     * @param eids external patient IDs, as a list
+     * @return the internal identifiers of the matching patients
+     * @throws QueryException if the query fails
+     */
+    private List<Object> findIdsByEids(@Nonnull final List<Object> eids) throws QueryException
     {
         final Query q = this.qm.createQuery("from doc.object(PhenoTips.PatientClass) p where p.external_id in (:eids)",
             Query.XWQL);
         q.bindValue("eids", eids);
-        final List<Object> patientIds = q.execute();
-        addIds(patientsBuilder, patientIds);
+        return q.execute();
+    }
+
+    @Override
+    public Response streamPatients(String format, List<String> fields, String acceptEncoding)
+    {
+        final Request request = this.container.getRequest();
+        final List<Object> eids = request.getProperties("eid");
+        final List<Object> ids = request.getProperties("id");
+
+        this.slf4Jlogger.debug("Streaming patient records with external IDs [{}] and internal IDs [{}]", eids, ids);
+
+        // Only the identifiers are collected upfront, patients are loaded while the response is written
+        final Set<String> patientIds = new LinkedHashSet<>();
+        try {
+            if (CollectionUtils.isNotEmpty(eids)) {
+                collectIds(patientIds, findIdsByEids(eids));
+            }
+            collectIds(patientIds, ids);
+        } catch (final QueryException ex) {
+            this.slf4Jlogger.error("Failed to retrieve patients with external ids [{}]: {}", eids, ex.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+
+        // The request URI is only available on the request thread, so the links are built before loading the patients
+        final Map<String, Collection<Link>> links = new HashMap<>();
+        for (final String id : patientIds) {
+            links.put(id, getLinks(id));
+        }
+
+        final Collection<String> selectedFields = CollectionUtils.isEmpty(fields) ? null : fields;
+        final boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        final boolean gzip = StringUtils.containsIgnoreCase(acceptEncoding, GZIP);
+        final Function<String, JSONObject> loader = RequestContexts.inCopyOfCurrentContext(this.execution,
+            id -> loadPatientJSON(id, selectedFields, links.get(id)));
+        final PatientsJsonStream stream = new PatientsJsonStream(new ArrayList<>(patientIds), loader,
+            this.streamLoaders, STREAM_BATCH_SIZE, STREAM_MAX_PENDING_BATCHES, ndjson, gzip);
+        final Response.ResponseBuilder response =
+            Response.ok(stream, ndjson ? MediaType.valueOf(NDJSON_TYPE) : MediaType.APPLICATION_JSON_TYPE);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        return response.build();
+    }
+
+    /**
+     * Retrieves the JSON of a patient, if it exists and if the user has view rights, with links to its resources.
+     *
+     * @param id an internal patient ID
+     * @param fields the fields to include in the JSON, {@code null} for all fields
+     * @param links the links to the resources of the patient, built on the request thread
+     * @return the JSON of the patient, or {@code null} if the patient can't be retrieved
+     */
+    private JSONObject loadPatientJSON(@Nonnull final String id, final Collection<String> fields,
+        final Collection<Link> links)
+    {
+        try {
+            final Patient patient = fields == null ? this.repository.get(id) : this.repository.get(id, fields);
+            if (patient == null) {
+                return null;
+            }
+            final JSONObject json = fields == null ? patient.toJSON() : patient.toJSON(fields);
+            json.put("links", links);
+            return json;
+        } catch (final SecurityException ex) {
+            this.slf4Jlogger.warn("Failed to retrieve patient with ID [{}]: {}", id, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the links to the resources of a patient. Must be called on the request thread, since it reads the
+     * request URI.
+     *
+     * @param id an internal patient ID
+     * @return the links to the resources of the patient
+     */
+    private Collection<Link> getLinks(@Nonnull final String id)
+    {
+        return this.autolinker.get()
+            .forSecondaryResource(PatientResource.class, this.uriInfo)
+            .withExtraParameters("entity-id", id)
+            .withExtraParameters("entity-type", "patients")
+            .build();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.streamLoaders.shutdownNow();
+    }
+
+    /**
+     * Collects the non-blank identifiers from a list of patient IDs.
+     *
+     * @param patientIds the collected identifiers
+     * @param ids a list of patient ids, as strings
+     */
+    private void collectIds(@Nonnull final Set<String> patientIds, final List<Object> ids)
+    {
+        if (ids == null) {
+            return;
+        }
+        for (final Object id : ids) {
+            if (StringUtils.isNotBlank((String) id)) {
+                patientIds.add((String) id);
+            }
+        }
     }
 
     /**
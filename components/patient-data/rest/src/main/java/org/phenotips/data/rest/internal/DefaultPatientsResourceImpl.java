@@ -19,6 +19,8 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.EntityAccessQueryFilter;
 import org.phenotips.data.rest.DomainObjectFactory;
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.data.rest.PatientsResource;
@@ -28,23 +30,38 @@
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
@@ -65,6 +82,35 @@
 @Singleton
 public class DefaultPatientsResourceImpl extends XWikiResource implements PatientsResource
 {
+    /** How many patients are created in one task when importing in bulk. */
+    private static final int IMPORT_BATCH_SIZE = 25;
+
+    /** How many threads create patients when importing in bulk. */
+    private static final int IMPORT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** How many candidate records are fetched at once when listing patients. */
+    private static final int QUERY_BATCH_SIZE = 100;
+
+    /** How many records whose access isn't decided by the query can be checked one by one when listing patients. */
+    private static final int MAX_UNDECIDED_RECORDS = 1000;
+
+    private static final String DOCUMENT_ALIAS = "doc";
+
+    private static final String LIST_SELECT =
+        "select doc.fullName, eid.value, doc.creator, doc.creationDate, doc.version, doc.author, doc.date";
+
+    private static final String COUNT_SELECT = "select count(doc.id)";
+
+    private static final String LIST_FROM = " from XWikiDocument doc, BaseObject p, StringProperty eid"
+        + " where p.name = doc.fullName and p.className = 'PhenoTips.PatientClass' and eid.id.id = p.id"
+        + " and eid.id.name = 'external_id' and doc.name <> :t";
+
+    private static final String VISIBLE_PARAMETER = "visible";
+
+    private static final String RESULTS = "results";
+
+    private static final String ID = "id";
+
     @Inject
     private PatientRepository repository;
 
@@ -77,17 +123,33 @@ public class DefaultPatientsResourceImpl extends XWikiResource implements Patien
     @Inject
     private UserManager users;
 
+    /** Translates the patient access rules into a query condition, so that listings can be paged by the database. */
+    @Inject
+    private EntityAccessQueryFilter accessFilter;
+
     /** Fills in missing reference fields with those from the current context document to create a full reference. */
     @Inject
     @Named("current")
     private EntityReferenceResolver<EntityReference> currentResolver;
 
+    /** Parses the names of the listed patient documents. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> stringResolver;
+
     @Inject
     private DomainObjectFactory factory;
 
     @Inject
     private Provider<Autolinker> autolinker;
 
+    @Inject
+    private PatientIndexer indexer;
+
+    /** Used for passing the current request context to the threads importing patients. */
+    @Inject
+    private Execution execution;
+
     @Override
     public Response add(final String json)
     {
@@ -113,6 +175,80 @@ public Response add(final String json)
         }
     }
 
+    @Override
+    public Response importPatients(final InputStream json)
+    {
+        final User currentUser = this.users.getCurrentUser();
+        if (!this.access.hasAccess(currentUser, Right.EDIT,
+            this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE))) {
+            throw new WebApplicationException(Status.UNAUTHORIZED);
+        }
+        final DocumentReference creator = currentUser != null ? currentUser.getProfileDocument() : null;
+
+        // The imported patients are indexed at the end, all at once, instead of each time one is saved
+        final Function<JSONObject, String> creatorFunction = RequestContexts.inCopyOfCurrentContext(this.execution,
+            Collections.singletonMap(PatientIndexer.DEFERRED_INDEXING, Boolean.TRUE), data -> {
+                final Patient patient = this.repository.create(data, creator);
+                return patient != null ? patient.getId() : null;
+            });
+        final BulkPatientImporter importer =
+            new BulkPatientImporter(creatorFunction, IMPORT_BATCH_SIZE, IMPORT_THREADS, this.slf4Jlogger);
+        try {
+            final JSONObject report = importer.importPatients(json);
+            this.slf4Jlogger.info("Imported {} patients, {} failed, {} records/second", report.get("created"),
+                report.get("failed"), report.get("recordsPerSecond"));
+            addLocations(report.optJSONArray(RESULTS));
+            final Status status = report.has("error") ? Status.BAD_REQUEST : Status.OK;
+            return Response.status(status).type(MediaType.APPLICATION_JSON_TYPE).entity(report.toString()).build();
+        } catch (IOException ex) {
+            this.slf4Jlogger.error("Could not process patient import request: {}", ex.getMessage(), ex);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        } finally {
+            // Records created before a failure are saved, and must be indexed as well
+            this.indexer.index(new ImportedPatientsIterator(importer.getCreated()));
+        }
+    }
+
+    private void addLocations(final JSONArray results)
+    {
+        if (results == null) {
+            return;
+        }
+        for (int i = 0; i < results.length(); ++i) {
+            final JSONObject result = results.getJSONObject(i);
+            if (result.has(ID)) {
+                result.put("location", UriBuilder.fromUri(this.uriInfo.getBaseUri())
+                    .path(PatientResource.class)
+                    .build(result.getString(ID)).toString());
+            }
+        }
+    }
+
+    /**
+     * Loads the imported patients one at a time, for indexing.
+     */
+    private final class ImportedPatientsIterator implements Iterator<Patient>
+    {
+        private final Iterator<String> ids;
+
+        ImportedPatientsIterator(final Collection<String> ids)
+        {
+            this.ids = ids.iterator();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.ids.hasNext();
+        }
+
+        @Override
+        public Patient next()
+        {
+            return DefaultPatientsResourceImpl.this.repository.get(this.ids.next());
+        }
+    }
+
     /**
      * Import new patients from their representation as a JSON array.
      *
@@ -193,32 +329,41 @@ public Patients listPatients(Integer start, Integer number, String orderField, S
         try {
             String safeOrderField = "doc.name";
             if ("eid".equals(orderField)) {
-                safeOrderField = "p.external_id";
+                safeOrderField = "eid.value";
             }
             String safeOrder = " asc";
             if ("desc".equals(order)) {
                 safeOrder = " desc";
             }
-            Query query = this.queries.createQuery(
-                "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                    + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                    + safeOrderField + safeOrder,
-                "xwql");
-            query.bindValue("t", "PatientTemplate");
+            String orderBy = " order by " + safeOrderField + safeOrder;
+            User user = this.users.getCurrentUser();
+            EntityReference dataSpace = this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE);
 
-            List<Object[]> records = query.execute();
-            int skipped = 0;
-            for (Object[] record : records) {
-                PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
-                // Since raw queries can't take into account access rights, we must do our own paging with rights checks
-                if (summary != null) {
-                    if (++skipped > start) {
-                        result.getPatientSummaries().add(summary);
-                    }
-                    if (result.getPatientSummaries().size() >= number) {
-                        break;
+            Map<String, Object> parameters = new HashMap<>();
+            String visibleCondition = getVisibleCondition(user, dataSpace, parameters);
+            if (visibleCondition != null) {
+                // Visibility is decided by the query, so the database pages and counts the records; each returned
+                // record is still checked, in case other authorization modules deny it
+                if (number > 0) {
+                    Query query = createListQuery(LIST_SELECT + LIST_FROM + visibleCondition + orderBy, parameters);
+                    query.setOffset(Math.max(0, start));
+                    query.setLimit(number);
+                    List<Object[]> records = query.execute();
+                    for (Object[] record : records) {
+                        PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
+                        if (summary != null) {
+                            result.getPatientSummaries().add(summary);
+                        }
                     }
                 }
+                List<Object> count = createListQuery(COUNT_SELECT + LIST_FROM + visibleCondition, parameters).execute();
+                result.setTotalResults(count.isEmpty() ? 0 : ((Number) count.get(0)).intValue());
+            } else {
+                parameters.clear();
+                String accessCondition = this.accessFilter.getViewCondition(DOCUMENT_ALIAS, user, dataSpace,
+                    parameters);
+                listCheckedPatients(createListQuery(LIST_SELECT + LIST_FROM + " and " + accessCondition + orderBy,
+                    parameters), start, number, result);
             }
             result.withLinks(this.autolinker.get().forResource(getClass(), this.uriInfo)
                 .withGrantedRight(getGrantedRight()).build());
@@ -230,6 +375,90 @@ public Patients listPatients(Integer start, Integer number, String orderField, S
         return result;
     }
 
+    /**
+     * Builds a query condition selecting exactly the patients that a user can view, according to the access rules.
+     * The records that may be visible without being granted by the owner, collaborator or visibility rules, for
+     * example records with their own access rights, are checked one by one, as long as there are few of them.
+     *
+     * @param user the user listing the patients
+     * @param dataSpace the space holding the patients
+     * @param parameters where the parameters of the condition are added
+     * @return a condition to append to the listing query, empty if the user can view all the patients, or
+     *         {@code null} if there are too many records to check one by one
+     * @throws QueryException if querying the undecided records fails
+     */
+    private String getVisibleCondition(User user, EntityReference dataSpace, Map<String, Object> parameters)
+        throws QueryException
+    {
+        Map<String, Object> candidateParameters = new HashMap<>();
+        String candidates =
+            this.accessFilter.getViewCondition(DOCUMENT_ALIAS, user, dataSpace, candidateParameters);
+        String granted = this.accessFilter.getGrantedViewCondition(DOCUMENT_ALIAS, user, dataSpace, parameters);
+        if (candidates == null || granted == null) {
+            return "";
+        }
+        candidateParameters.putAll(parameters);
+        Query query = createListQuery("select doc.fullName" + LIST_FROM + " and " + candidates + " and not "
+            + granted, candidateParameters);
+        query.setLimit(MAX_UNDECIDED_RECORDS + 1);
+        List<String> undecided = query.execute();
+        if (undecided.size() > MAX_UNDECIDED_RECORDS) {
+            return null;
+        }
+        Set<String> visible = new HashSet<>();
+        for (String name : undecided) {
+            if (this.access.hasAccess(user, Right.VIEW, this.stringResolver.resolve(name))) {
+                visible.add(name);
+            }
+        }
+        if (visible.isEmpty()) {
+            return " and " + granted;
+        }
+        parameters.put(VISIBLE_PARAMETER, visible);
+        return " and (" + granted + " or doc.fullName in (:" + VISIBLE_PARAMETER + "))";
+    }
+
+    /**
+     * Lists the patients by checking the access rights of each candidate record, skipping {@code start} visible
+     * records. Only used when there are too many records whose access can't be decided by the query.
+     */
+    private void listCheckedPatients(Query query, int start, int number, Patients result) throws QueryException
+    {
+        int toSkip = Math.max(0, start);
+        int offset = 0;
+        while (result.getPatientSummaries().size() < number) {
+            query.setOffset(offset);
+            query.setLimit(QUERY_BATCH_SIZE);
+            List<Object[]> records = query.execute();
+            for (Object[] record : records) {
+                PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
+                if (summary == null) {
+                    continue;
+                }
+                if (toSkip > 0) {
+                    --toSkip;
+                } else {
+                    result.getPatientSummaries().add(summary);
+                    if (result.getPatientSummaries().size() >= number) {
+                        break;
+                    }
+                }
+            }
+            if (records.size() < QUERY_BATCH_SIZE) {
+                break;
+            }
+            offset += records.size();
+        }
+    }
+
+    private Query createListQuery(String statement, Map<String, Object> parameters) throws QueryException
+    {
+        Query query = this.queries.createQuery(statement, Query.HQL);
+        query.bindValue("t", "PatientTemplate");
+        parameters.forEach(query::bindValue);
+        return query;
+    }
+
     private Right getGrantedRight()
     {
         User currentUser = this.users.getCurrentUser();
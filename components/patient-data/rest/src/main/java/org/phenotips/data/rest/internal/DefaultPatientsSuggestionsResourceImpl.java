@@ -21,6 +21,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientSuggestionService;
 import org.phenotips.data.rest.PatientsSuggestionsResource;
 import org.phenotips.entities.PrimaryEntityMetadataManager;
 import org.phenotips.security.authorization.AuthorizationService;
@@ -90,6 +91,10 @@ public class DefaultPatientsSuggestionsResourceImpl extends XWikiResource implem
     @Inject
     private PatientRepository patientRepository;
 
+    /** Answers suggestion requests from the patient index, when available. */
+    @Inject
+    private PatientSuggestionService suggestions;
+
     @Inject
     private PrimaryEntityMetadataManager metadataManager;
 
@@ -140,12 +145,56 @@ public String suggestAsXML(String input, int maxResults, String requiredPermissi
     private List<Patient> getMatchingPatients(String input, String orderField, String order, int maxResults,
         Right requiredPermission)
     {
+        if (this.suggestions.isAvailable()) {
+            List<Patient> results = getIndexedMatchingPatients(input, orderField, order, maxResults,
+                requiredPermission);
+            if (results != null) {
+                return results;
+            }
+        }
+
         List<String> queryResults = queryPatients(input.toLowerCase(), orderField, order);
         List<Patient> results = new LinkedList<>();
+        addAccessiblePatients(queryResults, requiredPermission, maxResults, results);
+        return results;
+    }
+
+    /**
+     * Looks for matching patients in the patient index, which only skips the patients that certainly can't be
+     * accessed, checking the rights on each candidate and fetching more candidates if some of them are denied.
+     *
+     * @return the matching patients, or {@code null} if the index could not be queried
+     */
+    private List<Patient> getIndexedMatchingPatients(String input, String orderField, String order, int maxResults,
+        Right requiredPermission)
+    {
+        boolean includeNames = usePatientNames();
+        List<Patient> results = new LinkedList<>();
+        int start = 0;
+        while (results.size() < maxResults) {
+            int rows = maxResults - results.size();
+            List<String> references = this.suggestions.suggest(input, includeNames, requiredPermission,
+                "eid".equals(orderField), !"desc".equals(order), start, rows);
+            if (references == null) {
+                return start == 0 ? null : results;
+            }
+            addAccessiblePatients(references, requiredPermission, maxResults, results);
+            if (references.size() < rows) {
+                break;
+            }
+            start += references.size();
+        }
+        return results;
+    }
 
-        int count = 0;
-        for (String queryResult : queryResults) {
-            Patient patient = this.patientRepository.get(queryResult);
+    private void addAccessiblePatients(List<String> patientIds, Right requiredPermission, int maxResults,
+        List<Patient> results)
+    {
+        for (String patientId : patientIds) {
+            if (results.size() >= maxResults) {
+                break;
+            }
+            Patient patient = this.patientRepository.get(patientId);
             if (patient == null) {
                 continue;
             }
@@ -156,11 +205,12 @@ private List<Patient> getMatchingPatients(String input, String orderField, Strin
             }
 
             results.add(patient);
-            if (++count >= maxResults) {
-                break;
-            }
         }
-        return results;
+    }
+
+    private boolean usePatientNames()
+    {
+        return this.configuration.getConfiguration("patient").getEnabledFieldNames().contains(FIRST_NAME);
     }
 
     private List<String> queryPatients(String input, String orderField, String order)
@@ -181,9 +231,7 @@ private List<String> queryPatients(String input, String orderField, String order
         querySb.append(" where doc.name <> :t and lower(doc.name) like :").append(INPUT_PARAMETER);
         querySb.append(" or lower(patient.external_id) like :").append(INPUT_PARAMETER);
 
-        boolean usePatientName = this.configuration.getConfiguration("patient").getEnabledFieldNames()
-            .contains(FIRST_NAME);
-        if (usePatientName) {
+        if (usePatientNames()) {
             querySb.append(" or lower(patient.first_name) like :").append(INPUT_PARAMETER);
             querySb.append(" or lower(patient.last_name) like :").append(INPUT_PARAMETER);
         }
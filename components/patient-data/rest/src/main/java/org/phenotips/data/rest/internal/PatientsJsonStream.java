@@ -0,0 +1,187 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the JSON of a list of patients to a response while they are being loaded, either as a JSON array, or as
+ * newline-delimited JSON, one patient per line. Patients are loaded in batches by an executor, a limited number of
+ * batches being loaded ahead of the one being written, so that memory use stays flat regardless of the number of
+ * requested patients. Patients are written in the requested order, and the patients which can't be loaded, including
+ * those whose loading fails with an exception, are skipped.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class PatientsJsonStream implements StreamingOutput
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PatientsJsonStream.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final List<String> ids;
+
+    private final Function<String, JSONObject> loader;
+
+    private final ExecutorService executor;
+
+    private final int batchSize;
+
+    private final int maxPendingBatches;
+
+    private final boolean ndjson;
+
+    private final boolean gzip;
+
+    /**
+     * Simple constructor passing all the needed information.
+     *
+     * @param ids the identifiers of the patients to write, in the order in which they must be written
+     * @param loader computes the JSON of a patient given its identifier, returning {@code null} if the patient can't
+     *            be loaded; it is invoked from the executor threads, and the patients for which it throws an exception
+     *            are logged and skipped
+     * @param executor the executor loading batches of patients
+     * @param batchSize how many patients are loaded in one task
+     * @param maxPendingBatches how many batches can be loaded, or waiting to be written, at the same time
+     * @param ndjson {@code true} to write one JSON object per line, {@code false} to write a JSON array
+     * @param gzip whether to compress the output
+     */
+    public PatientsJsonStream(List<String> ids, Function<String, JSONObject> loader, ExecutorService executor,
+        int batchSize, int maxPendingBatches, boolean ndjson, boolean gzip)
+    {
+        this.ids = ids;
+        this.loader = loader;
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPendingBatches = Math.max(1, maxPendingBatches);
+        this.ndjson = ndjson;
+        this.gzip = gzip;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException
+    {
+        GZIPOutputStream compressed = this.gzip ? new GZIPOutputStream(output, BUFFER_SIZE) : null;
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(compressed != null ? compressed : output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        Deque<Future<List<JSONObject>>> pending = new ArrayDeque<>(this.maxPendingBatches);
+        int next = 0;
+        boolean first = true;
+        try {
+            if (!this.ndjson) {
+                writer.write('[');
+            }
+            while (next < this.ids.size() || !pending.isEmpty()) {
+                while (pending.size() < this.maxPendingBatches && next < this.ids.size()) {
+                    List<String> batch = this.ids.subList(next, Math.min(next + this.batchSize, this.ids.size()));
+                    next += batch.size();
+                    pending.add(this.executor.submit(load(batch)));
+                }
+                for (JSONObject patient : await(pending.poll())) {
+                    if (this.ndjson) {
+                        patient.write(writer);
+                        writer.write('\n');
+                    } else {
+                        if (!first) {
+                            writer.write(',');
+                        }
+                        patient.write(writer);
+                    }
+                    first = false;
+                }
+                // Send each batch as soon as it is ready, instead of waiting for the buffers to fill
+                writer.flush();
+            }
+            if (!this.ndjson) {
+                writer.write(']');
+            }
+            writer.flush();
+            if (compressed != null) {
+                compressed.finish();
+            }
+        } finally {
+            for (Future<List<JSONObject>> batch : pending) {
+                batch.cancel(true);
+            }
+        }
+    }
+
+    private Callable<List<JSONObject>> load(List<String> batch)
+    {
+        return () -> {
+            List<JSONObject> result = new ArrayList<>(batch.size());
+            for (String id : batch) {
+                JSONObject patient = loadPatient(id);
+                if (patient != null) {
+                    result.add(patient);
+                }
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Loads one patient, isolating failures so that a single broken record doesn't abort the whole stream.
+     *
+     * @param id the identifier of the patient
+     * @return the JSON of the patient, or {@code null} if it can't be loaded
+     */
+    private JSONObject loadPatient(String id)
+    {
+        try {
+            return this.loader.apply(id);
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed to load patient [{}], skipping it: {}", id, ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    private List<JSONObject> await(Future<List<JSONObject>> batch) throws IOException
+    {
+        try {
+            return batch.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading patients", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Failed to load patients: " + ex.getCause().getMessage(), ex.getCause());
+        }
+    }
+}
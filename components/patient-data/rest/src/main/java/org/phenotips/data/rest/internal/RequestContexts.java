@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Lets background threads work on behalf of the current request: loading and saving patients, and checking access
+ * rights, need the request context, which is bound to the request thread.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+final class RequestContexts
+{
+    private RequestContexts()
+    {
+        // Utility class
+    }
+
+    /**
+     * Wraps a function so that it runs with a copy of the current request context, even when invoked from another
+     * thread.
+     *
+     * @param execution the current execution
+     * @param function the function to wrap
+     * @return a function that can be invoked from any thread
+     */
+    static <T, R> Function<T, R> inCopyOfCurrentContext(Execution execution, Function<T, R> function)
+    {
+        return inCopyOfCurrentContext(execution, Collections.emptyMap(), function);
+    }
+
+    /**
+     * Wraps a function so that it runs with a copy of the current request context, even when invoked from another
+     * thread.
+     *
+     * @param execution the current execution
+     * @param properties additional properties to set in the execution context of the other threads
+     * @param function the function to wrap
+     * @return a function that can be invoked from any thread
+     */
+    static <T, R> Function<T, R> inCopyOfCurrentContext(Execution execution, Map<String, Object> properties,
+        Function<T, R> function)
+    {
+        final ExecutionContext context = execution.getContext();
+        final XWikiContext xcontext =
+            context == null ? null : (XWikiContext) context.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        if (xcontext == null) {
+            return function;
+        }
+        return input -> {
+            if (execution.getContext() != null) {
+                return function.apply(input);
+            }
+            final ExecutionContext workerContext = new ExecutionContext();
+            xcontext.clone().declareInExecutionContext(workerContext);
+            properties.forEach(workerContext::setProperty);
+            execution.setContext(workerContext);
+            try {
+                return function.apply(input);
+            } finally {
+                execution.removeContext();
+            }
+        };
+    }
+}
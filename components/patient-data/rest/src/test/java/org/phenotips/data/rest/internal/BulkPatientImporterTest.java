@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link BulkPatientImporter}.
+ *
+ * @version $Id$
+ */
+public class BulkPatientImporterTest
+{
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * Creates patients with sequential identifiers, failing for records with a "fail" key, and failing the whole batch
+     * for records with a "crash" key.
+     */
+    private final Function<JSONObject, String> creator = json -> {
+        if (json.has("fail")) {
+            throw new IllegalStateException("Invalid record");
+        }
+        if (json.has("crash")) {
+            throw new AssertionError("Crashed");
+        }
+        return "P" + this.sequence.incrementAndGet();
+    };
+
+    @Test
+    public void reportsResultsInInputOrder() throws IOException
+    {
+        JSONObject report = importPatients("[{\"a\":1}, {\"fail\":true}, 3, {\"b\":2}, {}]", 2);
+
+        assertEquals(3, report.getInt("created"));
+        assertEquals(2, report.getInt("failed"));
+        JSONArray results = report.getJSONArray("results");
+        assertEquals(5, results.length());
+        for (int i = 0; i < results.length(); ++i) {
+            assertEquals(i, results.getJSONObject(i).getInt("index"));
+        }
+        assertEquals("created", results.getJSONObject(0).getString("status"));
+        assertEquals("Invalid record", results.getJSONObject(1).getString("error"));
+        assertEquals("Not a JSON object", results.getJSONObject(2).getString("error"));
+        assertTrue(results.getJSONObject(3).has("id"));
+        assertFalse(report.has("error"));
+        assertTrue(report.has("recordsPerSecond"));
+    }
+
+    @Test
+    public void importsManyRecordsInParallel() throws IOException
+    {
+        StringBuilder input = new StringBuilder("[");
+        for (int i = 0; i < 1000; ++i) {
+            input.append(i > 0 ? "," : "").append("{\"external_id\":\"E").append(i).append("\"}");
+        }
+        JSONObject report = importPatients(input.append(']').toString(), 7);
+
+        assertEquals(1000, report.getInt("created"));
+        assertEquals(1000, this.sequence.get());
+        assertEquals(999, report.getJSONArray("results").getJSONObject(999).getInt("index"));
+    }
+
+    @Test
+    public void stopsAtInvalidJson() throws IOException
+    {
+        JSONObject report = importPatients("[{\"a\":1}, {\"b\": ", 5);
+
+        assertEquals(1, report.getInt("created"));
+        assertTrue(report.has("error"));
+    }
+
+    @Test
+    public void rejectsNonArrayInput() throws IOException
+    {
+        JSONObject report = importPatients("{\"a\":1}", 5);
+
+        assertEquals(0, report.getInt("created"));
+        assertTrue(report.has("error"));
+    }
+
+    @Test
+    public void reportsRecordsOfFailedBatches() throws IOException
+    {
+        JSONObject report = importPatients("[{\"a\":1}, {\"crash\":true}, {\"b\":2}, {\"c\":3}]", 3);
+
+        assertEquals(2, report.getInt("created"));
+        assertEquals(2, report.getInt("failed"));
+        JSONArray results = report.getJSONArray("results");
+        assertEquals(4, results.length());
+        assertEquals("created", results.getJSONObject(0).getString("status"));
+        assertEquals("failed", results.getJSONObject(1).getString("status"));
+        assertEquals("Crashed", results.getJSONObject(1).getString("error"));
+        assertFalse(results.getJSONObject(1).has("data"));
+        assertEquals("failed", results.getJSONObject(2).getString("status"));
+        assertEquals("created", results.getJSONObject(3).getString("status"));
+    }
+
+    @Test
+    public void listsCreatedRecordsWhenReadingFails()
+    {
+        BulkPatientImporter importer = new BulkPatientImporter(this.creator, 1, 3, mock(Logger.class));
+        InputStream failing = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                throw new IOException("Connection reset");
+            }
+        };
+        try {
+            importer.importPatients(new SequenceInputStream(
+                new ByteArrayInputStream("[{\"a\":1}, {\"b\":2}, ".getBytes(StandardCharsets.UTF_8)), failing));
+            fail("Reading errors should be reported");
+        } catch (IOException ex) {
+            assertEquals(this.sequence.get(), importer.getCreated().size());
+        }
+    }
+
+    private JSONObject importPatients(String json, int batchSize) throws IOException
+    {
+        return new BulkPatientImporter(this.creator, batchSize, 3, mock(Logger.class))
+            .importPatients(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
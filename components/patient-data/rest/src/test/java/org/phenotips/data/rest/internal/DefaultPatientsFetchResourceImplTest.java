@@ -34,12 +34,18 @@
 import org.xwiki.query.internal.DefaultQuery;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.json.JSONArray;
@@ -57,12 +63,15 @@
 import com.xpn.xwiki.XWikiException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class DefaultPatientsFetchResourceImplTest
@@ -281,4 +290,74 @@ public void getPatientsPerformsCorrectlyIfQueryExceptionIsThrown() throws QueryE
         assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), response.getStatus());
         assertEquals(null, response.getEntity());
     }
+
+    @Test
+    public void streamPatientsWritesRequestedPatientsInOrder() throws QueryException, IOException
+    {
+        doReturn(ImmutableList.<Object>of(EID1)).when(this.request).getProperties(EID_LABEL);
+        doReturn(ImmutableList.of(ID_3, ID_4, ID_1)).when(this.request).getProperties(ID_LABEL);
+        when(this.query.execute()).thenReturn(ImmutableList.<Object>of(ID_1));
+
+        final Response response = this.component.streamPatients("array", null, null);
+        assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        assertNull(response.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        final JSONArray expected =
+            new JSONArray().put(new JSONObject().put(ID_LABEL, ID_1).put(LINKS_LABEL, this.uriList))
+                .put(new JSONObject().put(ID_LABEL, ID_3).put(LINKS_LABEL, this.uriList));
+        assertTrue(expected.similar(new JSONArray(new String(out.toByteArray(), StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void streamPatientsLoadsOnlySelectedFields() throws IOException
+    {
+        final List<String> fields = ImmutableList.of("external_id");
+        doReturn(Collections.emptyList()).when(this.request).getProperties(EID_LABEL);
+        doReturn(ImmutableList.of(ID_2)).when(this.request).getProperties(ID_LABEL);
+        when(this.repository.get(ID_2, fields)).thenReturn(this.patient2);
+        when(this.patient2.toJSON(fields)).thenReturn(new JSONObject().put(ID_LABEL, ID_2));
+
+        final Response response = this.component.streamPatients("ndjson", fields, "gzip, deflate");
+        assertEquals("gzip", response.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        ((StreamingOutput) response.getEntity()).write(new ByteArrayOutputStream());
+        verify(this.repository).get(ID_2, fields);
+        verify(this.patient2).toJSON(fields);
+    }
+
+    @Test
+    public void streamPatientsBuildsLinksOnTheRequestThread() throws Exception
+    {
+        doReturn(Collections.emptyList()).when(this.request).getProperties(EID_LABEL);
+        doReturn(ImmutableList.of(ID_1, ID_2)).when(this.request).getProperties(ID_LABEL);
+        final Autolinker autolinker = this.mocker.getInstance(Autolinker.class);
+
+        final Response response = this.component.streamPatients("array", null, null);
+        verify(autolinker, times(2)).forSecondaryResource(any(Class.class), any(UriInfo.class));
+        verify(autolinker).withExtraParameters("entity-id", ID_1);
+        verify(autolinker).withExtraParameters("entity-id", ID_2);
+        verify(autolinker, times(2)).withExtraParameters("entity-type", "patients");
+        verify(autolinker, times(2)).build();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        verifyNoMoreInteractions(autolinker);
+        final JSONArray expected =
+            new JSONArray().put(new JSONObject().put(ID_LABEL, ID_1).put(LINKS_LABEL, this.uriList))
+                .put(new JSONObject().put(ID_LABEL, ID_2).put(LINKS_LABEL, this.uriList));
+        assertTrue(expected.similar(new JSONArray(new String(out.toByteArray(), StandardCharsets.UTF_8))));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void disposeStopsTheLoaders() throws Exception
+    {
+        doReturn(Collections.emptyList()).when(this.request).getProperties(EID_LABEL);
+        doReturn(ImmutableList.of(ID_1)).when(this.request).getProperties(ID_LABEL);
+        final Response response = this.component.streamPatients("array", null, null);
+
+        this.component.dispose();
+        ((StreamingOutput) response.getEntity()).write(new ByteArrayOutputStream());
+    }
 }
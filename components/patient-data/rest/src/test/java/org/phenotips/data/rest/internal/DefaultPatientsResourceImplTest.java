@@ -19,6 +19,8 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.EntityAccessQueryFilter;
 import org.phenotips.data.rest.DomainObjectFactory;
 import org.phenotips.data.rest.PatientsResource;
 import org.phenotips.data.rest.model.PatientSummary;
@@ -31,6 +33,8 @@
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
@@ -41,11 +45,18 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Provider;
 import javax.ws.rs.WebApplicationException;
@@ -65,16 +76,25 @@
 import com.xpn.xwiki.XWikiContext;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class DefaultPatientsResourceImplTest
 {
+    private static final String LIST_FROM = " from XWikiDocument doc, BaseObject p, StringProperty eid"
+        + " where p.name = doc.fullName and p.className = 'PhenoTips.PatientClass' and eid.id.id = p.id"
+        + " and eid.id.name = 'external_id' and doc.name <> :t";
+
     @Rule
     public MockitoComponentMockingRule<PatientsResource> mocker =
         new MockitoComponentMockingRule<>(DefaultPatientsResourceImpl.class);
@@ -233,14 +253,11 @@ public void listPatientsNullOrderField() throws QueryException
     {
         Query query = mock(DefaultQuery.class);
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        mockCountQuery(0);
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(new ArrayList<Object[]>()).when(query).execute();
         this.patientsResource.listPatients(0, 30, null, "asc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
+        verify(this.queries).createQuery(getListQuery("", "doc.name asc"), Query.HQL);
     }
 
     @Test
@@ -248,14 +265,11 @@ public void listPatientsNullOrder() throws QueryException
     {
         Query query = mock(DefaultQuery.class);
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        mockCountQuery(0);
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(new ArrayList<Object[]>()).when(query).execute();
         this.patientsResource.listPatients(0, 30, "id", null);
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
+        verify(this.queries).createQuery(getListQuery("", "doc.name asc"), Query.HQL);
     }
 
     @Test
@@ -263,14 +277,11 @@ public void listPatientsNonDefaultBehaviour() throws QueryException
     {
         Query query = mock(DefaultQuery.class);
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        mockCountQuery(0);
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(new ArrayList<Object[]>()).when(query).execute();
         this.patientsResource.listPatients(0, 30, "eid", "desc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "p.external_id" + " desc",
-            "xwql");
+        verify(this.queries).createQuery(getListQuery("", "eid.value desc"), Query.HQL);
     }
 
     @Test
@@ -281,16 +292,13 @@ public void listPatientsNoUserAccess() throws QueryException
         patientList.add(patientSummaryData);
         Query query = mock(DefaultQuery.class);
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        mockCountQuery(0);
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(patientList).when(query).execute();
         doReturn(false).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
         doReturn(null).when(this.factory).createPatientSummary(patientSummaryData, this.uriInfo);
         Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
+        verify(this.queries).createQuery(getListQuery("", "doc.name asc"), Query.HQL);
         Assert.assertTrue(result.getPatientSummaries().isEmpty());
     }
 
@@ -302,16 +310,13 @@ public void listPatientsUserHasAccess() throws QueryException
         patientList.add(patientSummaryData);
         Query query = mock(DefaultQuery.class);
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        mockCountQuery(0);
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(patientList).when(query).execute();
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
         doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
         Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
+        verify(this.queries).createQuery(getListQuery("", "doc.name asc"), Query.HQL);
         Assert.assertFalse(result.getPatientSummaries().isEmpty());
     }
 
@@ -323,10 +328,8 @@ public void listPatientsSpecificNumberOfRecords() throws QueryException
             Object[] patientSummaryData = new Object[7];
             patientList.add(patientSummaryData);
         }
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(patientList).when(query).execute();
+        Query query = mockPagedQuery(patientList);
+        mockCountQuery(30);
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
         doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
 
@@ -343,6 +346,90 @@ public void listPatientsSpecificNumberOfRecords() throws QueryException
         Assert.assertEquals(0, incorrectLookup.getPatientSummaries().size());
     }
 
+    @Test
+    public void listPatientsPagesAndCountsInTheDatabaseWhenTheQueryDecidesVisibility() throws Exception
+    {
+        List<Object[]> patientList = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            patientList.add(new Object[] { "data.P" + i });
+        }
+        Query query = mockPagedQuery(patientList);
+        Query count = mockCountQuery(1234);
+        mockAccessConditions();
+        Query undecided = mockUndecidedQuery(Arrays.asList("data.P5", "data.P6"));
+        doReturn(true).when(this.access).hasAccess(this.currentUser, Right.VIEW,
+            new DocumentReference("xwiki", "data", "P5"));
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+
+        Patients result = this.patientsResource.listPatients(10, 5, "id", "asc");
+
+        Assert.assertEquals(5, result.getPatientSummaries().size());
+        Assert.assertEquals(Integer.valueOf(1234), result.getTotalResults());
+        verify(this.queries).createQuery("select doc.fullName" + LIST_FROM + " and (candidates) and not (granted)",
+            Query.HQL);
+        verify(undecided).bindValue("candidates", "c");
+        verify(undecided).bindValue("granted", "g");
+        String visible = " and ((granted) or doc.fullName in (:visible))";
+        verify(this.queries).createQuery(getListQuery(visible, "doc.name asc"), Query.HQL);
+        verify(this.queries).createQuery("select count(doc.id)" + LIST_FROM + visible, Query.HQL);
+        // Only the parameters of the granted condition are used by the listing and the count
+        verify(query).bindValue("granted", "g");
+        verify(query).bindValue("visible", Collections.singleton("data.P5"));
+        verify(query, never()).bindValue(eq("candidates"), any());
+        verify(count).bindValue("visible", Collections.singleton("data.P5"));
+        // Deep pages don't go through the previous records
+        verify(query).setOffset(10);
+        verify(query).setLimit(5);
+        verify(this.factory, never()).createPatientSummary(patientList.get(9), this.uriInfo);
+        verify(this.factory, never()).createPatientSummary(patientList.get(15), this.uriInfo);
+    }
+
+    @Test
+    public void listPatientsUsesOnlyTheGrantedConditionWhenNoRecordIsUndecided() throws Exception
+    {
+        Query query = mockPagedQuery(new ArrayList<>());
+        mockCountQuery(0);
+        mockAccessConditions();
+        mockUndecidedQuery(Collections.emptyList());
+
+        Patients result = this.patientsResource.listPatients(0, 5, "id", "asc");
+
+        Assert.assertEquals(Integer.valueOf(0), result.getTotalResults());
+        verify(this.queries).createQuery(getListQuery(" and (granted)", "doc.name asc"), Query.HQL);
+        verify(query, never()).bindValue(eq("visible"), any());
+    }
+
+    @Test
+    public void listPatientsChecksEachRecordWhenTooManyAreUndecided() throws Exception
+    {
+        List<Object[]> patientList = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            patientList.add(new Object[] { "data.P" + i });
+        }
+        Query query = mockPagedQuery(patientList);
+        mockAccessConditions();
+        List<String> undecided = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            undecided.add("data.U" + i);
+        }
+        mockUndecidedQuery(undecided);
+        // The 3rd and the 12th records are denied by the rights check, so they don't count for the offset either
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+        doReturn(null).when(this.factory).createPatientSummary(patientList.get(2), this.uriInfo);
+        doReturn(null).when(this.factory).createPatientSummary(patientList.get(11), this.uriInfo);
+
+        Patients result = this.patientsResource.listPatients(10, 5, "id", "asc");
+
+        Assert.assertEquals(5, result.getPatientSummaries().size());
+        Assert.assertNull(result.getTotalResults());
+        verify(this.queries).createQuery(getListQuery(" and (candidates)", "doc.name asc"), Query.HQL);
+        verify(query).bindValue("candidates", "c");
+        verify(query, never()).bindValue(eq("granted"), any());
+        verify(query).setOffset(0);
+        verify(this.factory).createPatientSummary(patientList.get(16), this.uriInfo);
+        verify(this.factory, never()).createPatientSummary(patientList.get(17), this.uriInfo);
+    }
+
     @Test
     public void listPatientsGetMoreRecordsThanAdded() throws QueryException
     {
@@ -353,6 +440,7 @@ public void listPatientsGetMoreRecordsThanAdded() throws QueryException
         }
         Query query = mock(DefaultQuery.class);
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        mockCountQuery(0);
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doReturn(patientList).when(query).execute();
         doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
@@ -368,6 +456,7 @@ public void listPatientFailureHandling() throws QueryException
         WebApplicationException exception = null;
         QueryException queryException = new QueryException("query.execute() failed", query, new Exception());
         doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        mockCountQuery(0);
         doReturn(query).when(query).bindValue(anyString(), anyString());
         doThrow(queryException).when(query).execute();
         try {
@@ -379,4 +468,139 @@ public void listPatientFailureHandling() throws QueryException
         Assert.assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), exception.getResponse().getStatus());
         verify(this.logger).error("Failed to list patients: {}", queryException.getMessage(), queryException);
     }
+
+    private static String getListQuery(String accessCondition, String order)
+    {
+        return "select doc.fullName, eid.value, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
+            + LIST_FROM + accessCondition + " order by " + order;
+    }
+
+    /** Mocks the query counting the listed patients. */
+    private Query mockCountQuery(long total) throws QueryException
+    {
+        Query count = mock(DefaultQuery.class);
+        doReturn(count).when(this.queries).createQuery(startsWith("select count(doc.id) "), eq(Query.HQL));
+        doReturn(count).when(count).bindValue(anyString(), any());
+        doReturn(Collections.singletonList(total)).when(count).execute();
+        return count;
+    }
+
+    /** Mocks the query listing the records that may be visible without being granted by the access rules. */
+    private Query mockUndecidedQuery(List<String> names) throws QueryException
+    {
+        Query undecided = mock(DefaultQuery.class);
+        doReturn(undecided).when(this.queries).createQuery(startsWith("select doc.fullName from "), eq(Query.HQL));
+        doReturn(undecided).when(undecided).bindValue(anyString(), any());
+        doReturn(names).when(undecided).execute();
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING,
+            "current");
+        for (String name : names) {
+            when(resolver.resolve(name)).thenReturn(new DocumentReference("xwiki", "data", name.substring(5)));
+        }
+        return undecided;
+    }
+
+    private void mockAccessConditions() throws ComponentLookupException
+    {
+        EntityAccessQueryFilter filter = this.mocker.getInstance(EntityAccessQueryFilter.class);
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> parameters = (Map<String, Object>) invocation.getArguments()[3];
+            parameters.put("candidates", "c");
+            return "(candidates)";
+        }).when(filter).getViewCondition(eq("doc"), any(User.class), any(EntityReference.class), anyMapOf(
+            String.class, Object.class));
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> parameters = (Map<String, Object>) invocation.getArguments()[3];
+            parameters.put("granted", "g");
+            return "(granted)";
+        }).when(filter).getGrantedViewCondition(eq("doc"), any(User.class), any(EntityReference.class), anyMapOf(
+            String.class, Object.class));
+    }
+
+    /** Mocks a query returning the requested window of the given records. */
+    private Query mockPagedQuery(List<Object[]> records) throws QueryException
+    {
+        Query query = mock(DefaultQuery.class);
+        int[] window = new int[2];
+        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        doReturn(query).when(query).bindValue(anyString(), any());
+        doAnswer(invocation -> {
+            window[0] = (Integer) invocation.getArguments()[0];
+            return query;
+        }).when(query).setOffset(anyInt());
+        doAnswer(invocation -> {
+            window[1] = (Integer) invocation.getArguments()[0];
+            return query;
+        }).when(query).setLimit(anyInt());
+        doAnswer(invocation -> records.subList(Math.min(window[0], records.size()),
+            Math.min(window[0] + window[1], records.size()))).when(query).execute();
+        return query;
+    }
+
+    @Test
+    public void importPatientsUserDoesNotHaveAccess()
+    {
+        doReturn(false).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
+        try {
+            this.patientsResource.importPatients(new ByteArrayInputStream("[{}]".getBytes(StandardCharsets.UTF_8)));
+            Assert.fail("Import should have been denied");
+        } catch (WebApplicationException ex) {
+            Assert.assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), ex.getResponse().getStatus());
+        }
+        verify(this.repository, never()).create(any(JSONObject.class), any(DocumentReference.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void importPatientsCreatesEachRecordAndIndexesThemTogether() throws ComponentLookupException
+    {
+        doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
+        doReturn(this.patient).when(this.repository).create(any(JSONObject.class), any(DocumentReference.class));
+        doReturn(this.patient).when(this.repository).get("P00000001");
+        PatientIndexer indexer = this.mocker.getInstance(PatientIndexer.class);
+        doAnswer(invocation -> {
+            Iterator<Patient> patients = (Iterator<Patient>) invocation.getArguments()[0];
+            int count = 0;
+            while (patients.hasNext()) {
+                Assert.assertSame(this.patient, patients.next());
+                ++count;
+            }
+            Assert.assertEquals(2, count);
+            return null;
+        }).when(indexer).index(any(Iterator.class));
+
+        Response response = this.patientsResource.importPatients(
+            new ByteArrayInputStream("[{\"external_id\":\"a\"}, {\"external_id\":\"b\"}]"
+                .getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        JSONObject report = new JSONObject((String) response.getEntity());
+        Assert.assertEquals(2, report.getInt("created"));
+        Assert.assertEquals("http://uri/patients/P00000001",
+            report.getJSONArray("results").getJSONObject(1).getString("location"));
+        verify(indexer).index(any(Iterator.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void importPatientsIndexesCreatedRecordsWhenTheImportFails() throws ComponentLookupException
+    {
+        doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.EDIT), any(EntityReference.class));
+        doReturn(this.patient).when(this.repository).create(any(JSONObject.class), any(DocumentReference.class));
+        PatientIndexer indexer = this.mocker.getInstance(PatientIndexer.class);
+
+        Response response = this.patientsResource.importPatients(new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                throw new IOException("Connection reset");
+            }
+        });
+
+        Assert.assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), response.getStatus());
+        verify(indexer).index(any(Iterator.class));
+    }
 }
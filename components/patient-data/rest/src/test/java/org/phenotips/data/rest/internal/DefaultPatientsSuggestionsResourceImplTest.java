@@ -22,6 +22,7 @@
 import org.phenotips.data.DictionaryPatientData;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientSuggestionService;
 import org.phenotips.data.rest.PatientsSuggestionsResource;
 import org.phenotips.security.authorization.AuthorizationService;
 
@@ -370,6 +371,38 @@ public void suggestAsJSONReturnsEmptyListOnExceptions() throws QueryException
         Assert.assertEquals(0, suggestions.length());
     }
 
+    @Test
+    public void suggestAsJSONUsesPatientIndexWhenAvailable() throws Exception
+    {
+        PatientSuggestionService suggestions = this.mocker.getInstance(PatientSuggestionService.class);
+        when(suggestions.isAvailable()).thenReturn(true);
+        when(suggestions.suggest("doe", true, Right.VIEW, false, true, 0, 2))
+            .thenReturn(Arrays.asList("readablePatient1", "inaccessiblePatient1"));
+        when(suggestions.suggest("doe", true, Right.VIEW, false, true, 2, 1))
+            .thenReturn(Arrays.asList("writablePatient1"));
+
+        JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 2, "view", ID, "asc"));
+        JSONArray results = response.getJSONArray("matchedPatients");
+
+        Assert.assertEquals(2, results.length());
+        Assert.assertEquals("readablePatient1", results.getJSONObject(0).getString(ID));
+        Assert.assertEquals("writablePatient1", results.getJSONObject(1).getString(ID));
+        Mockito.verify(this.queryManager, Mockito.never()).createQuery(Matchers.anyString(), Matchers.anyString());
+    }
+
+    @Test
+    public void suggestAsJSONFallsBackToQueryWhenIndexFails() throws Exception
+    {
+        PatientSuggestionService suggestions = this.mocker.getInstance(PatientSuggestionService.class);
+        when(suggestions.isAvailable()).thenReturn(true);
+        when(suggestions.suggest("doe", true, Right.VIEW, false, true, 0, 2)).thenReturn(null);
+
+        JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 2, "view", ID, "asc"));
+
+        Assert.assertEquals(2, response.getJSONArray("matchedPatients").length());
+        Mockito.verify(this.query).bindValue("input", "%doe%");
+    }
+
     @SuppressWarnings("ParameterNumber")
     private void setupPatient(Patient patient, String patientId, String patientExternalId,
         DocumentReference patientReference, boolean canView, boolean canEdit, String firstName, String lastName)
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PatientsJsonStream}.
+ *
+ * @version $Id$
+ */
+public class PatientsJsonStreamTest
+{
+    private static final List<String> IDS = Arrays.asList("P1", "P2", "P3", "P4", "P5");
+
+    /** Skips P3, as if it didn't exist or wasn't accessible. */
+    private static final Function<String, JSONObject> LOADER =
+        id -> "P3".equals(id) ? null : new JSONObject().put("id", id);
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        this.executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void writesArrayInRequestedOrder() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PatientsJsonStream(IDS, LOADER, this.executor, 2, 2, false, false).write(out);
+
+        JSONArray expected = new JSONArray().put(new JSONObject().put("id", "P1"))
+            .put(new JSONObject().put("id", "P2")).put(new JSONObject().put("id", "P4"))
+            .put(new JSONObject().put("id", "P5"));
+        assertTrue(expected.similar(new JSONArray(new String(out.toByteArray(), StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void writesOnePatientPerLineForNdjson() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PatientsJsonStream(IDS, LOADER, this.executor, 1, 3, true, false).write(out);
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("P1", new JSONObject(lines[0]).getString("id"));
+        assertEquals("P5", new JSONObject(lines[3]).getString("id"));
+    }
+
+    @Test
+    public void writesEmptyArrayWhenNothingIsRequested() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PatientsJsonStream(Arrays.<String>asList(), LOADER, this.executor, 2, 2, false, false).write(out);
+
+        assertEquals("[]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compressesWhenRequested() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PatientsJsonStream(IDS, LOADER, this.executor, 2, 2, false, true).write(out);
+
+        try (Scanner in = new Scanner(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())),
+            StandardCharsets.UTF_8.name())) {
+            assertEquals(4, new JSONArray(in.useDelimiter("\\A").next()).length());
+        }
+    }
+
+    @Test
+    public void patientsFailingToLoadAreSkipped() throws IOException
+    {
+        Function<String, JSONObject> loader = id -> {
+            if ("P2".equals(id)) {
+                throw new IllegalStateException("broken");
+            }
+            return LOADER.apply(id);
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PatientsJsonStream(IDS, loader, this.executor, 2, 2, false, false).write(out);
+        JSONArray expected = new JSONArray().put(new JSONObject().put("id", "P1"))
+            .put(new JSONObject().put("id", "P4")).put(new JSONObject().put("id", "P5"));
+        assertTrue(expected.similar(new JSONArray(new String(out.toByteArray(), StandardCharsets.UTF_8))));
+
+        out = new ByteArrayOutputStream();
+        new PatientsJsonStream(IDS, loader, this.executor, 1, 3, true, false).write(out);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("P1", new JSONObject(lines[0]).getString("id"));
+        assertEquals("P4", new JSONObject(lines[1]).getString("id"));
+        assertEquals("P5", new JSONObject(lines[2]).getString("id"));
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.differentialPhenotypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compact, immutable, in-memory index of the phenotypes annotated on each disease, used for computing differential
+ * phenotype suggestions without querying the disease vocabulary. Phenotypes are identified internally by a dense
+ * integer index. For each phenotype, the diseases annotated with that phenotype or one of its descendants are stored as
+ * a sorted posting array, separately for positive and negative annotations, and each disease keeps the list of its
+ * direct annotations that can be suggested.
+ * <p>
+ * Diseases are matched the same way the disease index would match a query on the {@code symptom} and
+ * {@code not_symptom} fields, using the BM25 similarity: each matched phenotype contributes its inverse document
+ * frequency, scaled down for diseases with more annotations than average.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class DiseasePhenotypeMatrix
+{
+    /** Only phenotypes that are descendants of this term can be suggested. */
+    public static final String PHENOTYPIC_ABNORMALITY = "HP:0000118";
+
+    /** The BM25 term frequency saturation parameter, as used by default by the disease index. */
+    private static final double K1 = 1.2;
+
+    /** The BM25 length normalization parameter, as used by default by the disease index. */
+    private static final double B = 0.75;
+
+    /** Diseases whose name starts with one of these symbols are not matched. */
+    private static final String IGNORED_DISEASES = "*+^";
+
+    /** The phenotype identifiers, indexed by their internal number. */
+    private final String[] phenotypes;
+
+    /** Maps phenotype identifiers to their internal number. */
+    private final Map<String, Integer> indexes;
+
+    /** The disease identifiers, in the order they were added. */
+    private final String[] diseases;
+
+    /** The diseases that must never be matched. */
+    private final BitSet ignored;
+
+    /** The positive annotations of the diseases, including ancestors. */
+    private final Field symptoms;
+
+    /** The negative annotations of the diseases, including ancestors. */
+    private final Field notSymptoms;
+
+    /** The direct positive annotations of each disease that can be suggested, as sorted phenotype numbers. */
+    private final int[][] suggestions;
+
+    private DiseasePhenotypeMatrix(Builder builder)
+    {
+        this.phenotypes = builder.phenotypes.toArray(new String[builder.phenotypes.size()]);
+        this.indexes = builder.indexes;
+        this.diseases = builder.diseases.toArray(new String[builder.diseases.size()]);
+        this.ignored = builder.ignored;
+        this.symptoms = new Field(builder.symptoms, this.phenotypes.length);
+        this.notSymptoms = new Field(builder.notSymptoms, this.phenotypes.length);
+        this.suggestions = builder.suggestions.toArray(new int[builder.suggestions.size()][]);
+    }
+
+    /**
+     * The number of diseases in the matrix.
+     *
+     * @return a positive number, or {@code 0} for an empty matrix
+     */
+    public int getDiseaseCount()
+    {
+        return this.diseases.length;
+    }
+
+    /**
+     * The number of distinct phenotypes annotated on the diseases, including their ancestors.
+     *
+     * @return a positive number, or {@code 0} for an empty matrix
+     */
+    public int getPhenotypeCount()
+    {
+        return this.phenotypes.length;
+    }
+
+    /**
+     * Finds the diseases that best match a set of positive and negative phenotypes.
+     *
+     * @param phenotypes the observed phenotypes
+     * @param nphenotypes the phenotypes that are not observed
+     * @param limit the maximum number of diseases to return
+     * @return the identifiers of the best matching diseases, in decreasing order of their score, mapped to their score
+     */
+    public Map<String, Double> getMatchingDiseases(Collection<String> phenotypes, Collection<String> nphenotypes,
+        int limit)
+    {
+        double[] scores = score(phenotypes, nphenotypes);
+        int[] top = selectTop(scores, limit);
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int disease : top) {
+            result.put(this.diseases[disease], scores[disease]);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the phenotypes that best distinguish between the diseases matching a set of positive and negative
+     * phenotypes. Each direct annotation of the {@code limit} best matching diseases is scored with the sum of the
+     * scores of the diseases annotated with it, divided by the square of the number of such diseases. No suggestions
+     * are made if every candidate phenotype is shared by more than half of the matching diseases.
+     *
+     * @param phenotypes the observed phenotypes
+     * @param nphenotypes the phenotypes that are not observed
+     * @param excluded phenotypes that must not be suggested, usually the observed phenotypes with their ancestors
+     * @param limit the maximum number of matching diseases to consider
+     * @return the identifiers of the suggested phenotypes, in decreasing order of their score, mapped to their score
+     */
+    public Map<String, Double> getSuggestions(Collection<String> phenotypes, Collection<String> nphenotypes,
+        Set<String> excluded, int limit)
+    {
+        double[] scores = score(phenotypes, nphenotypes);
+        int[] top = selectTop(scores, limit);
+
+        BitSet skipped = new BitSet(this.phenotypes.length);
+        for (String id : excluded) {
+            Integer index = this.indexes.get(id);
+            if (index != null) {
+                skipped.set(index);
+            }
+        }
+        double[] cumulativeScores = new double[this.phenotypes.length];
+        int[] counts = new int[this.phenotypes.length];
+        int[] candidates = new int[this.phenotypes.length];
+        int candidateCount = 0;
+        for (int disease : top) {
+            for (int phenotype : this.suggestions[disease]) {
+                if (skipped.get(phenotype)) {
+                    continue;
+                }
+                cumulativeScores[phenotype] += scores[disease];
+                if (counts[phenotype]++ == 0) {
+                    candidates[candidateCount++] = phenotype;
+                }
+            }
+        }
+
+        int minCount = Integer.MAX_VALUE;
+        for (int i = 0; i < candidateCount; ++i) {
+            minCount = Math.min(minCount, counts[candidates[i]]);
+        }
+        if (candidateCount == 0 || minCount > top.length / 2) {
+            return Collections.emptyMap();
+        }
+
+        double[] suggestionScores = new double[this.phenotypes.length];
+        for (int i = 0; i < candidateCount; ++i) {
+            int phenotype = candidates[i];
+            double count = counts[phenotype];
+            suggestionScores[phenotype] = cumulativeScores[phenotype] / (count * count);
+        }
+        Integer[] order = new Integer[candidateCount];
+        for (int i = 0; i < candidateCount; ++i) {
+            order[i] = candidates[i];
+        }
+        Arrays.sort(order, (a, b) -> {
+            int byScore = Double.compare(suggestionScores[b], suggestionScores[a]);
+            return byScore != 0 ? byScore : Integer.compare(a, b);
+        });
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int phenotype : order) {
+            result.put(this.phenotypes[phenotype], suggestionScores[phenotype]);
+        }
+        return result;
+    }
+
+    private double[] score(Collection<String> phenotypes, Collection<String> nphenotypes)
+    {
+        double[] scores = new double[this.diseases.length];
+        this.symptoms.score(phenotypes, scores, this.indexes);
+        this.notSymptoms.score(nphenotypes, scores, this.indexes);
+        return scores;
+    }
+
+    /**
+     * Selects the matched diseases with the highest score, using a bounded heap.
+     *
+     * @param scores the scores of all the diseases
+     * @param limit how many diseases to select
+     * @return the numbers of the selected diseases, in decreasing order of their score, or increasing order of their
+     *         number for equal scores
+     */
+    private int[] selectTop(double[] scores, int limit)
+    {
+        int[] heap = new int[Math.max(0, Math.min(limit, scores.length))];
+        int size = 0;
+        for (int disease = 0; disease < scores.length && heap.length > 0; ++disease) {
+            if (scores[disease] <= 0 || this.ignored.get(disease)) {
+                continue;
+            }
+            if (size < heap.length) {
+                heap[size] = disease;
+                siftUp(heap, size++, scores);
+            } else if (better(disease, heap[0], scores)) {
+                heap[0] = disease;
+                siftDown(heap, size, scores);
+            }
+        }
+        int[] result = new int[size];
+        while (size > 0) {
+            result[size - 1] = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size, scores);
+        }
+        return result;
+    }
+
+    /** Maintains a min-heap, where the root is the worst selected disease. */
+    private static void siftUp(int[] heap, int position, double[] scores)
+    {
+        int current = position;
+        int item = heap[current];
+        while (current > 0) {
+            int parent = (current - 1) / 2;
+            if (!better(heap[parent], item, scores)) {
+                break;
+            }
+            heap[current] = heap[parent];
+            current = parent;
+        }
+        heap[current] = item;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores)
+    {
+        int current = 0;
+        int item = heap[0];
+        while (true) {
+            int child = 2 * current + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && better(heap[child], heap[child + 1], scores)) {
+                ++child;
+            }
+            if (!better(item, heap[child], scores)) {
+                break;
+            }
+            heap[current] = heap[child];
+            current = child;
+        }
+        heap[current] = item;
+    }
+
+    private static boolean better(int a, int b, double[] scores)
+    {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    /**
+     * The annotations of all the diseases on one field, as an inverted index.
+     */
+    private static final class Field
+    {
+        /** The diseases annotated with each phenotype, as sorted disease numbers. */
+        private final int[][] postings;
+
+        /** The inverse document frequency of each phenotype. */
+        private final double[] idf;
+
+        /** The BM25 length normalization factor of each disease. */
+        private final double[] lengthFactors;
+
+        Field(List<int[]> annotations, int phenotypeCount)
+        {
+            int[] frequencies = new int[phenotypeCount];
+            long totalLength = 0;
+            int documentCount = 0;
+            for (int[] disease : annotations) {
+                for (int phenotype : disease) {
+                    ++frequencies[phenotype];
+                }
+                totalLength += disease.length;
+                documentCount += disease.length > 0 ? 1 : 0;
+            }
+
+            this.postings = new int[phenotypeCount][];
+            this.idf = new double[phenotypeCount];
+            for (int phenotype = 0; phenotype < phenotypeCount; ++phenotype) {
+                this.postings[phenotype] = new int[frequencies[phenotype]];
+                this.idf[phenotype] = Math.log(1 + (documentCount - frequencies[phenotype] + 0.5)
+                    / (frequencies[phenotype] + 0.5));
+            }
+            int[] filled = new int[phenotypeCount];
+            for (int disease = 0; disease < annotations.size(); ++disease) {
+                for (int phenotype : annotations.get(disease)) {
+                    this.postings[phenotype][filled[phenotype]++] = disease;
+                }
+            }
+
+            double averageLength = documentCount > 0 ? (double) totalLength / documentCount : 1;
+            this.lengthFactors = new double[annotations.size()];
+            for (int disease = 0; disease < annotations.size(); ++disease) {
+                this.lengthFactors[disease] =
+                    (K1 + 1) / (1 + K1 * (1 - B + B * annotations.get(disease).length / averageLength));
+            }
+        }
+
+        void score(Collection<String> query, double[] scores, Map<String, Integer> indexes)
+        {
+            for (String id : query) {
+                Integer phenotype = indexes.get(id);
+                if (phenotype == null) {
+                    continue;
+                }
+                double weight = this.idf[phenotype];
+                for (int disease : this.postings[phenotype]) {
+                    scores[disease] += weight * this.lengthFactors[disease];
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the annotations of the diseases, then builds a {@link DiseasePhenotypeMatrix}. Builders are not thread
+     * safe.
+     *
+     * @version $Id$
+     * @since 1.5
+     */
+    public static final class Builder
+    {
+        private final Function<String, Set<String>> ancestorsAndSelf;
+
+        /** The ancestors of the phenotypes already seen, as sorted phenotype numbers, including the phenotype. */
+        private final Map<String, int[]> closures = new HashMap<>();
+
+        private final List<String> phenotypes = new ArrayList<>();
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        private final List<String> diseases = new ArrayList<>();
+
+        private final BitSet ignored = new BitSet();
+
+        private final List<int[]> symptoms = new ArrayList<>();
+
+        private final List<int[]> notSymptoms = new ArrayList<>();
+
+        private final List<int[]> suggestions = new ArrayList<>();
+
+        /**
+         * Simple constructor.
+         *
+         * @param ancestorsAndSelf computes the identifiers of a phenotype and of all its ancestors, invoked once for
+         *            each distinct phenotype; may return an empty set for unknown phenotypes
+         */
+        public Builder(Function<String, Set<String>> ancestorsAndSelf)
+        {
+            this.ancestorsAndSelf = ancestorsAndSelf;
+        }
+
+        /**
+         * Adds a disease and its direct annotations.
+         *
+         * @param id the disease identifier
+         * @param name the disease name; diseases whose name starts with {@code *}, {@code +} or {@code ^} are counted,
+         *            but never matched
+         * @param symptoms the phenotypes directly annotated on the disease, may be {@code null}
+         * @param notSymptoms the phenotypes known to be absent in the disease, may be {@code null}
+         * @return this builder
+         */
+        public Builder addDisease(String id, String name, Collection<?> symptoms, Collection<?> notSymptoms)
+        {
+            int disease = this.diseases.size();
+            this.diseases.add(id);
+            if (StringUtils.isNotEmpty(name) && IGNORED_DISEASES.indexOf(name.charAt(0)) >= 0) {
+                this.ignored.set(disease);
+            }
+            BitSet direct = new BitSet();
+            this.symptoms.add(close(symptoms, direct));
+            this.notSymptoms.add(close(notSymptoms, null));
+            int abnormality = getIndex(PHENOTYPIC_ABNORMALITY);
+            this.suggestions.add(direct.stream()
+                .filter(phenotype -> Arrays.binarySearch(this.closures.get(this.phenotypes.get(phenotype)),
+                    abnormality) >= 0)
+                .toArray());
+            return this;
+        }
+
+        /**
+         * Builds the matrix from the diseases added so far.
+         *
+         * @return a new matrix
+         */
+        public DiseasePhenotypeMatrix build()
+        {
+            return new DiseasePhenotypeMatrix(this);
+        }
+
+        /**
+         * Computes the closure of a set of annotations.
+         *
+         * @param annotations the direct annotations, may be {@code null}
+         * @param direct if not {@code null}, collects the numbers of the direct annotations
+         * @return the sorted numbers of the annotations and their ancestors
+         */
+        private int[] close(Collection<?> annotations, BitSet direct)
+        {
+            if (annotations == null || annotations.isEmpty()) {
+                return new int[0];
+            }
+            BitSet result = new BitSet();
+            for (Object annotation : annotations) {
+                String id = String.valueOf(annotation);
+                int[] closure = getClosure(id);
+                for (int phenotype : closure) {
+                    result.set(phenotype);
+                }
+                if (direct != null) {
+                    direct.set(getIndex(id));
+                }
+            }
+            return result.stream().toArray();
+        }
+
+        private int[] getClosure(String id)
+        {
+            int[] result = this.closures.get(id);
+            if (result == null) {
+                Set<String> ids = this.ancestorsAndSelf.apply(id);
+                result = new int[ids.size() + 1];
+                int i = 0;
+                result[i++] = getIndex(id);
+                for (String ancestor : ids) {
+                    result[i++] = getIndex(ancestor);
+                }
+                result = Arrays.stream(result).sorted().distinct().toArray();
+                this.closures.put(id, result);
+            }
+            return result;
+        }
+
+        private int getIndex(String id)
+        {
+            Integer result = this.indexes.get(id);
+            if (result == null) {
+                result = this.phenotypes.size();
+                this.phenotypes.add(id);
+                this.indexes.put(id, result);
+            }
+            return result;
+        }
+    }
+}
@@ -17,13 +17,16 @@
  */
 package org.phenotips.diagnosis.differentialPhenotypes;
 
-import org.phenotips.obo2solr.maps.CounterMap;
-import org.phenotips.obo2solr.maps.SumMap;
+import org.phenotips.vocabulary.OntologyGraph;
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.script.service.ScriptService;
 
 import java.io.IOException;
@@ -34,31 +37,51 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
-import org.apache.solr.common.params.CommonParams;
-import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.slf4j.Logger;
 
 /**
  * Suggests phenotypes to investigate, based on an existing list of already selected positive and negative phenotypes.
+ * Suggestions are computed in memory, using a {@link DiseasePhenotypeMatrix} built from the OMIM index in a background
+ * thread. The matrix is rebuilt whenever the OMIM or the HPO vocabulary is reindexed; meanwhile, suggestions are still
+ * computed using the previous matrix.
  *
  * @version $Id$
  */
 @Component
 @Named("phenotypeSuggest")
 @Singleton
-public class PhenotypeSuggestService implements ScriptService
+public class PhenotypeSuggestService implements ScriptService, Initializable, Disposable
 {
+    /** How many of the best matching disorders are used for suggesting phenotypes. */
+    private static final int MATCHING_DISORDERS = 100;
+
+    /** How many documents to fetch at once when building the matrix. */
+    private static final int BUILD_BATCH_SIZE = 10000;
+
+    private static final String ID_FIELD = "id";
+
+    private static final String NAME_FIELD = "name";
+
+    private static final String SYMPTOM_FIELD = "actual_symptom";
+
+    private static final String NOT_SYMPTOM_FIELD = "actual_not_symptom";
+
     /** Provides access to the HPO ontology, for converting IDs into names and for getting all term ancestors. */
     @Inject
     @Named("hpo")
@@ -76,6 +99,36 @@ public class PhenotypeSuggestService implements ScriptService
     @Inject
     private Logger logger;
 
+    /** Builds the matrix in the background. */
+    private ExecutorService builder;
+
+    /** The current matrix, {@code null} until the first build succeeds. */
+    private volatile DiseasePhenotypeMatrix matrix;
+
+    /**
+     * The cores from which the last build was started, used for detecting when the vocabularies are reindexed; reset
+     * when the build fails, so that it is retried.
+     */
+    private SolrClient[] lastBuildSources;
+
+    /** The last build started. */
+    private Future<?> lastBuild;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.builder = Executors.newSingleThreadExecutor(
+            new BasicThreadFactory.Builder().namingPattern("phenotype-suggest-matrix-%d").daemon(true).build());
+        // Start building the matrix right away, so that the first request doesn't have to wait for it
+        this.builder.execute(this::refresh);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.builder.shutdownNow();
+    }
+
     /**
      * Compute a list of phenotypes to investigate, which maximize the probability of getting more accurate automatic
      * diagnosis suggestions.
@@ -88,89 +141,156 @@ public class PhenotypeSuggestService implements ScriptService
     public List<SuggestedPhenotype> getDifferentialPhenotypes(Collection<String> phenotypes,
         Collection<String> nphenotypes, int limit)
     {
-        QueryResponse response;
         List<SuggestedPhenotype> result = new LinkedList<>();
-        try {
-            response = this.solrManager.getSolrConnection(this.omim).query(prepareParams(phenotypes, nphenotypes));
-        } catch (SolrServerException | IOException ex) {
-            this.logger.warn("Failed to query OMIM index: {}", ex.getMessage());
+        DiseasePhenotypeMatrix current = getMatrix();
+        if (current == null) {
             return result;
         }
-        SolrDocumentList matchingDisorders = response.getResults();
-        Map<?, ?> explanations = response.getExplainMap();
-        SumMap<String> cummulativeScore = new SumMap<>();
-        CounterMap<String> matchCounter = new CounterMap<>();
-        Set<String> allAncestors = new HashSet<>();
+        Set<String> excluded = new HashSet<>(nphenotypes);
         for (String phenotype : phenotypes) {
-            allAncestors.addAll(this.getAllAncestorsAndSelfIDs(phenotype));
+            excluded.addAll(this.getAllAncestorsAndSelfIDs(phenotype));
         }
-        for (SolrDocument disorder : matchingDisorders) {
-            String omimId = (String) disorder.getFieldValue("id");
-            @SuppressWarnings("unchecked")
-            SimpleOrderedMap<Float> omimTerm = (SimpleOrderedMap<Float>) explanations.get(omimId);
-            float score = omimTerm.get("value");
-            for (Object hpoId : disorder.getFieldValues("actual_symptom")) {
-                if (allAncestors.contains(hpoId) || nphenotypes.contains(hpoId)
-                    || !this.getAllAncestorsAndSelfIDs((String) hpoId).contains("HP:0000118")) {
-                    continue;
-                }
-                cummulativeScore.addTo((String) hpoId, (double) score);
-                matchCounter.addTo((String) hpoId);
+        Map<String, Double> scores = current.getSuggestions(phenotypes, nphenotypes, excluded, MATCHING_DISORDERS);
+        // Only resolve the names of the returned suggestions
+        for (Map.Entry<String, Double> score : scores.entrySet()) {
+            if (result.size() >= limit) {
+                break;
             }
+            VocabularyTerm term = this.hpo.getTerm(score.getKey());
+            if (term == null) {
+                continue;
+            }
+            result.add(new SuggestedPhenotype(score.getKey(), (String) term.get(NAME_FIELD), score.getValue()));
         }
-        if (matchCounter.getMinValue() <= matchingDisorders.size() / 2) {
-            for (String hpoId : cummulativeScore.keySet()) {
-                VocabularyTerm term = this.hpo.getTerm(hpoId);
-                if (term == null) {
-                    continue;
-                }
-                result.add(new SuggestedPhenotype(hpoId, (String) term.get("name"),
-                    cummulativeScore.get(hpoId) / (matchCounter.get(hpoId) * matchCounter.get(hpoId))));
+        return result;
+    }
+
+    /**
+     * Get the HPO IDs of the specified phenotype and all its ancestors.
+     *
+     * @param id the HPO identifier to search for, in the {@code HP:1234567} format
+     * @return the full set of ancestors-or-self IDs, or an empty set if the requested ID was not found in the index
+     */
+    public Set<String> getAllAncestorsAndSelfIDs(final String id)
+    {
+        return getAncestorsAndSelf(this.hpo.getOntologyGraph(), id);
+    }
+
+    private Set<String> getAncestorsAndSelf(OntologyGraph graph, String id)
+    {
+        if (graph != null && graph.contains(id)) {
+            return graph.getAncestorsAndSelf(id);
+        }
+        VocabularyTerm crt = this.hpo.getTerm(id);
+        return crt != null ? crt.getAncestorsAndSelfIds() : Collections.emptySet();
+    }
+
+    /**
+     * Returns the current matrix, starting a rebuild if the vocabularies were reindexed since it was built. Only waits
+     * for the build to finish if there's no matrix yet.
+     *
+     * @return the current matrix, or {@code null} if it couldn't be built
+     */
+    private DiseasePhenotypeMatrix getMatrix()
+    {
+        Future<?> build = refresh();
+        DiseasePhenotypeMatrix current = this.matrix;
+        if (current == null && build != null) {
+            try {
+                build.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                // Already logged by the build
             }
-            Collections.sort(result);
+            current = this.matrix;
         }
-        return result.subList(0, Math.min(limit, result.size()));
+        return current;
     }
 
     /**
-     * Prepare the map of parameters that can be passed to a Solr query, in order to get a list of diseases matching the
-     * selected positive and negative phenotypes.
+     * Starts building a new matrix if the OMIM or the HPO core changed since the last build was started, or if the last
+     * build failed.
      *
-     * @param phenotypes the list of already selected phenotypes
-     * @param nphenotypes phenotypes that are not observed in the patient
-     * @return the computed Solr query parameters
+     * @return the last build started, possibly already finished, or {@code null} if no build could be started
      */
-    private SolrQuery prepareParams(Collection<String> phenotypes, Collection<String> nphenotypes)
+    private synchronized Future<?> refresh()
     {
-        SolrQuery result = new SolrQuery();
-        String q = "symptom:" + StringUtils.join(phenotypes, " symptom:");
-        if (!nphenotypes.isEmpty()) {
-            q += "  not_symptom:" + StringUtils.join(nphenotypes, " not_symptom:");
+        SolrClient[] sources = getSources();
+        if (this.lastBuildSources == null || this.lastBuildSources[0] != sources[0]
+            || this.lastBuildSources[1] != sources[1]) {
+            this.lastBuildSources = sources;
+            if (!this.builder.isShutdown()) {
+                this.lastBuild = this.builder.submit(() -> buildOrRetryLater(sources));
+            }
         }
-        q += " -nameSort:\\** -nameSort:\\+* -nameSort:\\^*";
-        result.set(CommonParams.Q, q.replaceAll("HP:", "HP\\\\:"));
-        result.set(CommonParams.ROWS, "100");
-        result.set(CommonParams.START, "0");
-        result.set(CommonParams.DEBUG_QUERY, Boolean.toString(true));
-        result.set(CommonParams.EXPLAIN_STRUCT, Boolean.toString(true));
+        return this.lastBuild;
+    }
 
-        return result;
+    private SolrClient[] getSources()
+    {
+        return new SolrClient[] { this.solrManager.getSolrConnection(this.omim),
+            this.solrManager.getSolrConnection(this.hpo) };
     }
 
     /**
-     * Get the HPO IDs of the specified phenotype and all its ancestors.
+     * Builds the matrix, forgetting the sources it was started from if the build fails, so that the next request
+     * starts a new build instead of keeping no matrix, or an outdated one, until the next reindexing.
      *
-     * @param id the HPO identifier to search for, in the {@code HP:1234567} format
-     * @return the full set of ancestors-or-self IDs, or an empty set if the requested ID was not found in the index
+     * @param sources the OMIM and HPO cores
      */
-    public Set<String> getAllAncestorsAndSelfIDs(final String id)
+    private void buildOrRetryLater(SolrClient[] sources)
     {
-        Set<String> parents = new HashSet<>();
-        VocabularyTerm crt = this.hpo.getTerm(id);
-        Set<VocabularyTerm> ancenstors = crt.getAncestorsAndSelf();
-        for (VocabularyTerm term : ancenstors) {
-            parents.add(term.getId());
+        boolean built = false;
+        try {
+            built = build(sources);
+        } finally {
+            if (!built) {
+                synchronized (this) {
+                    if (this.lastBuildSources == sources) {
+                        this.lastBuildSources = null;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean build(SolrClient[] sources)
+    {
+        if (sources[0] == null) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        OntologyGraph graph = this.hpo.getOntologyGraph();
+        DiseasePhenotypeMatrix.Builder matrixBuilder =
+            new DiseasePhenotypeMatrix.Builder(id -> getAncestorsAndSelf(graph, id));
+        SolrQuery query = new SolrQuery(SYMPTOM_FIELD + ":* OR " + NOT_SYMPTOM_FIELD + ":*");
+        query.setFields(ID_FIELD, NAME_FIELD, SYMPTOM_FIELD, NOT_SYMPTOM_FIELD);
+        query.setRows(BUILD_BATCH_SIZE);
+        query.setSort(ID_FIELD, SolrQuery.ORDER.asc);
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        try {
+            while (true) {
+                query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                QueryResponse response = sources[0].query(query);
+                for (SolrDocument doc : response.getResults()) {
+                    matrixBuilder.addDisease((String) doc.getFieldValue(ID_FIELD),
+                        (String) doc.getFieldValue(NAME_FIELD), doc.getFieldValues(SYMPTOM_FIELD),
+                        doc.getFieldValues(NOT_SYMPTOM_FIELD));
+                }
+                if (cursorMark.equals(response.getNextCursorMark())) {
+                    break;
+                }
+                cursorMark = response.getNextCursorMark();
+            }
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            this.logger.warn("Failed to build the disease phenotype matrix: {}", ex.getMessage());
+            return false;
         }
-        return parents;
+        DiseasePhenotypeMatrix result = matrixBuilder.build();
+        this.matrix = result;
+        this.logger.info("Built the disease phenotype matrix with {} diseases and {} phenotypes in {} ms",
+            result.getDiseaseCount(), result.getPhenotypeCount(), System.currentTimeMillis() - start);
+        return true;
     }
 }
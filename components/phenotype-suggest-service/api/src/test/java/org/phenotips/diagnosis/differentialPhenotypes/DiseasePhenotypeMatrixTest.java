@@ -0,0 +1,203 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.differentialPhenotypes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DiseasePhenotypeMatrix} class.
+ *
+ * @version $Id$
+ */
+public class DiseasePhenotypeMatrixTest
+{
+    private static final String ALL = "HP:0000001";
+
+    private static final String ABNORMALITY = DiseasePhenotypeMatrix.PHENOTYPIC_ABNORMALITY;
+
+    private static final String INHERITANCE = "HP:0000005";
+
+    private static final String A = "HP:0000100";
+
+    private static final String B = "HP:0000200";
+
+    private static final String C = "HP:0000300";
+
+    private static final Map<String, List<String>> PARENTS = new HashMap<>();
+
+    static {
+        PARENTS.put(ABNORMALITY, Arrays.asList(ALL));
+        PARENTS.put(INHERITANCE, Arrays.asList(ALL));
+        PARENTS.put(A, Arrays.asList(ABNORMALITY));
+        PARENTS.put(B, Arrays.asList(ABNORMALITY));
+        PARENTS.put(C, Arrays.asList(A));
+    }
+
+    private AtomicInteger ancestorRequests;
+
+    private Function<String, Set<String>> ancestorsAndSelf;
+
+    @Before
+    public void setUp()
+    {
+        this.ancestorRequests = new AtomicInteger();
+        this.ancestorsAndSelf = id -> {
+            this.ancestorRequests.incrementAndGet();
+            Set<String> result = new HashSet<>();
+            collect(id, result);
+            return result;
+        };
+    }
+
+    @Test
+    public void diseasesWithFewerAnnotationsMatchBetter()
+    {
+        DiseasePhenotypeMatrix matrix = buildMatrix();
+        Map<String, Double> matches = matrix.getMatchingDiseases(Arrays.asList(A), Collections.emptyList(), 10);
+        Assert.assertEquals(Arrays.asList("MIM:2", "MIM:1"), Arrays.asList(matches.keySet().toArray()));
+        Assert.assertTrue(matches.get("MIM:2") > matches.get("MIM:1"));
+    }
+
+    @Test
+    public void matchingIsLimited()
+    {
+        DiseasePhenotypeMatrix matrix = buildMatrix();
+        Map<String, Double> matches = matrix.getMatchingDiseases(Arrays.asList(A), Collections.emptyList(), 1);
+        Assert.assertEquals(Collections.singleton("MIM:2"), matches.keySet());
+    }
+
+    @Test
+    public void rareAnnotationsWeighMore()
+    {
+        DiseasePhenotypeMatrix matrix = buildMatrix();
+        // A is annotated on three diseases, B only on two, and both diseases have the same number of annotations
+        Map<String, Double> byA = matrix.getMatchingDiseases(Arrays.asList(A), Collections.emptyList(), 10);
+        Map<String, Double> byB = matrix.getMatchingDiseases(Arrays.asList(B), Collections.emptyList(), 10);
+        Assert.assertTrue(byB.get("MIM:2") > byA.get("MIM:2"));
+    }
+
+    @Test
+    public void negativeAnnotationsAreMatchedByAbsentPhenotypes()
+    {
+        DiseasePhenotypeMatrix matrix = new DiseasePhenotypeMatrix.Builder(this.ancestorsAndSelf)
+            .addDisease("MIM:1", "Disease one", Arrays.asList(A), Arrays.asList(B))
+            .addDisease("MIM:2", "Disease two", Arrays.asList(A), null)
+            .build();
+        Map<String, Double> matches = matrix.getMatchingDiseases(Collections.emptyList(), Arrays.asList(B), 10);
+        Assert.assertEquals(Collections.singleton("MIM:1"), matches.keySet());
+    }
+
+    @Test
+    public void ignoredDiseasesAreNotMatched()
+    {
+        DiseasePhenotypeMatrix matrix = buildMatrix();
+        Map<String, Double> matches = matrix.getMatchingDiseases(Arrays.asList(C), Collections.emptyList(), 10);
+        Assert.assertEquals(Collections.singleton("MIM:1"), matches.keySet());
+    }
+
+    @Test
+    public void suggestionsExcludeKnownAndNonAbnormalPhenotypes()
+    {
+        DiseasePhenotypeMatrix matrix = buildMatrix();
+        Map<String, Double> matches = matrix.getMatchingDiseases(Arrays.asList(A), Collections.emptyList(), 2);
+        Map<String, Double> suggestions = matrix.getSuggestions(Arrays.asList(A), Collections.emptyList(),
+            this.ancestorsAndSelf.apply(A), 2);
+        Assert.assertEquals(Arrays.asList(B, C), Arrays.asList(suggestions.keySet().toArray()));
+        Assert.assertEquals(matches.get("MIM:2"), suggestions.get(B), 1.0E-9);
+        Assert.assertEquals(matches.get("MIM:1"), suggestions.get(C), 1.0E-9);
+    }
+
+    @Test
+    public void sharedPhenotypesAreScoredByTheirFrequency()
+    {
+        DiseasePhenotypeMatrix matrix = new DiseasePhenotypeMatrix.Builder(this.ancestorsAndSelf)
+            .addDisease("MIM:1", "Disease one", Arrays.asList(A, B), null)
+            .addDisease("MIM:2", "Disease two", Arrays.asList(A, B), null)
+            .addDisease("MIM:3", "Disease three", Arrays.asList(A, C), null)
+            .addDisease("MIM:4", "Disease four", Arrays.asList(A, C), null)
+            .addDisease("MIM:5", "Disease five", Arrays.asList(A), null)
+            .build();
+        Map<String, Double> matches = matrix.getMatchingDiseases(Arrays.asList(A), Collections.emptyList(), 10);
+        Map<String, Double> suggestions = matrix.getSuggestions(Arrays.asList(A), Collections.emptyList(),
+            this.ancestorsAndSelf.apply(A), 10);
+        Assert.assertEquals((matches.get("MIM:1") + matches.get("MIM:2")) / 4, suggestions.get(B), 1.0E-9);
+        Assert.assertEquals((matches.get("MIM:3") + matches.get("MIM:4")) / 4, suggestions.get(C), 1.0E-9);
+    }
+
+    @Test
+    public void noSuggestionsWhenAllPhenotypesAreCommon()
+    {
+        DiseasePhenotypeMatrix matrix = new DiseasePhenotypeMatrix.Builder(this.ancestorsAndSelf)
+            .addDisease("MIM:1", "Disease one", Arrays.asList(A, B), null)
+            .addDisease("MIM:2", "Disease two", Arrays.asList(A, B), null)
+            .build();
+        Assert.assertTrue(matrix.getSuggestions(Arrays.asList(A), Collections.emptyList(),
+            this.ancestorsAndSelf.apply(A), 10).isEmpty());
+    }
+
+    @Test
+    public void unknownPhenotypesDontMatchAnything()
+    {
+        DiseasePhenotypeMatrix matrix = buildMatrix();
+        Assert.assertTrue(matrix.getMatchingDiseases(Arrays.asList("HP:9999999"), Arrays.asList("HP:9999999"), 10)
+            .isEmpty());
+        Assert.assertTrue(matrix.getSuggestions(Arrays.asList("HP:9999999"), Collections.emptyList(),
+            Collections.emptySet(), 10).isEmpty());
+    }
+
+    @Test
+    public void ancestorsAreComputedOncePerPhenotype()
+    {
+        DiseasePhenotypeMatrix matrix = buildMatrix();
+        // A, B, C and the inheritance mode
+        Assert.assertEquals(4, this.ancestorRequests.get());
+        Assert.assertEquals(4, matrix.getDiseaseCount());
+        Assert.assertEquals(6, matrix.getPhenotypeCount());
+    }
+
+    private DiseasePhenotypeMatrix buildMatrix()
+    {
+        return new DiseasePhenotypeMatrix.Builder(this.ancestorsAndSelf)
+            .addDisease("MIM:1", "Disease one", Arrays.asList(A, C, INHERITANCE), null)
+            .addDisease("MIM:2", "Disease two", Arrays.asList(A, B), null)
+            .addDisease("MIM:3", "Disease three", Arrays.asList(B), null)
+            .addDisease("MIM:4", "*Obsolete disease", Arrays.asList(A, C), null)
+            .build();
+    }
+
+    private static void collect(String id, Set<String> result)
+    {
+        if (result.add(id)) {
+            for (String parent : PARENTS.getOrDefault(id, Collections.emptyList())) {
+                collect(parent, result);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.differentialPhenotypes;
+
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Collections;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PhenotypeSuggestService} script service.
+ *
+ * @version $Id$
+ */
+public class PhenotypeSuggestServiceTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<ScriptService> mocker =
+        new MockitoComponentMockingRule<ScriptService>(PhenotypeSuggestService.class);
+
+    @Mock
+    private SolrClient omimCore;
+
+    @Mock
+    private SolrClient hpoCore;
+
+    @Mock
+    private QueryResponse response;
+
+    private PhenotypeSuggestService service;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        this.service = (PhenotypeSuggestService) this.mocker.getComponentUnderTest();
+
+        Vocabulary omim = this.mocker.getInstance(Vocabulary.class, "omim");
+        Vocabulary hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
+        SolrVocabularyResourceManager solrManager = this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        when(solrManager.getSolrConnection(omim)).thenReturn(this.omimCore);
+        when(solrManager.getSolrConnection(hpo)).thenReturn(this.hpoCore);
+
+        when(this.response.getResults()).thenReturn(new SolrDocumentList());
+        when(this.response.getNextCursorMark()).thenReturn(CursorMarkParams.CURSOR_MARK_START);
+    }
+
+    @Test
+    public void failedBuildIsRetried() throws Exception
+    {
+        when(this.omimCore.query(any(SolrQuery.class))).thenThrow(new SolrServerException("Core not ready"))
+            .thenReturn(this.response);
+
+        Assert.assertTrue(this.service.getDifferentialPhenotypes(Collections.singleton("HP:0000118"),
+            Collections.<String>emptySet(), 10).isEmpty());
+        this.service.getDifferentialPhenotypes(Collections.singleton("HP:0000118"), Collections.<String>emptySet(),
+            10);
+        this.service.getDifferentialPhenotypes(Collections.singleton("HP:0000118"), Collections.<String>emptySet(),
+            10);
+
+        // One failed build, retried once, and not rebuilt afterwards since the cores didn't change
+        verify(this.omimCore, times(2)).query(any(SolrQuery.class));
+    }
+}
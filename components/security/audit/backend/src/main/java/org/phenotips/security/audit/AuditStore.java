@@ -23,7 +23,9 @@
 import org.xwiki.users.User;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -172,4 +174,18 @@ List<AuditEvent> getEvents(@Nullable AuditEvent eventTemplate, @Nullable Calenda
      * @return total number of events satisfying template and time criteria, or {@code -1} for internal errors
      */
     long countEvents(@Nullable AuditEvent eventTemplate, @Nullable Calendar fromTime, @Nullable Calendar toTime);
+
+    /**
+     * Reports the state of the store, for example how many events are waiting to be written, and how long writing
+     * takes.
+     *
+     * @return named metrics, may be empty if the store doesn't collect any
+     * @since 1.5
+     */
+    @Unstable
+    @Nonnull
+    default Map<String, Number> getStatistics()
+    {
+        return Collections.emptyMap();
+    }
 }
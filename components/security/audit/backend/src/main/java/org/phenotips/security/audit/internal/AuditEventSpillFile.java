@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+/**
+ * Keeps on disk the audit events that could not be written to the database, one {@link AuditEvent#toJSON() JSON
+ * serialized} event per line, so that they can be written later. While being replayed, the events are moved to a
+ * separate file, which is only removed once all its events have been written or kept again for later; a replay
+ * interrupted by a crash is resumed from that file, so events may be written twice, but they are never lost.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class AuditEventSpillFile
+{
+    private final File file;
+
+    private final File replayFile;
+
+    private final Function<JSONObject, AuditEvent> parser;
+
+    private final Logger logger;
+
+    /**
+     * Simple constructor.
+     *
+     * @param file where to keep the events, {@code null} if events cannot be kept on disk
+     * @param parser reads back an event from its JSON serialization
+     * @param logger where to log failures
+     */
+    public AuditEventSpillFile(File file, Function<JSONObject, AuditEvent> parser, Logger logger)
+    {
+        this.file = file;
+        this.replayFile = file == null ? null : new File(file.getPath() + ".replay");
+        this.parser = parser;
+        this.logger = logger;
+    }
+
+    /**
+     * Appends events to the file.
+     *
+     * @param events the events to keep
+     * @return {@code true} if the events were saved, {@code false} if they could not be written to the disk
+     */
+    public boolean append(Collection<AuditEvent> events)
+    {
+        List<String> lines = new ArrayList<>(events.size());
+        for (AuditEvent event : events) {
+            lines.add(event.toJSON().toString());
+        }
+        return appendLines(lines);
+    }
+
+    /**
+     * Checks if there are events waiting to be replayed.
+     *
+     * @return {@code true} if the file holds events
+     */
+    public boolean hasPending()
+    {
+        return this.file != null && (this.file.exists() || this.replayFile.exists());
+    }
+
+    /**
+     * Gets the size of the files holding events waiting to be replayed.
+     *
+     * @return a size in bytes, {@code 0} if no events are waiting
+     */
+    public long getSize()
+    {
+        return this.file == null ? 0 : this.file.length() + this.replayFile.length();
+    }
+
+    /**
+     * Passes the events kept on disk, in batches, to a writer. If the writer fails, the events of the failed batch and
+     * all the events not yet replayed are kept for a future replay. Must not be called concurrently.
+     *
+     * @param batchSize the maximum number of events to pass to the writer at once
+     * @param writer writes a batch of events, and returns {@code true} if it succeeded
+     * @return the number of events successfully replayed
+     */
+    public long replay(int batchSize, Predicate<List<AuditEvent>> writer)
+    {
+        if (!claim()) {
+            return 0;
+        }
+        long replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(this.replayFile.toPath(), StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(batchSize);
+            String line = reader.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = reader.readLine();
+                if (lines.size() >= batchSize || line == null) {
+                    List<AuditEvent> batch = parse(lines);
+                    if (!batch.isEmpty() && !writer.test(batch)) {
+                        keepRemaining(lines, line, reader);
+                        break;
+                    }
+                    replayed += batch.size();
+                    lines.clear();
+                }
+            }
+        } catch (IOException ex) {
+            this.logger.error("Failed to read the audit events kept in [{}]: {}", this.replayFile, ex.getMessage());
+            return replayed;
+        }
+        if (!this.replayFile.delete()) {
+            this.logger.warn("Failed to remove the replayed audit events file [{}]", this.replayFile);
+        }
+        return replayed;
+    }
+
+    private synchronized boolean claim()
+    {
+        if (this.file == null) {
+            return false;
+        }
+        if (this.replayFile.exists()) {
+            // Left behind by an interrupted replay
+            return true;
+        }
+        if (!this.file.exists()) {
+            return false;
+        }
+        try {
+            Files.move(this.file.toPath(), this.replayFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException ex) {
+            this.logger.error("Failed to prepare the audit events kept in [{}] for writing: {}", this.file,
+                ex.getMessage());
+            return false;
+        }
+    }
+
+    private void keepRemaining(List<String> lines, String nextLine, BufferedReader reader) throws IOException
+    {
+        List<String> remaining = new ArrayList<>(lines);
+        String line = nextLine;
+        while (line != null) {
+            remaining.add(line);
+            line = reader.readLine();
+        }
+        if (!appendLines(remaining)) {
+            throw new IOException("Failed to keep the audit events that could not be replayed");
+        }
+    }
+
+    private synchronized boolean appendLines(List<String> lines)
+    {
+        if (this.file == null) {
+            return false;
+        }
+        try {
+            Files.createDirectories(this.file.getParentFile().toPath());
+            Files.write(this.file.toPath(), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+            return true;
+        } catch (IOException ex) {
+            this.logger.error("Failed to keep {} audit events in [{}]: {}", lines.size(), this.file, ex.getMessage());
+            return false;
+        }
+    }
+
+    private List<AuditEvent> parse(List<String> lines)
+    {
+        List<AuditEvent> result = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            try {
+                result.add(this.parser.apply(new JSONObject(line)));
+            } catch (RuntimeException ex) {
+                this.logger.warn("Skipped invalid audit event [{}]: {}", line, ex.getMessage());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+
+/**
+ * Writes audit events to the database from a background thread, so that requests don't wait for the database. Events
+ * are queued in a bounded in-memory queue, and written in batches of up to {@code batchSize} events; a batch is
+ * written as soon as it is full, or when its first event has been waiting for {@code flushInterval} milliseconds. When
+ * the queue is full, the {@link OverflowPolicy} decides what happens with new events. Events that cannot be written,
+ * because the database is not available or because the writer is shutting down, are kept in an
+ * {@link AuditEventSpillFile}, and written later.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class AuditEventWriter
+{
+    /** What to do with new events when the queue is full. */
+    public enum OverflowPolicy
+    {
+        /** Wait for the queue to have space, for at most {@link AuditEventWriter#MAX_BLOCK_SECONDS}, then spill. */
+        BLOCK,
+        /** Keep the event on disk, it will be written later. */
+        SPILL,
+        /** Discard the event. */
+        DISCARD;
+
+        /**
+         * Parses a configured policy.
+         *
+         * @param name the name of the policy, case insensitive
+         * @param defaultPolicy the policy to use if the name is empty or unknown
+         * @return the named policy, or the default
+         */
+        public static OverflowPolicy fromString(String name, OverflowPolicy defaultPolicy)
+        {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return defaultPolicy;
+        }
+    }
+
+    /** The longest time a request waits for space in the queue with the {@link OverflowPolicy#BLOCK} policy. */
+    public static final long MAX_BLOCK_SECONDS = 10;
+
+    /** How long to wait for the queued events to be written when shutting down. */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    /** How long the idle writer waits for events before checking again for events kept on disk. */
+    private static final long IDLE_POLL_MILLIS = 1000;
+
+    /** How long to wait before trying again to replay events kept on disk, after a failed attempt. */
+    private static final long REPLAY_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Queued by {@link #flush()} and {@link #shutdown()} to end the current batch without waiting. If the queue is
+     * full, the marker is not needed, since the batch usually fills up right away.
+     */
+    private static final AuditEvent WAKE_UP = new AuditEvent();
+
+    private final Consumer<List<AuditEvent>> store;
+
+    private final AuditEventSpillFile spill;
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final long flushInterval;
+
+    private final OverflowPolicy policy;
+
+    private final Logger logger;
+
+    private final BlockingQueue<AuditEvent> queue;
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    private long nextReplay;
+
+    /** Used for waiting until events are processed. */
+    private final Object progress = new Object();
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private final AtomicLong replayed = new AtomicLong();
+
+    private final AtomicLong discarded = new AtomicLong();
+
+    private final AtomicLong lost = new AtomicLong();
+
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+
+    private volatile long lastWriteNanos;
+
+    private volatile long maxWriteNanos;
+
+    private volatile int lastBatchSize;
+
+    /**
+     * Creates a new writer and starts its background thread. Events kept on disk by a previous writer are replayed
+     * first.
+     *
+     * @param store writes a batch of events to the database in a single transaction, throwing an exception if it fails
+     * @param spill where to keep the events that cannot be written to the database
+     * @param capacity how many events may wait in memory to be written
+     * @param batchSize the maximum number of events to write at once
+     * @param flushInterval the longest time, in milliseconds, that an event waits for its batch to fill up
+     * @param policy what to do with new events when the queue is full
+     * @param logger where to log failures
+     */
+    public AuditEventWriter(Consumer<List<AuditEvent>> store, AuditEventSpillFile spill, int capacity, int batchSize,
+        long flushInterval, OverflowPolicy policy, Logger logger)
+    {
+        this.store = store;
+        this.spill = spill;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(0, flushInterval);
+        this.policy = policy;
+        this.logger = logger;
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+        this.writer = new BasicThreadFactory.Builder().namingPattern("audit-writer-%d").daemon(true).build()
+            .newThread(this::run);
+        this.writer.start();
+    }
+
+    /**
+     * Queues an event to be written. If the queue is full, the {@link OverflowPolicy} is applied.
+     *
+     * @param event the event to write
+     */
+    public void write(AuditEvent event)
+    {
+        this.accepted.incrementAndGet();
+        if (!this.running) {
+            keep(Collections.singletonList(event));
+            return;
+        }
+        if (this.queue.offer(event)) {
+            if (!this.running) {
+                // The writer may have stopped before seeing this event
+                keepQueued();
+            }
+            return;
+        }
+        switch (this.policy) {
+            case BLOCK:
+                block(event);
+                break;
+            case DISCARD:
+                this.discarded.incrementAndGet();
+                this.logger.debug("Audit queue full, discarded event [{}]", event);
+                processed(1);
+                break;
+            default:
+                keep(Collections.singletonList(event));
+        }
+    }
+
+    /**
+     * Waits until all the events queued so far have been written to the database, or kept on disk.
+     */
+    public void flush()
+    {
+        long target = this.accepted.get();
+        this.queue.offer(WAKE_UP);
+        synchronized (this.progress) {
+            while (this.processed.get() < target) {
+                if (!this.writer.isAlive()) {
+                    keepQueued();
+                }
+                try {
+                    this.progress.wait(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the queued events and stops the background thread. Events that cannot be written before the shutdown
+     * timeout, and events received afterwards, are kept on disk.
+     */
+    public void shutdown()
+    {
+        this.running = false;
+        this.queue.offer(WAKE_UP);
+        try {
+            this.writer.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        keepQueued();
+    }
+
+    /**
+     * Reports the state of the writer.
+     *
+     * @return the current {@code queueDepth} and the {@code queueCapacity}, the number of events {@code accepted} and
+     *         {@code written}, the number of {@code batches} written and of {@code failedBatches}, the number of
+     *         events {@code spilled} to disk, {@code replayed} from disk, {@code discarded} because the queue was full,
+     *         and {@code lost} because they could not be written to the disk either, the {@code spillFileBytes} size
+     *         of the events waiting on disk, the {@code lastBatchSize}, and the {@code lastWriteMillis},
+     *         {@code maxWriteMillis} and {@code averageWriteMillis} time taken to write a batch
+     */
+    public Map<String, Number> getStatistics()
+    {
+        Map<String, Number> result = new LinkedHashMap<>();
+        result.put("queueDepth", this.queue.size());
+        result.put("queueCapacity", this.capacity);
+        result.put("accepted", this.accepted.get());
+        result.put("written", this.written.get());
+        result.put("batches", this.batches.get());
+        result.put("failedBatches", this.failedBatches.get());
+        result.put("spilled", this.spilled.get());
+        result.put("replayed", this.replayed.get());
+        result.put("discarded", this.discarded.get());
+        result.put("lost", this.lost.get());
+        result.put("spillFileBytes", this.spill.getSize());
+        result.put("lastBatchSize", this.lastBatchSize);
+        result.put("lastWriteMillis", TimeUnit.NANOSECONDS.toMillis(this.lastWriteNanos));
+        result.put("maxWriteMillis", TimeUnit.NANOSECONDS.toMillis(this.maxWriteNanos));
+        long count = this.batches.get();
+        result.put("averageWriteMillis", count > 0 ? TimeUnit.NANOSECONDS.toMillis(this.totalWriteNanos.get() / count)
+            : 0L);
+        return result;
+    }
+
+    private void run()
+    {
+        while (true) {
+            replayIfNeeded();
+            List<AuditEvent> batch = nextBatch();
+            if (batch == null) {
+                return;
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            if (write(batch)) {
+                processed(batch.size());
+            } else {
+                keep(batch);
+            }
+        }
+    }
+
+    private List<AuditEvent> nextBatch()
+    {
+        List<AuditEvent> batch = new ArrayList<>(this.batchSize);
+        AuditEvent event = poll(this.running ? IDLE_POLL_MILLIS : 0);
+        if (event == null) {
+            return this.running ? batch : null;
+        }
+        long deadline = System.currentTimeMillis() + this.flushInterval;
+        while (event != null && event != WAKE_UP) {
+            batch.add(event);
+            if (batch.size() >= this.batchSize) {
+                break;
+            }
+            event = poll(this.running ? deadline - System.currentTimeMillis() : 0);
+        }
+        return batch;
+    }
+
+    private AuditEvent poll(long timeout)
+    {
+        try {
+            return timeout > 0 ? this.queue.poll(timeout, TimeUnit.MILLISECONDS) : this.queue.poll();
+        } catch (InterruptedException ex) {
+            // Nobody should interrupt the writer, but if it happens, write what's left and stop
+            this.running = false;
+            return this.queue.poll();
+        }
+    }
+
+    /**
+     * Writes a batch of events to the database.
+     *
+     * @param batch the events to write
+     * @return {@code true} if the events were written to the database
+     */
+    private boolean write(List<AuditEvent> batch)
+    {
+        long start = System.nanoTime();
+        try {
+            this.store.accept(batch);
+        } catch (RuntimeException ex) {
+            this.failedBatches.incrementAndGet();
+            // The database is not available, don't try to replay the events kept on disk right away
+            this.nextReplay = System.currentTimeMillis() + REPLAY_RETRY_MILLIS;
+            this.logger.warn("Failed to write {} audit events, keeping them on disk: {}", batch.size(),
+                ex.getMessage());
+            return false;
+        }
+        long duration = System.nanoTime() - start;
+        this.written.addAndGet(batch.size());
+        this.batches.incrementAndGet();
+        this.totalWriteNanos.addAndGet(duration);
+        this.lastWriteNanos = duration;
+        this.maxWriteNanos = Math.max(this.maxWriteNanos, duration);
+        this.lastBatchSize = batch.size();
+        return true;
+    }
+
+    private void replayIfNeeded()
+    {
+        if (!this.running || System.currentTimeMillis() < this.nextReplay || !this.spill.hasPending()) {
+            return;
+        }
+        long count = this.spill.replay(this.batchSize, this::write);
+        this.replayed.addAndGet(count);
+        if (this.spill.hasPending()) {
+            this.nextReplay = System.currentTimeMillis() + REPLAY_RETRY_MILLIS;
+        } else if (count > 0) {
+            this.logger.info("Wrote {} audit events previously kept on disk", count);
+        }
+    }
+
+    private void block(AuditEvent event)
+    {
+        try {
+            if (this.queue.offer(event, MAX_BLOCK_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        keep(Collections.singletonList(event));
+    }
+
+    private void keepQueued()
+    {
+        List<AuditEvent> remaining = new ArrayList<>();
+        this.queue.drainTo(remaining);
+        remaining.removeIf(event -> event == WAKE_UP);
+        if (!remaining.isEmpty()) {
+            keep(remaining);
+        }
+    }
+
+    private void keep(List<AuditEvent> events)
+    {
+        if (this.spill.append(events)) {
+            this.spilled.addAndGet(events.size());
+        } else {
+            this.lost.addAndGet(events.size());
+        }
+        processed(events.size());
+    }
+
+    private void processed(long count)
+    {
+        this.processed.addAndGet(count);
+        synchronized (this.progress) {
+            this.progress.notifyAll();
+        }
+    }
+}
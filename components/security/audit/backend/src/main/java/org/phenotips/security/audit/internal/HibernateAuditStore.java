@@ -21,17 +21,32 @@
 import org.phenotips.security.audit.AuditStore;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
 
+import java.io.File;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
+
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -40,22 +55,45 @@
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
 
 /**
- * Implementation of {@link AuditStore} using Hibernate for persistence.
+ * Implementation of {@link AuditStore} using Hibernate for persistence. Events are not written by the requests that
+ * generate them, but by an {@link AuditEventWriter} in the background, in batches. The writer is configured in
+ * {@code xwiki.properties}:
+ * <ul>
+ * <li>{@code phenotips.audit.writer.queueSize}: how many events may wait in memory to be written, 10000 by default</li>
+ * <li>{@code phenotips.audit.writer.batchSize}: how many events to write in one transaction, 100 by default</li>
+ * <li>{@code phenotips.audit.writer.flushInterval}: the longest time, in milliseconds, that an event waits for other
+ * events to be written together, 1000 by default</li>
+ * <li>{@code phenotips.audit.writer.overflowPolicy}: what to do with new events when the queue is full, {@code spill}
+ * to disk (the default), {@code block} the request until the queue has space, or {@code discard} the event</li>
+ * </ul>
+ * Events that cannot be written to the database are kept in {@code audit/pending-events.jsonl} in the permanent
+ * directory, and written later.
  *
  * @version $Id$
  * @since 1.4
  */
 @Component
 @Singleton
-public class HibernateAuditStore implements AuditStore
+public class HibernateAuditStore implements AuditStore, Initializable, Disposable
 {
     private static final String TIME_FIELD_NAME = "time";
 
+    private static final String CONFIGURATION_PREFIX = "phenotips.audit.writer.";
+
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private static final String SPILL_FILE = "audit/pending-events.jsonl";
+
     private static final List<String> ACTION_IGNORED = Arrays.asList("tex", "temp", "dot", "svg", "skin", "jsx", "ssx",
         "charting", "lock", "imagecaptcha", "unknown");
 
@@ -63,28 +101,112 @@ public class HibernateAuditStore implements AuditStore
     @Inject
     private HibernateSessionFactory sessionFactory;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Used for finding the permanent directory, where events that cannot be written yet are kept. */
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private UserManager users;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
     @Inject
     private Logger logger;
 
+    private AuditEventWriter writer;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        File directory = this.environment.getPermanentDirectory();
+        File spillFile = directory == null ? null : new File(directory, SPILL_FILE);
+        AuditEventSpillFile spill = new AuditEventSpillFile(spillFile, this::parse, this.logger);
+        String policy = this.configuration.getProperty(CONFIGURATION_PREFIX + "overflowPolicy", String.class);
+        this.writer = new AuditEventWriter(this::save, spill,
+            getConfiguredNumber("queueSize", DEFAULT_QUEUE_SIZE),
+            getConfiguredNumber("batchSize", DEFAULT_BATCH_SIZE),
+            getConfiguredNumber("flushInterval", DEFAULT_FLUSH_INTERVAL),
+            AuditEventWriter.OverflowPolicy.fromString(policy, AuditEventWriter.OverflowPolicy.SPILL), this.logger);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.writer.shutdown();
+    }
+
     @Override
     public void store(AuditEvent event)
     {
         if (ACTION_IGNORED.contains(event.getAction())) {
             return;
         }
+        this.writer.write(event);
+    }
+
+    /**
+     * Waits until all the events stored so far have been written to the database, or kept on disk if the database
+     * isn't available.
+     */
+    public void flush()
+    {
+        this.writer.flush();
+    }
+
+    @Override
+    public Map<String, Number> getStatistics()
+    {
+        return this.writer.getStatistics();
+    }
+
+    /**
+     * Saves a batch of events in a single transaction.
+     *
+     * @param events the events to save
+     * @throws HibernateException if saving the events fails, in which case none of them is saved
+     */
+    private void save(List<AuditEvent> events)
+    {
         Session session = this.sessionFactory.getSessionFactory().openSession();
+        Transaction t = null;
         try {
-            Transaction t = session.beginTransaction();
-            t.begin();
-            session.save(event);
+            t = session.beginTransaction();
+            for (AuditEvent event : events) {
+                session.save(event);
+            }
             t.commit();
         } catch (HibernateException ex) {
-            this.logger.error("Failed to save audit event [{}]: {}", event, ex.getMessage(), ex);
+            if (t != null) {
+                t.rollback();
+            }
+            throw ex;
         } finally {
             session.close();
         }
     }
 
+    private AuditEvent parse(JSONObject json)
+    {
+        String user = json.optString("user", null);
+        String entity = json.optString("entity", null);
+        Calendar time = Calendar.getInstance(Locale.ROOT);
+        time.setTimeInMillis(Instant.parse(json.getString(TIME_FIELD_NAME)).toEpochMilli());
+        return new AuditEvent(user == null ? null : this.users.getUser(user), json.optString("ip", null),
+            json.getString("action"), json.optString("extra", null),
+            StringUtils.isEmpty(entity) ? null : this.resolver.resolve(entity), time);
+    }
+
+    private int getConfiguredNumber(String name, int defaultValue)
+    {
+        Integer value = this.configuration.getProperty(CONFIGURATION_PREFIX + name, Integer.class);
+        return value == null ? defaultValue : value;
+    }
+
     @Override
     public List<AuditEvent> getEventsForEntity(DocumentReference entity)
     {
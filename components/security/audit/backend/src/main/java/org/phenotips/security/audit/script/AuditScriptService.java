@@ -37,6 +37,7 @@
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -223,4 +224,21 @@ public long countEvents(String action, String userId, String ip, String entityId
         }
         return -1;
     }
+
+    /**
+     * Reports the state of the audit store, for example how many events are waiting to be written, and how long
+     * writing takes. Requires admin rights.
+     *
+     * @return named metrics, empty if the current user doesn't have admin rights
+     * @since 1.5
+     */
+    @Nonnull
+    public Map<String, Number> getStatistics()
+    {
+        if (this.auth.hasAccess(this.users.getCurrentUser(), Right.ADMIN,
+            this.resolver.resolve(Constants.XWIKI_SPACE_REFERENCE))) {
+            return this.store.getStatistics();
+        }
+        return Collections.emptyMap();
+    }
 }
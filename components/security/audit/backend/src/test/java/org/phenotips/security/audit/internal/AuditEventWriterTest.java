@@ -0,0 +1,335 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+import org.phenotips.security.audit.internal.AuditEventWriter.OverflowPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+/**
+ * Tests for the {@link AuditEventWriter} and {@link AuditEventSpillFile}.
+ *
+ * @version $Id$
+ */
+public class AuditEventWriterTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Logger logger = Mockito.mock(Logger.class);
+
+    private final List<List<AuditEvent>> written = new CopyOnWriteArrayList<>();
+
+    private File file;
+
+    private AuditEventWriter writer;
+
+    @Before
+    public void setup()
+    {
+        this.file = new File(this.folder.getRoot(), "audit/pending-events.jsonl");
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (this.writer != null) {
+            this.writer.shutdown();
+        }
+    }
+
+    @Test
+    public void eventsAreWrittenInBatches()
+    {
+        this.writer = newWriter(this.written::add, 10, 2, 10000, OverflowPolicy.SPILL);
+        for (int i = 0; i < 5; ++i) {
+            this.writer.write(event("view" + i));
+        }
+        this.writer.flush();
+        Assert.assertEquals(Arrays.asList(2, 2, 1),
+            this.written.stream().map(List::size).collect(Collectors.toList()));
+        Assert.assertEquals("view4", this.written.get(2).get(0).getAction());
+        Map<String, Number> statistics = this.writer.getStatistics();
+        Assert.assertEquals(5L, statistics.get("accepted"));
+        Assert.assertEquals(5L, statistics.get("written"));
+        Assert.assertEquals(3L, statistics.get("batches"));
+        Assert.assertEquals(1, statistics.get("lastBatchSize"));
+        Assert.assertEquals(0, statistics.get("queueDepth"));
+        Assert.assertEquals(10, statistics.get("queueCapacity"));
+        Assert.assertTrue(statistics.get("maxWriteMillis").longValue() >= 0);
+        Assert.assertTrue(statistics.get("averageWriteMillis").longValue() >= 0);
+    }
+
+    @Test
+    public void partialBatchIsWrittenAfterFlushInterval()
+    {
+        this.writer = newWriter(this.written::add, 10, 100, 50, OverflowPolicy.SPILL);
+        this.writer.write(event("view"));
+        await(() -> !this.written.isEmpty());
+        Assert.assertEquals(1, this.written.get(0).size());
+    }
+
+    @Test
+    public void failedBatchesAreKeptOnDisk() throws IOException
+    {
+        this.writer = newWriter(events -> {
+            throw new IllegalStateException("Database not available");
+        }, 10, 10, 10000, OverflowPolicy.SPILL);
+        this.writer.write(event("view"));
+        this.writer.write(event("edit"));
+        this.writer.flush();
+        Assert.assertEquals(Arrays.asList("view", "edit"), readKeptActions());
+        Map<String, Number> statistics = this.writer.getStatistics();
+        Assert.assertEquals(1L, statistics.get("failedBatches"));
+        Assert.assertEquals(2L, statistics.get("spilled"));
+        Assert.assertEquals(0L, statistics.get("written"));
+        Assert.assertTrue(statistics.get("spillFileBytes").longValue() > 0);
+    }
+
+    @Test
+    public void eventsKeptOnDiskAreReplayedOnStartup()
+    {
+        Assert.assertTrue(newSpillFile().append(Arrays.asList(event("view"), event("edit"), event("export"))));
+        this.writer = newWriter(this.written::add, 10, 2, 10000, OverflowPolicy.SPILL);
+        await(() -> this.writer.getStatistics().get("replayed").longValue() == 3);
+        Assert.assertEquals(Arrays.asList(2, 1), this.written.stream().map(List::size).collect(Collectors.toList()));
+        Assert.assertEquals("export", this.written.get(1).get(0).getAction());
+        Assert.assertEquals(1522576800000L, this.written.get(1).get(0).getTime().getTimeInMillis());
+        Assert.assertFalse(newSpillFile().hasPending());
+        Assert.assertEquals(0L, this.writer.getStatistics().get("spillFileBytes"));
+    }
+
+    @Test
+    public void failedReplayKeepsRemainingEvents() throws IOException
+    {
+        Assert.assertTrue(newSpillFile().append(Arrays.asList(event("view"), event("edit"), event("export"))));
+        List<String> attempted = new CopyOnWriteArrayList<>();
+        this.writer = newWriter(events -> {
+            if (!attempted.isEmpty()) {
+                throw new IllegalStateException("Database not available");
+            }
+            events.forEach(event -> attempted.add(event.getAction()));
+        }, 10, 2, 10000, OverflowPolicy.SPILL);
+        await(() -> this.writer.getStatistics().get("failedBatches").longValue() == 1);
+        this.writer.shutdown();
+        Assert.assertEquals(Arrays.asList("view", "edit"), attempted);
+        Assert.assertEquals(Collections.singletonList("export"), readKeptActions());
+        Assert.assertFalse(new File(this.file.getPath() + ".replay").exists());
+        Assert.assertEquals(2L, this.writer.getStatistics().get("replayed"));
+    }
+
+    @Test
+    public void invalidEventsKeptOnDiskAreSkipped() throws IOException
+    {
+        this.file.getParentFile().mkdirs();
+        File temp = new File(this.file.getParentFile(), "temp.jsonl");
+        Files.write(temp.toPath(), Arrays.asList("not json", event("view").toJSON().toString()),
+            StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), this.file.toPath());
+        this.writer = newWriter(this.written::add, 10, 10, 10000, OverflowPolicy.SPILL);
+        await(() -> this.writer.getStatistics().get("replayed").longValue() == 1);
+        Assert.assertEquals("view", this.written.get(0).get(0).getAction());
+    }
+
+    @Test
+    public void spillPolicyKeepsOverflowOnDiskUntilItCanBeWritten() throws IOException
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        this.writer = newWriter(blockingStore(release), 1, 1, 0, OverflowPolicy.SPILL);
+        fillQueue();
+        this.writer.write(event("export"));
+        Assert.assertEquals(1L, this.writer.getStatistics().get("spilled"));
+        Assert.assertEquals(Collections.singletonList("export"), readKeptActions());
+        release.countDown();
+        // The event kept on disk is written once the writer catches up
+        await(() -> this.writer.getStatistics().get("replayed").longValue() == 1);
+        Assert.assertEquals(3L, this.writer.getStatistics().get("written"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("view", "edit", "export")), this.written.stream()
+            .flatMap(List::stream).map(AuditEvent::getAction).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void discardPolicyDropsOverflow()
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        this.writer = newWriter(blockingStore(release), 1, 1, 0, OverflowPolicy.DISCARD);
+        fillQueue();
+        this.writer.write(event("export"));
+        Assert.assertEquals(1L, this.writer.getStatistics().get("discarded"));
+        release.countDown();
+        this.writer.flush();
+        Assert.assertEquals(2L, this.writer.getStatistics().get("written"));
+        Assert.assertFalse(this.file.exists());
+    }
+
+    @Test
+    public void blockPolicyWaitsForSpace() throws InterruptedException
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        this.writer = newWriter(blockingStore(release), 1, 1, 0, OverflowPolicy.BLOCK);
+        fillQueue();
+        Thread producer = new Thread(() -> this.writer.write(event("export")));
+        producer.start();
+        producer.join(200);
+        Assert.assertTrue(producer.isAlive());
+        release.countDown();
+        producer.join(10000);
+        Assert.assertFalse(producer.isAlive());
+        this.writer.flush();
+        Assert.assertEquals(3L, this.writer.getStatistics().get("written"));
+        Assert.assertEquals(0L, this.writer.getStatistics().get("spilled"));
+    }
+
+    @Test
+    public void shutdownWritesQueuedEventsAndKeepsLaterEventsOnDisk() throws IOException
+    {
+        this.writer = newWriter(this.written::add, 10, 10, 10000, OverflowPolicy.SPILL);
+        this.writer.write(event("view"));
+        this.writer.shutdown();
+        Assert.assertEquals(1, this.written.size());
+        this.writer.write(event("edit"));
+        Assert.assertEquals(Collections.singletonList("edit"), readKeptActions());
+        this.writer.flush();
+        Assert.assertEquals(1L, this.writer.getStatistics().get("spilled"));
+    }
+
+    @Test
+    public void eventsAreLostWhenTheyCannotBeKept()
+    {
+        this.file = null;
+        this.writer = newWriter(events -> {
+            throw new IllegalStateException("Database not available");
+        }, 10, 10, 10000, OverflowPolicy.SPILL);
+        this.writer.write(event("view"));
+        this.writer.flush();
+        Assert.assertEquals(1L, this.writer.getStatistics().get("lost"));
+        Assert.assertEquals(0L, this.writer.getStatistics().get("spillFileBytes"));
+    }
+
+    @Test
+    public void overflowPolicyIsParsed()
+    {
+        Assert.assertEquals(OverflowPolicy.BLOCK, OverflowPolicy.fromString("block", OverflowPolicy.SPILL));
+        Assert.assertEquals(OverflowPolicy.DISCARD, OverflowPolicy.fromString("Discard", OverflowPolicy.SPILL));
+        Assert.assertEquals(OverflowPolicy.SPILL, OverflowPolicy.fromString("unknown", OverflowPolicy.SPILL));
+        Assert.assertEquals(OverflowPolicy.SPILL, OverflowPolicy.fromString(null, OverflowPolicy.SPILL));
+    }
+
+    private AuditEventWriter newWriter(Consumer<List<AuditEvent>> store, int capacity, int batchSize,
+        long flushInterval, OverflowPolicy policy)
+    {
+        return new AuditEventWriter(store, newSpillFile(), capacity, batchSize, flushInterval, policy, this.logger);
+    }
+
+    private AuditEventSpillFile newSpillFile()
+    {
+        return new AuditEventSpillFile(this.file, AuditEventWriterTest::parse, this.logger);
+    }
+
+    /**
+     * Creates a store that blocks the writer on the first batch, until released.
+     */
+    private Consumer<List<AuditEvent>> blockingStore(CountDownLatch release)
+    {
+        return events -> {
+            this.written.add(events);
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Sends two events to a writer with capacity 1 and a blocked store: the first one is being written, and the second
+     * one fills the queue.
+     */
+    private void fillQueue()
+    {
+        this.writer.write(event("view"));
+        await(() -> !this.written.isEmpty());
+        this.writer.write(event("edit"));
+    }
+
+    private List<String> readKeptActions() throws IOException
+    {
+        List<String> result = new ArrayList<>();
+        for (String line : Files.readAllLines(this.file.toPath(), StandardCharsets.UTF_8)) {
+            result.add(new JSONObject(line).getString("action"));
+        }
+        return result;
+    }
+
+    private static void await(BooleanSupplier condition)
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static AuditEvent event(String action)
+    {
+        Calendar time = Calendar.getInstance(Locale.ROOT);
+        time.setTimeInMillis(1522576800000L);
+        return new AuditEvent(null, "127.0.0.1", action, null, null, time);
+    }
+
+    private static AuditEvent parse(JSONObject json)
+    {
+        Calendar time = Calendar.getInstance(Locale.ROOT);
+        time.setTimeInMillis(Instant.parse(json.getString("time")).toEpochMilli());
+        return new AuditEvent(null, json.optString("ip", null), json.getString("action"), null, null, time);
+    }
+}
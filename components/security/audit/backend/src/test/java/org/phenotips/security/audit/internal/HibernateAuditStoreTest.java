@@ -20,12 +20,21 @@
 import org.phenotips.security.audit.AuditEvent;
 import org.phenotips.security.audit.AuditStore;
 
+import org.xwiki.component.manager.ComponentLifecycleException;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
@@ -41,10 +50,13 @@
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.RowCountProjection;
 import org.hibernate.criterion.SimpleExpression;
+import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
@@ -66,6 +78,9 @@
     public final MockitoComponentMockingRule<AuditStore> mocker =
         new MockitoComponentMockingRule<>(HibernateAuditStore.class);
 
+    @Rule
+    public final TemporaryFolder permanentDirectory = new TemporaryFolder();
+
     @Mock
     private User user;
 
@@ -102,49 +117,106 @@ public void setup() throws ComponentLookupException
         when(this.sf.openSession()).thenReturn(this.session);
         when(this.session.beginTransaction()).thenReturn(this.transaction);
         when(this.session.createCriteria(AuditEvent.class)).thenReturn(this.criteria);
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory.getRoot());
         this.store = this.mocker.getComponentUnderTest();
         when(this.user.getId()).thenReturn("wiki:XWiki.user");
+        when(this.event.toJSON()).thenReturn(new JSONObject("{\"action\":\"view\",\"ip\":\"127.0.0.1\","
+            + "\"time\":\"2018-04-01T10:00:00Z\"}"));
+    }
+
+    @After
+    public void tearDown() throws ComponentLifecycleException
+    {
+        ((Disposable) this.store).dispose();
     }
 
     @Test
     public void storeSavesEventInSession()
     {
         this.store.store(this.event);
+        flush();
         Mockito.verify(this.session).save(this.event);
         Mockito.verify(this.session).close();
         Mockito.verify(this.transaction).commit();
     }
 
+    @Test
+    public void storeWritesEventsInBatches()
+    {
+        this.store.store(this.event);
+        this.store.store(this.event);
+        this.store.store(this.event);
+        flush();
+        Mockito.verify(this.sf).openSession();
+        Mockito.verify(this.session, Mockito.times(3)).save(this.event);
+        Mockito.verify(this.transaction).commit();
+        Assert.assertEquals(3L, this.store.getStatistics().get("written"));
+        Assert.assertEquals(1L, this.store.getStatistics().get("batches"));
+    }
+
     @Test
     public void storeSkipsIgnoredActions()
     {
         for (String action : new String[] { "ssx", "jsx", "temp", "skin" }) {
             when(this.event.getAction()).thenReturn(action);
             this.store.store(this.event);
+            flush();
             Mockito.verifyZeroInteractions(this.session);
         }
     }
 
     @Test
-    public void storeCatchesHibernateException()
+    public void storeCatchesHibernateException() throws IOException
     {
         when(this.session.save(this.event)).thenThrow(new HibernateException("failed"));
         this.store.store(this.event);
+        flush();
+        Mockito.verify(this.transaction).rollback();
         Mockito.verify(this.session).close();
+        // The event is kept on disk, to be written later
+        List<String> kept = Files.readAllLines(getSpillFile().toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(1, kept.size());
+        Assert.assertEquals("view", new JSONObject(kept.get(0)).getString("action"));
+        Assert.assertEquals(1L, this.store.getStatistics().get("spilled"));
     }
 
     @Test
     public void sessionIsClosedOnException()
     {
         when(this.session.save(this.event)).thenThrow(new NullPointerException());
-        try {
-            this.store.store(this.event);
-        } catch (NullPointerException ex) {
-            // We're testing this exception, it's expected here
-        }
+        this.store.store(this.event);
+        flush();
         Mockito.verify(this.session).close();
     }
 
+    @Test
+    public void eventsKeptOnDiskAreWrittenLater() throws Exception
+    {
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("wiki:Space.Page")).thenReturn(this.doc);
+        UserManager users = this.mocker.getInstance(UserManager.class);
+        when(users.getUser("wiki:XWiki.user")).thenReturn(this.user);
+        File spill = getSpillFile();
+        File temp = new File(spill.getParentFile(), "temp.jsonl");
+        spill.getParentFile().mkdirs();
+        Files.write(temp.toPath(), Collections.singletonList("{\"user\":\"wiki:XWiki.user\",\"ip\":\"127.0.0.1\","
+            + "\"action\":\"edit\",\"entity\":\"wiki:Space.Page\",\"time\":\"2018-04-01T10:00:00Z\"}"),
+            StandardCharsets.UTF_8);
+        // The writer checks for events kept on disk when idle, make sure it only sees the complete file
+        Files.move(temp.toPath(), spill.toPath());
+
+        ArgumentCaptor<AuditEvent> saved = ArgumentCaptor.forClass(AuditEvent.class);
+        Mockito.verify(this.session, Mockito.timeout(10000)).save(saved.capture());
+        AuditEvent replayed = saved.getValue();
+        Assert.assertSame(this.user, replayed.getUser());
+        Assert.assertEquals("127.0.0.1", replayed.getIp());
+        Assert.assertEquals("edit", replayed.getAction());
+        Assert.assertNull(replayed.getExtraInformation());
+        Assert.assertSame(this.doc, replayed.getEntity());
+        Assert.assertEquals(1522576800000L, replayed.getTime().getTimeInMillis());
+    }
+
     @Test
     public void getEventsForEntity()
     {
@@ -417,4 +489,14 @@ public void countEventsCatchesHibernateException()
         when(this.criteria.list()).thenThrow(new HibernateException(""));
         Assert.assertEquals(-1, this.store.countEvents(null, null, null));
     }
+
+    private void flush()
+    {
+        ((HibernateAuditStore) this.store).flush();
+    }
+
+    private File getSpillFile()
+    {
+        return new File(this.permanentDirectory.getRoot(), "audit/pending-events.jsonl");
+    }
 }
@@ -34,7 +34,9 @@
 
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -242,4 +244,21 @@ public void countEventsAcceptsBlankFilters()
         Mockito.verify(this.store).countEvents(template, null, null);
         Assert.assertEquals(42L, result);
     }
+
+    @Test
+    public void getStatisticsWithoutAdminAccessReturnsEmptyMap()
+    {
+        when(this.auth.hasAccess(this.user, Right.ADMIN, this.xwikiPreferences)).thenReturn(false);
+        Assert.assertTrue(this.scriptService.getStatistics().isEmpty());
+        Mockito.verifyZeroInteractions(this.store);
+    }
+
+    @Test
+    public void getStatisticsForwardsCall()
+    {
+        Map<String, Number> statistics = Collections.singletonMap("queueDepth", 3);
+        when(this.store.getStatistics()).thenReturn(statistics);
+        when(this.auth.hasAccess(this.user, Right.ADMIN, this.xwikiPreferences)).thenReturn(true);
+        Assert.assertSame(statistics, this.scriptService.getStatistics());
+    }
 }
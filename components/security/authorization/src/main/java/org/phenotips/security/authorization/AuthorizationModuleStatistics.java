@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.authorization;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Usage counters for one {@link AuthorizationModule}, as seen by the {@link AuthorizationService}: how many times it
+ * was asked, how it decided, and how long it took. Instances are immutable snapshots.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable
+public final class AuthorizationModuleStatistics
+{
+    private final String module;
+
+    private final int priority;
+
+    private final long grants;
+
+    private final long denials;
+
+    private final long abstentions;
+
+    private final long failures;
+
+    private final long totalTime;
+
+    /**
+     * Simple constructor passing all the counters.
+     *
+     * @param module the name of the module, usually its class name
+     * @param priority the priority of the module
+     * @param grants how many times the module granted access
+     * @param denials how many times the module denied access
+     * @param abstentions how many times the module didn't make a decision, leaving it to the next modules
+     * @param failures how many times the module failed with an exception
+     * @param totalTime the total time spent in the module, in nanoseconds
+     */
+    public AuthorizationModuleStatistics(String module, int priority, long grants, long denials, long abstentions,
+        long failures, long totalTime)
+    {
+        this.module = module;
+        this.priority = priority;
+        this.grants = grants;
+        this.denials = denials;
+        this.abstentions = abstentions;
+        this.failures = failures;
+        this.totalTime = totalTime;
+    }
+
+    /**
+     * The name of the module.
+     *
+     * @return the module name, usually its class name
+     */
+    public String getModule()
+    {
+        return this.module;
+    }
+
+    /**
+     * The priority of the module, which determines its position in the chain of modules.
+     *
+     * @return the module priority
+     * @see AuthorizationModule#getPriority()
+     */
+    public int getPriority()
+    {
+        return this.priority;
+    }
+
+    /**
+     * How many times the module was asked for a decision.
+     *
+     * @return the number of invocations, including failed ones
+     */
+    public long getInvocations()
+    {
+        return this.grants + this.denials + this.abstentions + this.failures;
+    }
+
+    /**
+     * How many times the module granted access.
+     *
+     * @return the number of positive decisions
+     */
+    public long getGrants()
+    {
+        return this.grants;
+    }
+
+    /**
+     * How many times the module denied access.
+     *
+     * @return the number of negative decisions
+     */
+    public long getDenials()
+    {
+        return this.denials;
+    }
+
+    /**
+     * How many times the module didn't make a decision, leaving it to the lower priority modules.
+     *
+     * @return the number of {@code null} responses
+     */
+    public long getAbstentions()
+    {
+        return this.abstentions;
+    }
+
+    /**
+     * How many times the module failed with an exception.
+     *
+     * @return the number of failed invocations
+     */
+    public long getFailures()
+    {
+        return this.failures;
+    }
+
+    /**
+     * The total time spent in this module.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getTotalTime()
+    {
+        return this.totalTime;
+    }
+
+    /**
+     * The average time spent in this module for one access check.
+     *
+     * @return the time in nanoseconds, {@code 0} if the module wasn't invoked yet
+     */
+    public long getAverageTime()
+    {
+        long invocations = getInvocations();
+        return invocations == 0 ? 0 : this.totalTime / invocations;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.module + " [priority=" + this.priority + ", grants=" + this.grants + ", denials=" + this.denials
+            + ", abstentions=" + this.abstentions + ", failures=" + this.failures + ", averageTime="
+            + getAverageTime() + "ns]";
+    }
+}
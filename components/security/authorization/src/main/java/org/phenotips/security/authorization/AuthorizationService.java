@@ -23,6 +23,9 @@
 import org.xwiki.stability.Unstable;
 import org.xwiki.users.User;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Service which checks if a specific operation on an entity should be granted or not. The default implementation
  * forwards the decision to implementations of the {@link AuthorizationModule} role, in descending order of their
@@ -44,4 +47,17 @@
      * @return {@code true} if access is granted, {@code false} if access is denied
      */
     boolean hasAccess(User user, Right access, EntityReference entity);
+
+    /**
+     * Reports how each of the {@link AuthorizationModule authorization modules} contributed to the access checks
+     * performed so far.
+     *
+     * @return usage counters for each module currently available, in the order in which the modules are queried; may
+     *         be empty if this service doesn't collect statistics
+     * @since 1.5
+     */
+    default List<AuthorizationModuleStatistics> getModuleStatistics()
+    {
+        return Collections.emptyList();
+    }
 }
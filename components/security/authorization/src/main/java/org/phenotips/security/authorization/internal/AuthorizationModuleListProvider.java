@@ -23,10 +23,11 @@
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,7 +35,8 @@
 import javax.inject.Singleton;
 
 /**
- * Provides an ordered list of authorization modules.
+ * Provides an ordered list of authorization modules. The list is computed once and reused until an authorization
+ * module is registered or unregistered, since it is requested for every access check.
  *
  * @version $Id$
  * @since 1.2RC1
@@ -47,19 +49,61 @@ public class AuthorizationModuleListProvider implements Provider<List<Authorizat
     @Named("wiki")
     private ComponentManager componentManager;
 
+    /** Incremented on each invalidation, so that lists computed from an outdated set of modules are not reused. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The last computed list of modules, along with the generation it was computed for. */
+    private volatile CachedModules cached;
+
     @Override
     public List<AuthorizationModule> get()
     {
+        // Read the generation before looking up the modules, so that an invalidation happening during the lookup
+        // makes the result stale instead of being lost
+        long currentGeneration = this.generation.get();
+        CachedModules current = this.cached;
+        if (current != null && current.generation == currentGeneration) {
+            return current.modules;
+        }
         try {
-            List<AuthorizationModule> services = new LinkedList<>();
-            services.addAll(this.componentManager.<AuthorizationModule>getInstanceList(AuthorizationModule.class));
+            List<AuthorizationModule> services = new ArrayList<>(
+                this.componentManager.<AuthorizationModule>getInstanceList(AuthorizationModule.class));
             Collections.sort(services, AuthorizationModuleComparator.INSTANCE);
-            return services;
+            List<AuthorizationModule> result = Collections.unmodifiableList(services);
+            this.cached = new CachedModules(currentGeneration, result);
+            return result;
         } catch (ComponentLookupException ex) {
             throw new RuntimeException("Failed to look up authorization modules", ex);
         }
     }
 
+    /**
+     * Discards the cached list of modules, so that it is recomputed on the next request. Lists being computed while
+     * this method is called are not reused either.
+     *
+     * @since 1.5
+     */
+    public void invalidate()
+    {
+        this.generation.incrementAndGet();
+    }
+
+    /**
+     * A computed list of modules, tagged with the generation it was computed for.
+     */
+    private static final class CachedModules
+    {
+        private final long generation;
+
+        private final List<AuthorizationModule> modules;
+
+        CachedModules(long generation, List<AuthorizationModule> modules)
+        {
+            this.generation = generation;
+            this.modules = modules;
+        }
+    }
+
     /**
      * Sorts the available authorization modules in descending order of their priority, then alphabetically if two or
      * more modules have the same priority.
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.authorization.internal;
+
+import org.phenotips.security.authorization.AuthorizationModule;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Discards the cached list of {@link AuthorizationModule authorization modules} whenever a module is registered or
+ * unregistered, for example when an extension is installed or uninstalled, along with the usage counters of the
+ * modules that were removed.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named("authorization-modules-changed")
+@Singleton
+public class AuthorizationModulesChangedListener implements EventListener
+{
+    @Inject
+    private Provider<List<AuthorizationModule>> modules;
+
+    @Inject
+    private Provider<AuthorizationService> authorizationService;
+
+    @Override
+    public String getName()
+    {
+        return "authorization-modules-changed";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(AuthorizationModule.class),
+            new ComponentDescriptorRemovedEvent(AuthorizationModule.class));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.modules instanceof AuthorizationModuleListProvider) {
+            ((AuthorizationModuleListProvider) this.modules).invalidate();
+        }
+        AuthorizationService service = this.authorizationService.get();
+        if (service instanceof DefaultAuthorizationService) {
+            ((DefaultAuthorizationService) service).retainStatistics(this.modules.get());
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package org.phenotips.security.authorization.internal;
 
 import org.phenotips.security.authorization.AuthorizationModule;
+import org.phenotips.security.authorization.AuthorizationModuleStatistics;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
@@ -25,7 +26,13 @@
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -52,16 +59,23 @@ public class DefaultAuthorizationService implements AuthorizationService
     @Inject
     private Provider<List<AuthorizationModule>> modules;
 
+    /** Usage counters for each module instance. */
+    private final Map<AuthorizationModule, ModuleCounters> counters = new ConcurrentHashMap<>();
+
     @Override
     public boolean hasAccess(User user, Right access, EntityReference entity)
     {
         for (AuthorizationModule service : this.modules.get()) {
+            ModuleCounters moduleCounters = this.counters.computeIfAbsent(service, k -> new ModuleCounters());
+            long start = System.nanoTime();
             try {
                 Boolean decision = service.hasAccess(user, access, entity);
+                moduleCounters.record(decision, System.nanoTime() - start);
                 if (decision != null) {
                     return decision;
                 }
             } catch (Exception ex) {
+                moduleCounters.recordFailure(System.nanoTime() - start);
                 // Don't fail because of bad authorization modules
                 this.logger.warn("Failed to invoke authorization service [{}]: {}",
                     service.getClass().getCanonicalName(), ex.getMessage());
@@ -70,4 +84,69 @@ public boolean hasAccess(User user, Right access, EntityReference entity)
 
         return false;
     }
+
+    @Override
+    public List<AuthorizationModuleStatistics> getModuleStatistics()
+    {
+        List<AuthorizationModuleStatistics> result = new ArrayList<>();
+        for (AuthorizationModule service : this.modules.get()) {
+            String name = service.getClass().getName();
+            ModuleCounters moduleCounters = this.counters.get(service);
+            result.add(moduleCounters == null ? new AuthorizationModuleStatistics(name, service.getPriority(), 0, 0, 0,
+                0, 0) : moduleCounters.snapshot(name, service.getPriority()));
+        }
+        return result;
+    }
+
+    /**
+     * Discards the usage counters of the modules that are no longer available, for example after an extension
+     * providing a module was uninstalled.
+     *
+     * @param available the modules currently available
+     * @since 1.5
+     */
+    void retainStatistics(Collection<AuthorizationModule> available)
+    {
+        this.counters.keySet().retainAll(new HashSet<>(available));
+    }
+
+    /**
+     * Thread-safe usage counters for one authorization module.
+     */
+    private static final class ModuleCounters
+    {
+        private final LongAdder grants = new LongAdder();
+
+        private final LongAdder denials = new LongAdder();
+
+        private final LongAdder abstentions = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final LongAdder time = new LongAdder();
+
+        void record(Boolean decision, long duration)
+        {
+            if (decision == null) {
+                this.abstentions.increment();
+            } else if (decision) {
+                this.grants.increment();
+            } else {
+                this.denials.increment();
+            }
+            this.time.add(duration);
+        }
+
+        void recordFailure(long duration)
+        {
+            this.failures.increment();
+            this.time.add(duration);
+        }
+
+        AuthorizationModuleStatistics snapshot(String name, int priority)
+        {
+            return new AuthorizationModuleStatistics(name, priority, this.grants.sum(), this.denials.sum(),
+                this.abstentions.sum(), this.failures.sum(), this.time.sum());
+        }
+    }
 }
@@ -40,8 +40,11 @@
 import org.mockito.MockitoAnnotations;
 
 import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -115,6 +118,48 @@ public void modulesWithSamePriorityGetSortedByName() throws Exception
         Assert.assertThat(actualList, is(expectedList));
     }
 
+    @Test
+    public void modulesAreCachedUntilInvalidated() throws Exception
+    {
+        this.moduleList.add(this.lowPriorityModule);
+        Provider<List<AuthorizationModule>> provider = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(Arrays.asList(this.lowPriorityModule), provider.get());
+
+        this.moduleList.add(this.highPriorityModule);
+        Assert.assertEquals(Arrays.asList(this.lowPriorityModule), provider.get());
+        verify(this.componentManager, times(1)).getInstanceList(AuthorizationModule.class);
+
+        ((AuthorizationModuleListProvider) provider).invalidate();
+        Assert.assertEquals(Arrays.asList(this.highPriorityModule, this.lowPriorityModule), provider.get());
+        verify(this.componentManager, times(2)).getInstanceList(AuthorizationModule.class);
+    }
+
+    @Test
+    public void invalidationDuringLookupIsNotLost() throws Exception
+    {
+        AuthorizationModuleListProvider provider =
+            (AuthorizationModuleListProvider) this.mocker.getComponentUnderTest();
+        this.moduleList.add(this.lowPriorityModule);
+        doAnswer(invocation -> {
+            // A module is registered while the previous list is being computed
+            List<AuthorizationModule> previous = new LinkedList<>(this.moduleList);
+            this.moduleList.add(this.highPriorityModule);
+            provider.invalidate();
+            return previous;
+        }).doReturn(this.moduleList).when(this.componentManager).getInstanceList(AuthorizationModule.class);
+
+        Assert.assertEquals(Arrays.asList(this.lowPriorityModule), provider.get());
+        Assert.assertEquals(Arrays.asList(this.highPriorityModule, this.lowPriorityModule), provider.get());
+        Assert.assertEquals(Arrays.asList(this.highPriorityModule, this.lowPriorityModule), provider.get());
+        verify(this.componentManager, times(2)).getInstanceList(AuthorizationModule.class);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void returnedListIsUnmodifiable() throws Exception
+    {
+        this.mocker.getComponentUnderTest().get().add(this.lowPriorityModule);
+    }
+
     @Test(expected = RuntimeException.class)
     public void componentLookupExceptionIsCaughtAndRuntimeExceptionIsThrown() throws ComponentLookupException
     {
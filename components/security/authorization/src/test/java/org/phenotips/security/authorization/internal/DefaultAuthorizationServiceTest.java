@@ -18,6 +18,7 @@
 package org.phenotips.security.authorization.internal;
 
 import org.phenotips.security.authorization.AuthorizationModule;
+import org.phenotips.security.authorization.AuthorizationModuleStatistics;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.manager.ComponentLookupException;
@@ -180,6 +181,53 @@ public void exceptionsInModulesAreIgnored() throws Exception
         Assert.assertTrue(this.mocker.getComponentUnderTest().hasAccess(this.user, this.access, this.document));
     }
 
+    @Test
+    public void moduleStatisticsCountDecisionsAndFailures() throws Exception
+    {
+        this.moduleList = Arrays.asList(this.moduleOne, this.moduleTwo, this.moduleThree);
+        doReturn(this.moduleList).when(this.modules).get();
+        when(this.moduleOne.getPriority()).thenReturn(300);
+        when(this.moduleTwo.getPriority()).thenReturn(200);
+        when(this.moduleThree.getPriority()).thenReturn(100);
+
+        when(this.moduleTwo.hasAccess(this.user, this.access, this.document)).thenReturn(true);
+        this.mocker.getComponentUnderTest().hasAccess(this.user, this.access, this.document);
+        this.mocker.getComponentUnderTest().hasAccess(this.user, this.access, this.document);
+        when(this.moduleTwo.hasAccess(this.user, this.access, this.document)).thenThrow(new NullPointerException());
+        when(this.moduleThree.hasAccess(this.user, this.access, this.document)).thenReturn(false);
+        this.mocker.getComponentUnderTest().hasAccess(this.user, this.access, this.document);
+
+        List<AuthorizationModuleStatistics> statistics = this.mocker.getComponentUnderTest().getModuleStatistics();
+        Assert.assertEquals(3, statistics.size());
+
+        Assert.assertEquals(300, statistics.get(0).getPriority());
+        Assert.assertEquals(3, statistics.get(0).getInvocations());
+        Assert.assertEquals(3, statistics.get(0).getAbstentions());
+
+        Assert.assertEquals(3, statistics.get(1).getInvocations());
+        Assert.assertEquals(2, statistics.get(1).getGrants());
+        Assert.assertEquals(1, statistics.get(1).getFailures());
+
+        Assert.assertEquals(1, statistics.get(2).getInvocations());
+        Assert.assertEquals(1, statistics.get(2).getDenials());
+        Assert.assertEquals(0, statistics.get(2).getGrants());
+    }
+
+    @Test
+    public void statisticsOfRemovedModulesAreDiscarded() throws Exception
+    {
+        this.moduleList = Arrays.asList(this.moduleOne, this.moduleTwo);
+        doReturn(this.moduleList).when(this.modules).get();
+        when(this.moduleTwo.hasAccess(this.user, this.access, this.document)).thenReturn(true);
+        DefaultAuthorizationService service = (DefaultAuthorizationService) this.mocker.getComponentUnderTest();
+        service.hasAccess(this.user, this.access, this.document);
+
+        service.retainStatistics(Collections.singletonList(this.moduleTwo));
+        List<AuthorizationModuleStatistics> statistics = service.getModuleStatistics();
+        Assert.assertEquals(0, statistics.get(0).getInvocations());
+        Assert.assertEquals(1, statistics.get(1).getGrants());
+    }
+
     private void resetMocks()
     {
         Mockito.reset(this.moduleOne, this.moduleTwo, this.moduleThree);
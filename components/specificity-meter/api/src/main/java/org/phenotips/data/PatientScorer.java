@@ -20,6 +20,10 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * A service that computes the patient specificity, a score estimating how "good" a patient record is.
  *
@@ -45,4 +49,24 @@
      * @return a score between {@code 0} and {@code 1}, or {@code -1} if the score cannot be computed by this scorer
      */
     double getScore(Patient patient);
+
+    /**
+     * Compute the raw specificity scores for several patients at once, for example for displaying a list of patients.
+     * Scorers that can share work between patients should override this method, the default implementation simply
+     * scores each patient in turn.
+     *
+     * @param patients the patients to score
+     * @return the score of each patient, in the iteration order of the collection; each score is between {@code 0}
+     *         and {@code 1}, or {@code -1} if the score cannot be computed by this scorer
+     * @since 1.5
+     */
+    @Unstable
+    default Map<Patient, Double> getScores(Collection<Patient> patients)
+    {
+        Map<Patient, Double> result = new LinkedHashMap<>();
+        for (Patient patient : patients) {
+            result.put(patient, getScore(patient));
+        }
+        return result;
+    }
 }
@@ -0,0 +1,249 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+/**
+ * Local annotation sufficiency model, scoring how well a phenotype profile is annotated compared to the profiles of
+ * the annotated OMIM disorders, following the approach of the MONARCH initiative scorer. A profile is summarized by the
+ * mean, maximum and sum of the information content of its phenotypes, and by the number of phenotypic abnormality
+ * categories that it covers. Each summary value is placed on the normal distribution of that value over all the
+ * disorder profiles, and the simple score, the average of the three information content percentiles, is averaged with
+ * the category percentile into the scaled score, between {@code 0} and {@code 1}. Phenotypes that are not annotated on
+ * any disorder are replaced by their most informative annotated ancestor.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class AnnotationSufficiencyModel
+{
+    /** The root of the phenotypic abnormalities, whose children are the phenotype categories. */
+    public static final String PHENOTYPIC_ABNORMALITY = "HP:0000118";
+
+    private static final NormalDistribution NORMAL = new NormalDistribution();
+
+    private static final int MEAN = 0;
+
+    private static final int MAX = 1;
+
+    private static final int SUM = 2;
+
+    private static final int CATEGORIES = 3;
+
+    private final InformationContentTable informationContent;
+
+    private final Set<String> categories;
+
+    private final Function<String, Set<String>> ancestorsAndSelf;
+
+    private final double[] means;
+
+    private final double[] deviations;
+
+    private final int profiles;
+
+    private AnnotationSufficiencyModel(Builder builder)
+    {
+        this.informationContent = builder.informationContent;
+        this.categories = builder.categories;
+        this.ancestorsAndSelf = builder.ancestorsAndSelf;
+        this.profiles = (int) builder.statistics[MEAN].getN();
+        this.means = new double[builder.statistics.length];
+        this.deviations = new double[builder.statistics.length];
+        for (int i = 0; i < builder.statistics.length; ++i) {
+            this.means[i] = this.profiles > 0 ? builder.statistics[i].getMean() : 0;
+            this.deviations[i] = this.profiles > 0 ? builder.statistics[i].getStandardDeviation() : 0;
+        }
+    }
+
+    /**
+     * Computes the scaled annotation sufficiency score of a phenotype profile.
+     *
+     * @param phenotypes the identifiers of the observed phenotypes in the profile
+     * @return a score between {@code 0}, for a profile that doesn't capture any information, and {@code 1}, for a
+     *         profile better annotated than most disorders
+     */
+    public double getScore(Collection<String> phenotypes)
+    {
+        double[] summary = summarize(phenotypes, this.informationContent, this.categories, this.ancestorsAndSelf);
+        if (summary == null || this.profiles == 0) {
+            return 0;
+        }
+        double simple = (percentile(summary, MEAN) + percentile(summary, MAX) + percentile(summary, SUM)) / 3;
+        if (this.means[CATEGORIES] == 0 && this.deviations[CATEGORIES] == 0) {
+            // No category information available
+            return simple;
+        }
+        return (simple + percentile(summary, CATEGORIES)) / 2;
+    }
+
+    /**
+     * The number of disorder profiles the model was computed from.
+     *
+     * @return a positive number, or {@code 0} for an empty model
+     */
+    public int getProfileCount()
+    {
+        return this.profiles;
+    }
+
+    /**
+     * Identifies the data this model was computed from, so that scores computed with a different model can be
+     * discarded.
+     *
+     * @return a short string, equal for models computed from the same data
+     */
+    public String getFingerprint()
+    {
+        int hash = Objects.hash(this.informationContent.getTotal(), this.informationContent.size(), this.categories,
+            Arrays.hashCode(this.means), Arrays.hashCode(this.deviations));
+        return String.format(Locale.ROOT, "%s/%d/%08x", this.informationContent.getVersion(), this.profiles, hash);
+    }
+
+    private double percentile(double[] summary, int statistic)
+    {
+        double deviation = this.deviations[statistic];
+        double difference = summary[statistic] - this.means[statistic];
+        if (deviation == 0) {
+            return 0.5 + Math.signum(difference) / 2;
+        }
+        return NORMAL.cumulativeProbability(difference / deviation);
+    }
+
+    /**
+     * Summarizes a phenotype profile.
+     *
+     * @param phenotypes the identifiers of the phenotypes in the profile
+     * @param informationContent the information content of the annotated phenotypes
+     * @param categories the identifiers of the phenotype categories
+     * @param ancestorsAndSelf returns the identifiers of a phenotype and all its ancestors
+     * @return the mean, maximum and sum of the information content of the profile, and the number of categories it
+     *         covers, or {@code null} if the profile doesn't hold any annotated phenotype
+     */
+    private static double[] summarize(Collection<String> phenotypes, InformationContentTable informationContent,
+        Set<String> categories, Function<String, Set<String>> ancestorsAndSelf)
+    {
+        Set<String> annotated = new HashSet<>();
+        Set<String> covered = new HashSet<>();
+        for (String phenotype : phenotypes) {
+            String best = null;
+            double bestInformationContent = 0;
+            for (String ancestor : ancestorsAndSelf.apply(phenotype)) {
+                double ic = informationContent.getInformationContent(ancestor);
+                if (ic > bestInformationContent) {
+                    best = ancestor;
+                    bestInformationContent = ic;
+                }
+                if (categories.contains(ancestor)) {
+                    covered.add(ancestor);
+                }
+            }
+            if (best != null) {
+                annotated.add(best);
+            }
+        }
+        if (annotated.isEmpty()) {
+            return null;
+        }
+        double[] result = new double[CATEGORIES + 1];
+        for (String phenotype : annotated) {
+            double ic = informationContent.getInformationContent(phenotype);
+            result[MAX] = Math.max(result[MAX], ic);
+            result[SUM] += ic;
+        }
+        result[MEAN] = result[SUM] / annotated.size();
+        result[CATEGORIES] = covered.size();
+        return result;
+    }
+
+    /**
+     * Collects the disorder profiles and computes the distribution of their summary values.
+     */
+    public static final class Builder
+    {
+        private final InformationContentTable informationContent;
+
+        private final Set<String> categories;
+
+        private final Function<String, Set<String>> ancestorsAndSelf;
+
+        /** Disorders share many phenotypes, so the ancestors are only looked up once while building. */
+        private final Map<String, Set<String>> knownAncestors = new HashMap<>();
+
+        private final SummaryStatistics[] statistics = new SummaryStatistics[CATEGORIES + 1];
+
+        /**
+         * Starts a new model.
+         *
+         * @param informationContent the information content of the annotated phenotypes
+         * @param categories the identifiers of the phenotype categories, may be empty if unknown
+         * @param ancestorsAndSelf returns the identifiers of a phenotype and all its ancestors, invoked concurrently
+         *            when scoring profiles
+         */
+        public Builder(InformationContentTable informationContent, Set<String> categories,
+            Function<String, Set<String>> ancestorsAndSelf)
+        {
+            this.informationContent = informationContent;
+            this.categories = new HashSet<>(categories);
+            this.ancestorsAndSelf = ancestorsAndSelf;
+            for (int i = 0; i < this.statistics.length; ++i) {
+                this.statistics[i] = new SummaryStatistics();
+            }
+        }
+
+        /**
+         * Adds the profile of a disorder.
+         *
+         * @param phenotypes the identifiers of the phenotypes annotated on the disorder
+         * @return this builder
+         */
+        public Builder addProfile(Collection<String> phenotypes)
+        {
+            double[] summary = summarize(phenotypes, this.informationContent, this.categories,
+                id -> this.knownAncestors.computeIfAbsent(id, this.ancestorsAndSelf));
+            if (summary != null) {
+                for (int i = 0; i < summary.length; ++i) {
+                    this.statistics[i].addValue(summary[i]);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Computes the model.
+         *
+         * @return the new model
+         */
+        public AnnotationSufficiencyModel build()
+        {
+            return new AnnotationSufficiencyModel(this);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientScorer;
+import org.phenotips.data.PatientSpecificity;
+import org.phenotips.vocabulary.OntologyGraph;
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.slf4j.Logger;
+
+/**
+ * Patient scorer that computes the annotation sufficiency score locally, with the same semantics as the score offered
+ * by the MONARCH initiative, using the HPO annotations of the OMIM disorders. It can replace the {@code monarch}
+ * scorer when the remote service is not reachable. The {@link AnnotationSufficiencyModel model} is computed from the
+ * OMIM index and recomputed when the OMIM vocabulary is reindexed. Many patients can be scored at once, in parallel,
+ * and the scores are cached in a {@link PersistentScoreCache file} under the permanent directory, keyed by their
+ * feature set. Like the disorder profiles the model is computed from, only observed features are scored; excluded
+ * features don't change the score.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named("annotationSufficiency")
+@Singleton
+public class AnnotationSufficiencyPatientScorer implements PatientScorer, Initializable, Disposable
+{
+    private static final String SCORER_NAME = "local-annotation-sufficiency";
+
+    private static final String CACHE_FILE = "specificity/scores.cache";
+
+    private static final String SYMPTOM_FIELD = "symptom";
+
+    private static final String ACTUAL_SYMPTOM_FIELD = "actual_symptom";
+
+    /** The root of the HPO, annotated on all the disorders that have at least one phenotype. */
+    private static final String ROOT = "HP:0000001";
+
+    /** Patients are scored in parallel only if each thread gets at least this many feature sets to score. */
+    private static final int MIN_BATCH_SIZE = 16;
+
+    /** How often, in milliseconds, new scores are saved to the cache file. */
+    private static final long SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    @Inject
+    @Named("omim")
+    private Vocabulary omim;
+
+    @Inject
+    @Named("hpo")
+    private Vocabulary hpo;
+
+    @Inject
+    private SolrVocabularyResourceManager solrManager;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    private int threads;
+
+    private ExecutorService workers;
+
+    private PersistentScoreCache cache;
+
+    private final AtomicBoolean saving = new AtomicBoolean();
+
+    private volatile long lastSave = System.currentTimeMillis();
+
+    /** The current model, {@code null} until first needed. */
+    private AnnotationSufficiencyModel model;
+
+    /** The OMIM core used for computing the current model, used for detecting when the vocabulary is reindexed. */
+    private SolrClient modelSource;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.threads = getConfiguredNumber("phenotips.patientScoring.annotationSufficiency.threads",
+            Runtime.getRuntime().availableProcessors());
+        int cacheSize = getConfiguredNumber("phenotips.patientScoring.annotationSufficiency.cacheSize", 100000);
+        File directory = this.environment.getPermanentDirectory();
+        this.cache = new PersistentScoreCache(directory == null ? null : new File(directory, CACHE_FILE),
+            cacheSize, this.logger);
+        this.workers = Executors.newFixedThreadPool(this.threads,
+            new BasicThreadFactory.Builder().namingPattern("patient-scoring-%d").daemon(true).build());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.workers.shutdownNow();
+        saveCache();
+    }
+
+    @Override
+    public PatientSpecificity getSpecificity(Patient patient)
+    {
+        double score = getScore(patient);
+        if (score == -1) {
+            return null;
+        }
+        return new PatientSpecificity(score, now(), SCORER_NAME);
+    }
+
+    @Override
+    public double getScore(Patient patient)
+    {
+        return getScores(Collections.singletonList(patient)).get(patient);
+    }
+
+    @Override
+    public Map<Patient, Double> getScores(Collection<Patient> patients)
+    {
+        Map<Patient, Double> result = new LinkedHashMap<>();
+        Map<Patient, String> keys = new LinkedHashMap<>();
+        Map<String, List<String>> profiles = new LinkedHashMap<>();
+        for (Patient patient : patients) {
+            List<String> phenotypes = new ArrayList<>();
+            String key = getFeatureSet(patient, phenotypes);
+            keys.put(patient, key);
+            if (!key.isEmpty()) {
+                profiles.put(key, phenotypes);
+            }
+        }
+
+        AnnotationSufficiencyModel currentModel = profiles.isEmpty() ? null : getModel();
+        Map<String, Double> scores = new HashMap<>();
+        if (currentModel != null) {
+            // Scores are cached for this model only, in case the vocabulary is reindexed meanwhile
+            String fingerprint = currentModel.getFingerprint();
+            List<String> missing = new ArrayList<>();
+            for (String key : profiles.keySet()) {
+                Double score = this.cache.get(fingerprint, PersistentScoreCache.getKey(key));
+                if (score != null) {
+                    scores.put(key, score);
+                } else {
+                    missing.add(key);
+                }
+            }
+            Map<String, Double> computed = computeScores(missing, profiles, currentModel);
+            for (Map.Entry<String, Double> score : computed.entrySet()) {
+                this.cache.put(fingerprint, PersistentScoreCache.getKey(score.getKey()), score.getValue());
+            }
+            scores.putAll(computed);
+            scheduleSave();
+        }
+
+        for (Map.Entry<Patient, String> key : keys.entrySet()) {
+            // Patients without observed features always score 0, the others can't be scored without a model
+            Double score = key.getValue().isEmpty() ? Double.valueOf(0) : scores.get(key.getValue());
+            result.put(key.getKey(), score == null ? -1 : score);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the scores of several feature sets, splitting them between the worker threads if there are many.
+     *
+     * @param keys the feature sets to score
+     * @param profiles the phenotypes of each feature set
+     * @param currentModel the model to score with
+     * @return the computed scores, may miss the feature sets that failed to be scored
+     */
+    private Map<String, Double> computeScores(List<String> keys, Map<String, List<String>> profiles,
+        AnnotationSufficiencyModel currentModel)
+    {
+        int batches = Math.min(this.threads, keys.size() / MIN_BATCH_SIZE);
+        if (batches <= 1) {
+            return scoreBatch(keys, profiles, currentModel);
+        }
+        List<Callable<Map<String, Double>>> tasks = new ArrayList<>(batches);
+        int batchSize = (keys.size() + batches - 1) / batches;
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            List<String> batch = keys.subList(i, Math.min(keys.size(), i + batchSize));
+            tasks.add(() -> scoreBatch(batch, profiles, currentModel));
+        }
+        Map<String, Double> result = new HashMap<>();
+        try {
+            for (Future<Map<String, Double>> batch : this.workers.invokeAll(tasks)) {
+                result.putAll(batch.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException ex) {
+            this.logger.warn("Failed to compute specificity scores: {}", ex.getMessage());
+        }
+        return result;
+    }
+
+    private Map<String, Double> scoreBatch(List<String> keys, Map<String, List<String>> profiles,
+        AnnotationSufficiencyModel currentModel)
+    {
+        Map<String, Double> result = new HashMap<>();
+        for (String key : keys) {
+            result.put(key, currentModel.getScore(profiles.get(key)));
+        }
+        return result;
+    }
+
+    /**
+     * Builds the canonical representation of the scored feature set of a patient, identical for patients with the same
+     * observed features, regardless of their order. Excluded features are left out, since the disorder profiles the
+     * model compares to only hold the observed phenotypes of each disorder.
+     *
+     * @param patient the patient whose features are collected
+     * @param phenotypes collects the identifiers of the observed features
+     * @return the sorted identifiers of the observed features, or an empty string if the patient has no observed
+     *         features from a vocabulary
+     */
+    private String getFeatureSet(Patient patient, List<String> phenotypes)
+    {
+        Set<String> features = new TreeSet<>();
+        for (Feature f : patient.getFeatures()) {
+            if (f.isPresent() && StringUtils.isNotEmpty(f.getId())) {
+                features.add(f.getId());
+                phenotypes.add(f.getId());
+            }
+        }
+        return StringUtils.join(features, ',');
+    }
+
+    /**
+     * Returns the model, computing it if the OMIM vocabulary was reindexed since the model was computed.
+     *
+     * @return the current model, or {@code null} if it cannot be computed
+     */
+    private synchronized AnnotationSufficiencyModel getModel()
+    {
+        SolrClient source = this.solrManager.getSolrConnection(this.omim);
+        if (this.model == null || source != this.modelSource) {
+            AnnotationSufficiencyModel newModel = computeModel(source);
+            if (newModel == null) {
+                // Try again next time
+                return this.model;
+            }
+            this.model = newModel;
+            this.modelSource = source;
+            this.cache.open(newModel.getFingerprint());
+        }
+        return this.model;
+    }
+
+    private AnnotationSufficiencyModel computeModel(SolrClient source)
+    {
+        if (source == null) {
+            return null;
+        }
+        try {
+            SolrQuery query = new SolrQuery("*:*");
+            query.setRows(0);
+            query.setFacet(true);
+            query.addFacetField(SYMPTOM_FIELD);
+            query.setFacetLimit(-1);
+            query.setFacetMinCount(1);
+            QueryResponse response = source.query(query);
+            Map<String, Long> counts = new HashMap<>();
+            FacetField facet = response.getFacetField(SYMPTOM_FIELD);
+            if (facet != null && facet.getValues() != null) {
+                for (FacetField.Count count : facet.getValues()) {
+                    counts.put(count.getName(), count.getCount());
+                }
+            }
+            Long total = counts.get(ROOT);
+            InformationContentTable table =
+                new InformationContentTable(counts, total == null ? 0 : total, this.omim.getVersion());
+
+            AnnotationSufficiencyModel.Builder builder = new AnnotationSufficiencyModel.Builder(table,
+                getCategories(this.hpo.getOntologyGraph()), this::getAncestorsAndSelf);
+
+            query = new SolrQuery(ACTUAL_SYMPTOM_FIELD + ":[* TO *]");
+            query.setRows(response.getResults() == null ? 0 : (int) response.getResults().getNumFound());
+            query.setFields(ACTUAL_SYMPTOM_FIELD);
+            response = source.query(query);
+            if (response.getResults() != null) {
+                for (SolrDocument disorder : response.getResults()) {
+                    Collection<Object> symptoms = disorder.getFieldValues(ACTUAL_SYMPTOM_FIELD);
+                    if (symptoms != null) {
+                        List<String> profile = new ArrayList<>(symptoms.size());
+                        symptoms.forEach(symptom -> profile.add(String.valueOf(symptom)));
+                        builder.addProfile(profile);
+                    }
+                }
+            }
+            AnnotationSufficiencyModel result = builder.build();
+            this.logger.debug("Computed the annotation sufficiency model from {} disorders for OMIM version [{}]",
+                result.getProfileCount(), table.getVersion());
+            return result;
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            this.logger.warn("Failed to compute the annotation sufficiency model: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    private Set<String> getCategories(OntologyGraph graph)
+    {
+        if (graph != null && graph.contains(AnnotationSufficiencyModel.PHENOTYPIC_ABNORMALITY)) {
+            return graph.getChildren(AnnotationSufficiencyModel.PHENOTYPIC_ABNORMALITY);
+        }
+        Set<String> result = new HashSet<>();
+        List<VocabularyTerm> terms = this.hpo.search(
+            Collections.singletonMap("is_a", AnnotationSufficiencyModel.PHENOTYPIC_ABNORMALITY));
+        if (terms != null) {
+            for (VocabularyTerm term : terms) {
+                result.add(term.getId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a phenotype and all its ancestors, from the HPO graph if available, or from the HPO vocabulary otherwise.
+     *
+     * @param id the identifier of the phenotype
+     * @return the identifiers of the phenotype and its ancestors, only the phenotype itself if it is unknown
+     */
+    private Set<String> getAncestorsAndSelf(String id)
+    {
+        OntologyGraph graph = this.hpo.getOntologyGraph();
+        Set<String> result = new HashSet<>();
+        result.add(id);
+        if (graph != null && graph.contains(id)) {
+            result.addAll(graph.getAncestors(id));
+            return result;
+        }
+        VocabularyTerm term = this.hpo.getTerm(id);
+        if (term != null) {
+            result.addAll(term.getAncestorsAndSelfIds());
+        }
+        return result;
+    }
+
+    private void scheduleSave()
+    {
+        if (!this.cache.isDirty() || System.currentTimeMillis() - this.lastSave < SAVE_INTERVAL
+            || !this.saving.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.workers.execute(() -> {
+                try {
+                    saveCache();
+                } finally {
+                    this.saving.set(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            this.saving.set(false);
+        }
+    }
+
+    private void saveCache()
+    {
+        try {
+            this.cache.save();
+        } catch (IOException ex) {
+            this.logger.warn("Failed to save the specificity score cache: {}", ex.getMessage());
+        }
+        this.lastSave = System.currentTimeMillis();
+    }
+
+    private int getConfiguredNumber(String name, int defaultValue)
+    {
+        Integer value = this.configuration.getProperty(name, Integer.class);
+        return value != null && value > 0 ? value : defaultValue;
+    }
+
+    private Date now()
+    {
+        return Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ROOT).getTime();
+    }
+}
@@ -23,6 +23,13 @@
 import org.phenotips.data.PatientSpecificityService;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -30,7 +37,8 @@
 
 /**
  * Default specificity computation, using the MONARCH initiative service, and, if that isn't available, falling back to
- * a local information content score.
+ * a local information content score. Setting {@code phenotips.patientScoring.scorer=annotationSufficiency} replaces the
+ * MONARCH service with the equivalent local annotation sufficiency scorer, for deployments without internet access.
  *
  * @version $Id$
  * @since 1.0M12
@@ -39,22 +47,33 @@
 @Singleton
 public class DefaultPatientSpecificityService implements PatientSpecificityService
 {
+    private static final String LOCAL_SCORER = "annotationSufficiency";
+
     /** The default, high quality scorer. */
     @Inject
     @Named("monarch")
     private PatientScorer monarchScorer;
 
+    /** The local replacement of the MONARCH scorer. */
+    @Inject
+    @Named(LOCAL_SCORER)
+    private PatientScorer localScorer;
+
     /** The fast local scorer. */
     @Inject
     @Named("omimInformationContent")
     private PatientScorer omimScorer;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
     @Override
     public PatientSpecificity getSpecificity(Patient patient)
     {
         PatientSpecificity spec = null;
 
-        spec = this.monarchScorer.getSpecificity(patient);
+        spec = getPrimaryScorer().getSpecificity(patient);
         if (spec == null) {
             spec = this.omimScorer.getSpecificity(patient);
         }
@@ -66,10 +85,34 @@ public double getScore(Patient patient)
     {
         double score = -1;
 
-        score = this.monarchScorer.getScore(patient);
+        score = getPrimaryScorer().getScore(patient);
         if (score == -1) {
             score = this.omimScorer.getScore(patient);
         }
         return score;
     }
+
+    @Override
+    public Map<Patient, Double> getScores(Collection<Patient> patients)
+    {
+        Map<Patient, Double> result = new LinkedHashMap<>(getPrimaryScorer().getScores(patients));
+        List<Patient> failed = new ArrayList<>();
+        for (Map.Entry<Patient, Double> score : result.entrySet()) {
+            if (score.getValue() == -1) {
+                failed.add(score.getKey());
+            }
+        }
+        if (!failed.isEmpty()) {
+            result.putAll(this.omimScorer.getScores(failed));
+        }
+        return result;
+    }
+
+    private PatientScorer getPrimaryScorer()
+    {
+        if (LOCAL_SCORER.equals(this.configuration.getProperty("phenotips.patientScoring.scorer", "monarch"))) {
+            return this.localScorer;
+        }
+        return this.monarchScorer;
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable table of the information content of the phenotypes annotated on OMIM disorders, i.e. how specific each
+ * phenotype is with regards to identifying a disorder. The counts are taken from the {@code symptom} field of the OMIM
+ * index, which already holds the ancestor closure of the annotations, so a phenotype counts all the disorders annotated
+ * with it or with one of its descendants. Identifiers are kept in a sorted array and the information content in a
+ * parallel primitive array, so lookups don't allocate anything.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class InformationContentTable
+{
+    private final String[] ids;
+
+    private final double[] informationContent;
+
+    private final long total;
+
+    private final String version;
+
+    /**
+     * Computes the information content of each phenotype.
+     *
+     * @param counts the number of disorders annotated with each phenotype, directly or through a descendant
+     * @param total the number of disorders annotated with at least one phenotype
+     * @param version the version of the vocabulary the counts were taken from, may be {@code null}
+     */
+    public InformationContentTable(Map<String, Long> counts, long total, String version)
+    {
+        this.total = total;
+        this.version = version;
+        this.ids = counts.keySet().toArray(new String[counts.size()]);
+        Arrays.sort(this.ids);
+        this.informationContent = new double[this.ids.length];
+        for (int i = 0; i < this.ids.length; ++i) {
+            this.informationContent[i] = informationContent(counts.get(this.ids[i]), total);
+        }
+    }
+
+    /**
+     * How much information is captured by a phenotype, in bits.
+     *
+     * @param id the phenotype identifier
+     * @return the information content of the phenotype, or {@code 0} if no disorder is annotated with it
+     */
+    public double getInformationContent(String id)
+    {
+        int index = id == null ? -1 : Arrays.binarySearch(this.ids, id);
+        return index < 0 ? 0 : this.informationContent[index];
+    }
+
+    /**
+     * The number of phenotypes in the table.
+     *
+     * @return a positive number, or {@code 0} for an empty table
+     */
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * The number of disorders annotated with at least one phenotype.
+     *
+     * @return a positive number, or {@code 0} for an empty table
+     */
+    public long getTotal()
+    {
+        return this.total;
+    }
+
+    /**
+     * The version of the vocabulary the counts were taken from.
+     *
+     * @return a version, or {@code null} if unknown
+     */
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * How much information is contained in {@code n} disorders out of all the annotated disorders?
+     *
+     * @param n the number of selected disorders
+     * @param total the number of annotated disorders
+     * @return the information content captured by the selected disorders
+     */
+    private static double informationContent(Long n, long total)
+    {
+        return n == null || n <= 0 || total <= 0 ? 0 : -Math.log((n * 1.0) / total) / Math.log(2);
+    }
+}
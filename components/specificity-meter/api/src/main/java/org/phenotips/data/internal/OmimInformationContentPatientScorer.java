@@ -21,17 +21,22 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientScorer;
 import org.phenotips.data.PatientSpecificity;
+import org.phenotips.vocabulary.OntologyGraph;
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.phase.Initializable;
-import org.xwiki.component.phase.InitializationException;
 
+import java.io.IOException;
 import java.util.Calendar;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -40,12 +45,18 @@
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.slf4j.Logger;
 
 /**
  * Patient scorer that computes a local score based on the information content provided by the selected positive and
- * negative features with regards to identifying OMIM disorders.
+ * negative features with regards to identifying OMIM disorders. The information content of all the phenotypes is
+ * computed at once in an {@link InformationContentTable}, using a single facet query on the OMIM index, and is
+ * recomputed only when the OMIM vocabulary is reindexed, so scoring a patient doesn't query the index.
  *
  * @version $Id$
  * @since 1.0M12
@@ -53,10 +64,13 @@
 @Component
 @Named("omimInformationContent")
 @Singleton
-public class OmimInformationContentPatientScorer implements PatientScorer, Initializable
+public class OmimInformationContentPatientScorer implements PatientScorer
 {
     private static final String SEARCH_FOR = "symptom";
 
+    /** The root of the HPO, annotated on all the disorders that have at least one phenotype. */
+    private static final String ROOT = "HP:0000001";
+
     /** Provides access to the OMIM ontology, where the information content is checked. */
     @Inject
     @Named("omim")
@@ -67,14 +81,17 @@ public class OmimInformationContentPatientScorer implements PatientScorer, Initi
     @Named("hpo")
     private Vocabulary hpo;
 
-    /** The total information present in OMIM that is reachable through phenotypes. */
-    private double totalTerms;
+    @Inject
+    private SolrVocabularyResourceManager solrManager;
 
-    @Override
-    public void initialize() throws InitializationException
-    {
-        this.totalTerms = this.omim.count(Collections.singletonMap(SEARCH_FOR, "HP:0000001"));
-    }
+    @Inject
+    private Logger logger;
+
+    /** The current information content table, {@code null} until first needed. */
+    private InformationContentTable table;
+
+    /** The OMIM core used for computing the current table, used for detecting when the vocabulary is reindexed. */
+    private SolrClient tableSource;
 
     @Override
     public PatientSpecificity getSpecificity(Patient patient)
@@ -86,35 +103,45 @@ public PatientSpecificity getSpecificity(Patient patient)
     @Override
     public double getScore(Patient patient)
     {
-        Pair<Double, Integer> symptomsScore = process(patient, true);
-        Pair<Double, Integer> negativeSymptomsScore = process(patient, false);
-        double score = 0;
+        return getScore(patient, getTable(), this.hpo.getOntologyGraph());
+    }
 
-        if (symptomsScore.getRight() + negativeSymptomsScore.getRight() > 0) {
-            score = 2 * Math.atan(symptomsScore.getLeft() / 10 + negativeSymptomsScore.getLeft() / 20) / Math.PI;
+    @Override
+    public Map<Patient, Double> getScores(Collection<Patient> patients)
+    {
+        InformationContentTable currentTable = getTable();
+        OntologyGraph graph = this.hpo.getOntologyGraph();
+        Map<Patient, Double> result = new LinkedHashMap<>();
+        for (Patient patient : patients) {
+            result.put(patient, getScore(patient, currentTable, graph));
         }
-        return score;
+        return result;
     }
 
-    /**
-     * Compute the information content of a patient's positive or negative symptoms.
-     *
-     * @param p the patient profile to score
-     * @param presentFeatures whether the score for positive ({@code true}) or negative ({@code false}) features is
-     *            computed
-     * @return the score (information content) and the number of features
-     */
-    private Pair<Double, Integer> process(Patient p, boolean presentFeatures)
+    private double getScore(Patient patient, InformationContentTable currentTable, OntologyGraph graph)
     {
-        double score = 0;
-        int count = 0;
-        for (Feature f : p.getFeatures()) {
-            if (StringUtils.isNotEmpty(f.getId()) && f.isPresent() == presentFeatures) {
-                score += informationContent(f);
-                count++;
+        double symptomsScore = 0;
+        int symptomsCount = 0;
+        double negativeSymptomsScore = 0;
+        int negativeSymptomsCount = 0;
+        for (Feature f : patient.getFeatures()) {
+            if (StringUtils.isEmpty(f.getId())) {
+                continue;
+            }
+            if (f.isPresent()) {
+                symptomsScore += informationContent(f.getId(), currentTable, graph);
+                symptomsCount++;
+            } else {
+                negativeSymptomsScore += informationContent(f.getId(), currentTable, graph);
+                negativeSymptomsCount++;
             }
         }
-        return new ImmutablePair<Double, Integer>(score, count);
+        double score = 0;
+
+        if (symptomsCount + negativeSymptomsCount > 0) {
+            score = 2 * Math.atan(symptomsScore / 10 + negativeSymptomsScore / 20) / Math.PI;
+        }
+        return score;
     }
 
     /**
@@ -122,39 +149,99 @@ private Pair<Double, Integer> process(Patient p, boolean presentFeatures)
      * the total selectable diseases. If a feature doesn't select any diseases at all, the information content of its
      * nearest represented ancestor is considered, with a slight boost for even more specificity.
      *
-     * @param f the target feature to measure
+     * @param id the identifier of the target feature to measure
+     * @param currentTable the information content of the represented phenotypes
+     * @param graph the HPO graph, used for finding the ancestors, may be {@code null}
      * @return the information content captured by this term
      */
-    private double informationContent(Feature f)
+    private double informationContent(String id, InformationContentTable currentTable, OntologyGraph graph)
     {
-        String toSearch = f.getId();
-        double ic = informationContent(this.omim.count(Collections.singletonMap(SEARCH_FOR, toSearch)));
+        String toSearch = id;
+        double ic = currentTable.getInformationContent(toSearch);
         int i = 0;
 
         while (ic == 0 && ++i < 5) {
-            VocabularyTerm term = this.hpo.getTerm(toSearch);
-            if (term == null) {
+            toSearch = getParent(toSearch, graph);
+            if (toSearch == null) {
                 break;
             }
-            Set<VocabularyTerm> parents = term.getParents();
-            if (parents.isEmpty()) {
-                break;
-            }
-            toSearch = parents.iterator().next().getId();
-            ic = informationContent(this.omim.count(Collections.singletonMap(SEARCH_FOR, toSearch)));
+            ic = currentTable.getInformationContent(toSearch);
         }
         return ic * (1 + i / 5);
     }
 
     /**
-     * How much information is contained in {@code n} terms out of the whole ontology?
+     * Gets one of the parents of an HPO term, from the HPO graph if available, or from the HPO vocabulary otherwise.
+     *
+     * @param id the identifier of the term
+     * @param graph the HPO graph, may be {@code null}
+     * @return the identifier of the first parent, or {@code null} if the term is unknown or a root
+     */
+    private String getParent(String id, OntologyGraph graph)
+    {
+        if (graph != null && graph.contains(id)) {
+            Iterator<String> parentIds = graph.getParents(id).iterator();
+            return parentIds.hasNext() ? parentIds.next() : null;
+        }
+        VocabularyTerm term = this.hpo.getTerm(id);
+        if (term == null) {
+            return null;
+        }
+        Iterator<String> parentIds = term.getParentIds().iterator();
+        return parentIds.hasNext() ? parentIds.next() : null;
+    }
+
+    /**
+     * Returns the information content table, computing it if the OMIM vocabulary was reindexed since the table was
+     * computed.
      *
-     * @param n the number of selected terms
-     * @return the information content captured by the selected terms
+     * @return the current table, or an empty table if it cannot be computed
      */
-    private double informationContent(long n)
+    private synchronized InformationContentTable getTable()
+    {
+        SolrClient source = this.solrManager.getSolrConnection(this.omim);
+        if (this.table == null || source != this.tableSource) {
+            InformationContentTable newTable = computeTable(source);
+            if (newTable == null) {
+                // Try again next time
+                return this.table != null ? this.table : new InformationContentTable(new HashMap<>(), 0, null);
+            }
+            this.table = newTable;
+            this.tableSource = source;
+        }
+        return this.table;
+    }
+
+    private InformationContentTable computeTable(SolrClient source)
     {
-        return n == 0 ? 0 : -Math.log((n * 1.0) / this.totalTerms) / Math.log(2);
+        if (source == null) {
+            return null;
+        }
+        SolrQuery query = new SolrQuery("*:*");
+        query.setRows(0);
+        query.setFacet(true);
+        query.addFacetField(SEARCH_FOR);
+        query.setFacetLimit(-1);
+        query.setFacetMinCount(1);
+        try {
+            QueryResponse response = source.query(query);
+            Map<String, Long> counts = new HashMap<>();
+            FacetField facet = response.getFacetField(SEARCH_FOR);
+            if (facet != null && facet.getValues() != null) {
+                for (FacetField.Count count : facet.getValues()) {
+                    counts.put(count.getName(), count.getCount());
+                }
+            }
+            Long total = counts.get(ROOT);
+            InformationContentTable result =
+                new InformationContentTable(counts, total == null ? 0 : total, this.omim.getVersion());
+            this.logger.debug("Computed the information content of {} phenotypes for OMIM version [{}]",
+                result.size(), result.getVersion());
+            return result;
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            this.logger.warn("Failed to compute the information content of phenotypes: {}", ex.getMessage());
+        }
+        return null;
     }
 
     private Date now()
@@ -0,0 +1,249 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+/**
+ * Score cache kept in memory and saved to a file, so that scores survive restarts. Entries are keyed by a hash of the
+ * scored feature set, so a patient whose features changed no longer matches its old entry, and the whole cache is tied
+ * to a fingerprint of the scoring data: entries computed from other data are discarded. The least recently used
+ * entries are evicted when the cache is full.
+ * <p>
+ * Layout, all numbers big-endian: the {@code int} magic number and format version, the fingerprint as modified UTF-8,
+ * the {@code int} number of entries, then each entry as its {@code long} key and {@code double} score, from the least
+ * to the most recently used.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class PersistentScoreCache
+{
+    private static final int MAGIC = 0x50545343;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+
+    private final Logger logger;
+
+    private final Map<Long, Double> scores;
+
+    private String fingerprint;
+
+    private boolean dirty;
+
+    /**
+     * Simple constructor.
+     *
+     * @param file where the cache is saved, may be {@code null} for a cache only kept in memory
+     * @param maxSize the maximum number of scores to keep
+     * @param logger where to log failures to read the cache file
+     */
+    public PersistentScoreCache(File file, int maxSize, Logger logger)
+    {
+        this.file = file;
+        this.logger = logger;
+        int limit = Math.max(1, maxSize);
+        this.scores = new LinkedHashMap<Long, Double>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest)
+            {
+                return size() > limit;
+            }
+        };
+    }
+
+    /**
+     * Computes the key of a feature set.
+     *
+     * @param featureSet a canonical representation of the feature set
+     * @return a hash of the feature set
+     */
+    public static long getKey(String featureSet)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(featureSet.getBytes(StandardCharsets.UTF_8));
+            long result = 0;
+            for (int i = 0; i < Long.BYTES; ++i) {
+                result = (result << 8) | (digest[i] & 0xFF);
+            }
+            return result;
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 is always available
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Ties the cache to the data scores are computed from. The first time, the scores saved in the cache file are
+     * loaded if they were computed from the same data. If the fingerprint changes, all the cached scores are discarded.
+     *
+     * @param dataFingerprint identifies the data scores are computed from
+     */
+    public synchronized void open(String dataFingerprint)
+    {
+        if (dataFingerprint.equals(this.fingerprint)) {
+            return;
+        }
+        boolean first = this.fingerprint == null;
+        this.fingerprint = dataFingerprint;
+        this.scores.clear();
+        this.dirty = true;
+        if (first && this.file != null && this.file.isFile()) {
+            load();
+        }
+    }
+
+    /**
+     * Gets a cached score.
+     *
+     * @param dataFingerprint identifies the data the score must be computed from
+     * @param key the key of the scored feature set, see {@link #getKey(String)}
+     * @return the cached score, or {@code null} if not cached or if the cache is no longer tied to the requested data
+     */
+    public synchronized Double get(String dataFingerprint, long key)
+    {
+        return dataFingerprint.equals(this.fingerprint) ? this.scores.get(key) : null;
+    }
+
+    /**
+     * Caches a score. The score is ignored if the cache was tied to other data since the score started being computed.
+     *
+     * @param dataFingerprint identifies the data the score was computed from
+     * @param key the key of the scored feature set, see {@link #getKey(String)}
+     * @param score the score to cache
+     */
+    public synchronized void put(String dataFingerprint, long key, double score)
+    {
+        if (dataFingerprint.equals(this.fingerprint)) {
+            this.scores.put(key, score);
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * The number of cached scores.
+     *
+     * @return a positive number, or {@code 0} for an empty cache
+     */
+    public synchronized int size()
+    {
+        return this.scores.size();
+    }
+
+    /**
+     * Checks if the cache changed since it was last saved.
+     *
+     * @return {@code true} if the cache must be saved
+     */
+    public synchronized boolean isDirty()
+    {
+        return this.dirty && this.fingerprint != null && this.file != null;
+    }
+
+    /**
+     * Saves the cache to its file, if it changed. The file is replaced atomically.
+     *
+     * @throws IOException if writing the file fails
+     */
+    public void save() throws IOException
+    {
+        String savedFingerprint;
+        long[] keys;
+        double[] values;
+        synchronized (this) {
+            if (!isDirty()) {
+                return;
+            }
+            savedFingerprint = this.fingerprint;
+            keys = new long[this.scores.size()];
+            values = new double[keys.length];
+            int i = 0;
+            for (Map.Entry<Long, Double> entry : this.scores.entrySet()) {
+                keys[i] = entry.getKey();
+                values[i++] = entry.getValue();
+            }
+            this.dirty = false;
+        }
+        File parent = this.file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        File temp = File.createTempFile("scores", ".tmp", parent);
+        try {
+            try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(savedFingerprint);
+                out.writeInt(keys.length);
+                for (int i = 0; i < keys.length; ++i) {
+                    out.writeLong(keys[i]);
+                    out.writeDouble(values[i]);
+                }
+            }
+            Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            synchronized (this) {
+                this.dirty = true;
+            }
+            throw ex;
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private void load()
+    {
+        Map<Long, Double> loaded = new LinkedHashMap<>();
+        try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !this.fingerprint.equals(in.readUTF())) {
+                this.logger.debug("Ignoring outdated specificity score cache [{}]", this.file);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                loaded.put(in.readLong(), in.readDouble());
+            }
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the specificity score cache [{}]: {}", this.file, ex.getMessage());
+            return;
+        }
+        this.scores.putAll(loaded);
+        this.dirty = false;
+    }
+}
@@ -75,6 +75,19 @@ public double getScore(Patient patient)
         return this.service.getScore(patient);
     }
 
+    /**
+     * Compute the raw specificity scores for several patients at once, for example for displaying a list of patients.
+     *
+     * @param patients the patients to score
+     * @return the score of each patient, in the iteration order of the collection; each score is between {@code 0}
+     *         and {@code 1}, or {@code -1} if the score cannot be computed
+     * @since 1.5
+     */
+    public Map<Patient, Double> getScores(Collection<Patient> patients)
+    {
+        return this.service.getScores(patients);
+    }
+
     /**
      * Compute the raw specificity score for a patient snapshot, literally a collection of positive and negative
      * features.
@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AnnotationSufficiencyModelTest
+{
+    private static final String ROOT = "HP:0000001";
+
+    private static final String ABNORMALITY = AnnotationSufficiencyModel.PHENOTYPIC_ABNORMALITY;
+
+    private final Map<String, Set<String>> ancestors = new HashMap<>();
+
+    private InformationContentTable table;
+
+    @Before
+    public void setup()
+    {
+        addTerm(ROOT);
+        addTerm(ABNORMALITY, ROOT);
+        addTerm("HP:A", ABNORMALITY, ROOT);
+        addTerm("HP:B", ABNORMALITY, ROOT);
+        addTerm("HP:A1", "HP:A", ABNORMALITY, ROOT);
+        addTerm("HP:A2", "HP:A", ABNORMALITY, ROOT);
+        addTerm("HP:A11", "HP:A1", "HP:A", ABNORMALITY, ROOT);
+        addTerm("HP:B1", "HP:B", ABNORMALITY, ROOT);
+
+        // Four disorders: {A1}, {A2, B1}, {A1, B1}, {A2}
+        Map<String, Long> counts = new HashMap<>();
+        counts.put(ROOT, 4L);
+        counts.put(ABNORMALITY, 4L);
+        counts.put("HP:A", 4L);
+        counts.put("HP:A1", 2L);
+        counts.put("HP:A2", 2L);
+        counts.put("HP:B", 2L);
+        counts.put("HP:B1", 2L);
+        this.table = new InformationContentTable(counts, 4, "v1");
+    }
+
+    @Test
+    public void richerProfilesScoreHigher()
+    {
+        AnnotationSufficiencyModel model = build(this.table, categories());
+        double single = model.getScore(Collections.singleton("HP:A1"));
+        double two = model.getScore(Arrays.asList("HP:A1", "HP:B1"));
+        // Simple score (0.5 + 0.5 + 0.193) / 3, averaged with the category score 0.193
+        Assert.assertEquals(0.295, single, 0.001);
+        // Simple score (0.5 + 0.5 + 0.807) / 3, averaged with the category score 0.807
+        Assert.assertEquals(0.705, two, 0.001);
+        Assert.assertEquals(4, model.getProfileCount());
+    }
+
+    @Test
+    public void uninformativeProfilesScore0()
+    {
+        AnnotationSufficiencyModel model = build(this.table, categories());
+        Assert.assertEquals(0.0, model.getScore(Collections.<String>emptySet()), 0.0);
+        Assert.assertEquals(0.0, model.getScore(Arrays.asList(ABNORMALITY, "HP:A")), 0.0);
+        Assert.assertEquals(0.0, model.getScore(Collections.singleton("HP:unknown")), 0.0);
+    }
+
+    @Test
+    public void unannotatedPhenotypesAreReplacedByTheirMostInformativeAncestor()
+    {
+        AnnotationSufficiencyModel model = build(this.table, categories());
+        Assert.assertEquals(model.getScore(Collections.singleton("HP:A1")),
+            model.getScore(Collections.singleton("HP:A11")), 0.0);
+        Assert.assertEquals(model.getScore(Collections.singleton("HP:A1")),
+            model.getScore(Arrays.asList("HP:A1", "HP:A11", ABNORMALITY)), 0.0);
+    }
+
+    @Test
+    public void categoriesAreOptional()
+    {
+        AnnotationSufficiencyModel model = build(this.table, Collections.<String>emptySet());
+        Assert.assertEquals(0.398, model.getScore(Collections.singleton("HP:A1")), 0.001);
+        Assert.assertEquals(0.602, model.getScore(Arrays.asList("HP:A1", "HP:B1")), 0.001);
+    }
+
+    @Test
+    public void emptyModelScores0()
+    {
+        AnnotationSufficiencyModel model =
+            new AnnotationSufficiencyModel.Builder(this.table, categories(), this.ancestors::get).build();
+        Assert.assertEquals(0, model.getProfileCount());
+        Assert.assertEquals(0.0, model.getScore(Collections.singleton("HP:A1")), 0.0);
+    }
+
+    @Test
+    public void fingerprintIdentifiesTheData()
+    {
+        AnnotationSufficiencyModel model = build(this.table, categories());
+        Assert.assertEquals(model.getFingerprint(), build(this.table, categories()).getFingerprint());
+        Assert.assertTrue(model.getFingerprint().startsWith("v1/4/"));
+
+        Map<String, Long> counts = new HashMap<>();
+        counts.put(ROOT, 4L);
+        counts.put("HP:A1", 2L);
+        InformationContentTable other = new InformationContentTable(counts, 4, "v1");
+        Assert.assertNotEquals(model.getFingerprint(), build(other, categories()).getFingerprint());
+    }
+
+    private AnnotationSufficiencyModel build(InformationContentTable informationContent, Set<String> categories)
+    {
+        return new AnnotationSufficiencyModel.Builder(informationContent, categories,
+            id -> this.ancestors.getOrDefault(id, Collections.singleton(id)))
+                .addProfile(Collections.singleton("HP:A1"))
+                .addProfile(Arrays.asList("HP:A2", "HP:B1"))
+                .addProfile(Arrays.asList("HP:A1", "HP:B1"))
+                .addProfile(Collections.singleton("HP:A2"))
+                .build();
+    }
+
+    private Set<String> categories()
+    {
+        return new HashSet<>(Arrays.asList("HP:A", "HP:B"));
+    }
+
+    private void addTerm(String id, String... termAncestors)
+    {
+        Set<String> result = new HashSet<>(Arrays.asList(termAncestors));
+        result.add(id);
+        this.ancestors.put(id, result);
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientScorer;
+import org.phenotips.data.PatientSpecificity;
+import org.phenotips.vocabulary.OntologyGraph;
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AnnotationSufficiencyPatientScorerTest
+{
+    private static final String ROOT = "HP:0000001";
+
+    private static final String ABNORMALITY = AnnotationSufficiencyModel.PHENOTYPIC_ABNORMALITY;
+
+    private static final String ACTUAL_SYMPTOM = "actual_symptom";
+
+    @Rule
+    public final MockitoComponentMockingRule<PatientScorer> mocker =
+        new MockitoComponentMockingRule<>(AnnotationSufficiencyPatientScorer.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Vocabulary hpo;
+
+    private Vocabulary omim;
+
+    private SolrVocabularyResourceManager solrManager;
+
+    private SolrClient omimCore;
+
+    @Before
+    public void setup() throws ComponentLookupException, SolrServerException, IOException
+    {
+        this.hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
+        OntologyGraph graph = new OntologyGraph.Builder()
+            .addTerm(ROOT, null)
+            .addTerm(ABNORMALITY, Arrays.asList(ROOT))
+            .addTerm("HP:A", Arrays.asList(ABNORMALITY))
+            .addTerm("HP:B", Arrays.asList(ABNORMALITY))
+            .addTerm("HP:A1", Arrays.asList("HP:A"))
+            .addTerm("HP:A2", Arrays.asList("HP:A"))
+            .addTerm("HP:A11", Arrays.asList("HP:A1"))
+            .addTerm("HP:B1", Arrays.asList("HP:B"))
+            .build();
+        when(this.hpo.getOntologyGraph()).thenReturn(graph);
+
+        this.omim = this.mocker.getInstance(Vocabulary.class, "omim");
+        when(this.omim.getVersion()).thenReturn("v1");
+        this.solrManager = this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        this.omimCore = mockCore();
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(this.omimCore);
+
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("phenotips.patientScoring.annotationSufficiency.threads", Integer.class))
+            .thenReturn(2);
+    }
+
+    @Test
+    public void getScoreWithNoFeaturesReturns0() throws Exception
+    {
+        Assert.assertEquals(0.0, this.mocker.getComponentUnderTest().getScore(mockPatient()), 0.0);
+        Assert.assertEquals(0.0, this.mocker.getComponentUnderTest().getScore(mockPatient("")), 0.0);
+        verify(this.omimCore, never()).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void getScoreUsesAnnotationSufficiency() throws Exception
+    {
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A1")), 0.001);
+        Assert.assertEquals(0.705, scorer.getScore(mockPatient("HP:A1", "HP:B1")), 0.001);
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A11")), 0.001);
+        Assert.assertEquals(0.0, scorer.getScore(mockPatient(ABNORMALITY)), 0.0);
+    }
+
+    @Test
+    public void excludedFeaturesAreNotScored() throws Exception
+    {
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(0.0, scorer.getScore(mockPatient("-HP:A1", "-HP:B1")), 0.0);
+        verify(this.omimCore, never()).query(any(SolrParams.class));
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A1", "-HP:B1")), 0.001);
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A1", "-HP:A2", "-HP:B1")), 0.001);
+    }
+
+    @Test
+    public void getSpecificityUsesAnnotationSufficiency() throws Exception
+    {
+        PatientSpecificity spec = this.mocker.getComponentUnderTest().getSpecificity(mockPatient("HP:A1", "HP:B1"));
+        Assert.assertEquals(0.705, spec.getScore(), 0.001);
+        Assert.assertEquals("local-annotation-sufficiency", spec.getComputingMethod());
+        Assert.assertNotNull(spec.getComputationDate());
+    }
+
+    @Test
+    public void getScoresScoresManyPatientsInParallel() throws Exception
+    {
+        List<String> terms = Arrays.asList("HP:A1", "HP:A2", "HP:B1", "HP:A11", "HP:A", "HP:B");
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 1; i < 1 << terms.size(); ++i) {
+            List<String> features = new ArrayList<>();
+            for (int j = 0; j < terms.size(); ++j) {
+                if ((i & 1 << j) != 0) {
+                    features.add(terms.get(j));
+                }
+            }
+            patients.add(mockPatient(features.toArray(new String[features.size()])));
+            Collections.reverse(features);
+            patients.add(mockPatient(features.toArray(new String[features.size()])));
+        }
+        Patient empty = mockPatient();
+        patients.add(empty);
+
+        Map<Patient, Double> scores = this.mocker.getComponentUnderTest().getScores(patients);
+        Assert.assertEquals(patients, new ArrayList<>(scores.keySet()));
+        for (int i = 0; i + 1 < patients.size(); i += 2) {
+            double score = scores.get(patients.get(i));
+            Assert.assertTrue(score >= 0 && score <= 1);
+            // The order of the features doesn't matter
+            Assert.assertEquals(score, scores.get(patients.get(i + 1)), 0.0);
+        }
+        Assert.assertEquals(0.295, scores.get(patients.get(0)), 0.001);
+        Assert.assertEquals(0.0, scores.get(empty), 0.0);
+        // One query for the phenotype counts and one for the disorder profiles
+        verify(this.omimCore, times(2)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void scoresAreCached() throws Exception
+    {
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        Patient patient = mockPatient("HP:A1", "-HP:B1");
+        double score = scorer.getScore(patient);
+        Assert.assertEquals(score, scorer.getScore(mockPatient("-HP:B1", "HP:A1")), 0.0);
+        Assert.assertEquals(score, scorer.getScore(patient), 0.0);
+        verify(this.omimCore, times(2)).query(any(SolrParams.class));
+
+        ((Disposable) scorer).dispose();
+        Assert.assertTrue(new File(this.folder.getRoot(), "specificity/scores.cache").isFile());
+    }
+
+    @Test
+    public void modelIsRecomputedWhenOmimIsReindexed() throws Exception
+    {
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        scorer.getScore(mockPatient("HP:A1"));
+
+        SolrClient newCore = mockCore();
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(newCore);
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A1")), 0.001);
+        scorer.getScore(mockPatient("HP:A2"));
+
+        verify(this.omimCore, times(2)).query(any(SolrParams.class));
+        verify(newCore, times(2)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void failuresAreReportedAndRetried() throws Exception
+    {
+        SolrClient failingCore = mock(SolrClient.class);
+        when(failingCore.query(any(SolrParams.class))).thenThrow(new SolrServerException("Failed"));
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(failingCore);
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(-1.0, scorer.getScore(mockPatient("HP:A1")), 0.0);
+        Assert.assertNull(scorer.getSpecificity(mockPatient("HP:A1")));
+        Assert.assertEquals(0.0, scorer.getScore(mockPatient()), 0.0);
+
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(null);
+        Assert.assertEquals(-1.0, scorer.getScore(mockPatient("HP:A1")), 0.0);
+
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(this.omimCore);
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A1")), 0.001);
+
+        // A failure after a successful computation keeps the previous model
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(failingCore);
+        Assert.assertEquals(0.705, scorer.getScore(mockPatient("HP:A1", "HP:B1")), 0.001);
+    }
+
+    @Test
+    public void vocabularyTermsAreUsedWithoutGraph() throws Exception
+    {
+        when(this.hpo.getOntologyGraph()).thenReturn(null);
+        VocabularyTerm categoryA = mockTerm("HP:A");
+        VocabularyTerm categoryB = mockTerm("HP:B");
+        when(this.hpo.search(Collections.singletonMap("is_a", ABNORMALITY)))
+            .thenReturn(Arrays.asList(categoryA, categoryB));
+        VocabularyTerm a1 = mockTerm("HP:A1", categoryA);
+        mockTerm("HP:A2", categoryA);
+        mockTerm("HP:B1", categoryB);
+        mockTerm("HP:A11", a1, categoryA);
+
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A1")), 0.001);
+        Assert.assertEquals(0.295, scorer.getScore(mockPatient("HP:A11")), 0.001);
+        Assert.assertEquals(0.705, scorer.getScore(mockPatient("HP:A1", "HP:B1")), 0.001);
+        Assert.assertEquals(0.0, scorer.getScore(mockPatient("HP:unknown")), 0.0);
+    }
+
+    private VocabularyTerm mockTerm(String id, VocabularyTerm... ancestors)
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn(id);
+        Set<VocabularyTerm> ancestorsAndSelf = new LinkedHashSet<>(Arrays.asList(ancestors));
+        ancestorsAndSelf.add(term);
+        when(term.getAncestorsAndSelf()).thenReturn(ancestorsAndSelf);
+        Set<String> ancestorsAndSelfIds = new LinkedHashSet<>();
+        for (VocabularyTerm ancestor : ancestorsAndSelf) {
+            ancestorsAndSelfIds.add(ancestor.getId());
+        }
+        when(term.getAncestorsAndSelfIds()).thenReturn(ancestorsAndSelfIds);
+        when(this.hpo.getTerm(id)).thenReturn(term);
+        return term;
+    }
+
+    private Patient mockPatient(String... features)
+    {
+        Patient patient = mock(Patient.class);
+        Set<Feature> result = new LinkedHashSet<>();
+        for (String id : features) {
+            Feature feature = mock(Feature.class);
+            boolean present = !id.startsWith("-");
+            when(feature.getId()).thenReturn(present ? id : id.substring(1));
+            when(feature.isPresent()).thenReturn(present);
+            result.add(feature);
+        }
+        Mockito.doReturn(result).when(patient).getFeatures();
+        return patient;
+    }
+
+    private SolrClient mockCore() throws SolrServerException, IOException
+    {
+        // Four disorders: {A1}, {A2, B1}, {A1, B1}, {A2}
+        FacetField symptoms = new FacetField("symptom");
+        symptoms.add(ROOT, 4L);
+        symptoms.add(ABNORMALITY, 4L);
+        symptoms.add("HP:A", 4L);
+        symptoms.add("HP:A1", 2L);
+        symptoms.add("HP:A2", 2L);
+        symptoms.add("HP:B", 2L);
+        symptoms.add("HP:B1", 2L);
+        QueryResponse counts = mock(QueryResponse.class);
+        when(counts.getFacetField("symptom")).thenReturn(symptoms);
+        SolrDocumentList all = new SolrDocumentList();
+        all.setNumFound(4);
+        when(counts.getResults()).thenReturn(all);
+
+        SolrDocumentList disorders = new SolrDocumentList();
+        disorders.add(mockDisorder("HP:A1"));
+        disorders.add(mockDisorder("HP:A2", "HP:B1"));
+        disorders.add(mockDisorder("HP:A1", "HP:B1"));
+        disorders.add(mockDisorder("HP:A2"));
+        disorders.add(new SolrDocument());
+        QueryResponse profiles = mock(QueryResponse.class);
+        when(profiles.getResults()).thenReturn(disorders);
+
+        SolrClient core = mock(SolrClient.class);
+        when(core.query(any(SolrParams.class))).thenAnswer(
+            invocation -> ((SolrParams) invocation.getArguments()[0]).getBool(FacetParams.FACET, false)
+                ? counts : profiles);
+        return core;
+    }
+
+    private SolrDocument mockDisorder(String... symptoms)
+    {
+        SolrDocument result = new SolrDocument();
+        for (String symptom : symptoms) {
+            result.addField(ACTUAL_SYMPTOM, symptom);
+        }
+        return result;
+    }
+}
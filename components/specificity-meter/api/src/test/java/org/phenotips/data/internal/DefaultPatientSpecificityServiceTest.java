@@ -24,8 +24,14 @@
 
 import org.xwiki.cache.CacheException;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -34,6 +40,8 @@
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class DefaultPatientSpecificityServiceTest
@@ -93,4 +101,56 @@ public void getSpecificityForwardsToOmimWhenMonarchScorerUnavailable() throws Co
         when(this.omimScorer.getSpecificity(this.patient)).thenReturn(this.spec);
         Assert.assertSame(this.spec, this.mocker.getComponentUnderTest().getSpecificity(this.patient));
     }
+
+    @Test
+    public void getScoresForwardsToMonarch() throws ComponentLookupException
+    {
+        Map<Patient, Double> scores = Collections.singletonMap(this.patient, 0.5);
+        when(this.monarchScorer.getScores(Collections.singletonList(this.patient))).thenReturn(scores);
+        Assert.assertEquals(scores,
+            this.mocker.getComponentUnderTest().getScores(Collections.singletonList(this.patient)));
+        Mockito.verifyZeroInteractions(this.omimScorer);
+    }
+
+    @Test
+    public void getScoresForwardsFailedPatientsToOmim() throws ComponentLookupException
+    {
+        Patient other = mock(Patient.class);
+        Patient third = mock(Patient.class);
+        Map<Patient, Double> monarchScores = new LinkedHashMap<>();
+        monarchScores.put(this.patient, -1.0);
+        monarchScores.put(other, 0.5);
+        monarchScores.put(third, -1.0);
+        when(this.monarchScorer.getScores(anyCollectionOf(Patient.class))).thenReturn(monarchScores);
+        Map<Patient, Double> omimScores = new LinkedHashMap<>();
+        omimScores.put(this.patient, 0.25);
+        omimScores.put(third, 0.75);
+        when(this.omimScorer.getScores(Arrays.asList(this.patient, third))).thenReturn(omimScores);
+
+        Map<Patient, Double> scores =
+            this.mocker.getComponentUnderTest().getScores(Arrays.asList(this.patient, other, third));
+        Assert.assertEquals(Arrays.asList(this.patient, other, third), Arrays.asList(scores.keySet().toArray()));
+        Assert.assertEquals(0.25, scores.get(this.patient), 0.0);
+        Assert.assertEquals(0.5, scores.get(other), 0.0);
+        Assert.assertEquals(0.75, scores.get(third), 0.0);
+    }
+
+    @Test
+    public void localScorerReplacesMonarchWhenConfigured() throws ComponentLookupException
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("phenotips.patientScoring.scorer", "monarch"))
+            .thenReturn("annotationSufficiency");
+        PatientScorer localScorer = this.mocker.getInstance(PatientScorer.class, "annotationSufficiency");
+        when(localScorer.getScore(this.patient)).thenReturn(0.5);
+        when(localScorer.getSpecificity(this.patient)).thenReturn(this.spec);
+        Map<Patient, Double> scores = Collections.singletonMap(this.patient, 0.5);
+        when(localScorer.getScores(Collections.singletonList(this.patient))).thenReturn(scores);
+
+        PatientSpecificityService service = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(0.5, service.getScore(this.patient), 0.0);
+        Assert.assertSame(this.spec, service.getSpecificity(this.patient));
+        Assert.assertEquals(scores, service.getScores(Collections.singletonList(this.patient)));
+        Mockito.verifyZeroInteractions(this.monarchScorer, this.omimScorer);
+    }
 }
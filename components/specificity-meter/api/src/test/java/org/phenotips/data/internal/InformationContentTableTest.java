@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InformationContentTableTest
+{
+    @Test
+    public void informationContentIsComputedFromCounts()
+    {
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("HP:0000001", 64L);
+        counts.put("HP:1", 32L);
+        counts.put("HP:2", 1L);
+        counts.put("HP:3", 0L);
+        InformationContentTable table = new InformationContentTable(counts, 64, "2024-01-01");
+
+        Assert.assertEquals(0.0, table.getInformationContent("HP:0000001"), 0.0);
+        Assert.assertEquals(1.0, table.getInformationContent("HP:1"), 0.0001);
+        Assert.assertEquals(6.0, table.getInformationContent("HP:2"), 0.0001);
+        Assert.assertEquals(0.0, table.getInformationContent("HP:3"), 0.0);
+        Assert.assertEquals(0.0, table.getInformationContent("HP:4"), 0.0);
+        Assert.assertEquals(0.0, table.getInformationContent(null), 0.0);
+        Assert.assertEquals(4, table.size());
+        Assert.assertEquals(64, table.getTotal());
+        Assert.assertEquals("2024-01-01", table.getVersion());
+    }
+
+    @Test
+    public void emptyTableHasNoInformation()
+    {
+        InformationContentTable table = new InformationContentTable(new HashMap<>(), 0, null);
+        Assert.assertEquals(0.0, table.getInformationContent("HP:1"), 0.0);
+        Assert.assertEquals(0, table.size());
+        Assert.assertEquals(0, table.getTotal());
+        Assert.assertNull(table.getVersion());
+    }
+}
@@ -21,6 +21,8 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientScorer;
 import org.phenotips.data.PatientSpecificity;
+import org.phenotips.vocabulary.OntologyGraph;
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
@@ -28,10 +30,18 @@
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.SolrParams;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -40,7 +50,12 @@
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OmimInformationContentPatientScorerTest
@@ -58,8 +73,12 @@
 
     private Vocabulary omim;
 
+    private SolrVocabularyResourceManager solrManager;
+
+    private SolrClient omimCore;
+
     @Before
-    public void setup() throws CacheException, ComponentLookupException
+    public void setup() throws CacheException, ComponentLookupException, SolrServerException, IOException
     {
         MockitoAnnotations.initMocks(this);
         Feature feature = mock(Feature.class);
@@ -80,17 +99,13 @@ public void setup() throws CacheException, ComponentLookupException
 
         this.hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
         VocabularyTerm hp3 = mock(VocabularyTerm.class);
-        VocabularyTerm hp4 = mock(VocabularyTerm.class);
         when(this.hpo.getTerm("HP:3")).thenReturn(hp3);
-        when(hp3.getParents()).thenReturn(Collections.singleton(hp4));
-        when(hp4.getId()).thenReturn("HP:4");
+        when(hp3.getParentIds()).thenReturn(Collections.singleton("HP:4"));
 
         this.omim = this.mocker.getInstance(Vocabulary.class, "omim");
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:0000001"))).thenReturn(60L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:1"))).thenReturn(3L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:2"))).thenReturn(1L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:3"))).thenReturn(0L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:4"))).thenReturn(2L);
+        this.solrManager = this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        this.omimCore = mockCore();
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(this.omimCore);
     }
 
     @Test
@@ -148,18 +163,11 @@ public void getScoreWithNonInformativeFeaturesReturns0() throws ComponentLookupE
         when(hp13.getId()).thenReturn("HP:13");
         when(hp14.getId()).thenReturn("HP:14");
         when(hp15.getId()).thenReturn("HP:15");
-        when(hp10.getParents()).thenReturn(Collections.singleton(hp11));
-        when(hp11.getParents()).thenReturn(Collections.singleton(hp12));
-        when(hp12.getParents()).thenReturn(Collections.singleton(hp13));
-        when(hp13.getParents()).thenReturn(Collections.singleton(hp14));
-        when(hp14.getParents()).thenReturn(Collections.singleton(hp15));
-
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:10"))).thenReturn(0L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:11"))).thenReturn(0L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:12"))).thenReturn(0L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:13"))).thenReturn(0L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:14"))).thenReturn(0L);
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:15"))).thenReturn(0L);
+        when(hp10.getParentIds()).thenReturn(Collections.singleton("HP:11"));
+        when(hp11.getParentIds()).thenReturn(Collections.singleton("HP:12"));
+        when(hp12.getParentIds()).thenReturn(Collections.singleton("HP:13"));
+        when(hp13.getParentIds()).thenReturn(Collections.singleton("HP:14"));
+        when(hp14.getParentIds()).thenReturn(Collections.singleton("HP:15"));
 
         Feature feature = mock(Feature.class);
         when(feature.getId()).thenReturn("HP:10");
@@ -175,8 +183,7 @@ public void getScoreWithParentlessTermDoesntThrowException() throws ComponentLoo
         VocabularyTerm hp10 = mock(VocabularyTerm.class);
         when(this.hpo.getTerm("HP:10")).thenReturn(hp10);
         when(hp10.getId()).thenReturn("HP:10");
-        when(hp10.getParents()).thenReturn(Collections.<VocabularyTerm>emptySet());
-        when(this.omim.count(Collections.singletonMap("symptom", "HP:10"))).thenReturn(0L);
+        when(hp10.getParentIds()).thenReturn(Collections.<String>emptySet());
 
         Feature feature = mock(Feature.class);
         when(feature.getId()).thenReturn("HP:10");
@@ -185,4 +192,116 @@ public void getScoreWithParentlessTermDoesntThrowException() throws ComponentLoo
 
         Assert.assertEquals(0.0, this.mocker.getComponentUnderTest().getScore(this.patient), 0.0);
     }
+
+    @Test
+    public void getScoreWithUnknownTermReturns0() throws ComponentLookupException
+    {
+        Feature feature = mock(Feature.class);
+        when(feature.getId()).thenReturn("HP:10");
+        when(feature.isPresent()).thenReturn(true);
+        Mockito.doReturn(Collections.singleton(feature)).when(this.patient).getFeatures();
+
+        Assert.assertEquals(0.0, this.mocker.getComponentUnderTest().getScore(this.patient), 0.0);
+    }
+
+    @Test
+    public void ancestorsAreTakenFromTheGraphWhenAvailable() throws Exception
+    {
+        OntologyGraph graph = new OntologyGraph.Builder()
+            .addTerm("HP:3", Arrays.asList("HP:4"))
+            .addTerm("HP:4", Arrays.asList("HP:0000001"))
+            .addTerm("HP:5", null)
+            .build();
+        when(this.hpo.getOntologyGraph()).thenReturn(graph);
+        Mockito.doReturn(this.features).when(this.patient).getFeatures();
+        Assert.assertEquals(0.56, this.mocker.getComponentUnderTest().getScore(this.patient), 0.01);
+
+        Feature root = mock(Feature.class);
+        when(root.getId()).thenReturn("HP:5");
+        when(root.isPresent()).thenReturn(true);
+        Mockito.doReturn(Collections.singleton(root)).when(this.patient).getFeatures();
+        Assert.assertEquals(0.0, this.mocker.getComponentUnderTest().getScore(this.patient), 0.0);
+
+        verify(this.hpo, never()).getTerm(anyString());
+    }
+
+    @Test
+    public void informationContentIsComputedOnlyOnce() throws Exception
+    {
+        Mockito.doReturn(this.features).when(this.patient).getFeatures();
+        Patient other = mock(Patient.class);
+        Mockito.doReturn(Collections.emptySet()).when(other).getFeatures();
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+
+        scorer.getScore(this.patient);
+        Map<Patient, Double> scores = scorer.getScores(Arrays.asList(this.patient, other));
+        scorer.getSpecificity(this.patient);
+
+        Assert.assertEquals(2, scores.size());
+        Assert.assertEquals(0.56, scores.get(this.patient), 0.01);
+        Assert.assertEquals(0.0, scores.get(other), 0.0);
+        verify(this.omimCore, times(1)).query(any(SolrParams.class));
+        verify(this.omim, never()).count(any(Map.class));
+    }
+
+    @Test
+    public void informationContentIsRecomputedWhenOmimIsReindexed() throws Exception
+    {
+        Mockito.doReturn(this.features).when(this.patient).getFeatures();
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        scorer.getScore(this.patient);
+
+        SolrClient newCore = mockCore();
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(newCore);
+        Assert.assertEquals(0.56, scorer.getScore(this.patient), 0.01);
+        scorer.getScore(this.patient);
+
+        verify(this.omimCore, times(1)).query(any(SolrParams.class));
+        verify(newCore, times(1)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void failuresAreRetried() throws Exception
+    {
+        Mockito.doReturn(this.features).when(this.patient).getFeatures();
+        SolrClient failingCore = mock(SolrClient.class);
+        when(failingCore.query(any(SolrParams.class))).thenThrow(new SolrServerException("Failed"));
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(failingCore);
+        PatientScorer scorer = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(0.0, scorer.getScore(this.patient), 0.0);
+
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(null);
+        Assert.assertEquals(0.0, scorer.getScore(this.patient), 0.0);
+
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(this.omimCore);
+        Assert.assertEquals(0.56, scorer.getScore(this.patient), 0.01);
+
+        // A failure after a successful computation keeps the previous values
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(failingCore);
+        Assert.assertEquals(0.56, scorer.getScore(this.patient), 0.01);
+    }
+
+    @Test
+    public void missingFacetMeansNoInformation() throws Exception
+    {
+        Mockito.doReturn(this.features).when(this.patient).getFeatures();
+        SolrClient emptyCore = mock(SolrClient.class);
+        when(emptyCore.query(any(SolrParams.class))).thenReturn(mock(QueryResponse.class));
+        when(this.solrManager.getSolrConnection(this.omim)).thenReturn(emptyCore);
+        Assert.assertEquals(0.0, this.mocker.getComponentUnderTest().getScore(this.patient), 0.0);
+    }
+
+    private SolrClient mockCore() throws SolrServerException, IOException
+    {
+        FacetField symptoms = new FacetField("symptom");
+        symptoms.add("HP:0000001", 60L);
+        symptoms.add("HP:1", 3L);
+        symptoms.add("HP:2", 1L);
+        symptoms.add("HP:4", 2L);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getFacetField("symptom")).thenReturn(symptoms);
+        SolrClient core = mock(SolrClient.class);
+        when(core.query(any(SolrParams.class))).thenReturn(response);
+        return core;
+    }
 }
@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import static org.mockito.Mockito.mock;
+
+public class PersistentScoreCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    private Logger logger = mock(Logger.class);
+
+    @Before
+    public void setup()
+    {
+        this.file = new File(this.folder.getRoot(), "specificity/scores.cache");
+    }
+
+    @Test
+    public void keysDependOnTheFeatureSet()
+    {
+        Assert.assertEquals(PersistentScoreCache.getKey("HP:1,-HP:2"), PersistentScoreCache.getKey("HP:1,-HP:2"));
+        Assert.assertNotEquals(PersistentScoreCache.getKey("HP:1,-HP:2"), PersistentScoreCache.getKey("HP:1,HP:2"));
+    }
+
+    @Test
+    public void scoresAreSavedAndLoaded() throws IOException
+    {
+        PersistentScoreCache cache = new PersistentScoreCache(this.file, 10, this.logger);
+        cache.open("v1");
+        cache.put("v1", 1L, 0.25);
+        cache.put("v1", 2L, 0.5);
+        Assert.assertTrue(cache.isDirty());
+        cache.save();
+        Assert.assertFalse(cache.isDirty());
+        Assert.assertTrue(this.file.isFile());
+
+        PersistentScoreCache loaded = new PersistentScoreCache(this.file, 10, this.logger);
+        Assert.assertNull(loaded.get("v1", 1L));
+        loaded.open("v1");
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertEquals(0.25, loaded.get("v1", 1L), 0.0);
+        Assert.assertEquals(0.5, loaded.get("v1", 2L), 0.0);
+        Assert.assertNull(loaded.get("v1", 3L));
+        Assert.assertFalse(loaded.isDirty());
+    }
+
+    @Test
+    public void scoresComputedFromOtherDataAreDiscarded() throws IOException
+    {
+        PersistentScoreCache cache = new PersistentScoreCache(this.file, 10, this.logger);
+        cache.open("v1");
+        cache.put("v1", 1L, 0.25);
+        cache.save();
+
+        PersistentScoreCache loaded = new PersistentScoreCache(this.file, 10, this.logger);
+        loaded.open("v2");
+        Assert.assertEquals(0, loaded.size());
+        Assert.assertNull(loaded.get("v2", 1L));
+
+        cache.open("v1");
+        Assert.assertEquals(0.25, cache.get("v1", 1L), 0.0);
+        cache.open("v2");
+        Assert.assertNull(cache.get("v2", 1L));
+        Assert.assertTrue(cache.isDirty());
+    }
+
+    @Test
+    public void leastRecentlyUsedScoresAreEvicted() throws IOException
+    {
+        PersistentScoreCache cache = new PersistentScoreCache(this.file, 2, this.logger);
+        cache.open("v1");
+        cache.put("v1", 1L, 0.1);
+        cache.put("v1", 2L, 0.2);
+        cache.get("v1", 1L);
+        cache.put("v1", 3L, 0.3);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(0.1, cache.get("v1", 1L), 0.0);
+        Assert.assertNull(cache.get("v1", 2L));
+        cache.save();
+
+        PersistentScoreCache loaded = new PersistentScoreCache(this.file, 1, this.logger);
+        loaded.open("v1");
+        Assert.assertEquals(1, loaded.size());
+        Assert.assertEquals(0.1, loaded.get("v1", 1L), 0.0);
+    }
+
+    @Test
+    public void scoresOfOtherDataAreIgnored()
+    {
+        PersistentScoreCache cache = new PersistentScoreCache(this.file, 10, this.logger);
+        cache.open("v1");
+        cache.put("v1", 1L, 0.25);
+        cache.open("v2");
+        // Computed from the old data while the cache was reopened
+        cache.put("v1", 2L, 0.5);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNull(cache.get("v1", 1L));
+        Assert.assertNull(cache.get("v2", 2L));
+    }
+
+    @Test
+    public void unopenedCacheIsEmpty()
+    {
+        PersistentScoreCache cache = new PersistentScoreCache(this.file, 10, this.logger);
+        cache.put("v1", 1L, 0.25);
+        Assert.assertNull(cache.get("v1", 1L));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertFalse(cache.isDirty());
+    }
+
+    @Test
+    public void cacheWithoutFileIsOnlyKeptInMemory() throws IOException
+    {
+        PersistentScoreCache cache = new PersistentScoreCache(null, 10, this.logger);
+        cache.open("v1");
+        cache.put("v1", 1L, 0.25);
+        Assert.assertEquals(0.25, cache.get("v1", 1L), 0.0);
+        Assert.assertFalse(cache.isDirty());
+        cache.save();
+        Assert.assertFalse(this.file.exists());
+    }
+
+    @Test
+    public void corruptedFileIsIgnored() throws IOException
+    {
+        PersistentScoreCache cache = new PersistentScoreCache(this.file, 10, this.logger);
+        cache.open("v1");
+        cache.put("v1", 1L, 0.25);
+        cache.put("v1", 2L, 0.5);
+        cache.save();
+        byte[] content = Files.readAllBytes(this.file.toPath());
+        Files.write(this.file.toPath(), Arrays.copyOf(content, content.length - 4));
+
+        PersistentScoreCache loaded = new PersistentScoreCache(this.file, 10, this.logger);
+        loaded.open("v1");
+        Assert.assertEquals(0, loaded.size());
+        Assert.assertTrue(loaded.isDirty());
+    }
+}
@@ -24,7 +24,9 @@
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Assert;
@@ -51,6 +53,17 @@ public void getScoreWithPatientForwardsToService() throws ComponentLookupExcepti
         Assert.assertEquals(2.5, this.mocker.getComponentUnderTest().getScore(patient), 0.0);
     }
 
+    @Test
+    public void getScoresForwardsToService() throws ComponentLookupException
+    {
+        Patient patient = mock(Patient.class);
+        Collection<Patient> patients = Collections.singleton(patient);
+        Map<Patient, Double> scores = Collections.singletonMap(patient, 0.5);
+        PatientSpecificityService service = this.mocker.getInstance(PatientSpecificityService.class);
+        when(service.getScores(patients)).thenReturn(scores);
+        Assert.assertSame(scores, this.mocker.getComponentUnderTest().getScores(patients));
+    }
+
     @Test
     public void getScoreWithFeaturesForwardsToService() throws ComponentLookupException
     {
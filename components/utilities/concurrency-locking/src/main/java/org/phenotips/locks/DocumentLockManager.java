@@ -21,11 +21,14 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collections;
+import java.util.Map;
+
 import javax.annotation.Nonnull;
 
 /**
  * Allows acquiring and releasing locks on specific documents. Acquiring locks is a blocking operation, the method will
- * hang until the document is released.
+ * hang until the document is released. Locks can be exclusive, for changing a document, or shared, for only reading it.
  *
  * @version $Id$
  * @since 1.3.7
@@ -36,16 +39,52 @@
 public interface DocumentLockManager
 {
     /**
-     * Lock a document. This method will block until the lock is successfully obtained.
+     * Lock a document exclusively. This method will block until the lock is successfully obtained.
      *
      * @param document the document to lock
      */
     void lock(@Nonnull DocumentReference document);
 
     /**
-     * Unlock a document.
+     * Lock a document for reading. Several shared locks can be held on the same document at the same time, but not
+     * together with an {@link #lock(DocumentReference) exclusive lock}. This method will block until the lock is
+     * successfully obtained. The default implementation takes an exclusive lock.
+     *
+     * @param document the document to lock
+     * @since 1.5
+     */
+    default void lockShared(@Nonnull DocumentReference document)
+    {
+        lock(document);
+    }
+
+    /**
+     * Unlock a document, releasing the last lock, exclusive or shared, acquired on it.
      *
      * @param document the document to unlock
      */
     void unlock(@Nonnull DocumentReference document);
+
+    /**
+     * Reports how contended the lock of a document is.
+     *
+     * @param document the target document
+     * @return the usage counters of the document's lock, or an empty map if the document isn't currently tracked
+     * @since 1.5
+     */
+    default Map<String, Number> getStatistics(@Nonnull DocumentReference document)
+    {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Reports how contended the document locks are overall.
+     *
+     * @return the usage counters of all the document locks, may be empty if not supported
+     * @since 1.5
+     */
+    default Map<String, Number> getStatistics()
+    {
+        return Collections.emptyMap();
+    }
 }
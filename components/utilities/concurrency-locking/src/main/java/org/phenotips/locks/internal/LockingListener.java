@@ -23,31 +23,42 @@
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.bridge.event.ActionExecutionEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.observation.AbstractEventListener;
 import org.xwiki.observation.event.Event;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
+
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
- * An event listener that only allows one action request to proceed at a time for the same document. When an action
- * starts executing, a lock is aquired for the affected document, and when the action terminates, the lock is released.
- * If a lock is already held by an action execution, the subsequent actions will block while waiting for the lock to be
- * released. The purpose of this mechanism is to prevent concurrent document updates, which may cause inconsistent data,
- * hibernate stale state exceptions, unique key conflicts, or other storage errors. This isn't the best way to prevent
- * such errors, but properly fixing the concurrency problems of XWiki requires much deeper and broader fixes throughout
- * the old core and any custom code updating documents.
+ * An event listener that only allows one modifying action request to proceed at a time for the same document. When an
+ * action starts executing, a lock is aquired for the affected document, and when the action terminates, the lock is
+ * released. Actions that only read the document take a shared lock, so they can run at the same time, while the other
+ * actions take an exclusive lock. If a conflicting lock is already held by an action execution, the subsequent actions
+ * will block while waiting for the lock to be released. The purpose of this mechanism is to prevent concurrent document
+ * updates, which may cause inconsistent data, hibernate stale state exceptions, unique key conflicts, or other storage
+ * errors. This isn't the best way to prevent such errors, but properly fixing the concurrency problems of XWiki
+ * requires much deeper and broader fixes throughout the old core and any custom code updating documents.
  * <p>
  * Implementation note: the {@code get} and {@code view} methods should theoretically not be locked, since they don't
  * normally modify data, but at the moment there are still legacy scripts that are accessed in view mode but do modify
- * their or other documents' data, such as {@code OpenPatientRecord}, so these actions must also be locked.
+ * their or other documents' data, such as {@code OpenPatientRecord}, so these actions must also be locked. They take a
+ * shared lock, which still waits for the modifying actions. The actions taking a shared lock can be configured with the
+ * {@code phenotips.locks.sharedActions} comma-separated list in {@code xwiki.properties}; setting it to an empty value
+ * makes all the locks exclusive.
  * </p>
  *
  * @version $Id$
@@ -57,20 +68,37 @@
 @Component
 @Named("concurrency-locking")
 @Singleton
-public class LockingListener extends AbstractEventListener
+public class LockingListener extends AbstractEventListener implements Initializable
 {
     private static final List<String> SUPPORTED_EVENTS = Collections.unmodifiableList(
         Arrays.asList("get", "view", "save", "saveandcontinue", "preview", "objectadd", "objectremove", "rollback"));
 
+    private static final String DEFAULT_SHARED_ACTIONS = "get,view";
+
     @Inject
     private DocumentLockManager lockManager;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** The actions that only need a shared lock. */
+    private Collection<String> sharedActions;
+
     /** Basic constructor. */
     public LockingListener()
     {
         super("concurrency-locking", new ActionExecutingEvent(), new ActionExecutedEvent());
     }
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        String configured = this.configuration.getProperty("phenotips.locks.sharedActions", String.class);
+        this.sharedActions = new HashSet<>(Arrays.asList(
+            StringUtils.split(configured != null ? configured : DEFAULT_SHARED_ACTIONS, ", ")));
+    }
+
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
@@ -81,7 +109,9 @@ public void onEvent(Event event, Object source, Object data)
         if (!SUPPORTED_EVENTS.contains(name)) {
             return;
         }
-        if (event instanceof ActionExecutingEvent) {
+        if (event instanceof ActionExecutingEvent && this.sharedActions.contains(name)) {
+            this.lockManager.lockShared(((XWikiDocument) source).getDocumentReference());
+        } else if (event instanceof ActionExecutingEvent) {
             this.lockManager.lock(((XWikiDocument) source).getDocumentReference());
         } else if (event instanceof ActionExecutedEvent) {
             this.lockManager.unlock(((XWikiDocument) source).getDocumentReference());
@@ -20,22 +20,45 @@
 import org.phenotips.locks.DocumentLockManager;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.model.reference.DocumentReference;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.StampedLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 
 /**
  * Implementation for the {@link DocumentLockManager} role which will accept a lock request even if the lock couldn't be
- * obtained when a timeout interval (10 seconds) has ellapsed.
+ * obtained when a timeout interval (10 seconds by default) has ellapsed.
+ * <p>
+ * Each document has a semaphore with a large number of permits: an exclusive lock takes all of them, while a shared
+ * lock takes a single permit. Locks are not reentrant, and they must be released by the thread that acquired them.
+ * Lock entries are removed once they have been unused for a while, so that the number of tracked documents doesn't
+ * grow without bound. The following settings can be changed in {@code xwiki.properties}:
+ * </p>
+ * <ul>
+ * <li>{@code phenotips.locks.timeout}: how many seconds to wait for a lock before proceeding anyway, 10 by default</li>
+ * <li>{@code phenotips.locks.fair}: whether locks are granted in the order they were requested, {@code true} by
+ * default; unfair locks have a slightly better throughput, but a steady flow of shared locks can then delay exclusive
+ * locks until they time out</li>
+ * </ul>
  *
  * @version $Id$
  * @since 1.3.7
@@ -43,19 +66,132 @@
  */
 @Component
 @Singleton
-public class TimeoutDocumentLockManager implements DocumentLockManager
+public class TimeoutDocumentLockManager implements DocumentLockManager, Initializable
 {
+    private static final String CONFIGURATION_PREFIX = "phenotips.locks.";
+
+    private static final int DEFAULT_TIMEOUT = 10;
+
+    /** The number of permits of a document's semaphore, all of them are needed for an exclusive lock. */
+    private static final int EXCLUSIVE_PERMITS = Integer.MAX_VALUE;
+
+    /** How long, in nanoseconds, a lock must be unused before being removed. */
+    private static final long IDLE_TIME = TimeUnit.MINUTES.toNanos(5);
+
+    /** How often, in nanoseconds, to look for idle locks. */
+    private static final long EVICTION_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
     @Inject
     private Logger logger;
 
-    private final ConcurrentHashMap<DocumentReference, Lock> locks = new ConcurrentHashMap<>();
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private final ConcurrentHashMap<DocumentReference, DocumentLock> locks = new ConcurrentHashMap<>();
+
+    /** The permits held by the current thread for each document, last lock first, {@code 0} for timed out locks. */
+    private final ThreadLocal<Map<DocumentReference, Deque<Integer>>> held = ThreadLocal.withInitial(HashMap::new);
+
+    /** The usage counters of the locks that were removed. */
+    private final LockCounters evicted = new LockCounters();
+
+    private boolean fair = true;
+
+    private long timeout = TimeUnit.SECONDS.toNanos(DEFAULT_TIMEOUT);
+
+    private volatile long lastEviction = System.nanoTime();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Boolean configuredFairness = this.configuration.getProperty(CONFIGURATION_PREFIX + "fair", Boolean.class);
+        if (configuredFairness != null) {
+            this.fair = configuredFairness;
+        }
+        Integer configuredTimeout = this.configuration.getProperty(CONFIGURATION_PREFIX + "timeout", Integer.class);
+        if (configuredTimeout != null && configuredTimeout >= 0) {
+            this.timeout = TimeUnit.SECONDS.toNanos(configuredTimeout);
+        }
+    }
 
     @Override
     public void lock(@Nonnull final DocumentReference document)
     {
+        acquire(document, EXCLUSIVE_PERMITS);
+    }
+
+    @Override
+    public void lockShared(@Nonnull final DocumentReference document)
+    {
+        acquire(document, 1);
+    }
+
+    @Override
+    public void unlock(@Nonnull final DocumentReference document)
+    {
+        Map<DocumentReference, Deque<Integer>> threadLocks = this.held.get();
+        Deque<Integer> acquired = threadLocks.get(document);
+        if (acquired == null) {
+            // Unlocking may be requested without a matching lock, for example when locking failed with an exception
+            this.logger.debug("Lock on [{}] is not held by the current thread", document);
+            return;
+        }
+        int permits = acquired.pop();
+        if (acquired.isEmpty()) {
+            threadLocks.remove(document);
+        }
+        // The lock can't be evicted while it is still counted as used by this thread
+        DocumentLock lock = this.locks.get(document);
+        if (permits > 0 && lock != null) {
+            lock.permits.release(permits);
+        }
+        this.locks.computeIfPresent(document, (k, v) -> {
+            --v.users;
+            v.lastUsed = System.nanoTime();
+            return v;
+        });
+        evictIdleLocks();
+    }
+
+    @Override
+    public Map<String, Number> getStatistics(@Nonnull DocumentReference document)
+    {
+        DocumentLock lock = this.locks.get(document);
+        if (lock == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Number> result = lock.counters.toMap();
+        result.put("waiting", lock.permits.getQueueLength());
+        return result;
+    }
+
+    @Override
+    public Map<String, Number> getStatistics()
+    {
+        LockCounters totals = new LockCounters();
+        totals.add(this.evicted);
+        int waiting = 0;
+        for (DocumentLock lock : this.locks.values()) {
+            totals.add(lock.counters);
+            waiting += lock.permits.getQueueLength();
+        }
+        Map<String, Number> result = totals.toMap();
+        result.put("waiting", waiting);
+        result.put("documents", this.locks.size());
+        return result;
+    }
+
+    private void acquire(DocumentReference document, int permits)
+    {
+        DocumentLock lock = this.locks.compute(document, (k, v) -> {
+            DocumentLock result = v == null ? new DocumentLock(this.fair) : v;
+            ++result.users;
+            return result;
+        });
+        boolean cleanLock = false;
         try {
-            final Lock lock = this.locks.computeIfAbsent(document, k -> new StampedLock().asWriteLock());
-            final boolean cleanLock = lock.tryLock(10, TimeUnit.SECONDS);
+            cleanLock = lock.acquire(permits, this.timeout);
             if (!cleanLock) {
                 this.logger.debug("Timed out while waiting for lock on [{}], proceeding anyway", document);
             }
@@ -63,20 +199,107 @@ public void lock(@Nonnull final DocumentReference document)
             // We don't expect any interruptions
             this.logger.error("Unexpected interruption while waiting for lock: {}", ex.getMessage(), ex);
         }
+        this.held.get().computeIfAbsent(document, k -> new ArrayDeque<>()).push(cleanLock ? permits : 0);
     }
 
-    @Override
-    public void unlock(@Nonnull final DocumentReference document)
+    private void evictIdleLocks()
     {
-        Lock lock = this.locks.get(document);
-        if (lock == null) {
+        long now = System.nanoTime();
+        if (now - this.lastEviction < EVICTION_INTERVAL) {
             return;
         }
-        try {
-            lock.unlock();
-        } catch (IllegalMonitorStateException ex) {
-            // Unlocking may fail if a lock timeout resulted in an unclean lock, and then two requests try to unlock
-            this.logger.debug("Lock was unexpectedly unlocked already: {}", ex.getMessage(), ex);
+        this.lastEviction = now;
+        for (DocumentReference document : this.locks.keySet()) {
+            this.locks.computeIfPresent(document, (k, v) -> {
+                if (v.users > 0 || now - v.lastUsed < IDLE_TIME) {
+                    return v;
+                }
+                this.evicted.add(v.counters);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * The lock of a document. The {@link #users} and {@link #lastUsed} fields are only accessed while computing the
+     * entry of the document in the locks map, which is atomic.
+     */
+    private static final class DocumentLock
+    {
+        private final Semaphore permits;
+
+        private final LockCounters counters = new LockCounters();
+
+        /** How many threads hold or wait for this lock. */
+        private int users;
+
+        private long lastUsed = System.nanoTime();
+
+        DocumentLock(boolean fair)
+        {
+            this.permits = new Semaphore(EXCLUSIVE_PERMITS, fair);
+        }
+
+        boolean acquire(int count, long timeoutNanos) throws InterruptedException
+        {
+            // Unlike tryAcquire(int), this doesn't jump ahead of the waiting threads if the semaphore is fair
+            if (this.permits.tryAcquire(count, 0, TimeUnit.NANOSECONDS)) {
+                this.counters.acquisitions.increment();
+                return true;
+            }
+            this.counters.contended.increment();
+            long start = System.nanoTime();
+            try {
+                boolean result = this.permits.tryAcquire(count, timeoutNanos, TimeUnit.NANOSECONDS);
+                if (result) {
+                    this.counters.acquisitions.increment();
+                } else {
+                    this.counters.timeouts.increment();
+                }
+                return result;
+            } finally {
+                this.counters.recordWait(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /** Counts how often locks are acquired, and how long they are waited for. */
+    private static final class LockCounters
+    {
+        private final LongAdder acquisitions = new LongAdder();
+
+        private final LongAdder contended = new LongAdder();
+
+        private final LongAdder timeouts = new LongAdder();
+
+        private final LongAdder waitNanos = new LongAdder();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        void recordWait(long nanos)
+        {
+            this.waitNanos.add(nanos);
+            this.maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        void add(LockCounters other)
+        {
+            this.acquisitions.add(other.acquisitions.sum());
+            this.contended.add(other.contended.sum());
+            this.timeouts.add(other.timeouts.sum());
+            this.waitNanos.add(other.waitNanos.sum());
+            this.maxWaitNanos.accumulateAndGet(other.maxWaitNanos.get(), Math::max);
+        }
+
+        Map<String, Number> toMap()
+        {
+            Map<String, Number> result = new LinkedHashMap<>();
+            result.put("acquisitions", this.acquisitions.sum());
+            result.put("contended", this.contended.sum());
+            result.put("timeouts", this.timeouts.sum());
+            result.put("totalWaitMillis", TimeUnit.NANOSECONDS.toMillis(this.waitNanos.sum()));
+            result.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos.get()));
+            return result;
         }
     }
 }
@@ -119,6 +119,15 @@ public void locksOnActionExecutingEvent()
         Mockito.verify(this.lockManager).lock(this.docRef);
     }
 
+    @Test
+    public void locksSharedOnViewActions()
+    {
+        this.listener.onEvent(new ActionExecutingEvent("view"), this.doc, null);
+        this.listener.onEvent(new ActionExecutingEvent("get"), this.doc, null);
+        Mockito.verify(this.lockManager, Mockito.times(2)).lockShared(this.docRef);
+        Mockito.verify(this.lockManager, Mockito.never()).lock(this.docRef);
+    }
+
     @Test
     public void unlocksOnActionExecutedEvent()
     {
@@ -23,6 +23,8 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -154,6 +156,63 @@ public void run()
         Assert.assertTrue(time < 5 * 1000);
     }
 
+    @Test
+    public void sharedLocksDontDelayEachOther() throws ComponentLookupException
+    {
+        long start = System.currentTimeMillis();
+        this.lockManager.lockShared(this.docRef);
+        this.lockManager.lockShared(this.docRef);
+        this.lockManager.lockShared(this.docRef);
+        long time = System.currentTimeMillis() - start;
+        Assert.assertTrue(time < 5 * 1000);
+    }
+
+    @Test
+    public void exclusiveLockWaitsForSharedLocks() throws Exception
+    {
+        Thread reader = new Thread(() -> {
+            try {
+                this.lockManager.lockShared(this.docRef);
+                Thread.sleep(1000);
+                this.lockManager.unlock(this.docRef);
+            } catch (InterruptedException e) {
+                // Tests, we don't care
+            }
+        });
+        reader.start();
+        Thread.sleep(200);
+        long start = System.currentTimeMillis();
+        this.lockManager.lock(this.docRef);
+        long time = System.currentTimeMillis() - start;
+        this.lockManager.unlock(this.docRef);
+        reader.join();
+        Assert.assertTrue(time >= 500);
+        Assert.assertTrue(time < 5 * 1000);
+    }
+
+    @Test
+    public void statisticsCountContention() throws Exception
+    {
+        this.lockManager.lock(this.docRef);
+        Thread other = new Thread(() -> {
+            this.lockManager.lockShared(this.docRef);
+            this.lockManager.unlock(this.docRef);
+        });
+        other.start();
+        Thread.sleep(500);
+        Assert.assertEquals(1, this.lockManager.getStatistics(this.docRef).get("waiting").intValue());
+        this.lockManager.unlock(this.docRef);
+        other.join();
+
+        Map<String, Number> stats = this.lockManager.getStatistics(this.docRef);
+        Assert.assertEquals(2L, stats.get("acquisitions"));
+        Assert.assertEquals(1L, stats.get("contended"));
+        Assert.assertEquals(0L, stats.get("timeouts"));
+        Assert.assertTrue(stats.get("maxWaitMillis").longValue() >= 400);
+        Assert.assertTrue(this.lockManager.getStatistics(new DocumentReference("xwiki", "data", "P0000002")).isEmpty());
+        Assert.assertEquals(1, this.lockManager.getStatistics().get("documents").intValue());
+    }
+
     @Test
     public void unlockingBeforeLockingDoesntThrowException() throws ComponentLookupException
     {
@@ -0,0 +1,558 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.stability.Unstable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compact, immutable, in-memory representation of the {@code is_a} hierarchy of a structured vocabulary. Terms are
+ * identified internally by a dense integer index, direct parents and children are stored as primitive adjacency arrays,
+ * and the full ancestor closure of each term is precomputed as a sorted array of indices, so that ancestry, descendant,
+ * lowest common ancestor and distance queries can be answered without any access to the underlying index.
+ * <p>
+ * Instances are created with a {@link Builder}, usually while a vocabulary is being reindexed, and can be
+ * {@link #write(OutputStream) persisted} and {@link #read(InputStream) loaded back} in a simple binary format.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable
+public final class OntologyGraph
+{
+    /** Marker written at the start of the serialized form, used to detect invalid files. */
+    private static final int MAGIC = 0x4f47524d;
+
+    /** The version of the serialized format, to be increased whenever the format changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int[] NO_NODES = new int[0];
+
+    /** The term identifiers, indexed by their internal number. */
+    private final String[] ids;
+
+    /** Maps term identifiers, including alternative identifiers, to their internal number. */
+    private final Map<String, Integer> indexes;
+
+    /** The direct parents of each term. */
+    private final int[][] parents;
+
+    /** The direct children of each term. */
+    private final int[][] children;
+
+    /** The ancestors of each term, not including the term itself, as a sorted array. */
+    private final int[][] ancestors;
+
+    /** Alternative identifiers, kept only so that they can be serialized back. */
+    private final Map<String, Integer> alternativeIds;
+
+    private OntologyGraph(String[] ids, int[][] parents, Map<String, Integer> alternativeIds)
+    {
+        this.ids = ids;
+        this.parents = parents;
+        this.alternativeIds = alternativeIds;
+        this.indexes = new HashMap<>((ids.length + alternativeIds.size()) * 4 / 3 + 1);
+        this.indexes.putAll(alternativeIds);
+        for (int i = 0; i < ids.length; ++i) {
+            this.indexes.put(ids[i], i);
+        }
+        this.children = computeChildren(ids.length, parents);
+        this.ancestors = computeAncestors(ids.length, parents);
+    }
+
+    /**
+     * The number of terms in the graph.
+     *
+     * @return a positive number, or {@code 0} for an empty graph
+     */
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * Checks if a term is known in this graph.
+     *
+     * @param id the term identifier, either the main identifier or an alternative one
+     * @return {@code true} if the term is part of this graph
+     */
+    public boolean contains(String id)
+    {
+        return id != null && this.indexes.containsKey(id);
+    }
+
+    /**
+     * Returns the direct parents of a term.
+     *
+     * @param id the term identifier
+     * @return the identifiers of the direct parents, an empty set if the term is a root or is not known
+     */
+    public Set<String> getParents(String id)
+    {
+        int index = indexOf(id);
+        return index < 0 ? Collections.emptySet() : toIds(this.parents[index]);
+    }
+
+    /**
+     * Returns the direct children of a term.
+     *
+     * @param id the term identifier
+     * @return the identifiers of the direct children, an empty set if the term is a leaf or is not known
+     */
+    public Set<String> getChildren(String id)
+    {
+        int index = indexOf(id);
+        return index < 0 ? Collections.emptySet() : toIds(this.children[index]);
+    }
+
+    /**
+     * Returns all the ancestors of a term, not including the term itself.
+     *
+     * @param id the term identifier
+     * @return the identifiers of the ancestors, an empty set if the term is a root or is not known
+     */
+    public Set<String> getAncestors(String id)
+    {
+        int index = indexOf(id);
+        return index < 0 ? Collections.emptySet() : toIds(this.ancestors[index]);
+    }
+
+    /**
+     * Returns all the ancestors of a term, and the term itself. Alternative identifiers are replaced by the main
+     * identifier of the term.
+     *
+     * @param id the term identifier
+     * @return the identifiers of the term and of its ancestors, with the term first, or an empty set if the term is not
+     *         known
+     */
+    public Set<String> getAncestorsAndSelf(String id)
+    {
+        int index = indexOf(id);
+        if (index < 0) {
+            return Collections.emptySet();
+        }
+        int[] nodeAncestors = this.ancestors[index];
+        Set<String> result = new LinkedHashSet<>((nodeAncestors.length + 1) * 4 / 3 + 1);
+        result.add(this.ids[index]);
+        for (int node : nodeAncestors) {
+            result.add(this.ids[node]);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Returns all the descendants of a term, not including the term itself.
+     *
+     * @param id the term identifier
+     * @return the identifiers of the descendants, an empty set if the term is a leaf or is not known
+     */
+    public Set<String> getDescendants(String id)
+    {
+        int index = indexOf(id);
+        if (index < 0) {
+            return Collections.emptySet();
+        }
+        BitSet visited = new BitSet(this.ids.length);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(index);
+        while (!queue.isEmpty()) {
+            for (int child : this.children[queue.poll()]) {
+                if (!visited.get(child)) {
+                    visited.set(child);
+                    queue.add(child);
+                }
+            }
+        }
+        visited.clear(index);
+        return toIds(visited);
+    }
+
+    /**
+     * Checks if a term is an ancestor of another term.
+     *
+     * @param ancestorId the identifier of the potential ancestor
+     * @param descendantId the identifier of the potential descendant
+     * @return {@code true} if both terms are known and the first one is a direct or indirect ancestor of the second
+     *         one, {@code false} otherwise
+     */
+    public boolean isAncestor(String ancestorId, String descendantId)
+    {
+        int ancestor = indexOf(ancestorId);
+        int descendant = indexOf(descendantId);
+        return ancestor >= 0 && descendant >= 0 && Arrays.binarySearch(this.ancestors[descendant], ancestor) >= 0;
+    }
+
+    /**
+     * Returns the lowest common ancestors of two terms, i.e. the common ancestors that don't have any other common
+     * ancestor as a descendant. Each term is considered to be part of its own ancestry, so if one term is an ancestor
+     * of the other, then it is the only lowest common ancestor.
+     *
+     * @param firstId the identifier of the first term
+     * @param secondId the identifier of the second term
+     * @return the identifiers of the lowest common ancestors, an empty set if the terms aren't connected or at least
+     *         one of them is not known
+     */
+    public Set<String> getLowestCommonAncestors(String firstId, String secondId)
+    {
+        int first = indexOf(firstId);
+        int second = indexOf(secondId);
+        if (first < 0 || second < 0) {
+            return Collections.emptySet();
+        }
+        BitSet common = ancestorsAndSelf(first);
+        common.and(ancestorsAndSelf(second));
+        BitSet result = new BitSet(this.ids.length);
+        for (int node = common.nextSetBit(0); node >= 0; node = common.nextSetBit(node + 1)) {
+            boolean lowest = true;
+            // If a descendant of this node is also a common ancestor, then at least one direct child is as well
+            for (int child : this.children[node]) {
+                if (common.get(child)) {
+                    lowest = false;
+                    break;
+                }
+            }
+            if (lowest) {
+                result.set(node);
+            }
+        }
+        return toIds(result);
+    }
+
+    /**
+     * Find the distance between two terms, as the minimum number of edges that must be traversed going up from each of
+     * the two terms to reach a common ancestor. The parameters are interchangeable.
+     *
+     * @param fromId the identifier of the term that is considered the start point
+     * @param toId the identifier of the term that is considered the end point
+     * @return the minimum number of edges that connect the two terms, or {@code -1} if the terms are not connected or
+     *         at least one of them is not known
+     */
+    public long getDistance(String fromId, String toId)
+    {
+        int from = indexOf(fromId);
+        int to = indexOf(toId);
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        if (from == to) {
+            return 0;
+        }
+        Map<Integer, Integer> fromDistances = distancesToAncestors(from);
+        Map<Integer, Integer> toDistances = distancesToAncestors(to);
+        long result = Long.MAX_VALUE;
+        for (Map.Entry<Integer, Integer> entry : fromDistances.entrySet()) {
+            Integer other = toDistances.get(entry.getKey());
+            if (other != null) {
+                result = Math.min(result, entry.getValue() + other);
+            }
+        }
+        return result == Long.MAX_VALUE ? -1 : result;
+    }
+
+    /**
+     * Serializes this graph in a compact binary format.
+     *
+     * @param out the stream where to write the graph; the stream is not closed
+     * @throws IOException if writing to the stream fails
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(this.ids.length);
+        for (String id : this.ids) {
+            data.writeUTF(id);
+        }
+        for (int[] nodeParents : this.parents) {
+            data.writeInt(nodeParents.length);
+            for (int parent : nodeParents) {
+                data.writeInt(parent);
+            }
+        }
+        data.writeInt(this.alternativeIds.size());
+        for (Map.Entry<String, Integer> alternative : this.alternativeIds.entrySet()) {
+            data.writeUTF(alternative.getKey());
+            data.writeInt(alternative.getValue());
+        }
+        data.flush();
+    }
+
+    /**
+     * Loads a graph previously serialized with {@link #write(OutputStream)}.
+     *
+     * @param in the stream from which to read the graph; the stream is not closed
+     * @return the loaded graph
+     * @throws IOException if reading from the stream fails, or the stream doesn't contain a valid serialized graph
+     */
+    public static OntologyGraph read(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported ontology graph format");
+        }
+        int size = data.readInt();
+        String[] ids = new String[size];
+        for (int i = 0; i < size; ++i) {
+            ids[i] = data.readUTF();
+        }
+        int[][] parents = new int[size][];
+        for (int i = 0; i < size; ++i) {
+            int count = data.readInt();
+            parents[i] = count == 0 ? NO_NODES : new int[count];
+            for (int j = 0; j < count; ++j) {
+                parents[i][j] = checkIndex(data.readInt(), size);
+            }
+        }
+        int alternativesCount = data.readInt();
+        Map<String, Integer> alternativeIds = new HashMap<>();
+        for (int i = 0; i < alternativesCount; ++i) {
+            alternativeIds.put(data.readUTF(), checkIndex(data.readInt(), size));
+        }
+        return new OntologyGraph(ids, parents, alternativeIds);
+    }
+
+    private static int checkIndex(int index, int size) throws IOException
+    {
+        if (index < 0 || index >= size) {
+            throw new IOException("Invalid term index in the serialized ontology graph: " + index);
+        }
+        return index;
+    }
+
+    private int indexOf(String id)
+    {
+        if (id == null) {
+            return -1;
+        }
+        Integer index = this.indexes.get(id);
+        return index == null ? -1 : index;
+    }
+
+    private BitSet ancestorsAndSelf(int node)
+    {
+        BitSet result = new BitSet(this.ids.length);
+        result.set(node);
+        for (int ancestor : this.ancestors[node]) {
+            result.set(ancestor);
+        }
+        return result;
+    }
+
+    private Map<Integer, Integer> distancesToAncestors(int node)
+    {
+        Map<Integer, Integer> distances = new HashMap<>((this.ancestors[node].length + 1) * 4 / 3 + 1);
+        distances.put(node, 0);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            int crt = queue.poll();
+            int next = distances.get(crt) + 1;
+            for (int parent : this.parents[crt]) {
+                if (!distances.containsKey(parent)) {
+                    distances.put(parent, next);
+                    queue.add(parent);
+                }
+            }
+        }
+        return distances;
+    }
+
+    private Set<String> toIds(int[] nodes)
+    {
+        Set<String> result = new LinkedHashSet<>(nodes.length * 4 / 3 + 1);
+        for (int node : nodes) {
+            result.add(this.ids[node]);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    private Set<String> toIds(BitSet nodes)
+    {
+        Set<String> result = new LinkedHashSet<>(nodes.cardinality() * 4 / 3 + 1);
+        for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+            result.add(this.ids[node]);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static int[][] computeChildren(int size, int[][] parents)
+    {
+        int[] counts = new int[size];
+        for (int[] nodeParents : parents) {
+            for (int parent : nodeParents) {
+                ++counts[parent];
+            }
+        }
+        int[][] result = new int[size][];
+        for (int i = 0; i < size; ++i) {
+            result[i] = counts[i] == 0 ? NO_NODES : new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < size; ++i) {
+            for (int parent : parents[i]) {
+                result[parent][counts[parent]++] = i;
+            }
+        }
+        return result;
+    }
+
+    private static int[][] computeAncestors(int size, int[][] parents)
+    {
+        int[][] result = new int[size][];
+        BitSet visited = new BitSet(size);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < size; ++i) {
+            if (parents[i].length == 0) {
+                result[i] = NO_NODES;
+                continue;
+            }
+            visited.clear();
+            queue.add(i);
+            while (!queue.isEmpty()) {
+                for (int parent : parents[queue.poll()]) {
+                    if (!visited.get(parent)) {
+                        visited.set(parent);
+                        queue.add(parent);
+                    }
+                }
+            }
+            // Cycles are not expected in an ontology, but a broken source must not make a term its own ancestor
+            visited.clear(i);
+            result[i] = visited.stream().toArray();
+        }
+        return result;
+    }
+
+    /**
+     * Collects terms and {@code is_a} relationships and creates an {@link OntologyGraph}. Relationships may reference
+     * terms that are not added explicitly, in which case they are added automatically. Builders are not thread safe.
+     *
+     * @version $Id$
+     * @since 1.5
+     */
+    public static final class Builder
+    {
+        private final Map<String, Set<String>> terms = new LinkedHashMap<>();
+
+        private final Map<String, String> alternativeIds = new HashMap<>();
+
+        /**
+         * Adds a term, along with its direct parents.
+         *
+         * @param id the term identifier, must not be blank
+         * @param parentIds the identifiers of the direct parents of the term; values in the {@code HP:0000001 ! All}
+         *            format, as found in the {@code is_a} field of OBO vocabularies, are accepted as well; may be
+         *            {@code null}
+         * @return this builder, for chaining
+         */
+        public Builder addTerm(String id, Collection<?> parentIds)
+        {
+            if (StringUtils.isBlank(id)) {
+                return this;
+            }
+            Set<String> termParents = this.terms.computeIfAbsent(id, k -> new LinkedHashSet<>());
+            if (parentIds != null) {
+                for (Object parentId : parentIds) {
+                    String parent = StringUtils.substringBefore(String.valueOf(parentId), " ");
+                    if (StringUtils.isNotBlank(parent) && !parent.equals(id)) {
+                        termParents.add(parent);
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Registers an alternative identifier for a term.
+         *
+         * @param alternativeId the alternative identifier, for example an obsolete identifier of a merged term
+         * @param id the main identifier of the term
+         * @return this builder, for chaining
+         */
+        public Builder addAlternativeId(String alternativeId, String id)
+        {
+            if (StringUtils.isNoneBlank(alternativeId, id)) {
+                this.alternativeIds.put(alternativeId, id);
+            }
+            return this;
+        }
+
+        /**
+         * Creates the graph from the collected data.
+         *
+         * @return a new graph
+         */
+        public OntologyGraph build()
+        {
+            Map<String, Integer> indexes = new HashMap<>();
+            List<String> ids = new ArrayList<>(this.terms.size());
+            for (Map.Entry<String, Set<String>> term : this.terms.entrySet()) {
+                index(term.getKey(), indexes, ids);
+                for (String parent : term.getValue()) {
+                    index(parent, indexes, ids);
+                }
+            }
+            int[][] parents = new int[ids.size()][];
+            for (int i = 0; i < ids.size(); ++i) {
+                Set<String> termParents = this.terms.get(ids.get(i));
+                if (termParents == null || termParents.isEmpty()) {
+                    parents[i] = NO_NODES;
+                    continue;
+                }
+                parents[i] = termParents.stream().mapToInt(indexes::get).toArray();
+            }
+            Map<String, Integer> alternatives = new HashMap<>();
+            for (Map.Entry<String, String> alternative : this.alternativeIds.entrySet()) {
+                Integer index = indexes.get(alternative.getValue());
+                if (index != null && !indexes.containsKey(alternative.getKey())) {
+                    alternatives.put(alternative.getKey(), index);
+                }
+            }
+            return new OntologyGraph(ids.toArray(new String[ids.size()]), parents, alternatives);
+        }
+
+        private void index(String id, Map<String, Integer> indexes, List<String> ids)
+        {
+            if (!indexes.containsKey(id)) {
+                indexes.put(id, ids.size());
+                ids.add(id);
+            }
+        }
+    }
+}
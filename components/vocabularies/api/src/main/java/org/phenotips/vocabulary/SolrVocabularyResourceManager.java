@@ -23,6 +23,7 @@
 import org.xwiki.stability.Unstable;
 
 import org.apache.solr.client.solrj.SolrClient;
+import org.json.JSONObject;
 
 /**
  * Provides methods for initializing the resources needed by vocabularies stored in a Solr index.
@@ -42,6 +43,16 @@
      */
     Cache<VocabularyTerm> getTermCache(Vocabulary vocabulary);
 
+    /**
+     * Get the usage statistics of the {@link #getTermCache(Vocabulary) term cache} of a vocabulary.
+     *
+     * @param vocabulary the target vocabulary
+     * @return a JSON object with counters such as {@code hits}, {@code misses} and {@code evictions}, or {@code null}
+     *         if the cache for this vocabulary wasn't initialized yet
+     * @since 1.5
+     */
+    JSONObject getTermCacheStatistics(Vocabulary vocabulary);
+
     /**
      * Get the Solr core used for a vocabulary.
      *
@@ -88,4 +99,27 @@
      * @since 1.4
      */
     void discardReplacementCore(Vocabulary vocabulary);
+
+    /**
+     * Get the {@link OntologyGraph graph} of the {@code is_a} hierarchy of a vocabulary, as stored next to its Solr
+     * core when the vocabulary was last reindexed.
+     *
+     * @param vocabulary the target vocabulary
+     * @return the loaded graph, or {@code null} if no graph was stored for this vocabulary
+     * @since 1.5
+     */
+    OntologyGraph getOntologyGraph(Vocabulary vocabulary);
+
+    /**
+     * Store the {@link OntologyGraph graph} built while reindexing a vocabulary next to the
+     * {@link #createReplacementCore(Vocabulary) temporary core}. The graph will take the place of the current graph when
+     * {@link #replaceCore(Vocabulary) the core is replaced}, and will be discarded along with the temporary core
+     * otherwise.
+     *
+     * @param vocabulary the target vocabulary
+     * @param graph the new graph
+     * @throws InitializationException if storing the graph fails
+     * @since 1.5
+     */
+    void setReplacementOntologyGraph(Vocabulary vocabulary, OntologyGraph graph) throws InitializationException;
 }
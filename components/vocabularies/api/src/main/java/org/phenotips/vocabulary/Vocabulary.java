@@ -26,6 +26,8 @@
 import java.util.Map;
 import java.util.Set;
 
+import org.json.JSONObject;
+
 /**
  * Provides access to a vocabulary, such as the HUGO Gene Nomenclature, or the Human Phenotype Ontology.
  *
@@ -160,6 +162,19 @@ default List<VocabularyTerm> search(String input, String category, int maxResult
      */
     long getDistance(VocabularyTerm fromTerm, VocabularyTerm toTerm);
 
+    /**
+     * Get the in-memory graph of the {@code is_a} hierarchy of this vocabulary, which can answer ancestry, descendant,
+     * lowest common ancestor and distance queries without accessing the vocabulary index.
+     *
+     * @return the graph built when the vocabulary was last indexed, or {@code null} if this is an unstructured
+     *         vocabulary, or if the graph isn't available
+     * @since 1.5
+     */
+    default OntologyGraph getOntologyGraph()
+    {
+        return null;
+    }
+
     /**
      * The identifier of the vocabulary, used internally to differentiate between different vocabularies and different
      * implementations of the same vocabulary.
@@ -217,6 +232,19 @@ default Collection<String> getSupportedCategories()
      */
     int reindex(String sourceUrl);
 
+    /**
+     * Reports the progress of the current reindexing operation, or the outcome of the last one.
+     *
+     * @return a JSON object with details such as the number of terms indexed so far and the indexing throughput, or
+     *         {@code null} if the vocabulary wasn't reindexed since the application started, or if this vocabulary
+     *         doesn't report indexing progress
+     * @since 1.5
+     */
+    default JSONObject getIndexingStatistics()
+    {
+        return null;
+    }
+
     /**
      * Get the default location where the sources for this vocabulary can be fetched from.
      *
@@ -28,7 +28,8 @@
  * is {@link org.phenotips.vocabulary.Vocabulary#reindex(String) reindexed}, first {@link #indexingStarted} is called,
  * so that the extension can prepare its needed resources, if any. Then, for each term parsed from its source the
  * {@link #extendTerm} method is called, and new fields can be added to it. Once all the terms have been indexed,
- * {@link #indexingEnded} is called, and any resources can be freed.
+ * {@link #indexingEnded} is called, and any resources can be freed. All three methods are called from the same thread
+ * during a reindexing run, one term at a time, so extensions may keep per-run state without synchronization.
  *
  * @version $Id$
  * @since 1.3M1
@@ -58,7 +59,8 @@
     /**
      * Called for each term during vocabulary reindexing, this method modifies the parsed terms by changing, adding or
      * removing fields. This method is called only for {@link #isVocabularySupported(Vocabulary) supported vocabularies}
-     * .
+     * . Terms are extended sequentially, on the thread that started the reindexing, so implementations don't need to
+     * be thread-safe; the terms are only sent to Solr concurrently after all extensions have processed them.
      *
      * @param term the parsed term which can be altered
      * @param vocabulary the the vocabulary being indexed
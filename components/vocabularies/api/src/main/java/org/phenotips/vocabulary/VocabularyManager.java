@@ -20,7 +20,10 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -44,6 +47,31 @@
      */
     VocabularyTerm resolveTerm(String termId);
 
+    /**
+     * Retrieve several terms at once, from their owner vocabularies. This is equivalent to calling
+     * {@link #resolveTerm(String)} for each identifier, but implementations should group the identifiers by vocabulary
+     * and fetch the terms of each vocabulary in one request.
+     *
+     * @param termIds the term identifiers, in the format {@code <vocabulary prefix>:<term id>}, for example
+     *            {@code HP:0002066}; may contain duplicates, blank or unknown identifiers, which are ignored
+     * @return a map from the requested identifiers to the resolved terms, in the order in which the identifiers were
+     *         requested, containing only the terms that could be resolved; may be empty
+     * @since 1.5
+     */
+    default Map<String, VocabularyTerm> resolveTerms(Collection<String> termIds)
+    {
+        Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+        if (termIds != null) {
+            for (String termId : termIds) {
+                VocabularyTerm term = result.containsKey(termId) ? null : resolveTerm(termId);
+                if (term != null) {
+                    result.put(termId, term);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Retrieve a vocabulary given its identifier.
      *
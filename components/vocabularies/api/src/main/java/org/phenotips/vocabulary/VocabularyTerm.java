@@ -20,6 +20,7 @@
 import org.xwiki.stability.Unstable;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.json.JSONObject;
@@ -98,6 +99,40 @@
      */
     Set<VocabularyTerm> getAncestorsAndSelf();
 
+    /**
+     * Returns the identifiers of the parents (direct ancestors) of this term. Unlike {@link #getParents()}, this
+     * doesn't need to load the parent terms from the vocabulary.
+     *
+     * @return a set of term identifiers, or an empty set if the term doesn't have any ancestors in the vocabulary
+     * @since 1.5
+     */
+    default Set<String> getParentIds()
+    {
+        Set<String> result = new LinkedHashSet<>();
+        for (VocabularyTerm parent : getParents()) {
+            result.add(parent.getId());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the identifiers of the ancestors (both direct and indirect ancestors) of this term <em>and</em> of the
+     * term itself. Unlike {@link #getAncestorsAndSelf()}, this doesn't need to load the ancestor terms from the
+     * vocabulary.
+     *
+     * @return a set of term identifiers, or a set with one identifier (this) if the term doesn't have any ancestors in
+     *         the vocabulary
+     * @since 1.5
+     */
+    default Set<String> getAncestorsAndSelfIds()
+    {
+        Set<String> result = new LinkedHashSet<>();
+        for (VocabularyTerm ancestor : getAncestorsAndSelf()) {
+            result.add(ancestor.getId());
+        }
+        return result;
+    }
+
     /**
      * Find the distance to another term in the same vocabulary, if the owner vocabulary is a structured ontology that
      * supports computing such a distance.
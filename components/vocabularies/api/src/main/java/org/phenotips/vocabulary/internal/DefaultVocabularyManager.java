@@ -22,6 +22,8 @@
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,9 +31,14 @@
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -41,6 +48,7 @@
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 
 /**
@@ -52,7 +60,7 @@
  */
 @Component
 @Singleton
-public class DefaultVocabularyManager implements VocabularyManager
+public class DefaultVocabularyManager implements VocabularyManager, Disposable
 {
     private static final String SCORE_LABEL = "score";
 
@@ -64,6 +72,13 @@ public class DefaultVocabularyManager implements VocabularyManager
     @Inject
     private Logger logger;
 
+    /**
+     * Runs the term lookups in different vocabularies in parallel, shared by all callers; idle threads are discarded
+     * after a minute, and the pool is shut down when the component is disposed.
+     */
+    private final ExecutorService lookupExecutor = Executors.newCachedThreadPool(
+        new BasicThreadFactory.Builder().namingPattern("vocabulary-lookup-%d").daemon(true).build());
+
     /**
      * Constructs a map of vocabularies, where each vocabulary is also listed under each of its aliases.
      *
@@ -130,6 +145,59 @@ public VocabularyTerm resolveTerm(String termId)
         return null;
     }
 
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.lookupExecutor.shutdownNow();
+    }
+
+    @Override
+    public Map<String, VocabularyTerm> resolveTerms(Collection<String> termIds)
+    {
+        if (termIds == null || termIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // Group the requested identifiers by their owner vocabulary
+        Map<String, Vocabulary> vocabulariesByAlias = this.constructVocabulariesByAlias();
+        Map<Vocabulary, Set<String>> idsByVocabulary = new LinkedHashMap<>();
+        for (String termId : termIds) {
+            String vocabularyId = StringUtils.substringBefore(termId, ":");
+            Vocabulary vocabulary = StringUtils.isNotBlank(vocabularyId) ? vocabulariesByAlias.get(vocabularyId) : null;
+            if (vocabulary != null) {
+                idsByVocabulary.computeIfAbsent(vocabulary, k -> new LinkedHashSet<>()).add(termId);
+            }
+        }
+
+        // Query each vocabulary once; all but the first vocabulary are queried in parallel on other threads
+        Map<String, VocabularyTerm> found = new HashMap<>();
+        List<CompletableFuture<Map<String, VocabularyTerm>>> lookups = new ArrayList<>();
+        Map.Entry<Vocabulary, Set<String>> local = null;
+        for (Map.Entry<Vocabulary, Set<String>> group : idsByVocabulary.entrySet()) {
+            if (local == null) {
+                local = group;
+            } else {
+                lookups.add(CompletableFuture.supplyAsync(() -> resolveTerms(group.getKey(), group.getValue()),
+                    this.lookupExecutor));
+            }
+        }
+        if (local != null) {
+            found.putAll(resolveTerms(local.getKey(), local.getValue()));
+        }
+        for (CompletableFuture<Map<String, VocabularyTerm>> lookup : lookups) {
+            found.putAll(lookup.join());
+        }
+
+        Map<String, VocabularyTerm> result = new LinkedHashMap<>();
+        for (String termId : termIds) {
+            VocabularyTerm term = found.get(termId);
+            if (term != null) {
+                result.put(termId, term);
+            }
+        }
+        return result;
+    }
+
     @Override
     public Vocabulary getVocabulary(String vocabularyId)
     {
@@ -247,6 +315,44 @@ private int compareScores(@Nonnull final VocabularyTerm o1, @Nonnull final Vocab
         return scoreO2.compareTo(scoreO1);
     }
 
+    /**
+     * Retrieves several terms from the same vocabulary using a single {@link Vocabulary#getTerms(Collection) batch
+     * query}. Identifiers not directly matched by the batch query, such as alternative identifiers or identifiers
+     * written differently, are resolved one by one, so that the result is the same as calling
+     * {@link Vocabulary#getTerm(String)} for each identifier.
+     *
+     * @param vocabulary the vocabulary owning the terms
+     * @param termIds the identifiers of the terms to retrieve
+     * @return a map from the requested identifiers to the terms found, possibly empty
+     */
+    private Map<String, VocabularyTerm> resolveTerms(@Nonnull final Vocabulary vocabulary,
+        @Nonnull final Set<String> termIds)
+    {
+        Map<String, VocabularyTerm> result = new HashMap<>();
+        try {
+            Set<VocabularyTerm> terms = vocabulary.getTerms(termIds);
+            if (terms != null) {
+                for (VocabularyTerm term : terms) {
+                    if (term != null && termIds.contains(term.getId())) {
+                        result.put(term.getId(), term);
+                    }
+                }
+            }
+            for (String termId : termIds) {
+                if (!result.containsKey(termId)) {
+                    VocabularyTerm term = vocabulary.getTerm(termId);
+                    if (term != null) {
+                        result.put(termId, term);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            this.logger.warn("Failed to resolve terms from vocabulary [{}]: {}", vocabulary.getIdentifier(),
+                ex.getMessage());
+        }
+        return result;
+    }
+
     /**
      * Finds the owner vocabulary given a term identifier. The vocabulary is identified by the term ID prefix, for
      * example {@code HP} in {@code HP:0002066}.
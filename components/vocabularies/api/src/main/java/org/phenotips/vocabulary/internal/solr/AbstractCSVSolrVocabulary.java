@@ -25,8 +25,6 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
@@ -51,9 +49,10 @@ public abstract class AbstractCSVSolrVocabulary extends AbstractSolrVocabulary
     protected static final String VERSION_FIELD_NAME = "version";
 
     /**
-     * The number of documents to be added and committed to Solr at a time.
+     * The number of documents to be sent to Solr at a time. The index is only committed once, after all the documents
+     * were sent.
      *
-     * @return a positive integer, or a negative number to disable batching and pushing all terms in one go
+     * @return a positive integer, or a negative number to use the default batch size
      */
     protected abstract int getSolrDocsPerBatch();
 
@@ -79,23 +78,12 @@ protected int index(String sourceUrl)
         if (data == null) {
             return 2;
         }
+        VocabularyIndexingPipeline pipeline = startIndexingPipeline(getSolrDocsPerBatch());
         try {
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
-            Iterator<SolrInputDocument> dataIterator = data.iterator();
-            int batchCounter = 0;
-            while (dataIterator.hasNext()) {
-                /* Resetting when the batch fills */
-                if (batchCounter == getSolrDocsPerBatch()) {
-                    commitTerms(termBatch);
-                    termBatch = new HashSet<>();
-                    batchCounter = 0;
-                }
-                SolrInputDocument item = dataIterator.next();
-                extendTerm(new SolrVocabularyInputTerm(item, this));
-                termBatch.add(item);
-                batchCounter++;
+            for (SolrInputDocument item : data) {
+                pipeline.submit(item);
             }
-            commitTerms(termBatch);
+            pipeline.finish();
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index vocabulary: {}", ex.getMessage());
@@ -104,6 +92,8 @@ protected int index(String sourceUrl)
                 ex.getMessage());
         } catch (OutOfMemoryError ex) {
             this.logger.warn("Failed to add terms to the Solr. Ran out of memory. {}", ex.getMessage());
+        } finally {
+            pipeline.abort();
         }
         return 1;
     }
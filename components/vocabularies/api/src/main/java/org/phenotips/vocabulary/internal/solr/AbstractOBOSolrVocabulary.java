@@ -60,9 +60,10 @@ public abstract class AbstractOBOSolrVocabulary extends AbstractSolrVocabulary
     protected static final String VERSION_FIELD_NAME = "version";
 
     /**
-     * The number of documents to be added and committed to Solr at a time.
+     * The number of documents to be sent to Solr at a time. The index is only committed once, after all the documents
+     * were sent.
      *
-     * @return a positive integer, or a negative number to disable batching and pushing all terms in one go
+     * @return a positive integer, or a negative number to use the default batch size
      */
     protected abstract int getSolrDocsPerBatch();
 
@@ -114,19 +115,12 @@ protected int index(String sourceUrl)
         if (data == null || data.isEmpty()) {
             return 2;
         }
+        VocabularyIndexingPipeline pipeline = startIndexingPipeline(getSolrDocsPerBatch());
         try {
             Set<String> singleValuedFields = getSingleValuedFields();
 
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
             Iterator<Map.Entry<String, TermData>> dataIterator = data.entrySet().iterator();
-            int batchCounter = 0;
             while (dataIterator.hasNext()) {
-                /* Resetting when the batch fills */
-                if (batchCounter == getSolrDocsPerBatch()) {
-                    commitTerms(termBatch);
-                    termBatch = new HashSet<>();
-                    batchCounter = 0;
-                }
                 Set<String> addedFields = new HashSet<>();
                 Map.Entry<String, TermData> item = dataIterator.next();
                 SolrInputDocument doc = new SolrInputDocument();
@@ -142,11 +136,11 @@ protected int index(String sourceUrl)
                         addedFields.add(name);
                     }
                 }
-                extendTerm(new SolrVocabularyInputTerm(doc, this));
-                termBatch.add(doc);
-                batchCounter++;
+                // The parsed term is no longer needed, release it while the rest of the vocabulary is indexed
+                dataIterator.remove();
+                pipeline.submit(doc);
             }
-            commitTerms(termBatch);
+            pipeline.finish();
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index vocabulary: {}", ex.getMessage());
@@ -155,6 +149,8 @@ protected int index(String sourceUrl)
                 ex.getMessage());
         } catch (OutOfMemoryError ex) {
             this.logger.warn("Failed to add terms to the Solr. Ran out of memory. {}", ex.getMessage());
+        } finally {
+            pipeline.abort();
         }
         return 1;
     }
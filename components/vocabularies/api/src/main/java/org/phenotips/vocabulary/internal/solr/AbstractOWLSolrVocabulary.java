@@ -21,7 +21,6 @@
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -133,8 +132,8 @@ protected int index(@Nullable final String sourceUrl)
         final Collection<OntClass> roots = getRootClasses(ontModel);
         // Reusing doc for speed (see http://wiki.apache.org/lucene-java/ImproveIndexingSpeed).
         final SolrInputDocument doc = new SolrInputDocument();
+        final VocabularyIndexingPipeline pipeline = startIndexingPipeline(getSolrDocsPerBatch());
         try {
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
             // Set the ontology model version.
             setVersion(doc, ontModel);
             // Create and add solr documents for each of the roots.
@@ -142,20 +141,15 @@ protected int index(@Nullable final String sourceUrl)
                 // Don't want to add Solr documents for general root categories, so start adding children.
                 // Get all the subclasses of ontClass, and add a Solr document for each of them.
                 final ExtendedIterator<OntClass> subClasses = root.listSubClasses();
-                int batchCounter = 0;
-                while (subClasses.hasNext()) {
-                    if (batchCounter == getSolrDocsPerBatch()) {
-                        commitTerms(termBatch);
-                        termBatch = new HashSet<>();
-                        batchCounter = 0;
+                try {
+                    while (subClasses.hasNext()) {
+                        addDoc(doc, subClasses.next(), root, pipeline);
                     }
-                    final OntClass subClass = subClasses.next();
-                    addDoc(doc, subClass, root, termBatch);
-                    batchCounter++;
+                } finally {
+                    subClasses.close();
                 }
-                subClasses.close();
             }
-            commitTerms(termBatch);
+            pipeline.finish();
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index ontology: {}", ex.getMessage());
@@ -163,25 +157,29 @@ protected int index(@Nullable final String sourceUrl)
             this.logger.warn("Failed to communicate with the Solr server while indexing ontology: {}", ex.getMessage());
         } catch (OutOfMemoryError ex) {
             this.logger.warn("Failed to add terms to the Solr. Ran out of memory. {}", ex.getMessage());
+        } finally {
+            pipeline.abort();
         }
         return 1;
     }
 
     /**
-     * Create a document for the ontology class, and add it to the index.
+     * Create a document for the ontology class, and submit it to the indexing pipeline.
      *
      * @param doc the reusable Solr input document
      * @param ontClass the ontology class that should be parsed
      * @param root the top root category for ontClass
-     * @param termBatch the batch of newly-processed documents to commit later
+     * @param pipeline the indexing pipeline which extends the document and sends it to Solr
+     * @throws IOException if failed to communicate with Solr server while indexing ontology
+     * @throws SolrServerException if failed to index ontology
      */
     private void addDoc(@Nonnull final SolrInputDocument doc, @Nonnull final OntClass ontClass,
-        @Nonnull final OntClass root, Collection<SolrInputDocument> termBatch)
+        @Nonnull final OntClass root, @Nonnull final VocabularyIndexingPipeline pipeline)
+        throws SolrServerException, IOException
     {
         parseSolrDocumentFromOntClass(doc, ontClass, root);
         parseSolrDocumentFromOntParentClasses(doc, ontClass);
-        extendTerm(new SolrVocabularyInputTerm(doc, this));
-        termBatch.add(doc.deepCopy());
+        pipeline.submit(doc.deepCopy());
         doc.clear();
     }
 
@@ -342,7 +340,8 @@ abstract void writeProperty(@Nonnull SolrInputDocument doc, @Nonnull String rela
     abstract Collection<OntClass> getRootClasses(@Nonnull OntModel ontModel);
 
     /**
-     * The number of documents to be added and committed to Solr at a time.
+     * The number of documents to be sent to Solr at a time. The index is only committed once, after all the documents
+     * were sent.
      *
      * @return the number of documents as an integer
      */
@@ -17,6 +17,7 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import org.phenotips.vocabulary.OntologyGraph;
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyExtension;
@@ -40,6 +41,7 @@
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
@@ -47,6 +49,8 @@
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 
 /**
@@ -62,6 +66,18 @@ public abstract class AbstractSolrVocabulary implements Vocabulary
     /** The name of the ID field. */
     protected static final String ID_FIELD_NAME = "id";
 
+    /** The name of the field holding the direct parents of a term. */
+    protected static final String PARENTS_FIELD_NAME = "is_a";
+
+    /** The name of the field holding the alternative identifiers of a term. */
+    protected static final String ALTERNATIVE_IDS_FIELD_NAME = "alt_id";
+
+    /** How many documents to fetch at once when building the {@link OntologyGraph}. */
+    private static final int GRAPH_BUILD_BATCH_SIZE = 10000;
+
+    /** The maximum number of documents sent to Solr at once while indexing, regardless of the vocabulary settings. */
+    private static final int MAX_INDEXING_BATCH_SIZE = 5000;
+
     /**
      * Object used to mark in the cache that a term doesn't exist, since null means that the cache doesn't contain the
      * requested entry.
@@ -83,6 +99,9 @@ public abstract class AbstractSolrVocabulary implements Vocabulary
     @Inject
     protected VocabularySourceRelocationService relocationService;
 
+    /** The current or last indexing run, used for reporting {@link #getIndexingStatistics() indexing statistics}. */
+    private volatile VocabularyIndexingPipeline indexingPipeline;
+
     // Dilemma:
     // In an ideal world there should be a getter methods for server and cache instances.
     // However the point of splitting up the server was to lessen the number of imports
@@ -114,6 +133,7 @@ public Set<VocabularyTerm> getTerms(Collection<String> ids)
     {
         Map<String, VocabularyTerm> rawResult = new HashMap<>();
         StringBuilder query = new StringBuilder("id:(");
+        int missing = 0;
         Cache<VocabularyTerm> cache = this.externalServicesAccess.getTermCache(this);
         for (String id : ids) {
             VocabularyTerm cachedTerm = cache.get(id);
@@ -124,13 +144,17 @@ public Set<VocabularyTerm> getTerms(Collection<String> ids)
             } else {
                 query.append(ClientUtils.escapeQueryChars(id));
                 query.append(' ');
+                ++missing;
             }
         }
         query.append(')');
 
         // There's at least one more term not found in the cache
-        if (query.length() > 5) {
-            for (SolrDocument doc : this.search(new SolrQuery(query.toString()))) {
+        if (missing > 0) {
+            SolrQuery solrQuery = new SolrQuery(query.toString());
+            // Without an explicit limit Solr only returns the first 10 matches
+            solrQuery.setRows(missing);
+            for (SolrDocument doc : this.search(solrQuery)) {
                 String id = (String) doc.getFieldValue(ID_FIELD_NAME);
                 VocabularyTerm term = cacheTerm(id, doc);
                 rawResult.put(term.getId(), term);
@@ -188,6 +212,9 @@ public int reindex(String sourceUrl)
                     }
                 }
                 retval = this.index(sourceUrl);
+                if (retval == 0) {
+                    storeOntologyGraph();
+                }
             } finally {
                 for (VocabularyExtension ext : this.extensions.get()) {
                     if (ext.isVocabularySupported(this)) {
@@ -208,6 +235,13 @@ public int reindex(String sourceUrl)
         return retval;
     }
 
+    @Override
+    public JSONObject getIndexingStatistics()
+    {
+        VocabularyIndexingPipeline pipeline = this.indexingPipeline;
+        return pipeline == null ? null : pipeline.getStatistics();
+    }
+
     @Override
     public String getVersion()
     {
@@ -229,6 +263,12 @@ public long getDistance(VocabularyTerm fromTerm, VocabularyTerm toTerm)
         return fromTerm.getDistanceTo(toTerm);
     }
 
+    @Override
+    public OntologyGraph getOntologyGraph()
+    {
+        return this.externalServicesAccess.getOntologyGraph(this);
+    }
+
     @Override
     public List<VocabularyTerm> search(String input)
     {
@@ -373,6 +413,41 @@ protected void extendTerm(VocabularyInputTerm term)
         }
     }
 
+    /**
+     * Starts a new indexing run targeting the replacement core. Documents {@link VocabularyIndexingPipeline#submit
+     * submitted} to the pipeline are {@link #extendTerm(VocabularyInputTerm) extended} one at a time on the submitting
+     * thread, then sent to Solr in batches by a pool of {@link #getIndexingThreads() worker threads}, and the core is
+     * only committed once, when the pipeline is {@link VocabularyIndexingPipeline#finish() finished}. Callers must
+     * submit all documents from the same thread, and must either finish or
+     * {@link VocabularyIndexingPipeline#abort() abort} the returned pipeline.
+     *
+     * @param batchSize how many documents to send to Solr at once; values that are not positive, or are too large to
+     *            be held in memory, are replaced by a reasonable default
+     * @return the new pipeline
+     * @since 1.5
+     */
+    protected VocabularyIndexingPipeline startIndexingPipeline(int batchSize)
+    {
+        VocabularyIndexingPipeline pipeline =
+            new VocabularyIndexingPipeline(this.externalServicesAccess.getReplacementSolrConnection(this),
+                doc -> extendTerm(new SolrVocabularyInputTerm(doc, this)),
+                batchSize <= 0 || batchSize > MAX_INDEXING_BATCH_SIZE ? MAX_INDEXING_BATCH_SIZE : batchSize,
+                getIndexingThreads(), this.logger);
+        this.indexingPipeline = pipeline;
+        return pipeline;
+    }
+
+    /**
+     * The number of threads used for sending indexed terms to Solr.
+     *
+     * @return a positive number, by default the number of available processors
+     * @since 1.5
+     */
+    protected int getIndexingThreads()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * Commits the batch of newly-processed documents.
      */
@@ -383,6 +458,65 @@ protected void commitTerms(Collection<SolrInputDocument> batch)
         this.externalServicesAccess.getReplacementSolrConnection(this).commit();
     }
 
+    private void storeOntologyGraph()
+    {
+        OntologyGraph graph = buildOntologyGraph();
+        if (graph != null) {
+            try {
+                this.externalServicesAccess.setReplacementOntologyGraph(this, graph);
+            } catch (InitializationException ex) {
+                // The vocabulary is still usable without a graph, only slower
+                this.logger.warn("Failed to store the ontology graph for [{}]: {}", getIdentifier(), ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Builds the {@link OntologyGraph} from the terms indexed in the replacement core, reading only the identifiers and
+     * the direct parents of the terms that have at least one parent.
+     *
+     * @return the graph, or {@code null} if this vocabulary isn't structured, or if building the graph failed
+     */
+    protected OntologyGraph buildOntologyGraph()
+    {
+        SolrClient client = this.externalServicesAccess.getReplacementSolrConnection(this);
+        if (client == null) {
+            return null;
+        }
+        OntologyGraph.Builder builder = new OntologyGraph.Builder();
+        SolrQuery query = new SolrQuery(PARENTS_FIELD_NAME + ":*");
+        query.setFields(ID_FIELD_NAME, PARENTS_FIELD_NAME, ALTERNATIVE_IDS_FIELD_NAME);
+        query.setRows(GRAPH_BUILD_BATCH_SIZE);
+        query.setSort(ID_FIELD_NAME, SolrQuery.ORDER.asc);
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        boolean found = false;
+        try {
+            while (true) {
+                query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                QueryResponse response = client.query(query);
+                for (SolrDocument doc : response.getResults()) {
+                    String id = (String) doc.getFieldValue(ID_FIELD_NAME);
+                    builder.addTerm(id, doc.getFieldValues(PARENTS_FIELD_NAME));
+                    Collection<Object> alternatives = doc.getFieldValues(ALTERNATIVE_IDS_FIELD_NAME);
+                    if (alternatives != null) {
+                        for (Object alternative : alternatives) {
+                            builder.addAlternativeId(String.valueOf(alternative), id);
+                        }
+                    }
+                    found = true;
+                }
+                if (cursorMark.equals(response.getNextCursorMark())) {
+                    break;
+                }
+                cursorMark = response.getNextCursorMark();
+            }
+        } catch (Exception ex) {
+            this.logger.debug("Not building an ontology graph for [{}]: {}", getIdentifier(), ex.getMessage());
+            return null;
+        }
+        return found ? builder.build() : null;
+    }
+
     private VocabularyTerm cacheTerm(String id, SolrDocument doc)
     {
         Cache<VocabularyTerm> cache = this.externalServicesAccess.getTermCache(this);
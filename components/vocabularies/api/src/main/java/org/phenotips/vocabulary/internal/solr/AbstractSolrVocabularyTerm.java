@@ -18,6 +18,7 @@
 package org.phenotips.vocabulary.internal.solr;
 
 import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.vocabulary.OntologyGraph;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
@@ -109,25 +110,26 @@ public abstract class AbstractSolrVocabularyTerm implements VocabularyTerm
     protected final SolrDocumentBase<? extends Object, ? extends SolrDocumentBase<?, ?>> doc;
 
     /**
-     * The parents of this term, transformed from a set of IDs into a real set of terms.
+     * The parents of this term, transformed from a set of IDs into a real set of terms, created on first use.
      *
      * @see #getParents()
      */
-    private Set<VocabularyTerm> parents;
+    private volatile Set<VocabularyTerm> parents;
 
     /**
-     * The ancestors of this term, transformed from a set of IDs into a real set of terms.
+     * The ancestors of this term, transformed from a set of IDs into a real set of terms, created on first use.
      *
      * @see #getAncestors()
      */
-    private Set<VocabularyTerm> ancestors;
+    private volatile Set<VocabularyTerm> ancestors;
 
     /**
-     * A set containing the term itself and its ancestors, transformed from a set of IDs into a real set of terms.
+     * A set containing the term itself and its ancestors, transformed from a set of IDs into a real set of terms,
+     * created on first use.
      *
      * @see #getAncestorsAndSelf()
      */
-    private Set<VocabularyTerm> ancestorsAndSelf;
+    private volatile Set<VocabularyTerm> ancestorsAndSelf;
 
     /**
      * Constructor linking to the vocabulary.
@@ -146,9 +148,6 @@ protected void initialize()
     {
         if (!isNull()) {
             this.removeSelfFromAncestors();
-            this.parents = new LazySolrTermSet(getValues(PARENTS_KEY), this.vocabulary);
-            this.ancestors = new LazySolrTermSet(getValues(ANCESTORS_KEY), this.vocabulary);
-            this.ancestorsAndSelf = getUncachedAncestorsAndSelf();
         }
     }
 
@@ -219,19 +218,112 @@ public Collection<?> getTranslatedValues(String property)
     @Override
     public Set<VocabularyTerm> getParents()
     {
-        return this.parents != null ? this.parents : Collections.<VocabularyTerm>emptySet();
+        if (isNull()) {
+            return Collections.emptySet();
+        }
+        if (this.parents == null) {
+            this.parents = new LazySolrTermSet(getValues(PARENTS_KEY), this.vocabulary);
+        }
+        return this.parents;
     }
 
     @Override
     public Set<VocabularyTerm> getAncestors()
     {
-        return this.ancestors != null ? this.ancestors : Collections.<VocabularyTerm>emptySet();
+        if (isNull()) {
+            return Collections.emptySet();
+        }
+        if (this.ancestors == null) {
+            Collection<Object> ids = getGraphAncestors(false);
+            this.ancestors = new LazySolrTermSet(ids != null ? ids : getValues(ANCESTORS_KEY), this.vocabulary);
+        }
+        return this.ancestors;
     }
 
     @Override
     public Set<VocabularyTerm> getAncestorsAndSelf()
     {
-        return this.ancestorsAndSelf != null ? this.ancestorsAndSelf : Collections.<VocabularyTerm>emptySet();
+        if (isNull()) {
+            return Collections.emptySet();
+        }
+        if (this.ancestorsAndSelf == null) {
+            Collection<Object> ids = getGraphAncestors(true);
+            this.ancestorsAndSelf =
+                ids != null ? new LazySolrTermSet(ids, this.vocabulary) : getUncachedAncestorsAndSelf();
+        }
+        return this.ancestorsAndSelf;
+    }
+
+    @Override
+    public Set<String> getParentIds()
+    {
+        if (isNull()) {
+            return Collections.emptySet();
+        }
+        OntologyGraph graph = this.vocabulary != null ? this.vocabulary.getOntologyGraph() : null;
+        String id = getId();
+        if (graph != null && id != null && graph.contains(id)) {
+            return graph.getParents(id);
+        }
+        return toIds(getValues(PARENTS_KEY));
+    }
+
+    @Override
+    public Set<String> getAncestorsAndSelfIds()
+    {
+        if (isNull()) {
+            return Collections.emptySet();
+        }
+        Collection<Object> ids = getGraphAncestors(true);
+        if (ids == null) {
+            ids = new LinkedHashSet<>();
+            ids.add(getId());
+            if (getValues(ANCESTORS_KEY) != null) {
+                ids.addAll(getValues(ANCESTORS_KEY));
+            }
+        }
+        return toIds(ids);
+    }
+
+    /**
+     * Converts stored term references, which may be followed by the term name as in {@code HP:0000118 ! Phenotypic
+     * abnormality}, into plain identifiers.
+     *
+     * @param values the stored values, may be {@code null}
+     * @return the identifiers, in the same order
+     */
+    private Set<String> toIds(Collection<Object> values)
+    {
+        if (values == null || values.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new LinkedHashSet<>(values.size() * 4 / 3 + 1);
+        for (Object value : values) {
+            result.add(StringUtils.substringBefore(String.valueOf(value), " "));
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Gets the ancestors of this term from the in-memory ontology graph of its vocabulary, which avoids reading and
+     * parsing the ancestors field of the Solr document.
+     *
+     * @param includeSelf whether to include this term in the result
+     * @return the identifiers of the ancestors, or {@code null} if the graph is not available or doesn't know this term
+     */
+    private Collection<Object> getGraphAncestors(boolean includeSelf)
+    {
+        OntologyGraph graph = this.vocabulary != null ? this.vocabulary.getOntologyGraph() : null;
+        String id = getId();
+        if (graph == null || id == null || !graph.contains(id)) {
+            return null;
+        }
+        Collection<Object> result = new LinkedHashSet<>();
+        if (includeSelf) {
+            result.add(id);
+        }
+        result.addAll(graph.getAncestors(id));
+        return result;
     }
 
     @Override
@@ -265,6 +357,11 @@ public long getDistanceTo(final VocabularyTerm other)
             return 0;
         }
 
+        OntologyGraph graph = this.vocabulary != null ? this.vocabulary.getOntologyGraph() : null;
+        if (graph != null && graph.contains(getId()) && graph.contains(other.getId())) {
+            return graph.getDistance(getId(), other.getId());
+        }
+
         long distance = Long.MAX_VALUE;
 
         Map<String, Integer> myLevelMap = new HashMap<>();
@@ -317,9 +414,10 @@ public JSONObject toJSON()
         }
         json.put(TRANSLATED_NAME_KEY, getTranslatedName());
         json.put(TRANSLATED_DESCRIPTION_KEY, getTranslatedDescription());
-        if (this.parents != null && !this.parents.isEmpty()) {
+        Set<VocabularyTerm> termParents = getParents();
+        if (!termParents.isEmpty()) {
             JSONArray parentsJson = new JSONArray();
-            for (VocabularyTerm parent : this.parents) {
+            for (VocabularyTerm parent : termParents) {
                 JSONObject parentJSON = new JSONObject();
                 parentJSON.put(ID_KEY, parent.getId());
                 parentJSON.put(NAME_KEY, parent.getName());
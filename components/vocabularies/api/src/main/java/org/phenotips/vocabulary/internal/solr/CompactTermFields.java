@@ -0,0 +1,222 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.common.SolrDocumentBase;
+
+/**
+ * Compact, immutable copy of the fields of a Solr document, used by cached vocabulary terms instead of keeping the
+ * whole document. Field names are replaced by an index in a dictionary shared by all terms, short string values such as
+ * identifiers and term references are interned, and multi-valued fields are stored as plain arrays. The shared
+ * dictionary is read without locking, and the fields of a term are sorted by their index, so that looking up a field
+ * is a binary search.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class CompactTermFields
+{
+    /** Strings longer than this are free text, which is rarely shared between terms, and not worth interning. */
+    private static final int MAX_INTERNED_LENGTH = 64;
+
+    /** The shared field names dictionary, mapping column numbers to field names; replaced when a name is added. */
+    private static volatile String[] columnNames = new String[0];
+
+    /** The shared field names dictionary, mapping field names to column numbers. */
+    private static final Map<String, Integer> COLUMN_INDEXES = new ConcurrentHashMap<>();
+
+    /** The candidate fields to look into for a translated property, keyed by the property name and locale. */
+    private static final Map<String, int[]> TRANSLATION_COLUMNS = new ConcurrentHashMap<>();
+
+    /** The columns for which this term has values, in ascending order. */
+    private final int[] columns;
+
+    /** The values of the fields, either a simple value, or an {@code Object[]} for multi-valued fields. */
+    private final Object[] values;
+
+    /**
+     * Copies the fields of a Solr document.
+     *
+     * @param doc the document to copy, must not be {@code null}
+     */
+    public CompactTermFields(SolrDocumentBase<?, ?> doc)
+    {
+        Collection<String> names = doc.getFieldNames();
+        long[] entries = new long[names.size()];
+        Object[] fieldValues = new Object[names.size()];
+        int i = 0;
+        for (String name : names) {
+            // The column in the high bits for sorting, the position of the value in the low bits
+            entries[i] = ((long) register(name) << 32) | i;
+            fieldValues[i] = compact(doc.getFieldValue(name));
+            ++i;
+        }
+        Arrays.sort(entries);
+        this.columns = new int[entries.length];
+        this.values = new Object[entries.length];
+        for (i = 0; i < entries.length; ++i) {
+            this.columns[i] = (int) (entries[i] >>> 32);
+            this.values[i] = fieldValues[(int) entries[i]];
+        }
+    }
+
+    /**
+     * Get the value of a field, like {@link SolrDocumentBase#getFieldValue(String)}.
+     *
+     * @param name the name of the field
+     * @return a simple value for single-valued fields, an unmodifiable list for multi-valued fields, or {@code null} if
+     *         the field is not set
+     */
+    public Object getFieldValue(String name)
+    {
+        Object value = getRawValue(COLUMN_INDEXES.get(name));
+        if (value instanceof Object[]) {
+            return Collections.unmodifiableList(Arrays.asList((Object[]) value));
+        }
+        return value;
+    }
+
+    /**
+     * Get the values of a field, like {@link SolrDocumentBase#getFieldValues(String)}.
+     *
+     * @param name the name of the field
+     * @return an unmodifiable collection of values, or {@code null} if the field is not set
+     */
+    public Collection<Object> getFieldValues(String name)
+    {
+        return toCollection(getRawValue(COLUMN_INDEXES.get(name)));
+    }
+
+    /**
+     * Get the names of the fields that have values.
+     *
+     * @return an ordered set of field names, in the order in which the names were first seen by any term
+     */
+    public Set<String> getFieldNames()
+    {
+        String[] names = columnNames;
+        Set<String> result = new LinkedHashSet<>(this.columns.length * 4 / 3 + 1);
+        for (int column : this.columns) {
+            result.add(names[column]);
+        }
+        return result;
+    }
+
+    /**
+     * Get the values of a translatable property, looking at the field suffixed with the full locale name, then with
+     * less specific locales, and finally the untranslated field.
+     *
+     * @param name the name of the translatable property
+     * @param locale the target locale, must not be {@code null}
+     * @return the values of the most specific field that has values, or {@code null} if no value is set
+     */
+    public Collection<Object> getTranslatedValues(String name, Locale locale)
+    {
+        int[] candidates = TRANSLATION_COLUMNS.computeIfAbsent(name + '\u0000' + locale, k -> {
+            Collection<String> fields = new LinkedHashSet<>();
+            if (StringUtils.isNotEmpty(locale.getLanguage())) {
+                fields.add(name + '_' + locale.toString());
+                if (StringUtils.isNoneEmpty(locale.getVariant(), locale.getCountry())) {
+                    fields.add(name + '_' + locale.getLanguage() + '_' + locale.getCountry());
+                }
+                if (StringUtils.isNotEmpty(locale.getCountry())) {
+                    fields.add(name + '_' + locale.getLanguage());
+                }
+            }
+            fields.add(name);
+            return fields.stream().mapToInt(CompactTermFields::register).toArray();
+        });
+        for (int candidate : candidates) {
+            Collection<Object> result = toCollection(getRawValue(candidate));
+            if (result != null && !result.isEmpty()) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private Object getRawValue(Integer column)
+    {
+        if (column == null) {
+            return null;
+        }
+        int index = Arrays.binarySearch(this.columns, column);
+        return index < 0 ? null : this.values[index];
+    }
+
+    private static Collection<Object> toCollection(Object value)
+    {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Object[]) {
+            return Collections.unmodifiableList(Arrays.asList((Object[]) value));
+        }
+        return Collections.singletonList(value);
+    }
+
+    private static Object compact(Object value)
+    {
+        if (value instanceof Collection) {
+            Collection<?> items = (Collection<?>) value;
+            Object[] result = new Object[items.size()];
+            int i = 0;
+            for (Object item : items) {
+                result[i++] = compactSingle(item);
+            }
+            return result;
+        }
+        return compactSingle(value);
+    }
+
+    private static Object compactSingle(Object value)
+    {
+        if (value instanceof String && ((String) value).length() <= MAX_INTERNED_LENGTH) {
+            return ((String) value).intern();
+        }
+        return value;
+    }
+
+    private static int register(String name)
+    {
+        Integer column = COLUMN_INDEXES.get(name);
+        if (column == null) {
+            column = COLUMN_INDEXES.computeIfAbsent(name.intern(), CompactTermFields::addColumn);
+        }
+        return column;
+    }
+
+    /** Only called for new names, at most once per name, so the dictionary is rarely copied. */
+    private static synchronized int addColumn(String name)
+    {
+        String[] names = Arrays.copyOf(columnNames, columnNames.length + 1);
+        names[names.length - 1] = name;
+        columnNames = names;
+        return names.length - 1;
+    }
+}
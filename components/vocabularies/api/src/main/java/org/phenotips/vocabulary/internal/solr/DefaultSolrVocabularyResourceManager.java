@@ -17,6 +17,7 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import org.phenotips.vocabulary.OntologyGraph;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
 import org.phenotips.vocabulary.Vocabulary;
@@ -26,23 +27,31 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 import org.xwiki.extension.distribution.internal.DistributionManager;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.io.FileUtils;
@@ -50,9 +59,22 @@
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
+import org.json.JSONObject;
+import org.slf4j.Logger;
 
 /**
- * Default implementation for the {@link SolrVocabularyResourceManager} component.
+ * Default implementation for the {@link SolrVocabularyResourceManager} component. Cores and caches are initialized
+ * lazily, at most once for each vocabulary, even when requested concurrently. Each vocabulary gets a
+ * {@link VocabularyTermCache term cache} bounded by the number of terms, configurable in {@code xwiki.properties}:
+ * <ul>
+ * <li>{@code phenotips.vocabularies.cache.maxEntries}: the maximum number of terms cached for each vocabulary,
+ * {@code 20000} by default; can be overridden for a specific vocabulary with
+ * {@code phenotips.vocabularies.<vocabulary identifier>.cache.maxEntries}</li>
+ * <li>{@code phenotips.vocabularies.cache.missingTermsMaxEntries}: the maximum number of missing terms remembered,
+ * {@code 1000} by default</li>
+ * <li>{@code phenotips.vocabularies.cache.missingTermsTimeToLive}: for how many seconds a missing term is remembered,
+ * {@code 600} by default</li>
+ * </ul>
  *
  * @version $Id$
  * @since 1.2M4 (under different names since 1.0M10)
@@ -65,16 +87,38 @@ public class DefaultSolrVocabularyResourceManager implements SolrVocabularyResou
 
     private static final String TEMP = "_temp";
 
+    /** The name of the file, stored in the core directory, holding the serialized {@link OntologyGraph}. */
+    private static final String GRAPH_FILE = "ontology-graph.bin";
+
+    private static final String CONFIGURATION_PREFIX = "phenotips.vocabularies.";
+
+    private static final String MAX_ENTRIES_KEY = "cache.maxEntries";
+
+    private static final int DEFAULT_MAX_ENTRIES = 20000;
+
+    private static final int DEFAULT_MISSING_MAX_ENTRIES = 1000;
+
+    private static final int DEFAULT_MISSING_TIME_TO_LIVE = 600;
+
     /** List of config Solr files. */
     private static final List<String> CONFIG_FILES = Arrays.asList("/conf/schema.xml", "/conf/solrconfig.xml",
         "/conf/solrcore.properties", "/conf/protwords.txt", "/conf/stopwords.txt", "/conf/synonyms.txt",
         "/conf/managed-schema.xml", "/core.properties");
 
     /** @see #getSolrConnection() */
-    private Map<String, SolrClient> cores = new HashMap<>();
+    private Map<String, SolrClient> cores = new ConcurrentHashMap<>();
 
     /** @see #getTermCache() */
-    private Map<String, Cache<VocabularyTerm>> caches = new HashMap<>();
+    private Map<String, VocabularyTermCache> caches = new ConcurrentHashMap<>();
+
+    /** Locks used for serializing the initialization and replacement of each core. */
+    private Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    /** @see #getOntologyGraph(Vocabulary) */
+    private Map<String, Optional<OntologyGraph>> graphs = new ConcurrentHashMap<>();
+
+    @Inject
+    private Logger logger;
 
     /** Provides access to the Solr cores. */
     @Inject
@@ -90,6 +134,28 @@ public class DefaultSolrVocabularyResourceManager implements SolrVocabularyResou
     @Inject
     private DistributionManager distribution;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private void ensureInitialized(Vocabulary vocabulary) throws InitializationException
+    {
+        final String coreIdentifier = vocabulary.getIdentifier();
+        if (this.cores.containsKey(coreIdentifier) && this.caches.containsKey(coreIdentifier)) {
+            return;
+        }
+        synchronized (getLock(coreIdentifier)) {
+            if (!this.cores.containsKey(coreIdentifier) || !this.caches.containsKey(coreIdentifier)) {
+                initialize(vocabulary);
+            }
+        }
+    }
+
+    private Object getLock(String coreIdentifier)
+    {
+        return this.locks.computeIfAbsent(coreIdentifier, k -> new Object());
+    }
+
     private void initialize(Vocabulary vocabulary) throws InitializationException
     {
         final CoreContainer container = this.coreContainer.getContainer();
@@ -128,10 +194,14 @@ private void initialize(Vocabulary vocabulary) throws InitializationException
                 }
             }
 
+            VocabularyTermCache cache = this.caches.get(coreIdentifier);
+            if (cache == null) {
+                this.caches.put(coreIdentifier, createCache(coreIdentifier));
+            } else {
+                cache.removeAll();
+            }
             SolrClient core = new EmbeddedSolrServer(container, coreIdentifier);
             this.cores.put(coreIdentifier, core);
-            Cache<VocabularyTerm> cache = this.cacheFactory.createNewLocalCache(new CacheConfiguration());
-            this.caches.put(coreIdentifier, cache);
         } catch (final CacheException ex) {
             throw new InitializationException("Cannot create cache: " + ex.getMessage(), ex);
         } catch (IOException ex) {
@@ -143,42 +213,67 @@ private void initialize(Vocabulary vocabulary) throws InitializationException
         }
     }
 
+    private VocabularyTermCache createCache(String coreIdentifier) throws CacheException
+    {
+        int maxEntries = this.configuration.getProperty(CONFIGURATION_PREFIX + coreIdentifier + '.' + MAX_ENTRIES_KEY,
+            this.configuration.getProperty(CONFIGURATION_PREFIX + MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES));
+        EntryEvictionConfiguration termsEviction = new LRUEvictionConfiguration(maxEntries);
+        Cache<VocabularyTerm> terms = this.cacheFactory
+            .createNewLocalCache(new CacheConfiguration("phenotips.vocabulary." + coreIdentifier, termsEviction));
+
+        EntryEvictionConfiguration missingEviction = new LRUEvictionConfiguration(this.configuration.getProperty(
+            CONFIGURATION_PREFIX + "cache.missingTermsMaxEntries", DEFAULT_MISSING_MAX_ENTRIES));
+        missingEviction.setTimeToLive(this.configuration.getProperty(
+            CONFIGURATION_PREFIX + "cache.missingTermsTimeToLive", DEFAULT_MISSING_TIME_TO_LIVE));
+        Cache<VocabularyTerm> missing = this.cacheFactory.createNewLocalCache(
+            new CacheConfiguration("phenotips.vocabulary." + coreIdentifier + ".missing", missingEviction));
+
+        return new VocabularyTermCache(terms, missing);
+    }
+
     @Override
     public Cache<VocabularyTerm> getTermCache(Vocabulary vocabulary)
     {
-        if (!this.caches.containsKey(vocabulary.getIdentifier())) {
-            try {
-                initialize(vocabulary);
-            } catch (InitializationException ex) {
-                return null;
-            }
+        try {
+            ensureInitialized(vocabulary);
+        } catch (InitializationException ex) {
+            return null;
         }
         return this.caches.get(vocabulary.getIdentifier());
     }
 
+    @Override
+    public JSONObject getTermCacheStatistics(Vocabulary vocabulary)
+    {
+        VocabularyTermCache cache = this.caches.get(vocabulary.getIdentifier());
+        return cache == null ? null : cache.getStatistics();
+    }
+
     @Override
     public SolrClient getSolrConnection(Vocabulary vocabulary)
     {
-        if (!this.cores.containsKey(vocabulary.getIdentifier())) {
-            try {
-                initialize(vocabulary);
-            } catch (InitializationException ex) {
-                return null;
-            }
+        try {
+            ensureInitialized(vocabulary);
+        } catch (InitializationException ex) {
+            return null;
         }
         return this.cores.get(vocabulary.getIdentifier());
     }
 
     private SolrClient getSolrConnection(String coreId)
     {
-        if (!this.cores.containsKey(coreId)) {
-            return null;
-        }
         return this.cores.get(coreId);
     }
 
     @Override
     public void createReplacementCore(Vocabulary vocabulary) throws InitializationException
+    {
+        synchronized (getLock(vocabulary.getIdentifier() + TEMP)) {
+            doCreateReplacementCore(vocabulary);
+        }
+    }
+
+    private void doCreateReplacementCore(Vocabulary vocabulary) throws InitializationException
     {
         try {
             final String replacementCoreId = vocabulary.getIdentifier() + TEMP;
@@ -206,6 +301,13 @@ public void createReplacementCore(Vocabulary vocabulary) throws InitializationEx
 
     @Override
     public void replaceCore(Vocabulary vocabulary) throws InitializationException
+    {
+        synchronized (getLock(vocabulary.getIdentifier())) {
+            doReplaceCore(vocabulary);
+        }
+    }
+
+    private void doReplaceCore(Vocabulary vocabulary) throws InitializationException
     {
         final String absPath = this.environment.getPermanentDirectory().getAbsolutePath();
         final File indexOrigin = new File(absPath, SOLR + vocabulary.getIdentifier() + "/data");
@@ -218,6 +320,14 @@ public void replaceCore(Vocabulary vocabulary) throws InitializationException
             }
             container.unload(vocabulary.getIdentifier(), true, false, false);
             FileUtils.copyDirectory(indexTemp, indexOrigin);
+            File graphTemp = getGraphFile(vocabulary.getIdentifier() + TEMP);
+            File graphOrigin = getGraphFile(vocabulary.getIdentifier());
+            if (graphTemp.exists()) {
+                Files.copy(graphTemp.toPath(), graphOrigin.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(graphOrigin.toPath());
+            }
+            this.graphs.remove(vocabulary.getIdentifier());
             initialize(vocabulary);
         } catch (IOException ex) {
             ex.printStackTrace();
@@ -234,15 +344,53 @@ public SolrClient getReplacementSolrConnection(Vocabulary vocabulary)
     public void discardReplacementCore(Vocabulary vocabulary)
     {
         final String replacementCoreId = vocabulary.getIdentifier() + TEMP;
-        if (this.cores.containsKey(replacementCoreId)) {
-            CoreContainer container = this.coreContainer.getContainer();
-            SolrCore solrCore = container.getCore(replacementCoreId);
-            if (solrCore != null) {
-                solrCore.close();
+        synchronized (getLock(replacementCoreId)) {
+            if (this.cores.containsKey(replacementCoreId)) {
+                CoreContainer container = this.coreContainer.getContainer();
+                SolrCore solrCore = container.getCore(replacementCoreId);
+                if (solrCore != null) {
+                    solrCore.close();
+                }
+                container.unload(replacementCoreId, true, true, true);
+                this.cores.remove(replacementCoreId);
             }
-            container.unload(replacementCoreId, true, true, true);
-            this.cores.remove(replacementCoreId);
-            this.caches.remove(replacementCoreId);
         }
     }
+
+    @Override
+    public OntologyGraph getOntologyGraph(Vocabulary vocabulary)
+    {
+        return this.graphs.computeIfAbsent(vocabulary.getIdentifier(), this::loadOntologyGraph).orElse(null);
+    }
+
+    @Override
+    public void setReplacementOntologyGraph(Vocabulary vocabulary, OntologyGraph graph)
+        throws InitializationException
+    {
+        File graphFile = getGraphFile(vocabulary.getIdentifier() + TEMP);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(graphFile.toPath()))) {
+            graph.write(out);
+        } catch (IOException ex) {
+            throw new InitializationException("Cannot store the ontology graph: " + ex.getMessage(), ex);
+        }
+    }
+
+    private Optional<OntologyGraph> loadOntologyGraph(String coreId)
+    {
+        File graphFile = getGraphFile(coreId);
+        if (!graphFile.isFile()) {
+            return Optional.empty();
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(graphFile.toPath()))) {
+            return Optional.of(OntologyGraph.read(in));
+        } catch (IOException ex) {
+            this.logger.warn("Failed to load the ontology graph for [{}]: {}", coreId, ex.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    private File getGraphFile(String coreId)
+    {
+        return new File(this.environment.getPermanentDirectory().getAbsolutePath(), SOLR + coreId + '/' + GRAPH_FILE);
+    }
 }
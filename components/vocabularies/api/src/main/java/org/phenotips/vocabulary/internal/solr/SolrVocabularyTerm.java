@@ -20,25 +20,84 @@
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.solr.common.SolrDocument;
 
 /**
- * Implementation for {@link VocabularyTerm} based on an indexed Solr document.
+ * Implementation for {@link VocabularyTerm} based on an indexed Solr document. Since these terms are usually cached
+ * for a long time, the Solr document isn't kept, only a {@link CompactTermFields compact copy} of its fields.
  *
  * @version $Id$
  * @since 1.2M4 (under different names since 1.0M8)
  */
 public class SolrVocabularyTerm extends AbstractSolrVocabularyTerm
 {
+    /** The compact copy of the Solr document fields, {@code null} for the marker used for missing terms. */
+    private final CompactTermFields fields;
+
     /**
-     * Constructor that provides the backing {@link #doc Solr document} and the {@link #vocabulary owner vocabulary}.
+     * Constructor that provides the backing Solr document and the {@link #vocabulary owner vocabulary}.
      *
-     * @param doc the {@link #doc Solr document} representing this term
+     * @param doc the Solr document representing this term, only its field values are copied
      * @param vocabulary the {@link #vocabulary owner vocabulary}
      */
     public SolrVocabularyTerm(SolrDocument doc, Vocabulary vocabulary)
     {
-        super(doc, vocabulary);
+        super(null, vocabulary);
+        this.fields = doc == null ? null : new CompactTermFields(doc);
         initialize();
     }
+
+    @Override
+    public Object get(String key)
+    {
+        if (isNull()) {
+            return null;
+        }
+        return this.fields.getFieldValue(key);
+    }
+
+    @Override
+    public Collection<?> getTranslatedValues(String property)
+    {
+        if (isNull()) {
+            return null;
+        }
+        return this.fields.getTranslatedValues(property, getCurrentLocale());
+    }
+
+    @Override
+    protected Set<Map.Entry<String, Object>> getEntrySet()
+    {
+        if (isNull()) {
+            return Collections.emptySet();
+        }
+        Set<String> keys = this.fields.getFieldNames();
+        Set<Map.Entry<String, Object>> result = new LinkedHashSet<>(keys.size());
+        for (String key : keys) {
+            result.add(new AbstractMap.SimpleImmutableEntry<>(key, get(key)));
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean isNull()
+    {
+        return this.fields == null;
+    }
+
+    @Override
+    protected Collection<Object> getValues(String key)
+    {
+        if (isNull()) {
+            return null;
+        }
+        return this.fields.getFieldValues(key);
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+/**
+ * Sends documents to a Solr core while they are being produced. Each document is first passed through an extension
+ * step on the producer thread, since vocabulary extensions are not required to be thread-safe, then grouped in bounded
+ * batches that are added to the core by a pool of worker threads, without committing. A single commit is issued at the
+ * {@link #finish() end} of the run. The number of batches that have been filled but not yet sent to Solr is bounded, so
+ * that producers block instead of accumulating the whole vocabulary in memory. Instances are meant for a single
+ * indexing run, and {@link #submit(SolrInputDocument)} must be called from a single producer thread.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class VocabularyIndexingPipeline
+{
+    /** How often, in number of documents sent to Solr, to log the progress of the run. */
+    private static final long PROGRESS_LOG_INTERVAL = 10000;
+
+    private final SolrClient client;
+
+    private final Consumer<SolrInputDocument> extender;
+
+    private final int batchSize;
+
+    private final Logger logger;
+
+    private final ExecutorService workers;
+
+    /** Bounds the number of batches filled, but not yet sent to Solr. */
+    private final Semaphore inFlight;
+
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile long endTime;
+
+    private volatile String status = "running";
+
+    /** The batch being filled, only accessed from the producer thread. */
+    private List<SolrInputDocument> batch;
+
+    /**
+     * Starts a new indexing run.
+     *
+     * @param client the Solr core where documents are sent, usually the replacement core of a vocabulary
+     * @param extender the processing to apply on each document before sending it to Solr, always invoked from the
+     *            thread submitting the documents
+     * @param batchSize how many documents to send to Solr at once
+     * @param threads how many threads to use for sending documents to Solr
+     * @param logger where to log the progress of the run
+     */
+    public VocabularyIndexingPipeline(SolrClient client, Consumer<SolrInputDocument> extender, int batchSize,
+        int threads, Logger logger)
+    {
+        this.client = client;
+        this.extender = extender;
+        this.batchSize = Math.max(1, batchSize);
+        this.logger = logger;
+        this.batch = new ArrayList<>(this.batchSize);
+        this.inFlight = new Semaphore(Math.max(1, threads) * 2);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads),
+            new BasicThreadFactory.Builder().namingPattern("vocabulary-indexing-%d").daemon(true).build());
+    }
+
+    /**
+     * Extends a document and queues it for indexing, blocking if too many batches are already waiting to be sent.
+     *
+     * @param doc the document to index; it must not be changed by the caller after being submitted
+     * @throws SolrServerException if a previous batch failed to be sent to Solr, or if extending the document failed
+     * @throws IOException if a previous batch failed to be sent to Solr
+     */
+    public void submit(SolrInputDocument doc) throws SolrServerException, IOException
+    {
+        checkFailure();
+        try {
+            this.extender.accept(doc);
+        } catch (RuntimeException ex) {
+            this.failure.compareAndSet(null, ex);
+            checkFailure();
+        }
+        this.submitted.incrementAndGet();
+        this.batch.add(doc);
+        if (this.batch.size() >= this.batchSize) {
+            dispatch(takeBatch());
+        }
+    }
+
+    /**
+     * Waits for all the submitted documents to be sent to Solr, and commits the core.
+     *
+     * @throws SolrServerException if sending documents to Solr failed
+     * @throws IOException if sending documents to Solr failed
+     */
+    public void finish() throws SolrServerException, IOException
+    {
+        try {
+            checkFailure();
+            if (!this.batch.isEmpty()) {
+                dispatch(takeBatch());
+            }
+            this.workers.shutdown();
+            while (!this.workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                this.logger.debug("Still waiting for vocabulary indexing workers to finish");
+            }
+            checkFailure();
+            this.client.commit();
+            this.status = "finished";
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new IOException("Interrupted while waiting for indexing to finish", ex);
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            this.status = "failed";
+            throw ex;
+        } finally {
+            if (this.endTime == 0) {
+                this.endTime = System.currentTimeMillis();
+            }
+        }
+        this.logger.info("Indexed {} documents in {} batches, {} documents/second", this.sent.get(),
+            this.batches.get(), getThroughput());
+    }
+
+    /**
+     * Stops the run, discarding the documents not yet sent to Solr. Nothing is committed.
+     */
+    public void abort()
+    {
+        this.workers.shutdownNow();
+        if (this.endTime == 0) {
+            this.endTime = System.currentTimeMillis();
+            this.status = "aborted";
+        }
+    }
+
+    /**
+     * Reports the progress of the run.
+     *
+     * @return a JSON object with the {@code status} of the run ({@code running}, {@code finished}, {@code failed} or
+     *         {@code aborted}), the number of documents {@code submitted} and {@code indexed}, the number of
+     *         {@code batches} sent, the {@code elapsedMillis} and the {@code documentsPerSecond} throughput
+     */
+    public JSONObject getStatistics()
+    {
+        JSONObject result = new JSONObject();
+        result.put("status", this.status);
+        result.put("submitted", this.submitted.get());
+        result.put("indexed", this.sent.get());
+        result.put("batches", this.batches.get());
+        result.put("elapsedMillis", getElapsedTime());
+        result.put("documentsPerSecond", getThroughput());
+        return result;
+    }
+
+    private List<SolrInputDocument> takeBatch()
+    {
+        List<SolrInputDocument> result = this.batch;
+        this.batch = new ArrayList<>(this.batchSize);
+        return result;
+    }
+
+    private void dispatch(List<SolrInputDocument> docs) throws IOException
+    {
+        try {
+            this.inFlight.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to index documents", ex);
+        }
+        try {
+            this.workers.execute(() -> send(docs));
+        } catch (RejectedExecutionException ex) {
+            this.inFlight.release();
+            throw new IOException("The indexing run was aborted", ex);
+        }
+    }
+
+    private void send(List<SolrInputDocument> docs)
+    {
+        try {
+            if (this.failure.get() != null) {
+                return;
+            }
+            this.client.add(docs);
+            long total = this.sent.addAndGet(docs.size());
+            this.batches.incrementAndGet();
+            if (total / PROGRESS_LOG_INTERVAL != (total - docs.size()) / PROGRESS_LOG_INTERVAL) {
+                this.logger.info("Indexed {} vocabulary documents so far, {} documents/second", total,
+                    getThroughput());
+            }
+        } catch (Exception ex) {
+            this.failure.compareAndSet(null, ex);
+        } finally {
+            this.inFlight.release();
+        }
+    }
+
+    private void checkFailure() throws SolrServerException, IOException
+    {
+        Exception ex = this.failure.get();
+        if (ex instanceof SolrServerException) {
+            throw (SolrServerException) ex;
+        } else if (ex instanceof IOException) {
+            throw (IOException) ex;
+        } else if (ex != null) {
+            throw new SolrServerException(ex.getMessage(), ex);
+        }
+    }
+
+    private long getElapsedTime()
+    {
+        return (this.endTime > 0 ? this.endTime : System.currentTimeMillis()) - this.startTime;
+    }
+
+    private long getThroughput()
+    {
+        long elapsed = getElapsedTime();
+        return elapsed > 0 ? this.sent.get() * 1000 / elapsed : 0;
+    }
+}
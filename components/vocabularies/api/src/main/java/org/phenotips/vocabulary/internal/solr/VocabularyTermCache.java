@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+/**
+ * A term cache that keeps existing terms and markers for missing terms in two separate underlying caches, so that
+ * missing terms can expire sooner and can't push real terms out of the cache, and which counts hits, misses and
+ * evictions. Markers for missing terms are recognized as the terms without an identifier.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class VocabularyTermCache implements Cache<VocabularyTerm>
+{
+    /** Marks that all the keys are being explicitly removed, can't be confused with a real term identifier. */
+    private static final String ALL_KEYS = "\u0000*";
+
+    /** Holds the terms that exist in the vocabulary. */
+    private final Cache<VocabularyTerm> terms;
+
+    /** Holds the markers for terms that were requested, but don't exist in the vocabulary. */
+    private final Cache<VocabularyTerm> missingTerms;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder missingHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder stores = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * The key being explicitly removed by the current thread, or {@link #ALL_KEYS} while the whole cache is cleared.
+     * Removal events are delivered on the thread performing the removal, so any other removal event is an eviction.
+     */
+    private final ThreadLocal<String> removing = new ThreadLocal<>();
+
+    /**
+     * Simple constructor passing the underlying caches.
+     *
+     * @param terms the cache to use for the existing terms, should be bounded in size
+     * @param missingTerms the cache to use for the missing terms markers, should be bounded in size and have a
+     *            time-to-live set
+     */
+    public VocabularyTermCache(Cache<VocabularyTerm> terms, Cache<VocabularyTerm> missingTerms)
+    {
+        this.terms = terms;
+        this.missingTerms = missingTerms;
+        this.terms.addCacheEntryListener(new CacheEntryListener<VocabularyTerm>()
+        {
+            @Override
+            public void cacheEntryAdded(CacheEntryEvent<VocabularyTerm> event)
+            {
+                // Counted in set
+            }
+
+            @Override
+            public void cacheEntryRemoved(CacheEntryEvent<VocabularyTerm> event)
+            {
+                String key = VocabularyTermCache.this.removing.get();
+                if (key == null || (!ALL_KEYS.equals(key) && !key.equals(event.getEntry().getKey()))) {
+                    VocabularyTermCache.this.evictions.increment();
+                }
+            }
+
+            @Override
+            public void cacheEntryModified(CacheEntryEvent<VocabularyTerm> event)
+            {
+                // Nothing to count
+            }
+        });
+    }
+
+    @Override
+    public void set(String key, VocabularyTerm value)
+    {
+        if (value == null) {
+            return;
+        }
+        this.stores.increment();
+        if (value.getId() == null) {
+            this.missingTerms.set(key, value);
+        } else {
+            this.missingTerms.remove(key);
+            this.terms.set(key, value);
+        }
+    }
+
+    @Override
+    public VocabularyTerm get(String key)
+    {
+        VocabularyTerm result = this.terms.get(key);
+        if (result != null) {
+            this.hits.increment();
+            return result;
+        }
+        result = this.missingTerms.get(key);
+        if (result != null) {
+            this.missingHits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return result;
+    }
+
+    @Override
+    public void remove(String key)
+    {
+        this.removing.set(key);
+        try {
+            this.terms.remove(key);
+        } finally {
+            this.removing.remove();
+        }
+        this.missingTerms.remove(key);
+    }
+
+    @Override
+    public void removeAll()
+    {
+        this.removing.set(ALL_KEYS);
+        try {
+            this.terms.removeAll();
+        } finally {
+            this.removing.remove();
+        }
+        this.missingTerms.removeAll();
+    }
+
+    @Override
+    public void addCacheEntryListener(CacheEntryListener<VocabularyTerm> listener)
+    {
+        this.terms.addCacheEntryListener(listener);
+        this.missingTerms.addCacheEntryListener(listener);
+    }
+
+    @Override
+    public void removeCacheEntryListener(CacheEntryListener<VocabularyTerm> listener)
+    {
+        this.terms.removeCacheEntryListener(listener);
+        this.missingTerms.removeCacheEntryListener(listener);
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.terms.dispose();
+        this.missingTerms.dispose();
+    }
+
+    /**
+     * Reports the usage counters of this cache, since it was created.
+     *
+     * @return a JSON object with the number of {@code hits}, {@code missingHits} (requests answered by a missing term
+     *         marker), {@code misses}, {@code hitRatio}, {@code stores}, and {@code evictions} (entries removed because
+     *         of the size limit, not because of an explicit invalidation)
+     */
+    public JSONObject getStatistics()
+    {
+        long hitCount = this.hits.sum() + this.missingHits.sum();
+        long requests = hitCount + this.misses.sum();
+        JSONObject result = new JSONObject();
+        result.put("hits", this.hits.sum());
+        result.put("missingHits", this.missingHits.sum());
+        result.put("misses", this.misses.sum());
+        result.put("hitRatio", requests == 0 ? 0 : (double) hitCount / requests);
+        result.put("stores", this.stores.sum());
+        result.put("evictions", this.evictions.sum());
+        return result;
+    }
+}
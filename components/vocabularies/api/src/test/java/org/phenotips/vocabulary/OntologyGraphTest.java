@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OntologyGraph}.
+ *
+ * @version $Id$
+ */
+public class OntologyGraphTest
+{
+    private OntologyGraph graph;
+
+    /**
+     * Builds the following DAG, with edges pointing from child to parent.
+     *
+     * <pre>
+     *         T0
+     *        /  \
+     *      T1    T2
+     *     /  \  /
+     *   T3    T4
+     *    |
+     *   T5        T6 (isolated)
+     * </pre>
+     */
+    @Before
+    public void setup()
+    {
+        this.graph = new OntologyGraph.Builder()
+            .addTerm("T1", Collections.singleton("T0 ! Root"))
+            .addTerm("T2", Collections.singleton("T0"))
+            .addTerm("T3", Collections.singleton("T1"))
+            .addTerm("T4", Arrays.asList("T1", "T2"))
+            .addTerm("T5", Collections.singleton("T3"))
+            .addTerm("T6", null)
+            .addAlternativeId("T55", "T5")
+            .build();
+    }
+
+    @Test
+    public void sizeIncludesImplicitTerms()
+    {
+        Assert.assertEquals(7, this.graph.size());
+        Assert.assertTrue(this.graph.contains("T0"));
+        Assert.assertTrue(this.graph.contains("T55"));
+        Assert.assertFalse(this.graph.contains("T7"));
+        Assert.assertFalse(this.graph.contains(null));
+    }
+
+    @Test
+    public void parentsAndChildren()
+    {
+        Assert.assertEquals(new HashSet<>(Arrays.asList("T1", "T2")), this.graph.getParents("T4"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("T3", "T4")), this.graph.getChildren("T1"));
+        Assert.assertTrue(this.graph.getParents("T0").isEmpty());
+        Assert.assertTrue(this.graph.getChildren("T7").isEmpty());
+    }
+
+    @Test
+    public void ancestorsAndDescendants()
+    {
+        Assert.assertEquals(new HashSet<>(Arrays.asList("T0", "T1", "T3")), this.graph.getAncestors("T55"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("T1", "T2", "T3", "T4", "T5")),
+            this.graph.getDescendants("T0"));
+        Assert.assertTrue(this.graph.isAncestor("T0", "T5"));
+        Assert.assertFalse(this.graph.isAncestor("T5", "T0"));
+        Assert.assertFalse(this.graph.isAncestor("T2", "T3"));
+        Assert.assertFalse(this.graph.isAncestor("T5", "T5"));
+    }
+
+    @Test
+    public void ancestorsAndSelfUseTheMainIdentifier()
+    {
+        Set<String> result = this.graph.getAncestorsAndSelf("T55");
+        Assert.assertEquals(new HashSet<>(Arrays.asList("T5", "T0", "T1", "T3")), result);
+        Assert.assertEquals("T5", result.iterator().next());
+        Assert.assertEquals(Collections.singleton("T0"), this.graph.getAncestorsAndSelf("T0"));
+        Assert.assertTrue(this.graph.getAncestorsAndSelf("T7").isEmpty());
+    }
+
+    @Test
+    public void lowestCommonAncestors()
+    {
+        Assert.assertEquals(Collections.singleton("T1"), this.graph.getLowestCommonAncestors("T5", "T4"));
+        Assert.assertEquals(Collections.singleton("T0"), this.graph.getLowestCommonAncestors("T3", "T2"));
+        Assert.assertEquals(Collections.singleton("T1"), this.graph.getLowestCommonAncestors("T1", "T5"));
+        Assert.assertTrue(this.graph.getLowestCommonAncestors("T6", "T5").isEmpty());
+        Assert.assertTrue(this.graph.getLowestCommonAncestors("T7", "T5").isEmpty());
+    }
+
+    @Test
+    public void distance()
+    {
+        Assert.assertEquals(0, this.graph.getDistance("T5", "T55"));
+        Assert.assertEquals(3, this.graph.getDistance("T5", "T0"));
+        Assert.assertEquals(3, this.graph.getDistance("T0", "T5"));
+        Assert.assertEquals(3, this.graph.getDistance("T5", "T4"));
+        Assert.assertEquals(2, this.graph.getDistance("T4", "T0"));
+        Assert.assertEquals(-1, this.graph.getDistance("T6", "T0"));
+        Assert.assertEquals(-1, this.graph.getDistance("T7", "T0"));
+    }
+
+    @Test
+    public void serializationRoundtrip() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.graph.write(out);
+        OntologyGraph loaded = OntologyGraph.read(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(this.graph.size(), loaded.size());
+        Assert.assertEquals(this.graph.getAncestors("T55"), loaded.getAncestors("T55"));
+        Assert.assertEquals(this.graph.getDescendants("T0"), loaded.getDescendants("T0"));
+        Assert.assertEquals(3, loaded.getDistance("T5", "T4"));
+    }
+
+    @Test(expected = IOException.class)
+    public void readRejectsInvalidData() throws IOException
+    {
+        OntologyGraph.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+    }
+}
@@ -24,10 +24,12 @@
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,7 +39,9 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.slf4j.Logger;
 
@@ -247,6 +251,42 @@ public void resolveTermReturnsTermFromTermId() throws Exception
         Assert.assertEquals(chebiTerm, this.vocabularyManager.resolveTerm(chebiId));
     }
 
+    @Test
+    public void resolveTermsQueriesEachVocabularyOnceAndPreservesOrder() throws Exception
+    {
+        final VocabularyTerm hp1 = mock(VocabularyTerm.class);
+        when(hp1.getId()).thenReturn("HP:01");
+        final VocabularyTerm hp2 = mock(VocabularyTerm.class);
+        when(hp2.getId()).thenReturn("HP:02");
+        final VocabularyTerm mim1 = mock(VocabularyTerm.class);
+        when(mim1.getId()).thenReturn("MIM:01");
+        // HP:03 is an alternative identifier for HP:02, only found by a direct lookup
+        when(this.hpo.getTerm("HP:03")).thenReturn(hp2);
+
+        when(this.hpo.getTerms(new LinkedHashSet<>(Arrays.asList("HP:02", "HP:01", "HP:03", "HP:04"))))
+            .thenReturn(new LinkedHashSet<>(Arrays.asList(hp2, hp1)));
+        when(this.omim.getTerms(Collections.singleton("MIM:01"))).thenReturn(Collections.singleton(mim1));
+
+        final Map<String, VocabularyTerm> result = this.vocabularyManager.resolveTerms(
+            Arrays.asList("HP:02", "MIM:01", "HP:01", "HP:03", "HP:04", "XYZ:01", "HP:02"));
+
+        Assert.assertEquals(Arrays.asList("HP:02", "MIM:01", "HP:01", "HP:03"), new ArrayList<>(result.keySet()));
+        Assert.assertSame(hp2, result.get("HP:02"));
+        Assert.assertSame(mim1, result.get("MIM:01"));
+        Assert.assertSame(hp1, result.get("HP:01"));
+        Assert.assertSame(hp2, result.get("HP:03"));
+        verify(this.hpo, Mockito.times(1)).getTerms(Matchers.anyCollectionOf(String.class));
+        verify(this.omim, Mockito.times(1)).getTerms(Matchers.anyCollectionOf(String.class));
+        verify(this.hpo, Mockito.never()).getTerm("HP:01");
+    }
+
+    @Test
+    public void resolveTermsWithNoIdsReturnsEmptyMap() throws Exception
+    {
+        Assert.assertTrue(this.vocabularyManager.resolveTerms(null).isEmpty());
+        Assert.assertTrue(this.vocabularyManager.resolveTerms(Collections.emptyList()).isEmpty());
+    }
+
     @Test
     public void getVocabulary() throws Exception
     {
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link VocabularyTermCache}.
+ *
+ * @version $Id$
+ */
+public class VocabularyTermCacheTest
+{
+    @Mock
+    private Cache<VocabularyTerm> terms;
+
+    @Mock
+    private Cache<VocabularyTerm> missing;
+
+    @Mock
+    private VocabularyTerm term;
+
+    @Mock
+    private VocabularyTerm marker;
+
+    private VocabularyTermCache cache;
+
+    @Before
+    public void setup()
+    {
+        MockitoAnnotations.initMocks(this);
+        when(this.term.getId()).thenReturn("HP:0000001");
+        this.cache = new VocabularyTermCache(this.terms, this.missing);
+    }
+
+    @Test
+    public void existingTermsAreStoredInTheMainCache()
+    {
+        this.cache.set("HP:0000001", this.term);
+        verify(this.terms).set("HP:0000001", this.term);
+        verify(this.missing, never()).set(anyString(), any(VocabularyTerm.class));
+    }
+
+    @Test
+    public void missingTermMarkersAreStoredSeparately()
+    {
+        this.cache.set("HP:0000002", this.marker);
+        verify(this.missing).set("HP:0000002", this.marker);
+        verify(this.terms, never()).set(anyString(), any(VocabularyTerm.class));
+    }
+
+    @Test
+    public void getCountsHitsAndMisses()
+    {
+        when(this.terms.get("HP:0000001")).thenReturn(this.term);
+        when(this.missing.get("HP:0000002")).thenReturn(this.marker);
+
+        Assert.assertSame(this.term, this.cache.get("HP:0000001"));
+        Assert.assertSame(this.term, this.cache.get("HP:0000001"));
+        Assert.assertSame(this.marker, this.cache.get("HP:0000002"));
+        Assert.assertNull(this.cache.get("HP:0000003"));
+
+        JSONObject statistics = this.cache.getStatistics();
+        Assert.assertEquals(2, statistics.getLong("hits"));
+        Assert.assertEquals(1, statistics.getLong("missingHits"));
+        Assert.assertEquals(1, statistics.getLong("misses"));
+        Assert.assertEquals(0.75, statistics.getDouble("hitRatio"), 0.0001);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void evictionsAreCountedFromRemovalEvents()
+    {
+        ArgumentCaptor<CacheEntryListener<VocabularyTerm>> listener = ArgumentCaptor.forClass(CacheEntryListener.class);
+        verify(this.terms).addCacheEntryListener(listener.capture());
+        // Removal events are delivered on the thread performing the removal
+        doAnswer(invocation -> {
+            listener.getValue().cacheEntryRemoved(removalEvent((String) invocation.getArguments()[0]));
+            return null;
+        }).when(this.terms).remove(anyString());
+        doAnswer(invocation -> {
+            listener.getValue().cacheEntryRemoved(removalEvent("HP:0000001"));
+            listener.getValue().cacheEntryRemoved(removalEvent("HP:0000002"));
+            return null;
+        }).when(this.terms).removeAll();
+        doAnswer(invocation -> {
+            // Storing a new term evicts another one
+            listener.getValue().cacheEntryRemoved(removalEvent("HP:0000003"));
+            return null;
+        }).when(this.terms).set("HP:0000001", this.term);
+
+        this.cache.remove("HP:0000001");
+        this.cache.removeAll();
+        Assert.assertEquals(0, this.cache.getStatistics().getLong("evictions"));
+
+        this.cache.set("HP:0000001", this.term);
+        listener.getValue().cacheEntryRemoved(removalEvent("HP:0000004"));
+        Assert.assertEquals(2, this.cache.getStatistics().getLong("evictions"));
+        verify(this.missing).remove("HP:0000001");
+    }
+
+    @Test
+    public void removeAllAndDisposeClearBothCaches()
+    {
+        this.cache.removeAll();
+        this.cache.dispose();
+        verify(this.terms).removeAll();
+        verify(this.missing).removeAll();
+        verify(this.terms).dispose();
+        verify(this.missing).dispose();
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheEntryEvent<VocabularyTerm> removalEvent(String key)
+    {
+        CacheEntryEvent<VocabularyTerm> event = mock(CacheEntryEvent.class);
+        CacheEntry<VocabularyTerm> entry = mock(CacheEntry.class);
+        when(entry.getKey()).thenReturn(key);
+        when(event.getEntry()).thenReturn(entry);
+        return event;
+    }
+}
@@ -18,6 +18,7 @@
 package org.phenotips.vocabulary.internal.solr;
 
 import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.vocabulary.OntologyGraph;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
@@ -39,7 +40,9 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import net.jcip.annotations.NotThreadSafe;
@@ -105,6 +108,71 @@ public void testDistanceToRootTerm()
         assertEquals(3, rootTerm.getDistanceTo(childTerm));
     }
 
+    @Test
+    public void ancestorsAreTakenFromTheOntologyGraph()
+    {
+        Vocabulary vocabulary = mock(Vocabulary.class);
+        OntologyGraph graph = new OntologyGraph.Builder()
+            .addTerm("T0", null)
+            .addTerm("T1", Arrays.asList("T0"))
+            .addTerm("T2", Arrays.asList("T1"))
+            .build();
+        when(vocabulary.getOntologyGraph()).thenReturn(graph);
+
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "T2");
+        doc.setField("is_a", Collections.singleton("T1"));
+        // Outdated ancestors in the document are not used when the graph knows the term
+        doc.setField("term_category", Arrays.asList("T2", "T9"));
+        VocabularyTerm term = new SolrVocabularyTerm(doc, vocabulary);
+
+        Assert.assertEquals(2, term.getAncestors().size());
+        Assert.assertTrue(term.getAncestors().containsAll(Arrays.asList("T0", "T1")));
+        Assert.assertEquals(3, term.getAncestorsAndSelf().size());
+        Assert.assertTrue(term.getAncestorsAndSelf().containsAll(Arrays.asList("T0", "T1", "T2")));
+        Assert.assertFalse(term.getAncestorsAndSelf().contains("T9"));
+
+        // Terms unknown to the graph still use the document
+        SolrDocument unknownDoc = new SolrDocument();
+        unknownDoc.setField("id", "T5");
+        unknownDoc.setField("term_category", Arrays.asList("T5", "T9"));
+        VocabularyTerm unknown = new SolrVocabularyTerm(unknownDoc, vocabulary);
+        Assert.assertTrue(unknown.getAncestorsAndSelf().containsAll(Arrays.asList("T5", "T9")));
+    }
+
+    @Test
+    public void ancestorAndParentIdsDontLoadTerms()
+    {
+        Vocabulary vocabulary = mock(Vocabulary.class);
+        OntologyGraph graph = new OntologyGraph.Builder()
+            .addTerm("T0", null)
+            .addTerm("T1", Arrays.asList("T0"))
+            .addTerm("T2", Arrays.asList("T1"))
+            .build();
+        when(vocabulary.getOntologyGraph()).thenReturn(graph);
+
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "T2");
+        doc.setField("is_a", Collections.singleton("T1 ! Parent"));
+        doc.setField("term_category", Arrays.asList("T2", "T9"));
+        VocabularyTerm term = new SolrVocabularyTerm(doc, vocabulary);
+
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("T2", "T1", "T0")), term.getAncestorsAndSelfIds());
+        Assert.assertEquals(Collections.singleton("T1"), term.getParentIds());
+
+        // Terms unknown to the graph use the identifiers stored in the document
+        SolrDocument unknownDoc = new SolrDocument();
+        unknownDoc.setField("id", "T5");
+        unknownDoc.setField("is_a", Collections.singleton("T9 ! Other"));
+        unknownDoc.setField("term_category", Arrays.asList("T9"));
+        VocabularyTerm unknown = new SolrVocabularyTerm(unknownDoc, vocabulary);
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("T5", "T9")), unknown.getAncestorsAndSelfIds());
+        Assert.assertEquals(Collections.singleton("T9"), unknown.getParentIds());
+
+        Mockito.verify(vocabulary, Mockito.never()).getTerms(Matchers.anyCollectionOf(String.class));
+        Mockito.verify(vocabulary, Mockito.never()).getTerm(Matchers.anyString());
+    }
+
     @Test
     public void toJSONContainsParents()
     {
@@ -202,19 +270,18 @@ public void translatedPropertiesCascadeDownLocaleParts() throws ComponentLookupE
         doc.setField("id", "T1");
         doc.setField("name", "Term");
         doc.setField("is_a", Collections.singleton("T0"));
-        VocabularyTerm term = new SolrVocabularyTerm(doc, vocabulary);
-        when(vocabulary.getTerms(Collections.singleton("T1"))).thenReturn(Collections.singleton(term));
         when(this.lc.getCurrentLocale()).thenReturn(new Locale("es", "ES", "normal"));
 
-        Assert.assertEquals("Term", term.toJSON().get("name_translated"));
+        Assert.assertEquals("Term", new SolrVocabularyTerm(doc, vocabulary).toJSON().get("name_translated"));
 
         doc.setField("name_es", "El Term 1");
-        Assert.assertEquals("El Term 1", term.toJSON().get("name_translated"));
+        Assert.assertEquals("El Term 1", new SolrVocabularyTerm(doc, vocabulary).toJSON().get("name_translated"));
 
         doc.setField("name_es_ES", "El Term 2");
-        Assert.assertEquals("El Term 2", term.toJSON().get("name_translated"));
+        Assert.assertEquals("El Term 2", new SolrVocabularyTerm(doc, vocabulary).toJSON().get("name_translated"));
 
         doc.setField("name_es_ES_normal", "El Term 3");
+        VocabularyTerm term = new SolrVocabularyTerm(doc, vocabulary);
         Assert.assertEquals("El Term 3", term.toJSON().get("name_translated"));
 
         when(this.lc.getCurrentLocale()).thenReturn(new Locale("es", "ES"));
@@ -226,4 +293,26 @@ public void translatedPropertiesCascadeDownLocaleParts() throws ComponentLookupE
         when(this.lc.getCurrentLocale()).thenReturn(new Locale("fr"));
         Assert.assertEquals("Term", term.toJSON().get("name_translated"));
     }
+
+    @Test
+    public void termsAreNotAffectedByChangesToTheOriginalDocument()
+    {
+        Vocabulary vocabulary = mock(Vocabulary.class);
+
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "T1");
+        doc.setField("name", "Term");
+        doc.setField("is_a", Arrays.asList("T0", "T2"));
+        VocabularyTerm term = new SolrVocabularyTerm(doc, vocabulary);
+
+        doc.setField("name", "Changed");
+        doc.setField("def", "Added");
+
+        Assert.assertEquals("Term", term.getName());
+        Assert.assertNull(term.getDescription());
+        Assert.assertEquals(Arrays.asList("T0", "T2"), term.get("is_a"));
+        JSONObject json = term.toJSON();
+        Assert.assertEquals(new JSONArray(Arrays.asList("T0", "T2")).toString(), json.getJSONArray("is_a").toString());
+        Assert.assertFalse(json.has("def"));
+    }
 }
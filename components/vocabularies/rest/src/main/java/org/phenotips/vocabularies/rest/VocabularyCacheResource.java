@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabularies.rest;
+
+import org.phenotips.rest.ParentResource;
+import org.phenotips.rest.Relation;
+import org.phenotips.rest.RequiredAccess;
+
+import org.xwiki.stability.Unstable;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Resource for inspecting the term cache of a vocabulary.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Unstable("New API introduced in 1.5")
+@Path("/vocabularies/{vocabulary-id}/cache")
+@ParentResource(VocabularyResource.class)
+@Relation("https://phenotips.org/rel/vocabularyCache")
+public interface VocabularyCacheResource
+{
+    /**
+     * Retrieves the usage statistics of the term cache of a vocabulary, such as the number of hits, misses and
+     * evictions. This request must come from an administrator.
+     *
+     * @param vocabularyId the vocabulary identifier, which is also used as a prefix in every term identifier from that
+     *            vocabulary, for example {@code HP} or {@code MIM}
+     * @return a JSON object with the cache statistics, or an error if the vocabulary doesn't exist or doesn't use a
+     *         term cache
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiredAccess("admin")
+    Response getCacheStatistics(@PathParam("vocabulary-id") String vocabularyId);
+}
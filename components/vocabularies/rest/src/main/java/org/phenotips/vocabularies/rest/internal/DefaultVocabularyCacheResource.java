@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabularies.rest.internal;
+
+import org.phenotips.Constants;
+import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.vocabularies.rest.VocabularyCacheResource;
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.rest.XWikiResource;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.UserManager;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.json.JSONObject;
+
+/**
+ * Default implementation of the {@link VocabularyCacheResource}.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named("org.phenotips.vocabularies.rest.internal.DefaultVocabularyCacheResource")
+@Singleton
+public class DefaultVocabularyCacheResource extends XWikiResource implements VocabularyCacheResource
+{
+    @Inject
+    private VocabularyManager vm;
+
+    @Inject
+    private SolrVocabularyResourceManager resourceManager;
+
+    @Inject
+    private AuthorizationService authorizationService;
+
+    @Inject
+    private UserManager users;
+
+    @Inject
+    @Named("default")
+    private DocumentReferenceResolver<EntityReference> resolver;
+
+    @Override
+    public Response getCacheStatistics(String vocabularyId)
+    {
+        if (!this.authorizationService.hasAccess(this.users.getCurrentUser(), Right.ADMIN,
+            this.resolver.resolve(Constants.XWIKI_SPACE_REFERENCE))) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        Vocabulary vocabulary = this.vm.getVocabulary(vocabularyId);
+        if (vocabulary == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        JSONObject statistics = this.resourceManager.getTermCacheStatistics(vocabulary);
+        if (statistics == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        statistics.put("vocabulary", vocabulary.getIdentifier());
+        return Response.ok(statistics, MediaType.APPLICATION_JSON_TYPE).build();
+    }
+}
@@ -160,6 +160,10 @@ public Response reindex(String vocabularyId, String url)
 
             if (reindexStatus == 0) {
                 final JSONObject responseMeta = new JSONObject().put(VERSION, vocabulary.getVersion());
+                final JSONObject indexingStatistics = vocabulary.getIndexingStatistics();
+                if (indexingStatistics != null) {
+                    responseMeta.put("indexing", indexingStatistics);
+                }
                 result = Response.ok(responseMeta, MediaType.APPLICATION_JSON_TYPE).build();
             } else if (reindexStatus == 1) {
                 result = Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();